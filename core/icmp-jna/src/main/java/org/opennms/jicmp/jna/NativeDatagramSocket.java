@@ -72,6 +72,11 @@ public abstract class NativeDatagramSocket implements AutoCloseable {
     public static final int IP_MTU_DISCOVER = 10;
     public static final int IPV6_DONTFRAG = 62;
 
+    public static final int SOL_SOCKET = Platform.isLinux() ? 1
+                                       : 0xffff;
+    public static final int SO_RCVBUF = Platform.isLinux() ? 8
+                                      : 0x1002;
+
     // platform-specific  :/
     // public static final int IPV6_TCLASS = 36;
 
@@ -140,6 +145,23 @@ public abstract class NativeDatagramSocket implements AutoCloseable {
         }
     }
 
+    /**
+     * Sets the size of the kernel buffer holding the datagrams not yet
+     * received. The kernel may cap it, on Linux to net.core.rmem_max.
+     */
+    public void setReceiveBufferSize(final int size) throws IOException {
+        final int socket = getSock();
+        if (socket < 0) {
+            throw new IOException("Invalid socket!");
+        }
+        final IntByReference size_ptr = new IntByReference(size);
+        try {
+            setsockopt(socket, SOL_SOCKET, SO_RCVBUF, size_ptr.getPointer(), 4);
+        } catch (final LastErrorException e) {
+            throw new IOException("setsockopt: " + strerror(e.getErrorCode()));
+        }
+    }
+
     public abstract int getSock();
     public abstract void allowFragmentation(boolean frag) throws IOException;
     public abstract void setTrafficClass(int tc) throws IOException;
@@ -66,4 +66,18 @@ public interface AsyncPolicy {
      * should block when the queue is full
      */
     boolean isBlockWhenFull();
+
+    /**
+     * Maximum number of messages a background thread will take
+     * from the queue at once.
+     *
+     * When greater than 1, messages are queued in a preallocated
+     * ring buffer and handed to the background threads in batches,
+     * instead of being submitted to a thread pool one by one.
+     *
+     * @return maximum number of messages per batch
+     */
+    default int getBatchSize() {
+        return 1;
+    }
 }
@@ -47,6 +47,8 @@ import com.codahale.metrics.Timer.Context;
  * Different types of dispatchers are created based on whether or not the module is using aggregation.
  *
  * Asynchronous dispatchers use a queue and a thread pool to delegate to a suitable synchronous dispatcher.
+ * Modules that set a batch size in their {@link org.opennms.core.ipc.sink.api.AsyncPolicy} use a
+ * ring buffer that is drained in batches instead.
  *
  * @author jwhite
  *
@@ -94,6 +96,9 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         Objects.requireNonNull(module.getAsyncPolicy(), "module must have an AsyncPolicy");
         final DispatcherState<W,S,T> state = new DispatcherState<>(this, module);
         final SyncDispatcher<S> syncDispatcher = createSyncDispatcher(state);
+        if (module.getAsyncPolicy().getBatchSize() > 1) {
+            return new RingBufferAsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher);
+        }
         return new AsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher);
     }
 
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi-producer, multi-consumer ring buffer of messages
+ * and their associated futures.
+ *
+ * The slots are allocated up front and every slot carries a sequence
+ * number which tells producers and consumers whether the slot is free
+ * or holds a published message. Producers claim a single slot with
+ * a CAS on the tail, while consumers claim a whole run of published
+ * slots with a single CAS on the head, so no locks are taken and no
+ * objects are allocated to move a message through the buffer.
+ *
+ * @param <S> type of message
+ */
+class MessageRingBuffer<S> {
+
+    private final int capacity;
+
+    private final Object[] messages;
+
+    private final Object[] futures;
+
+    /**
+     * For each slot, the sequence at which the slot can next be written
+     * to by a producer, or the sequence + 1 once the slot is published
+     * and can be read by a consumer.
+     */
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong tail = new AtomicLong();
+
+    public MessageRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be strictly positive");
+        }
+        this.capacity = capacity;
+        messages = new Object[capacity];
+        futures = new Object[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Publishes the message to the buffer.
+     *
+     * @return <code>false</code> if the buffer is full
+     */
+    public boolean offer(S message, CompletableFuture<S> future) {
+        long pos = tail.get();
+        for (;;) {
+            final int index = index(pos);
+            final long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    messages[index] = message;
+                    futures[index] = future;
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The slot has not been consumed since the last lap
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes up to <code>max</code> published messages, and their futures,
+     * from the buffer and copies them to the given arrays.
+     *
+     * @return the number of messages that were copied
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(S[] batchMessages, CompletableFuture<S>[] batchFutures, int max) {
+        final int limit = Math.min(max, Math.min(batchMessages.length, batchFutures.length));
+        for (;;) {
+            final long pos = head.get();
+            int count = 0;
+            while (count < limit && sequences.get(index(pos + count)) == pos + count + 1) {
+                count++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            if (!head.compareAndSet(pos, pos + count)) {
+                // Another consumer got here first
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                final int index = index(pos + i);
+                batchMessages[i] = (S)messages[index];
+                batchFutures[i] = (CompletableFuture<S>)futures[index];
+                messages[index] = null;
+                futures[index] = null;
+                // Make the slot available to the producers on the next lap
+                sequences.lazySet(index, pos + i + capacity);
+            }
+            return count;
+        }
+    }
+
+    public int size() {
+        final long size = tail.get() - head.get();
+        return (int)Math.max(0, Math.min(size, capacity));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private int index(long sequence) {
+        return (int)(sequence % capacity);
+    }
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.joda.time.Duration;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+import org.opennms.core.utils.SystemInfoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * An {@link AsyncDispatcher} that queues messages in a preallocated
+ * {@link MessageRingBuffer} and has a fixed set of threads drain
+ * the buffer in batches of up to {@link AsyncPolicy#getBatchSize()}
+ * messages.
+ *
+ * Compared to {@link AsyncDispatcherImpl}, this avoids allocating a
+ * task and handing it over through a locked queue for every message,
+ * which matters when a Minion receives hundreds of thousands of
+ * messages per second. Messages from a batch are passed one after
+ * another to the synchronous dispatcher, which aggregates them when
+ * the module uses an aggregation policy.
+ *
+ * Idle consumers first spin, then park for progressively longer
+ * periods and finally park until a producer publishes a message and
+ * wakes them up, so that an idle dispatcher does not burn any CPU.
+ */
+public class RingBufferAsyncDispatcherImpl<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RingBufferAsyncDispatcherImpl.class);
+
+    /**
+     * How long a producer parks while waiting for room in the buffer.
+     */
+    private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Number of times an idle consumer yields before it starts parking.
+     */
+    private static final int IDLE_YIELDS = 10;
+
+    /**
+     * An idle consumer parks for a microsecond, then doubles the period on every
+     * empty poll until it reaches this value, after which it parks
+     * until it gets woken up by a producer.
+     */
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(512);
+
+    private final SyncDispatcher<S> syncDispatcher;
+
+    final RateLimitedLog rateLimittedLogger = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.standardSeconds(30))
+            .build();
+
+    private final MessageRingBuffer<S> ringBuffer;
+    private final boolean blockWhenFull;
+    private final int batchSize;
+    private final Counter droppedCounter;
+    private final Histogram batchSizeHistogram;
+    private final List<Thread> threads = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Thread> parkedConsumers = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    public RingBufferAsyncDispatcherImpl(DispatcherState<W,S,T> state, AsyncPolicy asyncPolicy, SyncDispatcher<S> syncDispatcher) {
+        Objects.requireNonNull(state);
+        Objects.requireNonNull(asyncPolicy);
+        this.syncDispatcher = Objects.requireNonNull(syncDispatcher);
+
+        ringBuffer = new MessageRingBuffer<>(asyncPolicy.getQueueSize());
+        blockWhenFull = asyncPolicy.isBlockWhenFull();
+        batchSize = Math.max(1, asyncPolicy.getBatchSize());
+
+        final MetricRegistry metrics = state.getMetrics();
+        final String moduleId = state.getModule().getId();
+        droppedCounter = metrics.counter(MetricRegistry.name(moduleId, "dropped"));
+        batchSizeHistogram = metrics.histogram(MetricRegistry.name(moduleId, "batch-size"));
+        metrics.register(MetricRegistry.name(moduleId, "queue-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return ringBuffer.size();
+            }
+        });
+        metrics.register(MetricRegistry.name(moduleId, "queue-capacity"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return ringBuffer.getCapacity();
+            }
+        });
+
+        final ThreadFactory threadFactory = new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID + ".Sink.AsyncDispatcher." + moduleId, Integer.MAX_VALUE);
+        for (int i = 0; i < asyncPolicy.getNumThreads(); i++) {
+            final Thread thread = threadFactory.newThread(this::consume);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    @Override
+    public CompletableFuture<S> send(S message) {
+        final CompletableFuture<S> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new RejectedExecutionException("Dispatcher is closed"));
+            return future;
+        }
+        while (!ringBuffer.offer(message, future)) {
+            if (!blockWhenFull || !running) {
+                droppedCounter.inc();
+                future.completeExceptionally(new RejectedExecutionException("Message rejected from ring buffer with capacity "
+                        + ringBuffer.getCapacity()));
+                return future;
+            }
+            LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+            if (Thread.interrupted()) {
+                // Preserve the interrupt status for the caller
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(new RejectedExecutionException("Interrupted while waiting for room in the ring buffer"));
+                return future;
+            }
+        }
+        final Thread parked = parkedConsumers.poll();
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void consume() {
+        final S[] messages = (S[])new Message[batchSize];
+        final CompletableFuture<S>[] futures = new CompletableFuture[batchSize];
+        int idleCount = 0;
+        while (true) {
+            final int count = ringBuffer.drainTo(messages, futures, batchSize);
+            if (count == 0) {
+                if (!running) {
+                    // Everything that was queued before closing has been dispatched
+                    return;
+                }
+                idle(idleCount);
+                idleCount = Math.min(idleCount + 1, IDLE_YIELDS + 62);
+                continue;
+            }
+            idleCount = 0;
+
+            batchSizeHistogram.update(count);
+            for (int i = 0; i < count; i++) {
+                try {
+                    syncDispatcher.send(messages[i]);
+                    futures[i].complete(messages[i]);
+                } catch (Throwable t) {
+                    rateLimittedLogger.warn("Error while dispatching message", t);
+                    futures[i].completeExceptionally(t);
+                } finally {
+                    messages[i] = null;
+                    futures[i] = null;
+                }
+            }
+        }
+    }
+
+    private void idle(int idleCount) {
+        if (idleCount < IDLE_YIELDS) {
+            Thread.yield();
+            return;
+        }
+        final long parkNanos = 1L << (idleCount - IDLE_YIELDS);
+        if (parkNanos < MAX_IDLE_PARK_NANOS) {
+            LockSupport.parkNanos(this, parkNanos);
+            return;
+        }
+
+        // Register before checking the buffer one last time so that a producer
+        // publishing a message after the check is guaranteed to wake us up
+        final Thread thread = Thread.currentThread();
+        parkedConsumers.add(thread);
+        try {
+            if (running && ringBuffer.size() == 0) {
+                LockSupport.park(this);
+            }
+        } finally {
+            parkedConsumers.remove(thread);
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return ringBuffer.size();
+    }
+
+    @Override
+    public void close() throws Exception {
+        // Stop accepting messages, and wait for the consumers to dispatch
+        // what was already queued before closing the sync dispatcher
+        running = false;
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        syncDispatcher.close();
+    }
+}
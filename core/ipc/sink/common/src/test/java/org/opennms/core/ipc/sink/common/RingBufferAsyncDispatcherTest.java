@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+
+import com.codahale.metrics.Histogram;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RingBufferAsyncDispatcherTest {
+
+    private static final int QUEUE_SIZE = 100;
+    private static final int BATCH_SIZE = 10;
+
+    @Mock
+    private SinkModule<MyMessage, MyMessage> module;
+
+    private static class MyMessage implements Message { }
+
+    /**
+     * Counts the dispatched messages and holds the dispatching
+     * threads until the gate is opened.
+     */
+    private static class GatedDispatcherFactory extends AbstractMessageDispatcherFactory<Void> {
+        private final AtomicInteger numMessageDispatched = new AtomicInteger(0);
+        private final AtomicInteger numThreadsWaiting = new AtomicInteger(0);
+        private final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        protected <S extends Message, T extends Message> SyncDispatcher<S> createSyncDispatcher(DispatcherState<Void,S,T> state) {
+            return new SyncDispatcher<S>() {
+                @Override
+                public void send(S message) {
+                    numThreadsWaiting.incrementAndGet();
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        numThreadsWaiting.decrementAndGet();
+                    }
+                    numMessageDispatched.incrementAndGet();
+                }
+
+                @Override
+                public void close() throws Exception {
+                    // pass
+                }
+            };
+        }
+
+        @Override
+        public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, Void metadata, T message) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private final GatedDispatcherFactory dispatcherFactory = new GatedDispatcherFactory();
+
+    private void useAsyncPolicy(int numThreads, boolean blockWhenFull) {
+        when(module.getId()).thenReturn("test");
+        when(module.getAsyncPolicy()).thenReturn(new AsyncPolicy() {
+            @Override
+            public int getQueueSize() {
+                return QUEUE_SIZE;
+            }
+
+            @Override
+            public int getNumThreads() {
+                return numThreads;
+            }
+
+            @Override
+            public boolean isBlockWhenFull() {
+                return blockWhenFull;
+            }
+
+            @Override
+            public int getBatchSize() {
+                return BATCH_SIZE;
+            }
+        });
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testDispatchesAllMessagesInBatches() throws Exception {
+        useAsyncPolicy(4, true);
+        final AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(module);
+        assertTrue(asyncDispatcher instanceof RingBufferAsyncDispatcherImpl);
+        dispatcherFactory.gate.countDown();
+
+        final int numProducers = 4;
+        final int numMessagesPerProducer = 10000;
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        final List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < numProducers; i++) {
+            producers.add(new Thread(() -> {
+                for (int j = 0; j < numMessagesPerProducer; j++) {
+                    final CompletableFuture<MyMessage> future = asyncDispatcher.send(new MyMessage());
+                    synchronized (futures) {
+                        futures.add(future);
+                    }
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // All of our futures should be successfully resolved
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[]{})).get(1, TimeUnit.MINUTES);
+        assertEquals(numProducers * numMessagesPerProducer, dispatcherFactory.numMessageDispatched.get());
+        assertEquals(0, asyncDispatcher.getQueueSize());
+
+        // Batches should never exceed the configured size
+        final Histogram batchSizes = dispatcherFactory.getMetrics().getHistograms().get("test.batch-size");
+        assertTrue(batchSizes.getCount() > 0);
+        assertTrue(batchSizes.getSnapshot().getMax() <= BATCH_SIZE);
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testRejectedWhenFull() throws Exception {
+        useAsyncPolicy(1, false);
+        final AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(module);
+
+        // Lock the only dispatching thread
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        futures.add(asyncDispatcher.send(new MyMessage()));
+        await().atMost(1, MINUTES).until(() -> dispatcherFactory.numThreadsWaiting.get(), equalTo(1));
+        assertEquals(0, asyncDispatcher.getQueueSize());
+
+        // Now fill up the queue
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage()));
+        }
+        assertEquals(QUEUE_SIZE, asyncDispatcher.getQueueSize());
+
+        // The next dispatch should return a failed future
+        final CompletableFuture<MyMessage> future = asyncDispatcher.send(new MyMessage());
+        assertTrue("future should have failed!", future.isCompletedExceptionally());
+        assertEquals(1, dispatcherFactory.getMetrics().getCounters().get("test.dropped").getCount());
+
+        // Release the thread, and wait for the queue to be drained
+        dispatcherFactory.gate.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[]{})).get(1, TimeUnit.MINUTES);
+        assertEquals(QUEUE_SIZE + 1, dispatcherFactory.numMessageDispatched.get());
+        assertEquals(0, asyncDispatcher.getQueueSize());
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testBlocksWhenFull() throws Exception {
+        useAsyncPolicy(1, true);
+        final AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(module);
+
+        // Lock the only dispatching thread and fill up the queue
+        asyncDispatcher.send(new MyMessage());
+        await().atMost(1, MINUTES).until(() -> dispatcherFactory.numThreadsWaiting.get(), equalTo(1));
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            asyncDispatcher.send(new MyMessage());
+        }
+        assertEquals(QUEUE_SIZE, asyncDispatcher.getQueueSize());
+
+        // The queue is full, additional calls should block
+        final AtomicReference<CompletableFuture<MyMessage>> futureRef = new AtomicReference<>();
+        final CountDownLatch didSend = new CountDownLatch(1);
+        final Thread t = new Thread(() -> {
+            futureRef.set(asyncDispatcher.send(new MyMessage()));
+            didSend.countDown();
+        });
+        t.start();
+        assertFalse(didSend.await(500, TimeUnit.MILLISECONDS));
+
+        // Release the thread, the blocked call should now go through
+        dispatcherFactory.gate.countDown();
+        didSend.await();
+        futureRef.get().get(1, TimeUnit.MINUTES);
+        await().atMost(1, MINUTES).until(() -> dispatcherFactory.numMessageDispatched.get(), equalTo(QUEUE_SIZE + 2));
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testCloseDispatchesQueuedMessages() throws Exception {
+        useAsyncPolicy(2, true);
+        final AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(module);
+
+        // Let the consumers go idle, messages should still be picked up
+        Thread.sleep(100);
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage()));
+        }
+
+        // Closing should wait for everything that was queued to be dispatched
+        dispatcherFactory.gate.countDown();
+        asyncDispatcher.close();
+        for (CompletableFuture<MyMessage> future : futures) {
+            assertTrue(future.isDone());
+            assertFalse(future.isCompletedExceptionally());
+        }
+        assertEquals(QUEUE_SIZE, dispatcherFactory.numMessageDispatched.get());
+
+        // No more messages are accepted once closed
+        assertTrue(asyncDispatcher.send(new MyMessage()).isCompletedExceptionally());
+    }
+}
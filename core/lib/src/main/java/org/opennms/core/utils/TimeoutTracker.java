@@ -149,6 +149,20 @@ public class TimeoutTracker {
 
     }
 
+    /**
+     * Returns how long {@link #startAttempt()} would block before the next
+     * attempt may start. This is only ever positive when strict timeouts are
+     * enabled, and allows asynchronous callers to delay the attempt instead.
+     *
+     * @return the delay in nanoseconds, or 0 if the attempt may start now
+     */
+    public long getNanosUntilNextAttempt() {
+        if (!m_strictTimeouts) {
+            return 0L;
+        }
+        return Math.max(0L, m_nextRetryTimeNanos - System.nanoTime());
+    }
+
     private void sleep(long nanos) {
         long millis = nanos / 1000000L;
         int remainingNanos = (int)(nanos % 1000000L);
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the max-repetitions of the GETBULK requests for a column to the responses of the agent.
+ *
+ * The max-repetitions double while the agent returns full responses faster than the target latency.
+ * They are halved if a response takes more than twice the target latency or the agent reports a
+ * tooBig error. If the agent returns fewer varbinds than requested before the end of the column,
+ * which agents do to fit the response into a single message, the max-repetitions are reduced to
+ * the number of varbinds returned.
+ *
+ * The last response of a column tells nothing about the agent and is ignored.
+ *
+ * Instances are not thread safe, every column needs its own one.
+ */
+public class AdaptiveMaxRepetitions {
+
+    private static final int MIN_REPETITIONS = 1;
+
+    private final int m_maxRepetitions;
+
+    private final long m_targetLatencyNanos;
+
+    private int m_repetitions;
+
+    public AdaptiveMaxRepetitions(int initialRepetitions, int maxRepetitions, long targetLatency, TimeUnit unit) {
+        if (maxRepetitions < MIN_REPETITIONS) {
+            throw new IllegalArgumentException("maxRepetitions must be positive, but was " + maxRepetitions);
+        }
+        m_maxRepetitions = maxRepetitions;
+        m_targetLatencyNanos = unit.toNanos(targetLatency);
+        m_repetitions = Math.max(MIN_REPETITIONS, Math.min(maxRepetitions, initialRepetitions));
+    }
+
+    public int getRepetitions() {
+        return m_repetitions;
+    }
+
+    public int getMaxRepetitions() {
+        return m_maxRepetitions;
+    }
+
+    /**
+     * Updates the max-repetitions from a response received for the column.
+     *
+     * @param requested the max-repetitions of the request
+     * @param received the number of varbinds received for the column
+     * @param finished whether the column was finished by the response
+     * @param latencyNanos the time between sending the request and receiving the response
+     */
+    public void responseReceived(int requested, int received, boolean finished, long latencyNanos) {
+        if (finished || received < 1) {
+            return;
+        }
+
+        if (latencyNanos > 2 * m_targetLatencyNanos) {
+            m_repetitions = Math.max(MIN_REPETITIONS, m_repetitions / 2);
+        } else if (received < requested) {
+            m_repetitions = Math.max(MIN_REPETITIONS, received);
+        } else if (latencyNanos < m_targetLatencyNanos) {
+            m_repetitions = Math.min(m_maxRepetitions, m_repetitions * 2);
+        }
+    }
+
+    /**
+     * Halves the max-repetitions after a tooBig error.
+     *
+     * @return <code>false</code> if the max-repetitions cannot be reduced any further
+     */
+    public boolean tooBig() {
+        if (m_repetitions <= MIN_REPETITIONS) {
+            return false;
+        }
+        m_repetitions = Math.max(MIN_REPETITIONS, m_repetitions / 2);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+            .append("repetitions", m_repetitions)
+            .append("max repetitions", m_maxRepetitions)
+            .append("target latency", TimeUnit.NANOSECONDS.toMillis(m_targetLatencyNanos) + "ms")
+            .toString();
+    }
+}
@@ -44,6 +44,29 @@ public class ColumnTracker extends CollectionTracker {
     private int m_maxRepetitions;
     private int m_maxRetries;
     private Integer m_retries;
+    private AdaptiveMaxRepetitions m_adaptiveMaxRepetitions;
+    private ResponseStats m_lastResponse;
+
+    /**
+     * The varbinds received in response to a request for the column.
+     */
+    private static class ResponseStats {
+        private final int m_requested;
+        private final long m_sentAt;
+        private int m_received;
+        private long m_latencyNanos;
+
+        private ResponseStats(int requested) {
+            m_requested = requested;
+            m_sentAt = System.nanoTime();
+        }
+
+        private void received() {
+            if (m_received++ == 0) {
+                m_latencyNanos = System.nanoTime() - m_sentAt;
+            }
+        }
+    }
 
     public ColumnTracker(SnmpObjId base) {
         this(null, base);
@@ -74,7 +97,7 @@ public class ColumnTracker extends CollectionTracker {
         return new ToStringBuilder(this)
             .append("base", m_base)
             .append("last oid", m_last)
-            .append("max repetitions", m_maxRepetitions)
+            .append("max repetitions", getMaxRepetitions())
             .append("finished?", isFinished())
             .toString();
     }
@@ -84,14 +107,22 @@ public class ColumnTracker extends CollectionTracker {
             throw new SnmpException("maxVarsPerPdu < 1");
         }
 
+        if (m_adaptiveMaxRepetitions != null && m_lastResponse != null) {
+            m_adaptiveMaxRepetitions.responseReceived(m_lastResponse.m_requested, m_lastResponse.m_received, isFinished(), m_lastResponse.m_latencyNanos);
+        }
+
         LOG.debug("Requesting oid following: {}", m_last);
         pduBuilder.addOid(m_last);
         pduBuilder.setNonRepeaters(0);
         pduBuilder.setMaxRepetitions(getMaxRepetitions());
+
+        final ResponseStats stats = new ResponseStats(getMaxRepetitions());
+        m_lastResponse = stats;
         
         ResponseProcessor rp = new ResponseProcessor() {
             @Override
             public void processResponse(SnmpObjId responseObjId, SnmpValue val) {
+                stats.received();
                 if (val.isEndOfMib()) {
                     receivedEndOfMib();
                     return;
@@ -120,6 +151,10 @@ public class ColumnTracker extends CollectionTracker {
 
                 final ErrorStatus status = ErrorStatus.fromStatus(errorStatus);
                 if (status == ErrorStatus.TOO_BIG) {
+                    if (m_adaptiveMaxRepetitions != null && m_adaptiveMaxRepetitions.tooBig()) {
+                        reportTooBigErr("Reducing maxRepetitions to " + m_adaptiveMaxRepetitions.getRepetitions() + " for column " + m_base);
+                        return true;
+                    }
                     throw new SnmpException("Unable to handle tooBigError for next oid request after "+m_last);
                 } else if (status == ErrorStatus.GEN_ERR) {
                     reportGenErr("Received genErr requesting next oid after "+m_last+". Marking column is finished.");
@@ -156,7 +191,19 @@ public class ColumnTracker extends CollectionTracker {
     }
 
     public int getMaxRepetitions() {
-        return m_maxRepetitions;
+        return m_adaptiveMaxRepetitions == null ? m_maxRepetitions : m_adaptiveMaxRepetitions.getRepetitions();
+    }
+
+    /**
+     * Lets the max-repetitions of the requests adapt to the responses of the agent,
+     * instead of using the fixed max-repetitions.
+     */
+    public void setAdaptiveMaxRepetitions(AdaptiveMaxRepetitions adaptiveMaxRepetitions) {
+        m_adaptiveMaxRepetitions = adaptiveMaxRepetitions;
+    }
+
+    public AdaptiveMaxRepetitions getAdaptiveMaxRepetitions() {
+        return m_adaptiveMaxRepetitions;
     }
 
     @Override
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the columns of a {@link TableTracker} in parallel.
+ *
+ * The {@link SnmpPduWalker} sends a single request at a time, packing the columns of the table into
+ * GETBULK requests with a fixed max-repetitions. This walker instead walks each column with its own
+ * walker created by the strategy, so several requests are in flight for the agent at once. The
+ * max-repetitions of every column adapt to the responses of the agent, see {@link AdaptiveMaxRepetitions}.
+ *
+ * The rows are handed to the {@link RowCallback} of the table as soon as all columns passed them,
+ * which may happen on the threads of different column walkers.
+ */
+public class ParallelTableWalker extends SnmpWalker {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelTableWalker.class);
+
+    private final SnmpStrategy m_strategy;
+    private final SnmpAgentConfig m_agentConfig;
+    private final TableTracker m_tracker;
+    private final int m_maxColumnsInFlight;
+    private final int m_maxRepetitionsLimit;
+    private final long m_targetLatencyMs;
+
+    private final Queue<ColumnTracker> m_pendingColumns = new ArrayDeque<>();
+    private final List<SnmpWalker> m_walkers = new ArrayList<>();
+    private int m_columnsInFlight;
+    private boolean m_done;
+
+    /**
+     * @param maxColumnsInFlight the maximum number of columns walked at once
+     * @param maxRepetitionsLimit the upper bound of the adaptive max-repetitions
+     * @param targetLatencyMs the response time up to which the max-repetitions are increased
+     */
+    public ParallelTableWalker(SnmpStrategy strategy, SnmpAgentConfig agentConfig, String name, TableTracker tracker, int maxColumnsInFlight, int maxRepetitionsLimit, long targetLatencyMs) {
+        super(agentConfig.getAddress(), name, agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
+        if (maxColumnsInFlight < 1) {
+            throw new IllegalArgumentException("maxColumnsInFlight must be positive, but was " + maxColumnsInFlight);
+        }
+        m_strategy = strategy;
+        m_agentConfig = agentConfig;
+        m_tracker = tracker;
+        m_maxColumnsInFlight = maxColumnsInFlight;
+        m_maxRepetitionsLimit = maxRepetitionsLimit;
+        m_targetLatencyMs = targetLatencyMs;
+    }
+
+    @Override
+    public void start() {
+        LOG.debug("Walking {} columns of {} for {}, {} at once", m_tracker.getColumnTrackers().size(), getName(), getAddress(), m_maxColumnsInFlight);
+
+        final List<SnmpWalker> walkers;
+        synchronized (this) {
+            for (final ColumnTracker column : m_tracker.getColumnTrackers()) {
+                column.setAdaptiveMaxRepetitions(new AdaptiveMaxRepetitions(m_agentConfig.getMaxRepetitions(), m_maxRepetitionsLimit, m_targetLatencyMs, TimeUnit.MILLISECONDS));
+                m_pendingColumns.add(column);
+            }
+            walkers = createWalkers();
+        }
+
+        if (walkers.isEmpty()) {
+            tableFinished();
+            return;
+        }
+        startWalkers(walkers);
+    }
+
+    /**
+     * Creates the walkers for the pending columns, as far as the number of columns in flight permits it.
+     */
+    private List<SnmpWalker> createWalkers() {
+        final List<SnmpWalker> walkers = new ArrayList<>();
+        while (!m_done && m_columnsInFlight < m_maxColumnsInFlight && !m_pendingColumns.isEmpty()) {
+            final ColumnTracker column = m_pendingColumns.poll();
+            final SnmpWalker walker = m_strategy.createWalker(m_agentConfig, getName() + "-" + column.getBase(), column);
+            walker.setCallback((w, t) -> columnCompleted(column, w, t));
+            m_walkers.add(walker);
+            m_columnsInFlight++;
+            walkers.add(walker);
+        }
+        return walkers;
+    }
+
+    private void startWalkers(List<SnmpWalker> walkers) {
+        // The walkers are started without holding the lock, as they may complete right away
+        for (final SnmpWalker walker : walkers) {
+            walker.start();
+        }
+    }
+
+    private void columnCompleted(ColumnTracker column, SnmpWalker walker, Throwable t) {
+        final List<SnmpWalker> walkers;
+        final boolean finished;
+        synchronized (this) {
+            if (m_done) {
+                return;
+            }
+            m_columnsInFlight--;
+
+            if (t != null || walker.failed()) {
+                m_done = true;
+                walkers = null;
+                finished = false;
+            } else {
+                LOG.debug("Finished column {} of {} for {}", column.getBase(), getName(), getAddress());
+                m_tracker.columnFinished(column.getBase());
+                walkers = createWalkers();
+                finished = m_columnsInFlight == 0 && m_pendingColumns.isEmpty();
+                m_done = finished;
+            }
+        }
+
+        if (walkers == null) {
+            if (walker.timedOut()) {
+                handleTimeout(walker.getErrorMessage());
+            } else if (!walker.failed()) {
+                // The column did not fail on its own, so the throwable is all we have
+                handleError(t.getMessage(), t);
+            } else if (walker.getErrorThrowable() != null) {
+                handleError(walker.getErrorMessage(), walker.getErrorThrowable());
+            } else {
+                handleError(walker.getErrorMessage());
+            }
+        } else if (finished) {
+            tableFinished();
+        } else {
+            startWalkers(walkers);
+        }
+    }
+
+    private void tableFinished() {
+        // Completes the remaining rows
+        m_tracker.isFinished();
+        handleDone();
+    }
+
+    @Override
+    public void close() {
+        final List<SnmpWalker> walkers;
+        synchronized (this) {
+            m_done = true;
+            walkers = new ArrayList<>(m_walkers);
+        }
+        for (final SnmpWalker walker : walkers) {
+            walker.close();
+        }
+    }
+}
@@ -38,6 +38,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Assembles the results of the columns of a table into rows.
+ *
+ * The columns may be walked by several walkers at once, so the results are stored
+ * and the completed rows are handed to the callback while holding the lock of the table result.
+ *
  * @author brozow
  */
 public class SnmpTableResult implements RowResultFactory {
@@ -68,7 +73,7 @@ public class SnmpTableResult implements RowResultFactory {
         return m_columns.length;
     }
 
-    void storeResult(SnmpResult result) {
+    synchronized void storeResult(SnmpResult result) {
         SnmpInstId instId = result.getInstance();
         if ( !m_pendingData.containsKey( instId ) ) {
             m_pendingData.put( instId, m_rowResultFactory.createRowResult( getColumnCount(), instId ) );
@@ -114,12 +119,12 @@ public class SnmpTableResult implements RowResultFactory {
         }
     }
 
-    public void tableFinished() {
+    public synchronized void tableFinished() {
         setFinished(true);
         handleCompleteRows();
     }
 
-    public void columnFinished(SnmpObjId columnId) {
+    public synchronized void columnFinished(SnmpObjId columnId) {
         m_finishedColumns.add(columnId);
         handleCompleteRows();
     }
@@ -74,9 +74,24 @@ public abstract class SnmpUtils {
     }
     
     public static SnmpWalker createWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker tracker) {
+        if (tracker instanceof TableTracker && Boolean.parseBoolean(getConfig().getProperty("org.opennms.snmp.parallelTableWalk", "false"))) {
+            return createParallelTableWalker(agentConfig, name, (TableTracker)tracker);
+        }
         return getStrategy().createWalker(agentConfig, name, createTooBigTracker(agentConfig, tracker));
     }
 
+    /**
+     * Creates a walker that walks the columns of the table in parallel, see {@link ParallelTableWalker}.
+     */
+    public static SnmpWalker createParallelTableWalker(SnmpAgentConfig agentConfig, String name, TableTracker tracker) {
+        // The aggregator only serves as the parent reporting the tooBig errors of the columns
+        createTooBigTracker(agentConfig, tracker);
+        return new ParallelTableWalker(getStrategy(), agentConfig, name, tracker,
+                Integer.parseInt(getConfig().getProperty("org.opennms.snmp.parallelTableWalk.maxColumnsInFlight", "4")),
+                Integer.parseInt(getConfig().getProperty("org.opennms.snmp.parallelTableWalk.maxRepetitions", "50")),
+                Long.parseLong(getConfig().getProperty("org.opennms.snmp.parallelTableWalk.targetLatency", "500")));
+    }
+
     private static TooBigReportingAggregator createTooBigTracker(SnmpAgentConfig agentConfig, CollectionTracker tracker) {
         return createTooBigTracker(agentConfig, new CollectionTracker[] { tracker });
     }
@@ -32,32 +32,26 @@ import java.net.InetAddress;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Walks the objects of a {@link CollectionTracker} and signals the completion of the walk.
+ *
+ * Walkers which send the requests of the tracker themselves extend {@link SnmpPduWalker}.
+ */
 public abstract class SnmpWalker implements AutoCloseable {
 
-    protected abstract static class WalkerPduBuilder extends PduBuilder {
-        protected WalkerPduBuilder(int maxVarsPerPdu) {
-            super(maxVarsPerPdu);
-        }
-        
-        public abstract void reset();
-    }
-    
     private final String m_name;
     private final CollectionTracker m_tracker;
 
     private final CountDownLatch m_signal;
 
     private final InetAddress m_address;
-    private WalkerPduBuilder m_pduBuilder;
-    private ResponseProcessor m_responseProcessor;
-    private final int m_maxVarsPerPdu;
     private boolean m_error = false;
     private String m_errorMessage = "";
     private Throwable m_errorThrowable = null;
 
     private SnmpWalkCallback m_callback;
 
-    protected SnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
+    protected SnmpWalker(InetAddress address, String name, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
         m_address = address;
         m_signal = new CountDownLatch(1);
         
@@ -66,8 +60,6 @@ public abstract class SnmpWalker implements AutoCloseable {
         m_tracker = tracker;
         m_tracker.setMaxRepetitions(maxRepetitions);
         m_tracker.setMaxRetries(maxRetries);
-        
-        m_maxVarsPerPdu = maxVarsPerPdu;
     }
 
     /**
@@ -80,32 +72,7 @@ public abstract class SnmpWalker implements AutoCloseable {
         m_callback = callback;
     }
 
-    protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
-    
-    public void start() {
-        m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
-        try {
-            buildAndSendNextPdu();
-        } catch (Throwable e) {
-            handleFatalError(e);
-        }
-    }
-    
-    public final int getMaxVarsPerPdu() {
-        return (m_pduBuilder == null ? m_maxVarsPerPdu : m_pduBuilder.getMaxVarsPerPdu());
-    }
-
-    protected void buildAndSendNextPdu() throws SnmpException {
-        if (m_tracker.isFinished()) {
-            handleDone();
-        } else {
-            m_pduBuilder.reset();
-            m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
-            sendNextPdu(m_pduBuilder);
-        }
-    }
-
-    protected abstract void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException;
+    public abstract void start();
 
     protected void handleDone() {
         finish();
@@ -206,15 +173,6 @@ public abstract class SnmpWalker implements AutoCloseable {
          */ 
     }
     
-    // processErrors returns true if we need to retry the request and false otherwise
-    protected boolean processErrors(int errorStatus, int errorIndex) throws SnmpException {
-        return m_responseProcessor.processErrors(errorStatus, errorIndex);
-    }
-    
-    protected void processResponse(SnmpObjId receivedOid, SnmpValue val) throws SnmpException {
-        m_responseProcessor.processResponse(receivedOid, val);
-    }
-
     protected final InetAddress getAddress() {
         return m_address;
     }
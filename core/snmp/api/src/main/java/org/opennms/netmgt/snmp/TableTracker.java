@@ -131,6 +131,18 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
         return m_tableResult.createRowResult(columnCount, instance);
     }
 
+    List<ColumnTracker> getColumnTrackers() {
+        return Collections.unmodifiableList(m_columnTrackers);
+    }
+
+    /**
+     * Marks a column as finished when the columns are walked independently, so the rows
+     * missing a value for the column can be completed.
+     */
+    void columnFinished(SnmpObjId column) {
+        m_tableResult.columnFinished(column);
+    }
+
     private List<ColumnTracker> getNextColumnTrackers(int maxVarsPerPdu) {
         List<ColumnTracker> trackers = new ArrayList<ColumnTracker>(maxVarsPerPdu);
         List<ColumnTracker> sortedTrackerList = new ArrayList<ColumnTracker>(m_columnTrackers);
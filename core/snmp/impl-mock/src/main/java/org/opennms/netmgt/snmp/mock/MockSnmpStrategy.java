@@ -37,6 +37,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.InetAddrUtils;
@@ -67,6 +68,9 @@ public class MockSnmpStrategy implements SnmpStrategy {
     private static int s_enterpriseId = 5813;
     private static Map<SnmpAgentAddress,PropertyOidContainer> m_loaders = new HashMap<SnmpAgentAddress,PropertyOidContainer>();
 
+    // Simulated latency of the responses to the requests of a walker
+    private static volatile long s_responseDelay = 0;
+
     public MockSnmpStrategy() {
     }
 
@@ -264,6 +268,18 @@ public class MockSnmpStrategy implements SnmpStrategy {
 
     public static void resetData() {
         m_loaders.clear();
+        s_responseDelay = 0;
+    }
+
+    /**
+     * Delays the responses to the requests sent by walkers to simulate the latency of an agent.
+     */
+    public static void setResponseDelay(final long delay, final TimeUnit unit) {
+        s_responseDelay = unit.toMillis(delay);
+    }
+
+    public static long getResponseDelay() {
+        return s_responseDelay;
     }
 
 }
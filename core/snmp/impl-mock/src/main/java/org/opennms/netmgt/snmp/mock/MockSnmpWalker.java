@@ -40,17 +40,19 @@ import org.opennms.netmgt.snmp.SnmpAgentAddress;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpException;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpPduWalker;
 import org.opennms.netmgt.snmp.SnmpValue;
-import org.opennms.netmgt.snmp.SnmpWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MockSnmpWalker extends SnmpWalker {
+public class MockSnmpWalker extends SnmpPduWalker {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(MockSnmpWalker.class);
 
 	private static class MockPduBuilder extends WalkerPduBuilder {
         private List<SnmpObjId> m_oids = new ArrayList<>();
+        private int m_nonRepeaters = 0;
+        private int m_maxRepetitions = 1;
 
         public MockPduBuilder(final int maxVarsPerPdu) {
             super(maxVarsPerPdu);
@@ -60,12 +62,22 @@ public class MockSnmpWalker extends SnmpWalker {
         @Override
         public void reset() {
             m_oids.clear();
+            m_nonRepeaters = 0;
+            m_maxRepetitions = 1;
         }
 
         public List<SnmpObjId> getOids() {
             return new ArrayList<SnmpObjId>(m_oids);
         }
 
+        public int getNonRepeaters() {
+            return m_nonRepeaters;
+        }
+
+        public int getMaxRepetitions() {
+            return m_maxRepetitions;
+        }
+
         @Override
         public void addOid(final SnmpObjId snmpObjId) {
             m_oids.add(snmpObjId);
@@ -73,10 +85,12 @@ public class MockSnmpWalker extends SnmpWalker {
 
         @Override
         public void setNonRepeaters(final int numNonRepeaters) {
+            m_nonRepeaters = numNonRepeaters;
         }
 
         @Override
         public void setMaxRepetitions(final int maxRepetitions) {
+            m_maxRepetitions = maxRepetitions;
         }
     }
 	
@@ -126,7 +140,9 @@ public class MockSnmpWalker extends SnmpWalker {
         final List<SnmpObjId> oids = builder.getOids();
         LOG.debug("'Sending' tracker PDU of size {}", oids.size());
 
-        m_executor.submit(new ResponseHandler(oids));
+        // SNMPv1 has no GETBULK, so every OID gets a single response
+        final int maxRepetitions = m_snmpVersion == SnmpAgentConfig.VERSION1 ? 1 : Math.max(1, builder.getMaxRepetitions());
+        m_executor.submit(new ResponseHandler(oids, builder.getNonRepeaters(), maxRepetitions));
     }
 
     @Override
@@ -178,9 +194,13 @@ public class MockSnmpWalker extends SnmpWalker {
 
     private final class ResponseHandler implements Runnable {
 		private final List<SnmpObjId> m_oids;
+		private final int m_nonRepeaters;
+		private final int m_maxRepetitions;
 
-		private ResponseHandler(final List<SnmpObjId> oids) {
+		private ResponseHandler(final List<SnmpObjId> oids, final int nonRepeaters, final int maxRepetitions) {
 			m_oids = oids;
+			m_nonRepeaters = nonRepeaters;
+			m_maxRepetitions = maxRepetitions;
 		}
 
 		@Override
@@ -198,6 +218,11 @@ public class MockSnmpWalker extends SnmpWalker {
 	            	return;
 	            }
 
+	            final long responseDelay = MockSnmpStrategy.getResponseDelay();
+	            if (responseDelay > 0) {
+	            	Thread.sleep(responseDelay);
+	            }
+
 	            List<MockVarBind> responses = new ArrayList<MockVarBind>(m_oids.size());
 
 	            ErrorStatus errorStatus = ErrorStatus.NO_ERROR;
@@ -220,6 +245,28 @@ public class MockSnmpWalker extends SnmpWalker {
 	            	index++;
 	            }
 
+	            // The remaining repetitions of a GETBULK request continue from the last OID of each repeater
+	            final List<SnmpObjId> repeaters = new ArrayList<>();
+	            for (int i = m_nonRepeaters; i < responses.size(); i++) {
+	            	repeaters.add(responses.get(i).getOid());
+	            }
+	            for (int repetition = 1; repetition < m_maxRepetitions && !repeaters.isEmpty(); repetition++) {
+	            	boolean endOfMib = true;
+	            	for (int i = 0; i < repeaters.size(); i++) {
+	            		final SnmpObjId nextOid = m_container.findNextOidForOid(repeaters.get(i));
+	            		if (nextOid == null) {
+	            			responses.add(new MockVarBind(repeaters.get(i), MockSnmpValue.END_OF_MIB));
+	            		} else {
+	            			responses.add(new MockVarBind(nextOid, m_container.findValueForOid(nextOid)));
+	            			repeaters.set(i, nextOid);
+	            			endOfMib = false;
+	            		}
+	            	}
+	            	if (endOfMib) {
+	            		break;
+	            	}
+	            }
+
 	            if (!processErrors(errorStatus.ordinal(), errorIndex)) {
 	            	LOG.debug("Responding with PDU of size {}.", responses.size());
 	            	for(MockVarBind vb : responses) {
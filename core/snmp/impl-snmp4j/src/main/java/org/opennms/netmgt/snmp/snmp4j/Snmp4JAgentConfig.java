@@ -288,7 +288,7 @@ public class Snmp4JAgentConfig {
         return convertCommunity(m_config.getReadCommunity());
     }
 
-    private Address getAddress() {
+    Address getAddress() {
         return convertAddress(getInetAddress(), getPort());
     }
 
@@ -304,6 +304,10 @@ public class Snmp4JAgentConfig {
         return createOctetString(m_config.getContextName());
     }
 
+    public OctetString getEngineID() {
+        return createOctetString(m_config.getEngineId());
+    }
+
     public OctetString getContextEngineID() {
         return createOctetString(m_config.getContextEngineId());
     }
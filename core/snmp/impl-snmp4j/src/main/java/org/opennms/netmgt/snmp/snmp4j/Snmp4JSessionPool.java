@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+
+/**
+ * A small set of long-lived SNMP sessions shared by all agents.
+ *
+ * Without the pool, every get and walk opens its own UDP transport, message dispatcher
+ * and listener thread. The pool instead keeps a fixed number of sessions listening on
+ * their own UDP transport. The responses are matched to the pending requests by their
+ * request ID, which SNMP4J does for every session anyway.
+ *
+ * An agent is always handled by the same session, so the engine IDs discovered for SNMPv3
+ * agents stay cached in the message processing model of that session. All sessions share a
+ * single USM to which each v3 user is added once. Agents with conflicting credentials for
+ * the same security name and no configured engine ID cannot share the USM; for those
+ * {@link #getSession(Snmp4JAgentConfig)} returns <code>null</code> and the caller must fall
+ * back to a dedicated session.
+ *
+ * The number of requests in flight per agent can be limited. Requests exceeding the limit
+ * are queued and sent as soon as a response to one of the previous requests is received.
+ */
+public class Snmp4JSessionPool implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    private final Snmp[] m_sessions;
+
+    private final ThreadPool m_threadPool;
+
+    private final USM m_usm;
+
+    private final ConcurrentMap<List<OctetString>, List<Object>> m_users = new ConcurrentHashMap<>();
+
+    private final int m_maxInFlightPerAgent;
+
+    // The limiters are kept for the lifetime of the pool, as there is only one per agent
+    private final ConcurrentMap<Address, AgentLimiter> m_limiters = new ConcurrentHashMap<>();
+
+    private final AtomicLong m_requests = new AtomicLong();
+
+    private final AtomicLong m_queuedRequests = new AtomicLong();
+
+    /**
+     * @param transports the number of UDP transports, each one with its own session
+     * @param dispatcherThreads the number of threads processing the received messages
+     * @param maxInFlightPerAgent the maximum number of requests waiting for a response per agent, unlimited if not positive
+     */
+    public Snmp4JSessionPool(final int transports, final int dispatcherThreads, final int maxInFlightPerAgent) throws IOException {
+        if (transports < 1) {
+            throw new IllegalArgumentException("The number of transports must be positive, but was " + transports);
+        }
+
+        m_maxInFlightPerAgent = maxInFlightPerAgent;
+        m_usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+        m_threadPool = ThreadPool.create("SNMP4J-Shared-Dispatcher", Math.max(1, dispatcherThreads));
+        m_sessions = new Snmp[transports];
+
+        try {
+            for (int i = 0; i < transports; i++) {
+                final MessageDispatcher disp = new MultiThreadedMessageDispatcher(m_threadPool, new MessageDispatcherImpl());
+                disp.addMessageProcessingModel(new MPv1());
+                disp.addMessageProcessingModel(new MPv2c());
+                disp.addMessageProcessingModel(new MPv3(m_usm));
+
+                m_sessions[i] = new Snmp(disp, new DefaultUdpTransportMapping());
+                Snmp4JStrategy.trackSession(m_sessions[i]);
+                m_sessions[i].listen();
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+
+        LOG.info("Created {} shared SNMP sessions with {} dispatcher threads and a limit of {} requests in flight per agent", transports, dispatcherThreads, maxInFlightPerAgent);
+    }
+
+    /**
+     * Returns the shared session for the given agent, or <code>null</code> if the agent
+     * cannot use a shared session.
+     */
+    public Snmp getSession(final Snmp4JAgentConfig agentConfig) {
+        if (agentConfig.isSnmpV3() && !addUser(agentConfig)) {
+            LOG.debug("The credentials of the user {} conflict with the ones of another agent, using a dedicated session for {}", agentConfig.getSecurityName(), agentConfig);
+            return null;
+        }
+        return m_sessions[Math.floorMod(agentConfig.getAddress().hashCode(), m_sessions.length)];
+    }
+
+    /**
+     * Adds the user of the given agent to the shared USM, unless it was added before.
+     *
+     * @return <code>false</code> if a different user with the same security name was added before
+     */
+    private boolean addUser(final Snmp4JAgentConfig agentConfig) {
+        final OctetString securityName = agentConfig.getSecurityName();
+        final OctetString engineId = agentConfig.getEngineID();
+        final List<Object> credentials = Arrays.asList(
+                agentConfig.getAuthProtocol(),
+                agentConfig.getAuthPassPhrase(),
+                agentConfig.getPrivProtocol(),
+                agentConfig.getPrivPassPhrase());
+
+        final List<Object> cached = m_users.computeIfAbsent(Arrays.asList(engineId, securityName), key -> {
+            final UsmUser user = new UsmUser(
+                    securityName,
+                    agentConfig.getAuthProtocol(),
+                    agentConfig.getAuthPassPhrase(),
+                    agentConfig.getPrivProtocol(),
+                    agentConfig.getPrivPassPhrase());
+            if (engineId != null) {
+                m_usm.addUser(securityName, engineId, user);
+            } else {
+                // The keys are localized once the engine ID of the agent is discovered
+                m_usm.addUser(securityName, user);
+            }
+            return credentials;
+        });
+        return cached.equals(credentials);
+    }
+
+    /**
+     * Sends a request to the given agent, once the number of requests in flight permits it.
+     *
+     * The request may be run by the calling thread or by the thread releasing the last
+     * request of the agent. It must not block and it must call {@link #release(Snmp4JAgentConfig)}
+     * once the response was received or the request failed.
+     */
+    public void submit(final Snmp4JAgentConfig agentConfig, final Runnable request) {
+        m_requests.incrementAndGet();
+        if (m_maxInFlightPerAgent <= 0) {
+            request.run();
+            return;
+        }
+        m_limiters.computeIfAbsent(agentConfig.getAddress(), address -> new AgentLimiter(m_maxInFlightPerAgent)).submit(request);
+    }
+
+    /**
+     * Marks a request to the given agent as completed and sends the next queued one, if any.
+     */
+    public void release(final Snmp4JAgentConfig agentConfig) {
+        if (m_maxInFlightPerAgent <= 0) {
+            return;
+        }
+        final AgentLimiter limiter = m_limiters.get(agentConfig.getAddress());
+        if (limiter != null) {
+            limiter.release();
+        }
+    }
+
+    public int getTransportCount() {
+        return m_sessions.length;
+    }
+
+    public int getMaxInFlightPerAgent() {
+        return m_maxInFlightPerAgent;
+    }
+
+    public long getRequestCount() {
+        return m_requests.get();
+    }
+
+    public long getQueuedRequestCount() {
+        return m_queuedRequests.get();
+    }
+
+    @Override
+    public void close() {
+        for (final Snmp session : m_sessions) {
+            if (session == null) {
+                continue;
+            }
+            try {
+                session.close();
+            } catch (final IOException e) {
+                LOG.error("error closing shared SNMP session", e);
+            } finally {
+                Snmp4JStrategy.reapSession(session);
+            }
+        }
+        m_threadPool.stop();
+    }
+
+    private class AgentLimiter {
+        private final int m_maxInFlight;
+        private final Queue<Runnable> m_pending = new ArrayDeque<>();
+        private int m_inFlight;
+
+        private AgentLimiter(final int maxInFlight) {
+            m_maxInFlight = maxInFlight;
+        }
+
+        private void submit(final Runnable request) {
+            synchronized (this) {
+                if (m_inFlight >= m_maxInFlight) {
+                    m_pending.add(request);
+                    m_queuedRequests.incrementAndGet();
+                    return;
+                }
+                m_inFlight++;
+            }
+            request.run();
+        }
+
+        private void release() {
+            final Runnable next;
+            synchronized (this) {
+                next = m_pending.poll();
+                if (next == null) {
+                    m_inFlight = Math.max(0, m_inFlight - 1);
+                    return;
+                }
+            }
+            // The slot of the completed request is handed over to the next one
+            next.run();
+        }
+    }
+}
@@ -108,6 +108,8 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
     private static USM m_usm;
 
+    private static Snmp4JSessionPool s_sessionPool;
+
     private Snmp4JValueFactory m_valueFactory;
 
     private static ScheduledExecutorService s_sessionStatsExecutor;
@@ -146,6 +148,17 @@ public class Snmp4JStrategy implements SnmpStrategy {
         // so we perform it only once during initialization
         SecurityProtocols.getInstance().addDefaultProtocols();
 
+        if (Boolean.getBoolean("org.opennms.snmp.snmp4j.sharedSessions")) {
+            try {
+                s_sessionPool = new Snmp4JSessionPool(
+                        Integer.getInteger("org.opennms.snmp.snmp4j.sharedSessions.transports", 2),
+                        Integer.getInteger("org.opennms.snmp.snmp4j.sharedSessions.dispatcherThreads", Runtime.getRuntime().availableProcessors()),
+                        Integer.getInteger("org.opennms.snmp.snmp4j.sharedSessions.maxInFlightPerAgent", 10));
+            } catch (final IOException e) {
+                LOG.warn("Could not create the shared SNMP sessions, using a session per request instead", e);
+            }
+        }
+
         s_initialized = true;
     }
     
@@ -153,6 +166,17 @@ public class Snmp4JStrategy implements SnmpStrategy {
         initialize();
     }
     
+    /**
+     * @return the shared sessions, or <code>null</code> if every request uses its own session
+     */
+    static Snmp4JSessionPool getSessionPool() {
+        return s_sessionPool;
+    }
+
+    static void setSessionPool(final Snmp4JSessionPool sessionPool) {
+        s_sessionPool = sessionPool;
+    }
+
     public void clearUsers() {
         if (m_usm != null) {
             m_usm.removeAllUsers();
@@ -303,6 +327,15 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        final Snmp4JSessionPool sessionPool = s_sessionPool;
+        if (sessionPool != null) {
+            final Snmp sharedSession = sessionPool.getSession(agentConfig);
+            if (sharedSession != null) {
+                sendShared(sessionPool, sharedSession, agentConfig, pdu, expectResponse, future);
+                return;
+            }
+        }
+
         Snmp session;
 
         try {
@@ -367,6 +400,45 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    /**
+     * Sends a request using one of the shared sessions, which must not be closed afterwards.
+     */
+    private static void sendShared(final Snmp4JSessionPool sessionPool, final Snmp session, final Snmp4JAgentConfig agentConfig, final PDU pdu, final boolean expectResponse, final CompletableFuture<SnmpValue[]> future) {
+        if (!expectResponse) {
+            try {
+                session.send(pdu, agentConfig.getTarget());
+                future.complete(null);
+            } catch (final Exception e) {
+                LOG.error("send: error during SNMP operation", e);
+                future.completeExceptionally(new SnmpException(e));
+            }
+            return;
+        }
+
+        sessionPool.submit(agentConfig, () -> {
+            try {
+                session.send(pdu, agentConfig.getTarget(), null, new ResponseListener() {
+                    @Override
+                    public void onResponse(final ResponseEvent responseEvent) {
+                        // The request stays pending until it is cancelled, as the session is not closed
+                        session.cancel(responseEvent.getRequest(), this);
+                        try {
+                            future.complete(processResponse(agentConfig, responseEvent));
+                        } catch (final Exception e) {
+                            future.completeExceptionally(new SnmpException(e));
+                        } finally {
+                            sessionPool.release(agentConfig);
+                        }
+                    }
+                });
+            } catch (final Exception e) {
+                sessionPool.release(agentConfig);
+                LOG.error("send: error during SNMP operation", e);
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
@@ -29,12 +29,13 @@
 package org.opennms.netmgt.snmp.snmp4j;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.SnmpException;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpPduWalker;
 import org.opennms.netmgt.snmp.SnmpValue;
-import org.opennms.netmgt.snmp.SnmpWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snmp4j.PDU;
@@ -46,7 +47,7 @@ import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.VariableBinding;
 
-public class Snmp4JWalker extends SnmpWalker {
+public class Snmp4JWalker extends SnmpPduWalker {
 	
 	private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JWalker.class);
 	
@@ -163,7 +164,17 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            // use the session which sent the request, since the walker may have been closed in the meantime
+            final Snmp session = responseEvent.getSource() instanceof Snmp ? (Snmp)responseEvent.getSource() : m_session;
+            if (session != null) {
+                session.cancel(responseEvent.getRequest(), this);
+            }
+            releaseOutstandingPdu();
+
+            if (m_closed) {
+                LOG.debug("Ignoring a response for {} received after the walker was closed", getAddress());
+                return;
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -188,10 +199,15 @@ public class Snmp4JWalker extends SnmpWalker {
         
     }
     
-    private Snmp m_session;
+    private volatile Snmp m_session;
+    private volatile boolean m_closed;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
+    private final Snmp4JSessionPool m_sessionPool;
+    private boolean m_sharedSession;
+    // The request sent on a shared session for which no response was received yet
+    private final AtomicReference<PDU> m_outstandingPdu = new AtomicReference<>();
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
         super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
@@ -200,6 +216,7 @@ public class Snmp4JWalker extends SnmpWalker {
         
         m_tgt = agentConfig.getTarget();
         m_listener = new Snmp4JResponseListener();
+        m_sessionPool = Snmp4JStrategy.getSessionPool();
     }
     
         @Override
@@ -221,6 +238,10 @@ public class Snmp4JWalker extends SnmpWalker {
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         try {
+            if (m_session == null && m_sessionPool != null) {
+                m_session = m_sessionPool.getSession(m_agentConfig);
+                m_sharedSession = m_session != null;
+            }
             if (m_session == null) {
                 m_session = m_agentConfig.createSnmpSession();
                 Snmp4JStrategy.trackSession(m_session);
@@ -232,6 +253,10 @@ public class Snmp4JWalker extends SnmpWalker {
         }
 
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
+        if (m_sharedSession) {
+            sendSharedPdu(m_session, snmp4JPduBuilder.getPdu());
+            return;
+        }
         try {
             m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
         } catch (final IOException e) {
@@ -241,13 +266,48 @@ public class Snmp4JWalker extends SnmpWalker {
         }
     }
     
+    private void sendSharedPdu(final Snmp session, final PDU pdu) {
+        m_sessionPool.submit(m_agentConfig, () -> {
+            // The walker may have been closed while the request was queued
+            if (m_session == null) {
+                m_sessionPool.release(m_agentConfig);
+                return;
+            }
+            m_outstandingPdu.set(pdu);
+            try {
+                session.send(pdu, m_tgt, null, m_listener);
+            } catch (final IOException e) {
+                LOG.debug("Failed to send pdu of size {}", pdu.size(), e);
+                releaseOutstandingPdu();
+                handleFatalError(e);
+            }
+        });
+    }
+
+    private PDU releaseOutstandingPdu() {
+        final PDU pdu = m_outstandingPdu.getAndSet(null);
+        if (pdu != null) {
+            m_sessionPool.release(m_agentConfig);
+        }
+        return pdu;
+    }
+
     protected int getVersion() {
         return m_tgt.getVersion();
     }
 
     @Override
     public void close() {
-        if (m_session != null) {
+        m_closed = true;
+        if (m_session != null && m_sharedSession) {
+            // The shared session stays open, only the pending request is dropped
+            final Snmp session = m_session;
+            m_session = null;
+            final PDU pdu = releaseOutstandingPdu();
+            if (pdu != null) {
+                session.cancel(pdu, m_listener);
+            }
+        } else if (m_session != null) {
             try {
                 m_session.close();
             } catch (IOException e) {
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveMaxRepetitionsTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(300);
+    private static final long VERY_SLOW = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    private final AdaptiveMaxRepetitions m_repetitions = new AdaptiveMaxRepetitions(2, 20, 200, TimeUnit.MILLISECONDS);
+
+    @Test
+    public void testGrowsWhileFullResponsesAreFast() {
+        m_repetitions.responseReceived(2, 2, false, FAST);
+        assertEquals(4, m_repetitions.getRepetitions());
+        m_repetitions.responseReceived(4, 4, false, FAST);
+        m_repetitions.responseReceived(8, 8, false, FAST);
+        assertEquals(16, m_repetitions.getRepetitions());
+        m_repetitions.responseReceived(16, 16, false, FAST);
+        assertEquals(20, m_repetitions.getRepetitions());
+
+        // Neither fast nor too slow
+        m_repetitions.responseReceived(20, 20, false, SLOW);
+        assertEquals(20, m_repetitions.getRepetitions());
+    }
+
+    @Test
+    public void testShrinksOnSlowResponses() {
+        m_repetitions.responseReceived(2, 2, false, FAST);
+        m_repetitions.responseReceived(4, 4, false, FAST);
+        assertEquals(8, m_repetitions.getRepetitions());
+
+        m_repetitions.responseReceived(8, 8, false, VERY_SLOW);
+        assertEquals(4, m_repetitions.getRepetitions());
+    }
+
+    @Test
+    public void testFollowsTruncatedResponses() {
+        m_repetitions.responseReceived(2, 2, false, FAST);
+        m_repetitions.responseReceived(4, 4, false, FAST);
+        m_repetitions.responseReceived(8, 8, false, FAST);
+        assertEquals(16, m_repetitions.getRepetitions());
+
+        m_repetitions.responseReceived(16, 11, false, FAST);
+        assertEquals(11, m_repetitions.getRepetitions());
+    }
+
+    @Test
+    public void testIgnoresLastResponse() {
+        m_repetitions.responseReceived(2, 1, true, VERY_SLOW);
+        m_repetitions.responseReceived(2, 0, false, VERY_SLOW);
+        assertEquals(2, m_repetitions.getRepetitions());
+    }
+
+    @Test
+    public void testTooBig() {
+        m_repetitions.responseReceived(2, 2, false, FAST);
+        assertEquals(4, m_repetitions.getRepetitions());
+
+        assertTrue(m_repetitions.tooBig());
+        assertEquals(2, m_repetitions.getRepetitions());
+        assertTrue(m_repetitions.tooBig());
+        assertEquals(1, m_repetitions.getRepetitions());
+        assertFalse(m_repetitions.tooBig());
+    }
+
+    @Test
+    public void testColumnTrackerRetriesTooBigWithFewerRepetitions() throws Exception {
+        final ColumnTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.1"));
+        tracker.setAdaptiveMaxRepetitions(new AdaptiveMaxRepetitions(8, 20, 200, TimeUnit.MILLISECONDS));
+
+        final ResponseProcessor rp = tracker.buildNextPdu(new PduBuilder(10) {
+            @Override
+            public void addOid(SnmpObjId snmpObjId) {
+            }
+
+            @Override
+            public void setNonRepeaters(int numNonRepeaters) {
+            }
+
+            @Override
+            public void setMaxRepetitions(int maxRepetitions) {
+                assertEquals(8, maxRepetitions);
+            }
+        });
+
+        assertTrue("the request should be retried", rp.processErrors(ErrorStatus.TOO_BIG.ordinal(), 1));
+        assertEquals(4, tracker.getMaxRepetitions());
+    }
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.mock.MockSnmpStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Walks a table with the {@link ParallelTableWalker} against the mock agent, which simulates
+ * the latency of the responses.
+ */
+public class ParallelTableWalkerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelTableWalkerTest.class);
+
+    private static final SnmpObjId IF_ENTRY = SnmpObjId.get(".1.3.6.1.2.1.2.2.1");
+
+    private static final int COLUMNS = 6;
+
+    private static final int ROWS = 100;
+
+    private final InetAddress m_agentAddress = InetAddressUtils.addr("127.0.0.1");
+    private final int m_agentPort = 1691;
+    private final MockSnmpStrategy m_strategy = new MockSnmpStrategy();
+
+    @Before
+    public void setUp() throws Exception {
+        final SnmpAgentAddress agentAddress = new SnmpAgentAddress(m_agentAddress, m_agentPort);
+        MockSnmpStrategy.setDataForAddress(agentAddress, new ClassPathResource("loadSnmpDataTest.properties"));
+        for (int column = 1; column <= COLUMNS; column++) {
+            for (int row = 1; row <= ROWS; row++) {
+                MockSnmpStrategy.updateIntValue(agentAddress, IF_ENTRY + "." + column + "." + row, column * 1000 + row);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        MockSnmpStrategy.resetData();
+    }
+
+    @Test
+    public void testWalkAllRows() throws Exception {
+        MockSnmpStrategy.setResponseDelay(5, TimeUnit.MILLISECONDS);
+
+        final List<SnmpRowResult> rows = new ArrayList<>();
+        final TableTracker tracker = new TableTracker(rows::add, getColumns());
+        walk(new ParallelTableWalker(m_strategy, getAgentConfig(), "ifTable", tracker, 4, 50, 500));
+
+        assertEquals(ROWS, rows.size());
+        for (int row = 1; row <= ROWS; row++) {
+            final SnmpRowResult result = rows.get(row - 1);
+            assertEquals(new SnmpInstId(row), result.getInstance());
+            assertEquals(COLUMNS, result.getResults().size());
+            for (int column = 1; column <= COLUMNS; column++) {
+                assertEquals(column * 1000 + row, result.getValue(SnmpObjId.get(IF_ENTRY, Integer.toString(column))).toInt());
+            }
+        }
+    }
+
+    @Test
+    public void testRowsAreStreamed() throws Exception {
+        MockSnmpStrategy.setResponseDelay(5, TimeUnit.MILLISECONDS);
+
+        final AtomicInteger rows = new AtomicInteger();
+        final AtomicInteger streamedRows = new AtomicInteger();
+        final TableTracker[] tracker = new TableTracker[1];
+        tracker[0] = new TableTracker(row -> {
+            rows.incrementAndGet();
+            if (tracker[0].getColumnTrackers().stream().anyMatch(c -> !c.isFinished())) {
+                streamedRows.incrementAndGet();
+            }
+        }, getColumns());
+        walk(new ParallelTableWalker(m_strategy, getAgentConfig(), "ifTable", tracker[0], 4, 50, 500));
+
+        assertEquals(ROWS, rows.get());
+        assertTrue("rows should be completed before all columns are finished", streamedRows.get() > 0);
+    }
+
+    @Test
+    public void testMaxRepetitionsAdaptToLatency() throws Exception {
+        final TableTracker fastTracker = new TableTracker(row -> {}, getColumns());
+        walk(new ParallelTableWalker(m_strategy, getAgentConfig(), "ifTable", fastTracker, 4, 50, 500));
+        for (final ColumnTracker column : fastTracker.getColumnTrackers()) {
+            assertTrue("max-repetitions should grow: " + column, column.getMaxRepetitions() > 2);
+        }
+
+        MockSnmpStrategy.setResponseDelay(50, TimeUnit.MILLISECONDS);
+        final SnmpAgentConfig agentConfig = getAgentConfig();
+        agentConfig.setMaxRepetitions(8);
+        final TableTracker slowTracker = new TableTracker(row -> {}, getColumns());
+        walk(new ParallelTableWalker(m_strategy, agentConfig, "ifTable", slowTracker, COLUMNS, 50, 10));
+        for (final ColumnTracker column : slowTracker.getColumnTrackers()) {
+            assertEquals("max-repetitions should shrink: " + column, 1, column.getMaxRepetitions());
+        }
+    }
+
+    @Test
+    public void testFasterThanSerialWalk() throws Exception {
+        MockSnmpStrategy.setResponseDelay(10, TimeUnit.MILLISECONDS);
+
+        final AtomicInteger serialRows = new AtomicInteger();
+        long start = System.nanoTime();
+        // Wrapped like the trackers passed through SnmpUtils.createWalker()
+        final TableTracker serialTracker = new TableTracker(row -> serialRows.incrementAndGet(), getColumns());
+        walk(m_strategy.createWalker(getAgentConfig(), "ifTable", new AggregateTracker(new Collectable[] { serialTracker })));
+        final long serialMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        final AtomicInteger parallelRows = new AtomicInteger();
+        start = System.nanoTime();
+        walk(new ParallelTableWalker(m_strategy, getAgentConfig(), "ifTable", new TableTracker(row -> parallelRows.incrementAndGet(), getColumns()), 4, 50, 500));
+        final long parallelMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        LOG.info("Walked {} rows of {} columns: serial={} ms, parallel={} ms", ROWS, COLUMNS, serialMs, parallelMs);
+        assertEquals(ROWS, serialRows.get());
+        assertEquals(ROWS, parallelRows.get());
+        assertTrue("the parallel walk should be faster: " + parallelMs + " ms vs. " + serialMs + " ms", parallelMs < serialMs);
+    }
+
+    @Test
+    public void testFailedColumnFailsWalk() throws Exception {
+        MockSnmpStrategy.removeHost(new SnmpAgentAddress(m_agentAddress, m_agentPort));
+
+        final TableTracker tracker = new TableTracker(row -> {}, getColumns());
+        try (final SnmpWalker walker = new ParallelTableWalker(m_strategy, getAgentConfig(), "ifTable", tracker, 4, 50, 500)) {
+            walker.start();
+            assertTrue("walk should finish", walker.waitFor(TimeUnit.SECONDS.toMillis(10)));
+            assertTrue(walker.failed());
+            assertTrue(walker.timedOut());
+        }
+    }
+
+    private static void walk(final SnmpWalker walker) throws InterruptedException {
+        try {
+            walker.start();
+            assertTrue("walk should finish", walker.waitFor(TimeUnit.SECONDS.toMillis(30)));
+            assertFalse("walk should succeed: " + walker.getErrorMessage(), walker.failed());
+        } finally {
+            walker.close();
+        }
+    }
+
+    private static SnmpObjId[] getColumns() {
+        final SnmpObjId[] columns = new SnmpObjId[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            columns[i] = SnmpObjId.get(IF_ENTRY, Integer.toString(i + 1));
+        }
+        return columns;
+    }
+
+    private SnmpAgentConfig getAgentConfig() {
+        final SnmpAgentConfig config = new SnmpAgentConfig();
+        config.setAddress(m_agentAddress);
+        config.setPort(m_agentPort);
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        return config;
+    }
+}
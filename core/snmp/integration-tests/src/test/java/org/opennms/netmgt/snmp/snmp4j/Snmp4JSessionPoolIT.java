@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+
+/**
+ * Tests the {@link Snmp4JStrategy} using the shared sessions of a {@link Snmp4JSessionPool}.
+ */
+public class Snmp4JSessionPoolIT extends MockSnmpAgentITCase {
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    private Snmp4JSessionPool m_sessionPool;
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @After
+    public void closeSessionPool() {
+        Snmp4JStrategy.setSessionPool(null);
+        if (m_sessionPool != null) {
+            m_sessionPool.close();
+        }
+    }
+
+    private void useSessionPool(final int maxInFlightPerAgent) throws Exception {
+        m_sessionPool = new Snmp4JSessionPool(2, 2, maxInFlightPerAgent);
+        Snmp4JStrategy.setSessionPool(m_sessionPool);
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        useSessionPool(10);
+
+        for (int i = 0; i < 3; i++) {
+            final SnmpValue value = m_strategy.get(getAgentConfig(), SnmpObjId.get(".1.3.5.1.1.3.0"));
+            assertNotNull("value should not be null", value);
+            assertEquals(42, value.toInt());
+        }
+        assertEquals(3, m_sessionPool.getRequestCount());
+    }
+
+    @Test
+    public void testWalk() throws Exception {
+        useSessionPool(10);
+
+        final SnmpAgentConfig agentConfig = getAgentConfig();
+        agentConfig.setVersion(SnmpAgentConfig.VERSION2C);
+        agentConfig.setMaxRepetitions(2);
+
+        final List<SnmpResult> results = new ArrayList<>();
+        final ColumnTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.5.1.1"), 2, 1) {
+            @Override
+            protected void storeResult(final SnmpResult res) {
+                results.add(res);
+            }
+        };
+        try (final SnmpWalker walker = m_strategy.createWalker(agentConfig, "test", tracker)) {
+            walker.start();
+            assertTrue("walk should finish", walker.waitFor(TimeUnit.SECONDS.toMillis(10)));
+            assertTrue("walk should succeed: " + walker.getErrorMessage(), !walker.failed());
+        }
+
+        assertEquals(9, results.size());
+        assertTrue("the walk needs more than one request", m_sessionPool.getRequestCount() > 1);
+    }
+
+    @Test
+    public void testInFlightLimit() throws Exception {
+        useSessionPool(1);
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(m_strategy.getAsync(getAgentConfig(), new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") }));
+        }
+        for (final CompletableFuture<SnmpValue[]> future : futures) {
+            final SnmpValue[] values = future.get(10, TimeUnit.SECONDS);
+            assertEquals(42, values[0].toInt());
+        }
+
+        assertEquals(20, m_sessionPool.getRequestCount());
+        assertTrue("requests over the limit should be queued", m_sessionPool.getQueuedRequestCount() > 0);
+    }
+
+    @Test
+    public void testConflictingUsersUseDedicatedSessions() throws Exception {
+        useSessionPool(10);
+
+        final SnmpAgentConfig first = createV3AgentConfig("first-secret");
+        final SnmpAgentConfig second = createV3AgentConfig("first-secret");
+        second.setPort(first.getPort() + 1);
+        final SnmpAgentConfig conflicting = createV3AgentConfig("other-secret");
+
+        assertNotNull(m_sessionPool.getSession(new Snmp4JAgentConfig(first)));
+        assertNotNull(m_sessionPool.getSession(new Snmp4JAgentConfig(second)));
+        assertNull(m_sessionPool.getSession(new Snmp4JAgentConfig(conflicting)));
+
+        // The same agent is always handled by the same session
+        assertSame(m_sessionPool.getSession(new Snmp4JAgentConfig(first)), m_sessionPool.getSession(new Snmp4JAgentConfig(first)));
+
+        // Users bound to an engine ID do not conflict with the others
+        conflicting.setEngineId("0x80:00:1f:88:80:e9:63:00:00:d6:1f:f4:49");
+        assertNotNull(m_sessionPool.getSession(new Snmp4JAgentConfig(conflicting)));
+    }
+
+    private SnmpAgentConfig createV3AgentConfig(final String authPassPhrase) {
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setVersion(SnmpAgentConfig.VERSION3);
+        config.setSecurityName("opennmsUser");
+        config.setSecurityLevel(SnmpAgentConfig.AUTH_NOPRIV);
+        config.setAuthProtocol("MD5");
+        config.setAuthPassPhrase(authPassPhrase);
+        return config;
+    }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the throughput and the number of open sockets of the {@link Snmp4JStrategy}
+ * using a session per request and using the shared sessions of a {@link Snmp4JSessionPool}.
+ *
+ * The requests are sent asynchronously to the mock agent, keeping a fixed number of requests in flight.
+ */
+public class Snmp4JSessionPoolPerfIT extends MockSnmpAgentITCase {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPoolPerfIT.class);
+
+    private static final int REQUEST_COUNT = 5000;
+
+    private static final int REQUESTS_IN_FLIGHT = 50;
+
+    private static final File FD_DIRECTORY = new File("/proc/self/fd");
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @After
+    public void resetSessionPool() {
+        Snmp4JStrategy.setSessionPool(null);
+    }
+
+    @Test
+    public void compareSessionModes() throws Exception {
+        // warm up
+        run(REQUEST_COUNT / 10);
+        final Result perRequest = run(REQUEST_COUNT);
+
+        final Snmp4JSessionPool sessionPool = new Snmp4JSessionPool(2, Runtime.getRuntime().availableProcessors(), REQUESTS_IN_FLIGHT);
+        try {
+            Snmp4JStrategy.setSessionPool(sessionPool);
+            run(REQUEST_COUNT / 10);
+            final Result shared = run(REQUEST_COUNT);
+
+            LOG.info("{} requests: session per request={} requests/s, {} sockets opened, {} peak sockets; " +
+                    "shared sessions={} requests/s, {} sockets opened, {} peak sockets; speedup={}",
+                    REQUEST_COUNT,
+                    (long) perRequest.requestsPerSecond, REQUEST_COUNT, perRequest.peakSockets,
+                    (long) shared.requestsPerSecond, sessionPool.getTransportCount(), shared.peakSockets,
+                    String.format("%.2f", shared.requestsPerSecond / perRequest.requestsPerSecond));
+        } finally {
+            sessionPool.close();
+        }
+    }
+
+    private Result run(final int requestCount) throws Exception {
+        final SnmpObjId[] oids = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
+        final Semaphore inFlight = new Semaphore(REQUESTS_IN_FLIGHT);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong peakSockets = new AtomicLong();
+
+        final long baseline = countSockets();
+        final Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakSockets.accumulateAndGet(countSockets() - baseline, Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+            }
+        }, "socket-sampler");
+        sampler.start();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < requestCount; i++) {
+            inFlight.acquire();
+            m_strategy.getAsync(getAgentConfig(), oids).whenComplete((values, ex) -> {
+                if (ex != null || values == null || values[0] == null) {
+                    failures.incrementAndGet();
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(REQUESTS_IN_FLIGHT);
+        final long elapsed = System.nanoTime() - start;
+
+        sampler.interrupt();
+        sampler.join();
+
+        assertEquals("all requests should succeed", 0, failures.get());
+        return new Result(requestCount / (elapsed / (double) TimeUnit.SECONDS.toNanos(1)), peakSockets.get());
+    }
+
+    /**
+     * Counts the sockets opened by this process, which is only supported on Linux.
+     */
+    private static long countSockets() {
+        if (!FD_DIRECTORY.isDirectory()) {
+            return 0;
+        }
+        try (Stream<Path> fds = Files.list(FD_DIRECTORY.toPath())) {
+            return fds.filter(fd -> {
+                try {
+                    return Files.readSymbolicLink(fd).toString().startsWith("socket:");
+                } catch (final IOException e) {
+                    // The descriptor was closed in the meantime
+                    return false;
+                }
+            }).count();
+        } catch (final IOException e) {
+            return 0;
+        }
+    }
+
+    private static class Result {
+        private final double requestsPerSecond;
+        private final long peakSockets;
+
+        private Result(final double requestsPerSecond, final long peakSockets) {
+            this.requestsPerSecond = requestsPerSecond;
+            this.peakSockets = peakSockets;
+        }
+    }
+}
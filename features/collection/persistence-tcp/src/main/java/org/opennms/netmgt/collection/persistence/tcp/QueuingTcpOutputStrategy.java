@@ -28,14 +28,26 @@
 
 package org.opennms.netmgt.collection.persistence.tcp;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.opennms.netmgt.rrd.tcp.RrdOutputSocket;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReadings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,127 +55,277 @@ import org.slf4j.LoggerFactory;
  * Provides a queued implementation of TcpOutputStrategy that pushes update
  * commands in multiple readings at a time.
  * <p>
+ * The readings are distributed over a number of connections by the resource
+ * they belong to, so the readings of a resource are always sent in order. Each
+ * connection has its own queue and sender thread, which coalesces the queued
+ * readings into frames of up to {@code batchSize} readings.
+ * </p>
+ * <p>
+ * By default every frame is sent as a single {@link PerformanceDataReadings}
+ * message over a new connection, which is what existing receivers expect. In
+ * delimited mode the connections are kept open and every frame is prefixed
+ * with its length as a varint, the same as
+ * {@link PerformanceDataReadings#writeDelimitedTo(OutputStream)} does.
+ * </p>
+ * <p>
+ * While the receiver is unreachable, frames are appended to a bounded spill
+ * file per connection if a spill directory is configured, and dropped
+ * otherwise. Spilled frames are replayed before any new frame once the
+ * receiver is back, and survive a restart.
+ * </p>
+ * <p>
  * The receiver of this strategy is not defined in any way. This is just a fire
  * and forget strategy. There is no way to read data back into opennms.
  * </p>
  */
-public class QueuingTcpOutputStrategy implements TcpOutputStrategy {
+public class QueuingTcpOutputStrategy implements TcpOutputStrategy, Closeable {
     private static final long SLEEP_TIME = Long.getLong("org.opennms.netmgt.persistence.tcp.queuingTcpSleepTime", 1000);
     private static final long OFFER_WAIT_TIME = Long.getLong("org.opennms.netmgt.persistence.tcp.queuingTcpOfferWaitTime", 500);
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("org.opennms.netmgt.persistence.tcp.queuingTcpConnectTimeout", 5000);
+    private static final long MIN_RETRY_DELAY = Long.getLong("org.opennms.netmgt.persistence.tcp.queuingTcpMinRetryDelay", 1000);
+    private static final long MAX_RETRY_DELAY = Long.getLong("org.opennms.netmgt.persistence.tcp.queuingTcpMaxRetryDelay", 30000);
+    static final long CLOSE_CHECK_INTERVAL = Long.getLong("org.opennms.netmgt.persistence.tcp.queuingTcpCloseCheckInterval", 1000);
     private static final boolean LOGGING = Boolean.getBoolean("org.opennms.netmgt.persistence.tcp.queuingTcpLogging");
     private static final long LOGGING_INTERVAL = Long.getLong("org.opennms.netmgt.persistence.tcp.queuingTcpLoggingInterval", 300000);
     private static final Logger LOG = LoggerFactory.getLogger(QueuingTcpOutputStrategy.class);
 
-    private final BlockingQueue<PerformanceDataReading> m_queue;
-    private int m_skippedReadings = 0;
-    private int m_totalOffers = 0;
-    private int m_goodOffers = 0;
-    private int m_badOffers = 0;
+    public static final int DEFAULT_CONNECTIONS = 1;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
 
-    private static class PerformanceDataReading {
-        private String m_filename;
-        private String m_owner;
-        private Long m_timestamp;
-        private List<Double> m_dblValues;
-        private List<String> m_strValues;
-        public PerformanceDataReading(String filename, String owner, Long timestamp, List<Double> dblValues, List<String> strValues) {
-            m_filename = filename;
-            m_owner = owner;
-            m_timestamp = timestamp;
-            m_dblValues = dblValues;
-            m_strValues = strValues;
-        }
-        public String getFilename() {
-            return m_filename;
-        }
-        public String getOwner() {
-            return m_owner;
-        }
-        public Long getTimestamp() {
-            return m_timestamp;
-        }
-        public List<Double> getDblValues() {
-            return m_dblValues;
-        }
-        public List<String> getStrValues() {
-            return m_strValues;
-        }
-    }
+    private final Sender[] m_senders;
+    private final LogThread m_logThread;
 
-    private static class ConsumerThread extends Thread {
-        private final BlockingQueue<PerformanceDataReading> m_myQueue;
-        private final SimpleTcpOutputStrategy m_strategy;
-        private long m_queueChecks = 0;
-        private long m_queueDrains = 0;
-        private long m_sentReadings = 0;
+    private final AtomicLong m_skippedReadings = new AtomicLong();
+    private final AtomicLong m_totalOffers = new AtomicLong();
+    private final AtomicLong m_goodOffers = new AtomicLong();
+    private final AtomicLong m_badOffers = new AtomicLong();
 
-        public ConsumerThread(final SimpleTcpOutputStrategy strategy, final BlockingQueue<PerformanceDataReading> queue) {
-            m_strategy = strategy;
-            m_myQueue = queue;
-            this.setName(this.getClass().getSimpleName());
+    private final AtomicLong m_sentFrames = new AtomicLong();
+    private final AtomicLong m_sentReadings = new AtomicLong();
+    private final AtomicLong m_droppedReadings = new AtomicLong();
+    private final AtomicLong m_spilledFrames = new AtomicLong();
+    private final AtomicLong m_replayedFrames = new AtomicLong();
+
+    private class Sender extends Thread {
+        private final BlockingQueue<PerformanceDataReading> m_queue;
+        private final SpillBuffer m_spill;
+        private final String m_host;
+        private final int m_port;
+        private final int m_batchSize;
+        private final boolean m_delimited;
+
+        private volatile boolean m_closed = false;
+
+        private SocketChannel m_channel;
+        private OutputStream m_out;
+        private final ByteBuffer m_probe = ByteBuffer.allocate(1);
+        private long m_checkAt = 0;
+        private boolean m_down = false;
+        private boolean m_dropping = false;
+        private long m_retryDelay = 0;
+        private long m_retryAt = 0;
+
+        public Sender(int index, String host, int port, int queueSize, int batchSize, boolean delimited, SpillBuffer spill) {
+            m_queue = new LinkedBlockingQueue<>(queueSize);
+            m_host = host;
+            m_port = port;
+            m_batchSize = batchSize;
+            m_delimited = delimited;
+            m_spill = spill;
+            this.setName(QueuingTcpOutputStrategy.class.getSimpleName() + "-Sender-" + index);
+            this.setDaemon(true);
         }
 
         @Override
         public void run() {
+            final List<PerformanceDataReading> batch = new ArrayList<>(m_batchSize);
             try {
-                while (true) {
-                    boolean drain = false;
-                    long sentReadings = 0;
-                    Collection<PerformanceDataReading> sendMe = new ArrayList<>();
-                    if (m_myQueue.drainTo(sendMe) > 0) {
-                        drain = true;
-                        sentReadings = sendMe.size();
-                        RrdOutputSocket socket = new RrdOutputSocket(m_strategy.getHost(), m_strategy.getPort());
-                        for (PerformanceDataReading reading : sendMe) {
-                            socket.addData(reading.getFilename(), reading.getOwner(), reading.getTimestamp(), reading.getDblValues(), reading.getStrValues());
-                        }
-                        socket.writeData();
+                while (!m_closed) {
+                    replay();
+                    if (m_queue.drainTo(batch, m_batchSize) > 0) {
+                        send(batch);
+                        batch.clear();
                     } else {
                         Thread.sleep(SLEEP_TIME);
                     }
-                    if (LOGGING) {
-                        countDrainStats(drain, sentReadings);
-                    }
                 }
             } catch (InterruptedException e) {
-                LOG.warn("InterruptedException caught in QueuingTcpOutputStrategy$ConsumerThread, closing thread");
+                LOG.debug("{} interrupted", getName());
             } catch (Throwable e) {
-                LOG.error("Unexpected exception caught in QueuingTcpOutputStrategy$ConsumerThread, closing thread", e);
+                LOG.error("Unexpected exception caught in QueuingTcpOutputStrategy$Sender, closing thread", e);
+            }
+
+            // Hand over whatever is left in the queue before closing
+            batch.clear();
+            while (m_queue.drainTo(batch, m_batchSize) > 0) {
+                send(batch);
+                batch.clear();
+            }
+            disconnect();
+            if (m_spill != null) {
+                try {
+                    m_spill.close();
+                } catch (IOException e) {
+                    LOG.warn("IOException when closing spill file {}: {}", m_spill.getFile(), e.getMessage());
+                }
             }
         }
 
-        public void countDrainStats(boolean drain, long readings) {
-            m_queueChecks++;
-            if (drain) {
-                m_queueDrains++;
-                m_sentReadings += readings;
+        private void replay() {
+            if (m_spill == null || m_spill.isEmpty()) {
+                return;
+            }
+            try {
+                byte[] frame;
+                while ((frame = m_spill.peek()) != null && write(frame)) {
+                    m_spill.remove();
+                    m_replayedFrames.incrementAndGet();
+                    if (m_spill.isEmpty()) {
+                        LOG.info("Replayed all spilled performance data to {}:{}", m_host, m_port);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Failed to read spill file {}", m_spill.getFile(), e);
             }
         }
-        public void clearDrainStats() {
-            m_queueChecks = 0;
-            m_queueDrains = 0;
-            m_sentReadings = 0;
+
+        private void send(final List<PerformanceDataReading> batch) {
+            final byte[] frame = PerformanceDataReadings.newBuilder().addAllMessage(batch).build().toByteArray();
+
+            // Frames must not overtake the spilled ones
+            if ((m_spill == null || m_spill.isEmpty()) && write(frame)) {
+                m_sentFrames.incrementAndGet();
+                m_sentReadings.addAndGet(batch.size());
+                return;
+            }
+
+            if (m_spill != null) {
+                try {
+                    if (m_spill.append(frame)) {
+                        m_spilledFrames.incrementAndGet();
+                        return;
+                    }
+                } catch (IOException e) {
+                    LOG.error("Failed to write spill file {}", m_spill.getFile(), e);
+                }
+            }
+
+            if (!m_dropping) {
+                LOG.warn("Dropping performance data for {}:{}, the receiver is unreachable and there is no room left to spill it", m_host, m_port);
+                m_dropping = true;
+            }
+            m_droppedReadings.addAndGet(batch.size());
         }
-        public long getQueueChecks() {
-            return m_queueChecks;
+
+        /**
+         * @return true if the frame was written to the receiver
+         */
+        private boolean write(final byte[] frame) {
+            final long now = System.currentTimeMillis();
+            if (now < m_retryAt) {
+                return false;
+            }
+            try {
+                if (m_delimited) {
+                    connect(now);
+                    writeVarint(m_out, frame.length);
+                    m_out.write(frame);
+                    m_out.flush();
+                } else {
+                    try (Socket socket = new Socket()) {
+                        socket.connect(new InetSocketAddress(InetAddressUtils.addr(m_host), m_port), CONNECT_TIMEOUT);
+                        final OutputStream out = socket.getOutputStream();
+                        out.write(frame);
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                disconnect();
+                m_retryDelay = m_retryDelay == 0 ? MIN_RETRY_DELAY : Math.min(m_retryDelay * 2, MAX_RETRY_DELAY);
+                m_retryAt = now + m_retryDelay;
+                if (!m_down) {
+                    LOG.warn("Error when sending performance data to {}:{}, retrying in {} ms: {}", m_host, m_port, m_retryDelay, e.getMessage());
+                    m_down = true;
+                } else {
+                    LOG.debug("Error when sending performance data to {}:{}, retrying in {} ms: {}", m_host, m_port, m_retryDelay, e.getMessage());
+                }
+                return false;
+            }
+
+            if (m_down) {
+                LOG.info("Sending performance data to {}:{} again", m_host, m_port);
+                m_down = false;
+            }
+            m_dropping = false;
+            m_retryDelay = 0;
+            return true;
         }
-        public long getQueueDrains() {
-            return m_queueDrains;
+
+        private void connect(final long now) throws IOException {
+            // The receiver never writes anything, so an end of stream tells us that it has
+            // closed the connection. Frames written after that would be silently lost, so
+            // this is checked every once in a while, without blocking.
+            if (m_channel != null && now >= m_checkAt) {
+                if (closedByReceiver()) {
+                    LOG.debug("The connection to {}:{} was closed by the receiver, reconnecting", m_host, m_port);
+                    disconnect();
+                } else {
+                    m_checkAt = now + CLOSE_CHECK_INTERVAL;
+                }
+            }
+            if (m_channel == null) {
+                final SocketChannel channel = SocketChannel.open();
+                try {
+                    channel.socket().connect(new InetSocketAddress(InetAddressUtils.addr(m_host), m_port), CONNECT_TIMEOUT);
+                    m_out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                    m_channel = channel;
+                    m_checkAt = now + CLOSE_CHECK_INTERVAL;
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
         }
-        public long getSentReadings() {
-            return m_sentReadings;
+
+        private boolean closedByReceiver() {
+            try {
+                m_channel.configureBlocking(false);
+                m_probe.clear();
+                final boolean closed = m_channel.read(m_probe) < 0;
+                m_channel.configureBlocking(true);
+                return closed;
+            } catch (IOException e) {
+                // Reset by the receiver
+                return true;
+            }
+        }
+
+        private void disconnect() {
+            if (m_channel != null) {
+                try {
+                    m_channel.close();
+                } catch (IOException e) {
+                    LOG.warn("IOException when closing TCP performance data socket: {}", e.getMessage());
+                }
+                m_channel = null;
+                m_out = null;
+            }
+        }
+
+        public void close() throws InterruptedException {
+            // Not interrupted, an interrupt during a write closes the channel, which
+            // would fail the remaining frames although the receiver is up
+            m_closed = true;
+            join();
         }
     }
 
     private static class LogThread extends Thread {
-        private final BlockingQueue<PerformanceDataReading> m_myQueue;
         private final QueuingTcpOutputStrategy m_strategy;
-        private final ConsumerThread m_consumer;
-        public LogThread(final QueuingTcpOutputStrategy strategy, final ConsumerThread consumer, final BlockingQueue<PerformanceDataReading> queue) {
+        public LogThread(final QueuingTcpOutputStrategy strategy) {
             m_strategy = strategy;
-            m_myQueue = queue;
-            m_consumer = consumer;
             this.setName(this.getClass().getSimpleName());
+            this.setDaemon(true);
         }
 
         @Override
@@ -173,20 +335,18 @@ public class QueuingTcpOutputStrategy implements TcpOutputStrategy {
                     long totalOffers = m_strategy.getTotalOffers();
                     long badOffers = m_strategy.getBadOffers();
                     long goodOffers = m_strategy.getGoodOffers();
-                    long queueChecks = m_consumer.getQueueChecks();
-                    long queueDrains = m_consumer.getQueueDrains();
-                    long queueSize = m_myQueue.size();
-                    long queueRemaining = m_myQueue.remainingCapacity();
-                    long sentReadings = m_consumer.getSentReadings();
-                    LOG.info("Queue offers: " + totalOffers + " total, " + goodOffers + " good, " + badOffers + " bad; queue drains: " + queueChecks + " checks, " + queueDrains + " drains, " + sentReadings + " readings; queue state: " + queueSize + " elements, " + queueRemaining + " remaining capacity");
+                    LOG.info("Queue offers: " + totalOffers + " total, " + goodOffers + " good, " + badOffers + " bad; "
+                            + "queue state: " + m_strategy.getQueueSize() + " elements, " + m_strategy.getQueueRemainingCapacity() + " remaining capacity; "
+                            + "sent: " + m_strategy.getSentFrames() + " frames, " + m_strategy.getSentReadings() + " readings, " + m_strategy.getDroppedReadings() + " readings dropped; "
+                            + "spill: " + m_strategy.getSpilledFrames() + " frames spilled, " + m_strategy.getReplayedFrames() + " frames replayed, "
+                            + m_strategy.getSpillFrames() + " frames and " + m_strategy.getSpillBytes() + " bytes pending");
                     m_strategy.clearOfferStats();
-                    m_consumer.clearDrainStats();
                     Thread.sleep(LOGGING_INTERVAL);
                 }
             } catch (InterruptedException e) {
-                LOG.warn("InterruptedException caught in QueuingTcpOutputStrategy$ConsumerThread, closing thread");
+                LOG.debug("InterruptedException caught in QueuingTcpOutputStrategy$LogThread, closing thread");
             } catch (Throwable e) {
-                LOG.error("Unexpected exception caught in QueuingTcpOutputStrategy$ConsumerThread, closing thread", e);
+                LOG.error("Unexpected exception caught in QueuingTcpOutputStrategy$LogThread, closing thread", e);
             }
         }
     }
@@ -196,54 +356,205 @@ public class QueuingTcpOutputStrategy implements TcpOutputStrategy {
      *
      * @param delegate a {@link org.opennms.netmgt.rrd.tcp.SimpleTcpOutputStrategy} object.
      */
-    public QueuingTcpOutputStrategy(SimpleTcpOutputStrategy delegate, int queueSize) {
-        m_queue = new LinkedBlockingQueue<PerformanceDataReading>(queueSize);
-        ConsumerThread consumerThread = new ConsumerThread(delegate, m_queue);
-        consumerThread.start();
+    public QueuingTcpOutputStrategy(SimpleTcpOutputStrategy delegate, int queueSize) throws IOException {
+        this(delegate, queueSize, DEFAULT_CONNECTIONS, DEFAULT_BATCH_SIZE, false, null, 0);
+    }
+
+    /**
+     * <p>Constructor for QueuingTcpOutputStrategy.</p>
+     *
+     * @param delegate provides the host and port of the receiver
+     * @param queueSize the total number of readings which can be queued
+     * @param connections the number of connections to the receiver
+     * @param batchSize the maximum number of readings in a single frame
+     * @param delimited whether to prefix the frames with their length and keep the connections open
+     * @param spillDirectory the directory of the spill files, or null or empty to drop frames while the receiver is unreachable
+     * @param spillMaxBytes the total size of the spill files
+     */
+    public QueuingTcpOutputStrategy(SimpleTcpOutputStrategy delegate, int queueSize, int connections, int batchSize, boolean delimited, File spillDirectory, long spillMaxBytes) throws IOException {
+        if (connections < 1) {
+            throw new IllegalArgumentException("The number of connections must be positive, but was " + connections);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive, but was " + batchSize);
+        }
+        final boolean spill = spillDirectory != null && !spillDirectory.getPath().isEmpty() && spillMaxBytes > 0;
+        if (spill && !spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+            throw new IOException("Failed to create spill directory " + spillDirectory);
+        }
+
+        m_senders = new Sender[connections];
+        for (int i = 0; i < connections; i++) {
+            final SpillBuffer spillBuffer = spill
+                    ? new SpillBuffer(new File(spillDirectory, "tcp-spill-" + i + ".dat"), spillMaxBytes / connections)
+                    : null;
+            m_senders[i] = new Sender(i, delegate.getHost(), delegate.getPort(), Math.max(1, queueSize / connections), batchSize, delimited, spillBuffer);
+        }
+        for (final Sender sender : m_senders) {
+            sender.start();
+        }
+
         if (LOGGING) {
-            LogThread logThread = new LogThread(this, consumerThread, m_queue);
-            logThread.start();
+            m_logThread = new LogThread(this);
+            m_logThread.start();
+        } else {
+            m_logThread = null;
         }
     }
 
     /** {@inheritDoc} */
     @Override
     public void updateData(String path, String owner, Long timestamp, List<Double> dblValues, List<String> strValues) throws Exception {
+        final PerformanceDataReading reading = PerformanceDataReading.newBuilder()
+                .setPath(path)
+                .setOwner(owner)
+                .setTimestamp(timestamp * 1000)
+                .addAllDblValue(dblValues)
+                .addAllStrValue(strValues)
+                .build();
+
         boolean offerGood = false;
-        if (m_queue.offer(new PerformanceDataReading(path, owner, timestamp, dblValues, strValues), OFFER_WAIT_TIME, TimeUnit.MILLISECONDS)) {
+        if (m_senders[senderOf(path, m_senders.length)].m_queue.offer(reading, OFFER_WAIT_TIME, TimeUnit.MILLISECONDS)) {
             offerGood = true;
-            if (m_skippedReadings > 0) {
-                LOG.warn("Skipped {} performance data message(s) because of queue overflow", m_skippedReadings);
-                m_skippedReadings = 0;
+            final long skippedReadings = m_skippedReadings.getAndSet(0);
+            if (skippedReadings > 0) {
+                LOG.warn("Skipped {} performance data message(s) because of queue overflow", skippedReadings);
             }
         } else {
-            m_skippedReadings++;
+            m_skippedReadings.incrementAndGet();
         }
-        if (LOGGING) {
-            countOfferStats(offerGood);
+        countOfferStats(offerGood);
+    }
+
+    /**
+     * Readings are distributed by the directory of their path, which is the
+     * resource they belong to.
+     */
+    protected static int senderOf(String path, int senders) {
+        if (senders == 1) {
+            return 0;
+        }
+        final int end = path.lastIndexOf(File.separatorChar);
+        final String resource = end > 0 ? path.substring(0, end) : path;
+        return Math.floorMod(resource.hashCode(), senders);
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Stops the sender threads after they have sent, spilled or dropped
+     * the queued readings.
+     */
+    @Override
+    public void close() {
+        if (m_logThread != null) {
+            m_logThread.interrupt();
+        }
+        for (final Sender sender : m_senders) {
+            try {
+                sender.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
     }
 
     public void countOfferStats(boolean goodOffer) {
-        m_totalOffers++;
+        m_totalOffers.incrementAndGet();
         if (goodOffer) {
-            m_goodOffers++;
+            m_goodOffers.incrementAndGet();
         } else {
-            m_badOffers++;
+            m_badOffers.incrementAndGet();
         }
     }
     public void clearOfferStats() {
-        m_totalOffers = 0;
-        m_goodOffers = 0;
-        m_badOffers = 0;
+        m_totalOffers.set(0);
+        m_goodOffers.set(0);
+        m_badOffers.set(0);
     }
     public long getTotalOffers() {
-        return m_totalOffers;
+        return m_totalOffers.get();
     }
     public long getGoodOffers() {
-        return m_goodOffers;
+        return m_goodOffers.get();
     }
     public long getBadOffers() {
-        return m_badOffers;
+        return m_badOffers.get();
+    }
+
+    /**
+     * @return the number of readings waiting in the queues
+     */
+    public long getQueueSize() {
+        long size = 0;
+        for (final Sender sender : m_senders) {
+            size += sender.m_queue.size();
+        }
+        return size;
+    }
+    public long getQueueRemainingCapacity() {
+        long remaining = 0;
+        for (final Sender sender : m_senders) {
+            remaining += sender.m_queue.remainingCapacity();
+        }
+        return remaining;
+    }
+
+    /**
+     * @return the number of frames sent without being spilled since startup
+     */
+    public long getSentFrames() {
+        return m_sentFrames.get();
+    }
+    /**
+     * @return the number of readings sent without being spilled since startup
+     */
+    public long getSentReadings() {
+        return m_sentReadings.get();
+    }
+    /**
+     * @return the number of readings dropped because they could neither be sent nor spilled since startup
+     */
+    public long getDroppedReadings() {
+        return m_droppedReadings.get();
+    }
+    /**
+     * @return the number of frames appended to the spill files since startup
+     */
+    public long getSpilledFrames() {
+        return m_spilledFrames.get();
+    }
+    /**
+     * @return the number of frames sent from the spill files since startup
+     */
+    public long getReplayedFrames() {
+        return m_replayedFrames.get();
+    }
+    /**
+     * @return the number of frames waiting in the spill files
+     */
+    public long getSpillFrames() {
+        long frames = 0;
+        for (final Sender sender : m_senders) {
+            frames += sender.m_spill != null ? sender.m_spill.getFrames() : 0;
+        }
+        return frames;
+    }
+    /**
+     * @return the number of bytes waiting in the spill files
+     */
+    public long getSpillBytes() {
+        long bytes = 0;
+        for (final Sender sender : m_senders) {
+            bytes += sender.m_spill != null ? sender.m_spill.getBytes() : 0;
+        }
+        return bytes;
     }
 }
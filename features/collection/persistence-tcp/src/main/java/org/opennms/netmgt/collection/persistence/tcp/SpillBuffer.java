@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collection.persistence.tcp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded first-in first-out buffer of frames stored in a file.
+ * <p>
+ * The file starts with the position of the oldest frame which has not been
+ * removed yet, followed by the frames, each one prefixed with its length.
+ * Frames left in the file are recovered when the buffer is opened again, and
+ * a frame torn by a crash while being appended is discarded. The file is
+ * truncated whenever the buffer runs empty.
+ * </p>
+ * <p>
+ * The buffer is not meant to be shared: it is written and read by a single
+ * thread. Only the statistics may be read concurrently.
+ * </p>
+ */
+public class SpillBuffer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillBuffer.class);
+
+    private static final int HEADER_SIZE = Long.BYTES;
+
+    private final File m_file;
+    private final long m_maxBytes;
+    private final RandomAccessFile m_raf;
+
+    private long m_readPosition;
+    private long m_writePosition;
+
+    private volatile int m_frames;
+    private volatile long m_bytes;
+
+    public SpillBuffer(File file, long maxBytes) throws IOException {
+        m_file = file;
+        m_maxBytes = maxBytes;
+        m_raf = new RandomAccessFile(file, "rw");
+        recover();
+    }
+
+    private void recover() throws IOException {
+        final long length = m_raf.length();
+        if (length < HEADER_SIZE) {
+            reset();
+            return;
+        }
+
+        m_raf.seek(0);
+        m_readPosition = m_raf.readLong();
+        if (m_readPosition < HEADER_SIZE || m_readPosition > length) {
+            LOG.warn("Discarding spill file {} with a corrupt header", m_file);
+            reset();
+            return;
+        }
+
+        // Walk over the frames to find the end of the last complete one
+        long position = m_readPosition;
+        int frames = 0;
+        while (position + Integer.BYTES <= length) {
+            m_raf.seek(position);
+            final int size = m_raf.readInt();
+            if (size < 0 || position + Integer.BYTES + size > length) {
+                break;
+            }
+            position += Integer.BYTES + size;
+            frames++;
+        }
+        if (position < length) {
+            LOG.warn("Discarding {} bytes of an incomplete frame at the end of spill file {}", length - position, m_file);
+            m_raf.setLength(position);
+        }
+
+        m_writePosition = position;
+        m_frames = frames;
+        m_bytes = m_writePosition - m_readPosition;
+        if (frames == 0) {
+            reset();
+        } else {
+            LOG.info("Recovered {} frame(s) with {} bytes from spill file {}", frames, m_bytes, m_file);
+        }
+    }
+
+    private void reset() throws IOException {
+        m_raf.setLength(HEADER_SIZE);
+        m_raf.seek(0);
+        m_raf.writeLong(HEADER_SIZE);
+        m_readPosition = HEADER_SIZE;
+        m_writePosition = HEADER_SIZE;
+        m_frames = 0;
+        m_bytes = 0;
+    }
+
+    /**
+     * Appends a frame to the end of the buffer.
+     *
+     * @return false if the frame does not fit into the buffer
+     */
+    public synchronized boolean append(byte[] frame) throws IOException {
+        if (m_writePosition - HEADER_SIZE + Integer.BYTES + frame.length > m_maxBytes) {
+            return false;
+        }
+        m_raf.seek(m_writePosition);
+        m_raf.writeInt(frame.length);
+        m_raf.write(frame);
+        m_writePosition += Integer.BYTES + frame.length;
+        m_frames++;
+        m_bytes = m_writePosition - m_readPosition;
+        return true;
+    }
+
+    /**
+     * @return the oldest frame in the buffer, or null if the buffer is empty
+     */
+    public synchronized byte[] peek() throws IOException {
+        if (m_frames == 0) {
+            return null;
+        }
+        m_raf.seek(m_readPosition);
+        final byte[] frame = new byte[m_raf.readInt()];
+        m_raf.readFully(frame);
+        return frame;
+    }
+
+    /**
+     * Removes the oldest frame from the buffer.
+     */
+    public synchronized void remove() throws IOException {
+        if (m_frames == 0) {
+            return;
+        }
+        if (m_frames == 1) {
+            reset();
+            return;
+        }
+        m_raf.seek(m_readPosition);
+        m_readPosition += Integer.BYTES + m_raf.readInt();
+        m_raf.seek(0);
+        m_raf.writeLong(m_readPosition);
+        m_frames--;
+        m_bytes = m_writePosition - m_readPosition;
+    }
+
+    public boolean isEmpty() {
+        return m_frames == 0;
+    }
+
+    /**
+     * @return the number of frames in the buffer
+     */
+    public int getFrames() {
+        return m_frames;
+    }
+
+    /**
+     * @return the number of bytes used by the frames in the buffer
+     */
+    public long getBytes() {
+        return m_bytes;
+    }
+
+    public File getFile() {
+        return m_file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        m_raf.close();
+    }
+}
@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collection.persistence.tcp;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReadings;
+
+public class QueuingTcpOutputStrategyTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Receiver receiver;
+
+    private QueuingTcpOutputStrategy strategy;
+
+    @After
+    public void tearDown() throws IOException {
+        if (strategy != null) {
+            strategy.close();
+        }
+        if (receiver != null) {
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void coalescesReadingsIntoDelimitedFrames() throws Exception {
+        receiver = new Receiver(0);
+        strategy = new QueuingTcpOutputStrategy(target(receiver.getPort()), 1000, 1, 100, true, null, 0);
+
+        for (long i = 1; i <= 250; i++) {
+            strategy.updateData(path("1", "eth0", "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> receiver.getReadings().size() == 250);
+
+        // The readings are sent in order, in frames of at most 100 readings over a single connection
+        assertEquals(timestamps(1, 250), receiver.getTimestamps(path("1", "eth0", "ifInOctets")));
+        assertTrue(receiver.getFrames().size() < 250);
+        for (final PerformanceDataReadings frame : receiver.getFrames()) {
+            assertTrue(frame.getMessageCount() <= 100);
+        }
+        assertEquals(1, receiver.getConnections());
+        assertEquals(250, strategy.getSentReadings());
+        assertEquals(receiver.getFrames().size(), strategy.getSentFrames());
+    }
+
+    @Test
+    public void keepsReadingsOfAResourceOnOneConnectionInOrder() throws Exception {
+        receiver = new Receiver(0);
+        strategy = new QueuingTcpOutputStrategy(target(receiver.getPort()), 10000, 4, 50, true, null, 0);
+
+        for (long i = 1; i <= 100; i++) {
+            for (int node = 1; node <= 20; node++) {
+                strategy.updateData(path(Integer.toString(node), "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+                strategy.updateData(path(Integer.toString(node), "ifOutOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+            }
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> receiver.getReadings().size() == 4000);
+
+        assertEquals(4, receiver.getConnections());
+        for (int node = 1; node <= 20; node++) {
+            final String in = path(Integer.toString(node), "ifInOctets");
+            final String out = path(Integer.toString(node), "ifOutOctets");
+            assertEquals(timestamps(1, 100), receiver.getTimestamps(in));
+            assertEquals(timestamps(1, 100), receiver.getTimestamps(out));
+
+            // Both attributes of a node share the connection
+            final int connection = receiver.getConnection(in);
+            assertTrue(connection >= 0);
+            assertEquals(connection, receiver.getConnection(out));
+        }
+    }
+
+    @Test
+    public void reconnectsWhenReceiverClosesTheConnection() throws Exception {
+        receiver = new Receiver(0);
+        strategy = new QueuingTcpOutputStrategy(target(receiver.getPort()), 1000, 1, 10, true, null, 0);
+
+        for (long i = 1; i <= 10; i++) {
+            strategy.updateData(path("1", "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> receiver.getReadings().size() == 10);
+
+        // Give the sender the time to notice that the connection was closed
+        receiver.closeConnections();
+        Thread.sleep(QueuingTcpOutputStrategy.CLOSE_CHECK_INTERVAL + 500);
+
+        for (long i = 11; i <= 20; i++) {
+            strategy.updateData(path("1", "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> receiver.getReadings().size() == 20);
+
+        assertEquals(timestamps(1, 20), receiver.getTimestamps(path("1", "ifInOctets")));
+        assertEquals(2, receiver.getConnections());
+        assertEquals(0, strategy.getDroppedReadings());
+    }
+
+    @Test
+    public void sendsQueuedReadingsWhenClosed() throws Exception {
+        receiver = new Receiver(0);
+        final File spillDirectory = tempFolder.newFolder("spill");
+        strategy = new QueuingTcpOutputStrategy(target(receiver.getPort()), 10000, 2, 10, true, spillDirectory, 1024 * 1024);
+
+        for (long i = 1; i <= 500; i++) {
+            for (int node = 1; node <= 10; node++) {
+                strategy.updateData(path(Integer.toString(node), "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+            }
+        }
+        strategy.close();
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> receiver.getReadings().size() == 5000);
+        assertEquals(0, strategy.getSpilledFrames());
+        assertEquals(0, strategy.getDroppedReadings());
+        assertEquals(5000, strategy.getSentReadings());
+    }
+
+    @Test
+    public void spillsWhileReceiverIsUnreachable() throws Exception {
+        final int port = freePort();
+        final File spillDirectory = tempFolder.newFolder("spill");
+        strategy = new QueuingTcpOutputStrategy(target(port), 1000, 1, 10, true, spillDirectory, 1024 * 1024);
+
+        for (long i = 1; i <= 30; i++) {
+            strategy.updateData(path("1", "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> strategy.getSpilledFrames() >= 3);
+        assertTrue(strategy.getSpillBytes() > 0);
+        assertEquals(0, strategy.getDroppedReadings());
+
+        // Readings queued during the outage go to the spill file as well
+        for (long i = 31; i <= 40; i++) {
+            strategy.updateData(path("1", "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> strategy.getSpilledFrames() >= 4);
+
+        receiver = new Receiver(port);
+        await().atMost(60, TimeUnit.SECONDS).until(() -> receiver.getReadings().size() == 40);
+
+        assertEquals(timestamps(1, 40), receiver.getTimestamps(path("1", "ifInOctets")));
+        assertEquals(strategy.getSpilledFrames(), strategy.getReplayedFrames());
+        assertEquals(0, strategy.getSpillFrames());
+        assertEquals(0, strategy.getSpillBytes());
+    }
+
+    @Test
+    public void replaysSpilledFramesAfterRestart() throws Exception {
+        final int port = freePort();
+        final File spillDirectory = tempFolder.newFolder("spill");
+        strategy = new QueuingTcpOutputStrategy(target(port), 1000, 1, 10, true, spillDirectory, 1024 * 1024);
+        for (long i = 1; i <= 20; i++) {
+            strategy.updateData(path("1", "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> strategy.getSpilledFrames() >= 2);
+        strategy.close();
+        final long spilledFrames = strategy.getSpillFrames();
+
+        // The spilled frames are recovered from the spill file
+        strategy = new QueuingTcpOutputStrategy(target(port), 1000, 1, 10, true, spillDirectory, 1024 * 1024);
+        assertEquals(spilledFrames, strategy.getSpillFrames());
+
+        receiver = new Receiver(port);
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> receiver.getReadings().size() == 20);
+        assertEquals(timestamps(1, 20), receiver.getTimestamps(path("1", "ifInOctets")));
+        assertEquals(spilledFrames, strategy.getReplayedFrames());
+    }
+
+    @Test
+    public void dropsWhenThereIsNoRoomToSpill() throws Exception {
+        final int port = freePort();
+        strategy = new QueuingTcpOutputStrategy(target(port), 1000, 1, 10, true, tempFolder.newFolder("spill"), 1);
+
+        for (long i = 1; i <= 30; i++) {
+            strategy.updateData(path("1", "ifInOctets"), "127.0.0.1", i, Collections.singletonList((double) i), Collections.emptyList());
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> strategy.getDroppedReadings() == 30);
+        assertEquals(0, strategy.getSpilledFrames());
+        assertEquals(0, strategy.getQueueSize());
+    }
+
+    @Test
+    public void distributesResourcesOverSenders() {
+        assertEquals(0, QueuingTcpOutputStrategy.senderOf(path("1", "eth0", "ifInOctets"), 1));
+        for (int node = 1; node <= 100; node++) {
+            final int sender = QueuingTcpOutputStrategy.senderOf(path(Integer.toString(node), "ifInOctets"), 7);
+            assertTrue(sender >= 0 && sender < 7);
+            assertEquals(sender, QueuingTcpOutputStrategy.senderOf(path(Integer.toString(node), "ifOutOctets"), 7));
+        }
+    }
+
+    private static SimpleTcpOutputStrategy target(int port) {
+        final SimpleTcpOutputStrategy target = new SimpleTcpOutputStrategy();
+        target.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        target.setPort(port);
+        return target;
+    }
+
+    private static String path(String... elements) {
+        return File.separator + "rrd" + File.separator + String.join(File.separator, elements);
+    }
+
+    private static List<Long> timestamps(long first, long last) {
+        final List<Long> timestamps = new ArrayList<>();
+        for (long i = first; i <= last; i++) {
+            timestamps.add(i * 1000);
+        }
+        return timestamps;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Stands in for the receiver of the performance data, decoding the
+     * length-delimited frames of every connection.
+     */
+    private static class Receiver implements AutoCloseable {
+        private final ServerSocket m_serverSocket;
+        private final List<Socket> m_sockets = new CopyOnWriteArrayList<>();
+        private final List<PerformanceDataReadings> m_frames = new CopyOnWriteArrayList<>();
+        private final List<PerformanceDataReading> m_readings = new CopyOnWriteArrayList<>();
+        private final Map<String, Integer> m_connections = Collections.synchronizedMap(new HashMap<>());
+
+        public Receiver(int port) throws IOException {
+            m_serverSocket = new ServerSocket();
+            m_serverSocket.setReuseAddress(true);
+            m_serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            final Thread acceptor = new Thread(this::accept, "Receiver-Acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    final Socket socket = m_serverSocket.accept();
+                    final int connection = m_sockets.size();
+                    m_sockets.add(socket);
+                    final Thread reader = new Thread(() -> read(socket, connection), "Receiver-" + connection);
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void read(Socket socket, int connection) {
+            try (InputStream in = socket.getInputStream()) {
+                PerformanceDataReadings frame;
+                while ((frame = PerformanceDataReadings.parseDelimitedFrom(in)) != null) {
+                    for (final PerformanceDataReading reading : frame.getMessageList()) {
+                        final Integer previous = m_connections.put(reading.getPath(), connection);
+                        if (previous != null && previous != connection) {
+                            m_connections.put(reading.getPath(), -1);
+                        }
+                    }
+                    m_frames.add(frame);
+                    m_readings.addAll(frame.getMessageList());
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        public int getPort() {
+            return m_serverSocket.getLocalPort();
+        }
+
+        public int getConnections() {
+            return m_sockets.size();
+        }
+
+        /**
+         * @return the connection which all readings of the path were received over, or -1 if there were several
+         */
+        public int getConnection(String path) {
+            return m_connections.get(path);
+        }
+
+        public List<PerformanceDataReadings> getFrames() {
+            return m_frames;
+        }
+
+        public List<PerformanceDataReading> getReadings() {
+            return m_readings;
+        }
+
+        public List<Long> getTimestamps(String path) {
+            final List<Long> timestamps = new ArrayList<>();
+            for (final PerformanceDataReading reading : m_readings) {
+                if (reading.getPath().equals(path)) {
+                    timestamps.add(reading.getTimestamp());
+                }
+            }
+            return timestamps;
+        }
+
+        public void closeConnections() throws IOException {
+            for (final Socket socket : m_sockets) {
+                socket.close();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_serverSocket.close();
+            for (final Socket socket : m_sockets) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collection.persistence.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillBufferTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void returnsFramesInOrder() throws Exception {
+        try (SpillBuffer spill = new SpillBuffer(tempFolder.newFile(), 1024)) {
+            assertTrue(spill.isEmpty());
+            assertNull(spill.peek());
+
+            assertTrue(spill.append(new byte[] { 1 }));
+            assertTrue(spill.append(new byte[] { 2, 2 }));
+            assertEquals(2, spill.getFrames());
+            assertEquals(4 + 1 + 4 + 2, spill.getBytes());
+
+            assertArrayEquals(new byte[] { 1 }, spill.peek());
+            assertArrayEquals(new byte[] { 1 }, spill.peek());
+            spill.remove();
+            assertArrayEquals(new byte[] { 2, 2 }, spill.peek());
+            spill.remove();
+
+            assertTrue(spill.isEmpty());
+            assertEquals(0, spill.getBytes());
+            assertNull(spill.peek());
+        }
+    }
+
+    @Test
+    public void rejectsFramesBeyondTheLimit() throws Exception {
+        try (SpillBuffer spill = new SpillBuffer(tempFolder.newFile(), 20)) {
+            assertTrue(spill.append(new byte[8]));
+            assertFalse(spill.append(new byte[8]));
+            assertTrue(spill.append(new byte[4]));
+            assertEquals(2, spill.getFrames());
+
+            // The file is only truncated once all frames are removed
+            spill.remove();
+            assertFalse(spill.append(new byte[4]));
+            spill.remove();
+            assertTrue(spill.append(new byte[8]));
+        }
+    }
+
+    @Test
+    public void recoversFramesAfterReopening() throws Exception {
+        final File file = tempFolder.newFile();
+        try (SpillBuffer spill = new SpillBuffer(file, 1024)) {
+            spill.append(new byte[] { 1 });
+            spill.append(new byte[] { 2 });
+            spill.append(new byte[] { 3 });
+            spill.remove();
+        }
+
+        // Simulate a crash while appending a frame
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(100);
+            raf.write(new byte[] { 4, 4 });
+        }
+
+        try (SpillBuffer spill = new SpillBuffer(file, 1024)) {
+            assertEquals(2, spill.getFrames());
+            assertArrayEquals(new byte[] { 2 }, spill.peek());
+            spill.remove();
+            assertTrue(spill.append(new byte[] { 5 }));
+            assertArrayEquals(new byte[] { 3 }, spill.peek());
+            spill.remove();
+            assertArrayEquals(new byte[] { 5 }, spill.peek());
+            spill.remove();
+            assertTrue(spill.isEmpty());
+        }
+        assertEquals(8, file.length());
+    }
+}
@@ -261,6 +261,15 @@ public class AnnotationBasedEventListenerAdapter implements StoppableEventListen
         LOG.debug("Caught an unhandled exception while processing event {}, for listener {}. Add EventExceptionHandler annotation to the listener", event.getUei(), m_annotatedListener, cause);
     }
 
+    /**
+     * <p>getAnnotatedListener</p>
+     *
+     * @return a {@link java.lang.Object} object.
+     */
+    public Object getAnnotatedListener() {
+        return m_annotatedListener;
+    }
+
     /**
      * <p>setAnnotatedListener</p>
      *
@@ -1193,6 +1193,8 @@ public abstract class EventConstants {
     // For Trapd
     //
 
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
     /**
      * Converts the value of the instance to a string representation in the
      * correct encoding system.
@@ -1235,13 +1237,14 @@ public abstract class EventConstants {
         } else if (XML_ENCODING_MAC_ADDRESS.equals(encoding)) {
             if (value instanceof SnmpValue) {
                 SnmpValue snmpValue = (SnmpValue)value;
-                final StringBuilder macAddress = new StringBuilder();
-                byte[] bytes = snmpValue.getBytes();
+                final byte[] bytes = snmpValue.getBytes();
+                final char[] macAddress = new char[Math.max(0, bytes.length * 3 - 1)];
                 for (int i = 0; i < bytes.length; i++) {
-                    if (i > 0) macAddress.append(":");
-                    macAddress.append(String.format("%02X", bytes[i]));
+                    if (i > 0) macAddress[i * 3 - 1] = ':';
+                    macAddress[i * 3] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+                    macAddress[i * 3 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
                 }
-                result = macAddress.toString();
+                result = new String(macAddress);
             }
         }
         
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.events.api;
+
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Optional interface which can be implemented by event listeners (and
+ * annotated event listeners) in order to have the event callbacks
+ * invoked over multiple threads while preserving the order of related
+ * events.
+ *
+ * Events are spread across {@link #getNumThreads()} lanes by their
+ * partition key. All events with the same key are handled by the same
+ * lane, one after another, in the order in which they were broadcast.
+ * Events with a <code>null</code> key may be handled by any lane.
+ */
+public interface PartitionedEventListener extends ThreadAwareEventListener {
+
+    /**
+     * Retrieves the key used to order the given event, such as the node id
+     * or the alarm reduction key.
+     *
+     * This method is called on the broadcasting thread, so it must be cheap
+     * and must not block.
+     *
+     * @param event the event being broadcast
+     * @return the partition key, or <code>null</code> if the event does not
+     * need to be ordered with respect to any other event
+     */
+    Object getPartitionKey(Event event);
+
+}
@@ -28,11 +28,17 @@
 
 package org.opennms.netmgt.eventd;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -49,11 +55,15 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.support.TransactionOperations;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
 
 /**
  * EventUtil is used primarily for the event parm expansion - has methods used
@@ -288,6 +298,16 @@ public abstract class AbstractEventUtil implements EventUtil {
 	 */
 	protected static final int PARM_NAME_NUMBERED_PREFIX_LENGTH = 11;
 
+	/**
+	 * Pattern used to match a plain parm number
+	 */
+	protected static final Pattern PARM_NUMBER_REGEX = Pattern.compile("^\\d+$");
+
+	/**
+	 * Pattern used to parse a parm number followed by a separator, an offset and an optional range
+	 */
+	protected static final Pattern PARM_NUMBER_SPLIT_REGEX = Pattern.compile("^(\\d+)([^0-9+-]+)([+-]?\\d+)((:)([+-]?\\d+)?)?$");
+
 	/**
 	 * The string that ends the expansion of a parm
 	 */
@@ -325,6 +345,24 @@ public abstract class AbstractEventUtil implements EventUtil {
 	 */
 	protected static final String HARDWARE_END_SUFFIX = "]";
 
+	/**
+	 * The UEIs of the events signaling a change of the node they refer to
+	 */
+	private static final Set<String> NODE_CHANGED_UEIS = ImmutableSet.of(
+			EventConstants.NODE_ADDED_EVENT_UEI,
+			EventConstants.NODE_UPDATED_EVENT_UEI,
+			EventConstants.NODE_DELETED_EVENT_UEI,
+			EventConstants.DUP_NODE_DELETED_EVENT_UEI,
+			EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+			EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+			EventConstants.ASSET_INFO_CHANGED_EVENT_UEI,
+			EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+			EventConstants.INTERFACE_DELETED_EVENT_UEI,
+			EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+			EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+			EventConstants.REINITIALIZE_PRIMARY_SNMP_INTERFACE_EVENT_UEI,
+			EventConstants.HARDWARE_INVENTORY_SUCCESSFUL_UEI);
+
 	private static EventUtil m_instance = null; 
 
 	public static synchronized EventUtil getInstance() {
@@ -389,6 +427,15 @@ public abstract class AbstractEventUtil implements EventUtil {
 
 	private final ExpandableParameterResolverRegistry resolverRegistry = new ExpandableParameterResolverRegistry();
 
+	// The resolved values of the node related parameters, by node id and cache key
+	private final Cache<Long, ConcurrentMap<String, Optional<String>>> resolverCache;
+
+	private final Counter resolverHits;
+
+	private final Counter resolverMisses;
+
+	private final Timer expandTimer;
+
 	public AbstractEventUtil() {
 	    this(null);
 	}
@@ -441,6 +488,37 @@ public abstract class AbstractEventUtil implements EventUtil {
 	                    }
 	                });
 	    }
+
+	    final long maximumResolverCacheSize = Long.parseLong(System.getProperty("org.opennms.eventd.resolverCacheSize", "10000"));
+	    final long resolverCacheExpireAfterWrite = Long.parseLong(System.getProperty("org.opennms.eventd.resolverCacheExpireAfterWrite", "300"));
+	    if (maximumResolverCacheSize > 0) {
+	        final CacheBuilder<Object, Object> resolverCacheBuilder = CacheBuilder.newBuilder()
+	                .maximumSize(maximumResolverCacheSize);
+	        if (resolverCacheExpireAfterWrite > 0) {
+	            resolverCacheBuilder.expireAfterWrite(resolverCacheExpireAfterWrite, TimeUnit.SECONDS);
+	        }
+	        resolverCache = resolverCacheBuilder.build();
+	    } else {
+	        resolverCache = null;
+	    }
+
+	    if (registry != null) {
+	        resolverHits = registry.counter(MetricRegistry.name("eventutil.resolver.hits"));
+	        resolverMisses = registry.counter(MetricRegistry.name("eventutil.resolver.misses"));
+	        expandTimer = registry.timer(MetricRegistry.name("eventutil.expand"));
+
+	        registry.register(MetricRegistry.name("eventutil.resolver.cache.size"),
+	                new Gauge<Long>() {
+	                    @Override
+	                    public Long getValue() {
+	                        return resolverCache != null ? resolverCache.size() : 0L;
+	                    }
+	                });
+	    } else {
+	        resolverHits = new Counter();
+	        resolverMisses = new Counter();
+	        expandTimer = null;
+	    }
 	}
 
 	/**
@@ -551,10 +629,10 @@ public abstract class AbstractEventUtil implements EventUtil {
 			String eparmoffset = null;
 			String eparmrangesep = null;
 			String eparmrangelen = null;
-			if (parmSpec.matches("^\\d+$")) {
+			if (PARM_NUMBER_REGEX.matcher(parmSpec).matches()) {
 				eparmnum = parmSpec;
 			} else {
-				Matcher m = Pattern.compile("^(\\d+)([^0-9+-]+)([+-]?\\d+)((:)([+-]?\\d+)?)?$").matcher(parmSpec);
+				Matcher m = PARM_NUMBER_SPLIT_REGEX.matcher(parmSpec);
 				if (m.matches()) {
 					eparmnum = m.group(1);
 					eparmsep = m.group(2);
@@ -594,14 +672,12 @@ public abstract class AbstractEventUtil implements EventUtil {
 	}
 
 	public static String splitAndExtract(String src, String sep, int offset, boolean doRange, int rangeLen) {
-		String sepLiteral = Pattern.quote(sep);
-		
 		// If the src string starts with the separator, lose the first separator
 		if (src.startsWith(sep)) {
-			src = src.replaceFirst(sepLiteral, "");
+			src = src.substring(sep.length());
 		}
 		
-		String[] components = src.split(sepLiteral);
+		String[] components = split(src, sep);
 		int startIndex, endIndex;
 		if ((Math.abs(offset) > components.length) || (offset == 0)) {
 			return null;
@@ -635,6 +711,37 @@ public abstract class AbstractEventUtil implements EventUtil {
 		return retVal.toString();
 	}
 
+	/**
+	 * Splits the string around the literal separator, like {@link String#split(String)}
+	 * with a quoted separator does, but without compiling a pattern.
+	 *
+	 * @param src the string to split
+	 * @param sep the separator, may not be empty
+	 * @return the components, without trailing empty components
+	 */
+	private static String[] split(String src, String sep) {
+		int index = src.indexOf(sep);
+		if (index == -1) {
+			return new String[] { src };
+		}
+
+		final List<String> components = new ArrayList<>();
+		int start = 0;
+		while (index != -1) {
+			components.add(src.substring(start, index));
+			start = index + sep.length();
+			index = src.indexOf(sep, start);
+		}
+		components.add(src.substring(start));
+
+		// Drop the trailing empty components
+		int size = components.size();
+		while (size > 0 && components.get(size - 1).isEmpty()) {
+			size--;
+		}
+		return components.subList(0, size).toArray(new String[size]);
+	}
+
 	/**
 	 * Helper method.
 	 * 
@@ -764,6 +871,7 @@ public abstract class AbstractEventUtil implements EventUtil {
 		if (input == null) {
 			return null;
 		}
+		final Timer.Context ctx = expandTimer != null ? expandTimer.time() : null;
 		try {
 			final EventTemplate eventTemplate = eventTemplateCache.get(input);
 			Supplier<String> expander = () -> eventTemplate.expand(event, decode);
@@ -775,7 +883,73 @@ public abstract class AbstractEventUtil implements EventUtil {
 			}
 		} catch (ExecutionException ex) {
 			throw new RuntimeException(ex);
+		} finally {
+			if (ctx != null) {
+				ctx.stop();
+			}
+		}
+	}
+
+	/**
+	 * Resolves the value using the given resolver. If the resolver provides a cache key,
+	 * the value is cached per node until the node changes or the entry expires.
+	 */
+	@Override
+	public String resolve(ExpandableParameterResolver resolver, String parm, String parsedParm, Event event) {
+		final String key = resolverCache != null && event.hasNodeid() ? resolver.getCacheKey(parm, event) : null;
+		if (key == null) {
+			return resolver.getValue(parm, parsedParm, event, this);
+		}
+
+		final ConcurrentMap<String, Optional<String>> values;
+		try {
+			values = resolverCache.get(event.getNodeid(), ConcurrentHashMap::new);
+		} catch (ExecutionException ex) {
+			throw new RuntimeException(ex);
+		}
+
+		Optional<String> value = values.get(key);
+		if (value != null) {
+			resolverHits.inc();
+			return value.orElse(null);
 		}
+		resolverMisses.inc();
+		value = Optional.ofNullable(resolver.getValue(parm, parsedParm, event, this));
+		values.put(key, value);
+		return value.orElse(null);
+	}
+
+	@Override
+	public void invalidateCachedValues(Event event) {
+		if (resolverCache == null || !event.hasNodeid() || !NODE_CHANGED_UEIS.contains(event.getUei())) {
+			return;
+		}
+		LOG.debug("Evicting the cached values of node {} on event {}", event.getNodeid(), event.getUei());
+		resolverCache.invalidate(event.getNodeid());
+
+		// A reparented interface also changes the node it was moved from
+		final Parm oldNodeId = event.getParm(EventConstants.PARM_OLD_NODEID);
+		if (oldNodeId != null && oldNodeId.getValue() != null) {
+			try {
+				resolverCache.invalidate(Long.valueOf(oldNodeId.getValue().getContent()));
+			} catch (NumberFormatException e) {
+				LOG.warn("Invalid {} parameter on event {}: {}", EventConstants.PARM_OLD_NODEID, event.getUei(), oldNodeId.getValue().getContent());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of resolved values served from the cache
+	 */
+	public long getResolverCacheHits() {
+		return resolverHits.getCount();
+	}
+
+	/**
+	 * @return the number of resolved values not found in the cache
+	 */
+	public long getResolverCacheMisses() {
+		return resolverMisses.getCount();
 	}
 
 	/**
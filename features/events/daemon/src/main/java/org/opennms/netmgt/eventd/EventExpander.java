@@ -786,6 +786,8 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
         if (eventLog != null && eventLog.getEvents() != null && eventLog.getEvents().getEvent() != null) {
             try(Context ctx = expandTimer.time()) {
                 for (Event event : eventLog.getEvents().getEvent()) {
+                    // Evict the cached node values before the event itself is expanded
+                    m_eventUtil.invalidateCachedValues(event);
                     expandEvent(event);
                 }
             }
@@ -42,16 +42,20 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.AnnotationBasedEventListenerAdapter;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventIpcBroadcaster;
 import org.opennms.netmgt.events.api.EventIpcManager;
 import org.opennms.netmgt.events.api.EventListener;
 import org.opennms.netmgt.events.api.EventProxyException;
+import org.opennms.netmgt.events.api.PartitionedEventListener;
 import org.opennms.netmgt.events.api.ThreadAwareEventListener;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
@@ -115,6 +119,14 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      */
     private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
 
+    /**
+     * Immutable snapshot of the listeners and their threads used to route
+     * the events. The registration methods modify the maps above while
+     * holding the lock on this object and publish a new snapshot when done,
+     * so that broadcasting never needs to take the lock.
+     */
+    private volatile RoutingTable m_routingTable = new RoutingTable();
+
     /**
      * The thread pool handling the events
      */
@@ -133,6 +145,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      * is added to an execution queue when the 'sendNow()' is called. The
      * ListenerThread reads events off of this queue and sends them to the
      * appropriate listener.
+     *
+     * Listeners that implement {@link PartitionedEventListener} get one single
+     * threaded lane per thread instead, and the events are assigned to the
+     * lanes by their partition key so that events with the same key are
+     * handled in order.
      */
     private static class EventListenerExecutor {
         /**
@@ -145,6 +162,18 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
          */
         private final ExecutorService m_delegateThread;
 
+        /**
+         * The single threaded lanes used when the listener is partitioned.
+         */
+        private final ExecutorService[] m_lanes;
+
+        private final PartitionedEventListener m_partitionedListener;
+
+        /**
+         * Used to spread events without a partition key across the lanes.
+         */
+        private final AtomicInteger m_nextLane = new AtomicInteger();
+
         /**
          * Constructor
          */
@@ -156,17 +185,33 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                 numThreads = ((ThreadAwareEventListener)m_listener).getNumThreads();
             }
 
-            m_delegateThread = new ThreadPoolExecutor(
+            // This ThreadFactory will ensure that the log prefix of the calling thread
+            // is used for all events that this listener handles. Therefore, if Notifd
+            // registers for an event then all logs for handling that event will end up
+            // inside notifd.log.
+            final ThreadFactory threadFactory = new LogPreservingThreadFactory(m_listener.getName(), numThreads);
+
+            m_partitionedListener = getPartitionedListener(listener);
+            if (m_partitionedListener != null && numThreads > 1) {
+                m_delegateThread = null;
+                m_lanes = new ExecutorService[numThreads];
+                for (int i = 0; i < numThreads; i++) {
+                    m_lanes[i] = createExecutor(1, handlerQueueLength, threadFactory);
+                }
+            } else {
+                m_delegateThread = createExecutor(numThreads, handlerQueueLength, threadFactory);
+                m_lanes = null;
+            }
+        }
+
+        private ExecutorService createExecutor(int numThreads, Integer handlerQueueLength, ThreadFactory threadFactory) {
+            return new ThreadPoolExecutor(
                     numThreads,
                     numThreads,
                     0L,
                     TimeUnit.MILLISECONDS,
                     handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
-                    // This ThreadFactory will ensure that the log prefix of the calling thread
-                    // is used for all events that this listener handles. Therefore, if Notifd
-                    // registers for an event then all logs for handling that event will end up
-                    // inside notifd.log.
-                    new LogPreservingThreadFactory(m_listener.getName(), numThreads),
+                    threadFactory,
                     new RejectedExecutionHandler() {
                         @Override
                         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
@@ -176,6 +221,44 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             );
         }
 
+        private static PartitionedEventListener getPartitionedListener(EventListener listener) {
+            if (listener instanceof PartitionedEventListener) {
+                return (PartitionedEventListener)listener;
+            }
+            if (listener instanceof AnnotationBasedEventListenerAdapter) {
+                final Object annotatedListener = ((AnnotationBasedEventListenerAdapter)listener).getAnnotatedListener();
+                if (annotatedListener instanceof PartitionedEventListener) {
+                    return (PartitionedEventListener)annotatedListener;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Selects the executor that should handle the given event.
+         */
+        private ExecutorService getExecutor(final Event event) {
+            if (m_lanes == null) {
+                return m_delegateThread;
+            }
+
+            Object key = null;
+            try {
+                key = m_partitionedListener.getPartitionKey(event);
+            } catch (Throwable t) {
+                LOG.warn("Failed to determine the partition key for event {} on listener {}", event.getUei(), m_listener.getName(), t);
+            }
+
+            final int lane;
+            if (key == null) {
+                lane = m_nextLane.getAndIncrement() & Integer.MAX_VALUE;
+            } else {
+                final int h = key.hashCode();
+                lane = (h ^ (h >>> 16)) & Integer.MAX_VALUE;
+            }
+            return m_lanes[lane % m_lanes.length];
+        }
+
         public CompletableFuture<Void> addEvent(final Event event) {
             return CompletableFuture.runAsync(new Runnable() {
                 @Override
@@ -194,14 +277,49 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                         LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
                     }
                 }
-            }, m_delegateThread);
+            }, getExecutor(event));
         }
 
         /**
          * Stops the execution of this listener.
          */
         public void stop() {
-            m_delegateThread.shutdown();
+            if (m_lanes == null) {
+                m_delegateThread.shutdown();
+            } else {
+                for (ExecutorService lane : m_lanes) {
+                    lane.shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * An immutable view of the registered listeners, and of the threads
+     * that deliver the events to them.
+     */
+    private static class RoutingTable {
+        private final List<EventListener> m_listeners;
+        private final Map<String, List<EventListener>> m_ueiListeners;
+        private final Map<String, EventListenerExecutor> m_listenerThreads;
+
+        RoutingTable() {
+            m_listeners = Collections.emptyList();
+            m_ueiListeners = Collections.emptyMap();
+            m_listenerThreads = Collections.emptyMap();
+        }
+
+        RoutingTable(List<EventListener> listeners, Map<String, List<EventListener>> ueiListeners, Map<String, EventListenerExecutor> listenerThreads) {
+            m_listeners = Collections.unmodifiableList(new ArrayList<>(listeners));
+            final Map<String, List<EventListener>> ueiListenersCopy = new HashMap<>();
+            for (Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                // Only keep the UEIs that still have listeners
+                if (!entry.getValue().isEmpty()) {
+                    ueiListenersCopy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+                }
+            }
+            m_ueiListeners = Collections.unmodifiableMap(ueiListenersCopy);
+            m_listenerThreads = Collections.unmodifiableMap(new HashMap<>(listenerThreads));
         }
     }
 
@@ -296,15 +414,18 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
         }
 
-        if (LOG.isDebugEnabled() && m_listeners.isEmpty()) {
+        // Use the same snapshot of the listeners for the whole broadcast
+        final RoutingTable routingTable = m_routingTable;
+
+        if (LOG.isDebugEnabled() && routingTable.m_listeners.isEmpty()) {
             LOG.debug("No listeners interested in all events");
         }
 
         List<CompletableFuture<Void>> listenerFutures = new ArrayList<>();
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            listenerFutures.add(queueEventToListener(event, listener));
+        for (EventListener listener : routingTable.m_listeners) {
+            listenerFutures.add(queueEventToListener(routingTable, event, listener));
         }
 
         if (event.getUei() == null) {
@@ -320,10 +441,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
          */
         Set<EventListener> sentToListeners = new HashSet<EventListener>();
         for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
+            final List<EventListener> ueiListeners = routingTable.m_ueiListeners.get(uei);
+            if (ueiListeners != null) {
+                for (EventListener listener : ueiListeners) {
                     if (!sentToListeners.contains(listener)) {
-                        listenerFutures.add(queueEventToListener(event, listener));
+                        listenerFutures.add(queueEventToListener(routingTable, event, listener));
                         sentToListeners.add(listener);
                     }
                 }
@@ -353,8 +475,16 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
-    private CompletableFuture<Void> queueEventToListener(Event event, EventListener listener) {
-        return m_listenerThreads.get(listener.getName()).addEvent(event);
+    private static CompletableFuture<Void> queueEventToListener(RoutingTable routingTable, Event event, EventListener listener) {
+        return routingTable.m_listenerThreads.get(listener.getName()).addEvent(event);
+    }
+
+    /**
+     * Publish a new snapshot of the listeners for use by {@link #broadcastNow(Event, boolean)}.
+     * Must be called while holding the lock on this object.
+     */
+    private void updateRoutingTable() {
+        m_routingTable = new RoutingTable(m_listeners, m_ueiListeners, m_listenerThreads);
     }
 
     /**
@@ -375,6 +505,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -404,6 +536,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        updateRoutingTable();
     }
 
     /**
@@ -438,6 +572,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -457,6 +593,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        updateRoutingTable();
     }
 
     /**
@@ -483,6 +621,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
             m_listenerThreads.remove(listener.getName());
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -636,10 +776,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     @Override
     public boolean hasEventListener(final String uei) {
-        if (this.m_ueiListeners.containsKey(uei)) {
-            return this.m_ueiListeners.get(uei).size() > 0;
-        } else {
-            return false;
-        }
+        // The routing table only contains the UEIs that have listeners
+        return m_routingTable.m_ueiListeners.containsKey(uei);
     }
 }
@@ -136,4 +136,30 @@ public interface EventUtil {
 	String getNodeLocation(long nodeId) throws SQLException;
 
 	ExpandableParameterResolver getResolver(String token);
+
+	/**
+	 * Resolves the value of an expandable parameter using the given resolver.
+	 * Values which only depend on the node of the event may be served from a cache.
+	 *
+	 * @param resolver
+	 *            The resolver of the parameter
+	 * @param parm
+	 *            The parameter to resolve
+	 * @param parsedParm
+	 *            The parameter as parsed by the resolver
+	 * @param event
+	 *            The event to resolve the parameter for
+	 *
+	 * @return The resolved value
+	 */
+	String resolve(ExpandableParameterResolver resolver, String parm, String parsedParm, Event event);
+
+	/**
+	 * Evicts the cached values of the nodes the given event refers to, if
+	 * the event signals a change of these nodes.
+	 *
+	 * @param event
+	 *            The event which is about to be expanded
+	 */
+	void invalidateCachedValues(Event event);
 }
@@ -58,6 +58,11 @@ public class ExpandableParameterResolverRegistry {
         public boolean requiresTransaction() {
             return false;
         }
+
+        @Override
+        public String getCacheKey(String parm, Event event) {
+            return null;
+        }
     };
 
     public ExpandableParameterResolver getResolver(String token) {
@@ -593,6 +593,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         public boolean requiresTransaction() {
             return true;
         }
+
+        @Override
+        public String getCacheKey(String parm, Event event) {
+            return parm;
+        }
     },
 
     ASSET {
@@ -617,6 +622,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         public boolean requiresTransaction() {
             return true;
         }
+
+        @Override
+        public String getCacheKey(String parm, Event event) {
+            return parm;
+        }
     },
 
     NODE_LABEL {
@@ -649,6 +659,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         public boolean requiresTransaction() {
             return true;
         }
+
+        @Override
+        public String getCacheKey(String parm, Event event) {
+            return parm;
+        }
     },
 
     NODE_LOCATION {
@@ -681,6 +696,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         public boolean requiresTransaction() {
             return true;
         }
+
+        @Override
+        public String getCacheKey(String parm, Event event) {
+            return parm;
+        }
     },
 
     FOREIGN_SOURCE {
@@ -710,6 +730,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         public boolean requiresTransaction() {
             return true;
         }
+
+        @Override
+        public String getCacheKey(String parm, Event event) {
+            return parm;
+        }
     },
 
     FOREIGN_ID {
@@ -739,6 +764,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         public boolean requiresTransaction() {
             return true;
         }
+
+        @Override
+        public String getCacheKey(String parm, Event event) {
+            return parm;
+        }
     },
 
     IF_ALIAS {
@@ -766,6 +796,12 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
             return true;
         }
 
+        @Override
+        public String getCacheKey(String parm, Event event) {
+            // The alias depends on the interface as well
+            return event.getInterface() == null ? null : parm + '@' + event.getInterface();
+        }
+
     };
 
     // By default we don't perform any additional parsing
@@ -780,4 +816,10 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         return false;
     }
 
+    // By default the value is not cached
+    @Override
+    public String getCacheKey(String parm, Event event) {
+        return null;
+    }
+
 }
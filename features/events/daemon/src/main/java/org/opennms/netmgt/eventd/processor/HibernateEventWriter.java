@@ -29,10 +29,19 @@
 package org.opennms.netmgt.eventd.processor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.dao.api.DistPollerDao;
@@ -49,6 +58,9 @@ import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.events.api.EventDatabaseConstants;
 import org.opennms.netmgt.events.api.EventProcessorException;
 import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsServiceType;
 import org.opennms.netmgt.model.OnmsSeverity;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Header;
@@ -58,14 +70,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * EventWriter loads the information in each 'Event' into the database.
@@ -82,6 +99,13 @@ import com.codahale.metrics.Timer.Context;
  * Values for the ' <parms>' block are loaded with each parm name and parm value
  * delimited with the NAME_VAL_DELIM.
  * 
+ * In batch mode, which is enabled with the <code>org.opennms.eventd.writer.batch</code>
+ * system property, the events of logs which are processed concurrently are coalesced
+ * into a single transaction and inserted with JDBC batch statements by the
+ * {@link JdbcEventInserter}. The node, host, system and service lookups are cached.
+ * Each call to {@link #process(Log)} still returns only after the events of the log
+ * have been committed and their database IDs have been set.
+ *
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#MULTIPLE_VAL_DELIM
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#DB_ATTRIB_DELIM
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#NAME_VAL_DELIM
@@ -119,10 +143,63 @@ public class HibernateEventWriter implements EventWriter {
     @Autowired
     private EventUtil eventUtil;
 
+    @Autowired(required=false)
+    private JdbcTemplate jdbcTemplate;
+
     private final Timer writeTimer;
 
+    private boolean batchMode = Boolean.getBoolean("org.opennms.eventd.writer.batch");
+
+    private int batchSize = Integer.getInteger("org.opennms.eventd.writer.batchSize", 1000);
+
+    private int idAllocationSize = Integer.getInteger("org.opennms.eventd.writer.idAllocationSize", 1000);
+
+    private final Timer batchWriteTimer;
+
+    private final Histogram batchSizeHistogram;
+
+    private final Queue<PendingLog> pendingLogs = new ConcurrentLinkedQueue<>();
+
+    // Held by the thread which writes the pending logs of all threads
+    private final Lock batchLock = new ReentrantLock();
+
+    private JdbcEventInserter eventInserter;
+
+    private final Cache<Integer, OnmsNode> nodeCache;
+    private final Cache<String, Optional<String>> eventHostCache;
+    private final Cache<String, Optional<OnmsMonitoringSystem>> distPollerCache;
+    private final Cache<String, Optional<OnmsServiceType>> serviceTypeCache;
+
     public HibernateEventWriter(MetricRegistry registry) {
         writeTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write");
+        batchWriteTimer = registry.timer("eventlogs.process.write.batch");
+        batchSizeHistogram = registry.histogram("eventlogs.process.write.batchsize");
+
+        final long maximumCacheSize = Long.getLong("org.opennms.eventd.writer.cacheSize", 10000);
+        final long expireAfterWrite = Long.getLong("org.opennms.eventd.writer.cacheExpireAfterWrite", 300);
+        nodeCache = buildCache(maximumCacheSize, expireAfterWrite);
+        eventHostCache = buildCache(maximumCacheSize, expireAfterWrite);
+        distPollerCache = buildCache(maximumCacheSize, expireAfterWrite);
+        serviceTypeCache = buildCache(maximumCacheSize, expireAfterWrite);
+
+        registry.register(MetricRegistry.name("eventlogs.process.write.cache.node.size"),
+                (Gauge<Long>) nodeCache::size);
+        registry.register(MetricRegistry.name("eventlogs.process.write.cache.node.hitrate"),
+                (Gauge<Double>) () -> nodeCache.stats().hitRate());
+        registry.register(MetricRegistry.name("eventlogs.process.write.cache.host.size"),
+                (Gauge<Long>) eventHostCache::size);
+        registry.register(MetricRegistry.name("eventlogs.process.write.cache.host.hitrate"),
+                (Gauge<Double>) () -> eventHostCache.stats().hitRate());
+    }
+
+    private static <K,V> Cache<K,V> buildCache(long maximumSize, long expireAfterWrite) {
+        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats();
+        if (expireAfterWrite > 0) {
+            cacheBuilder.expireAfterWrite(expireAfterWrite, TimeUnit.SECONDS);
+        }
+        return cacheBuilder.build();
     }
 
     /**
@@ -179,6 +256,13 @@ public class HibernateEventWriter implements EventWriter {
                 return;
             }
 
+            if (isBatchMode()) {
+                try (Context context = writeTimer.time()) {
+                    processInBatch(eventLog.getHeader(), eventsToPersist);
+                }
+                return;
+            }
+
             // Time the transaction and insertions
             try (Context context = writeTimer.time()) {
                 final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
@@ -204,6 +288,153 @@ public class HibernateEventWriter implements EventWriter {
         }
     }
 
+    private boolean isBatchMode() {
+        if (!batchMode) {
+            return false;
+        } else if (jdbcTemplate == null) {
+            LOG.warn("Batch mode is enabled, but no JdbcTemplate is available. Inserting the events with Hibernate.");
+            batchMode = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The events of a log which wait to be written in a batch.
+     */
+    private static class PendingLog {
+        private final Header header;
+        private final List<Event> events;
+        private List<OnmsEvent> ovents;
+        private EventProcessorException exception;
+        private volatile boolean done = false;
+
+        private PendingLog(Header header, List<Event> events) {
+            this.header = header;
+            this.events = events;
+        }
+    }
+
+    /**
+     * Queues the events and waits until they have been written. The
+     * thread that gets the lock first writes the events that were queued
+     * by all threads up to that point, so the batches grow with the number
+     * of threads waiting for the database.
+     */
+    private void processInBatch(final Header eventHeader, final List<Event> events) throws EventProcessorException {
+        final PendingLog pendingLog = new PendingLog(eventHeader, events);
+        pendingLogs.add(pendingLog);
+
+        while (!pendingLog.done) {
+            batchLock.lock();
+            try {
+                if (!pendingLog.done) {
+                    writeBatch(pollBatch());
+                }
+            } finally {
+                batchLock.unlock();
+            }
+        }
+
+        if (pendingLog.exception != null) {
+            throw pendingLog.exception;
+        }
+    }
+
+    /**
+     * Dequeues the logs with up to {@link #batchSize} events. Logs are never
+     * split, so a single log may exceed the batch size.
+     */
+    private List<PendingLog> pollBatch() {
+        final List<PendingLog> batch = new ArrayList<>();
+        int eventCount = 0;
+        PendingLog pendingLog;
+        while (eventCount < batchSize && (pendingLog = pendingLogs.poll()) != null) {
+            batch.add(pendingLog);
+            eventCount += pendingLog.events.size();
+        }
+        return batch;
+    }
+
+    private void writeBatch(final List<PendingLog> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try (Context context = batchWriteTimer.time()) {
+            batchSizeHistogram.update(batch.stream().mapToInt(p -> p.events.size()).sum());
+            m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    insert(batch);
+                }
+            });
+            complete(batch);
+        } catch (Throwable t) {
+            // Insert the logs one by one so that a single failing event only fails its own log
+            LOG.warn("Failed to insert a batch of {} logs, inserting them individually.", batch.size(), t);
+            invalidateCaches();
+            for (PendingLog pendingLog : batch) {
+                final List<PendingLog> single = Collections.singletonList(pendingLog);
+                try {
+                    m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+                        @Override
+                        protected void doInTransactionWithoutResult(TransactionStatus status) {
+                            insert(single);
+                        }
+                    });
+                    complete(single);
+                } catch (DeadlockLoserDataAccessException e) {
+                    fail(pendingLog, new EventProcessorException("Encountered deadlock when inserting events: " + pendingLog.events, e));
+                } catch (Throwable e) {
+                    fail(pendingLog, new EventProcessorException("Unexpected exception while storing events: " + pendingLog.events, e));
+                }
+            }
+        }
+    }
+
+    private void insert(final List<PendingLog> batch) {
+        if (eventInserter == null) {
+            eventInserter = new JdbcEventInserter(jdbcTemplate, idAllocationSize);
+        }
+
+        final List<OnmsEvent> ovents = new ArrayList<>();
+        for (PendingLog pendingLog : batch) {
+            pendingLog.ovents = new ArrayList<>(pendingLog.events.size());
+            for (Event event : pendingLog.events) {
+                LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+                final OnmsEvent ovent = createOnmsEvent(pendingLog.header, event);
+                pendingLog.ovents.add(ovent);
+                ovents.add(ovent);
+            }
+        }
+        eventInserter.insert(ovents);
+    }
+
+    private static void complete(final List<PendingLog> batch) {
+        for (PendingLog pendingLog : batch) {
+            // Update the events with the database IDs of the events stored in the database
+            for (int i = 0; i < pendingLog.events.size(); i++) {
+                pendingLog.events.get(i).setDbid(pendingLog.ovents.get(i).getId());
+            }
+            pendingLog.ovents = null;
+            pendingLog.done = true;
+        }
+    }
+
+    private static void fail(final PendingLog pendingLog, final EventProcessorException exception) {
+        pendingLog.ovents = null;
+        pendingLog.exception = exception;
+        pendingLog.done = true;
+    }
+
+    private void invalidateCaches() {
+        nodeCache.invalidateAll();
+        eventHostCache.invalidateAll();
+        distPollerCache.invalidateAll();
+        serviceTypeCache.invalidateAll();
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -244,7 +475,7 @@ public class HibernateEventWriter implements EventWriter {
 
         // nodeID
         if (event.hasNodeid()) {
-            ovent.setNode(nodeDao.get(event.getNodeid().intValue()));
+            ovent.setNode(getNode(event.getNodeid().intValue()));
         }
 
         // eventTime
@@ -252,7 +483,7 @@ public class HibernateEventWriter implements EventWriter {
 
         // eventHost
         // Resolve the event host to a hostname using the ipInterface table
-        ovent.setEventHost(EventDatabaseConstants.format(eventUtil.getEventHost(event), EVENT_HOST_FIELD_SIZE));
+        ovent.setEventHost(EventDatabaseConstants.format(getEventHost(event), EVENT_HOST_FIELD_SIZE));
 
         // eventSource
         ovent.setEventSource(EventDatabaseConstants.format(event.getSource(), EVENT_SOURCE_FIELD_SIZE));
@@ -272,22 +503,22 @@ public class HibernateEventWriter implements EventWriter {
         // If available, use the header's distPoller
         if (eventHeader != null && eventHeader.getDpName() != null && !"".equals(eventHeader.getDpName().trim())) {
             // TODO: Should we also try a look up the value in the MinionDao and LocationMonitorDao here?
-            ovent.setDistPoller(distPollerDao.get(eventHeader.getDpName()));
+            ovent.setDistPoller(getCached(distPollerCache, "distPoller:" + eventHeader.getDpName(), () -> distPollerDao.get(eventHeader.getDpName())));
         }
         // Otherwise, use the event's distPoller
         if (ovent.getDistPoller() == null && event.getDistPoller() != null && !"".equals(event.getDistPoller().trim())) {
-            ovent.setDistPoller(monitoringSystemDao.get(event.getDistPoller()));
+            ovent.setDistPoller(getCached(distPollerCache, "monitoringSystem:" + event.getDistPoller(), () -> monitoringSystemDao.get(event.getDistPoller())));
         }
         // And if both are unavailable, use the local system as the event's source system
         if (ovent.getDistPoller() == null) {
-            ovent.setDistPoller(distPollerDao.whoami());
+            ovent.setDistPoller(getCached(distPollerCache, "whoami", () -> distPollerDao.whoami()));
         }
 
         // eventSnmpHost
         ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
 
         // service
-        ovent.setServiceType(serviceTypeDao.findByName(event.getService()));
+        ovent.setServiceType(event.getService() == null ? serviceTypeDao.findByName(null) : getCached(serviceTypeCache, event.getService(), () -> serviceTypeDao.findByName(event.getService())));
 
         // eventSnmp
         ovent.setEventSnmp(event.getSnmp() == null ? null : SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
@@ -402,7 +633,60 @@ public class HibernateEventWriter implements EventWriter {
         return ovent;
     }
 
+    private OnmsNode getNode(final int nodeId) {
+        if (!batchMode) {
+            return nodeDao.get(nodeId);
+        }
+        // Nodes which do not exist are not cached, since they may be added at any time
+        OnmsNode node = nodeCache.getIfPresent(nodeId);
+        if (node == null) {
+            node = nodeDao.get(nodeId);
+            if (node != null) {
+                nodeCache.put(nodeId, node);
+            }
+        }
+        return node;
+    }
+
+    private String getEventHost(final Event event) {
+        // Only the lookups of the host name by node and address are cached
+        if (event.getHost() == null || !event.hasNodeid()) {
+            return eventUtil.getEventHost(event);
+        }
+        return getCached(eventHostCache, event.getNodeid() + ":" + event.getHost(), () -> eventUtil.getEventHost(event));
+    }
+
+    /**
+     * Looks up the value in the cache if batch mode is enabled.
+     */
+    private <K,V> V getCached(final Cache<K, Optional<V>> cache, final K key, final Supplier<V> loader) {
+        if (!batchMode) {
+            return loader.get();
+        }
+        try {
+            return cache.get(key, () -> Optional.ofNullable(loader.get())).orElse(null);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setBatchMode(boolean batchMode) {
+        this.batchMode = batchMode;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setIdAllocationSize(int idAllocationSize) {
+        this.idAllocationSize = idAllocationSize;
+    }
 }
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Inserts {@link OnmsEvent} objects and their parameters with JDBC batch
+ * statements, bypassing the Hibernate session.
+ *
+ * The event IDs are taken from ranges of the <code>eventsNxtId</code> sequence
+ * which are allocated ahead of time, so that a batch of events only needs a
+ * single round trip for the IDs at most. IDs of a range that are not used
+ * before shutdown are skipped, as any other sequence value that is not used.
+ *
+ * This class is not thread safe and must be called from within a transaction.
+ */
+public class JdbcEventInserter {
+
+    protected static final String NEXT_IDS_SQL = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    protected static final String INSERT_EVENT_SQL = "INSERT INTO events ("
+            + "eventId, eventUei, nodeId, eventTime, eventHost, eventSource, ipAddr, systemId, eventSnmpHost, serviceId, "
+            + "eventSnmp, eventCreateTime, eventDescr, eventLogGroup, eventLogMsg, eventSeverity, eventPathOutage, eventCorrelation, "
+            + "eventSuppressedCount, eventOperInstruct, eventAutoAction, eventOperAction, eventOperActionMenuText, eventNotification, "
+            + "eventTTicket, eventTTicketState, eventForward, eventMouseOverText, eventLog, eventDisplay, eventAckUser, eventAckTime, "
+            + "alarmId, ifIndex"
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    protected static final String INSERT_PARAMETER_SQL = "INSERT INTO event_parameters (eventID, name, value, type) VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate m_jdbcTemplate;
+
+    private final int m_allocationSize;
+
+    // Preallocated event IDs, the IDs before m_nextId have been used
+    private int[] m_ids = new int[0];
+    private int m_nextId = 0;
+
+    public JdbcEventInserter(JdbcTemplate jdbcTemplate, int allocationSize) {
+        m_jdbcTemplate = Objects.requireNonNull(jdbcTemplate);
+        if (allocationSize < 1) {
+            throw new IllegalArgumentException("The allocation size must be positive, but was " + allocationSize);
+        }
+        m_allocationSize = allocationSize;
+    }
+
+    /**
+     * Inserts the events and sets their IDs.
+     */
+    public void insert(List<OnmsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        final List<OnmsEventParameter> parameters = new ArrayList<>();
+        for (OnmsEvent event : events) {
+            event.setId(nextId());
+            if (event.getEventParameters() != null) {
+                parameters.addAll(event.getEventParameters());
+            }
+        }
+
+        m_jdbcTemplate.batchUpdate(INSERT_EVENT_SQL, events, events.size(), JdbcEventInserter::setEventValues);
+        if (!parameters.isEmpty()) {
+            m_jdbcTemplate.batchUpdate(INSERT_PARAMETER_SQL, parameters, parameters.size(), JdbcEventInserter::setParameterValues);
+        }
+    }
+
+    /**
+     * @return the number of preallocated IDs which have not been used yet
+     */
+    public int getAvailableIds() {
+        return m_ids.length - m_nextId;
+    }
+
+    private int nextId() {
+        if (m_nextId >= m_ids.length) {
+            final List<Integer> ids = m_jdbcTemplate.queryForList(NEXT_IDS_SQL, Integer.class, m_allocationSize);
+            final int[] allocated = new int[ids.size()];
+            for (int i = 0; i < allocated.length; i++) {
+                allocated[i] = ids.get(i);
+            }
+            if (allocated.length == 0) {
+                throw new IllegalStateException("No event IDs were allocated");
+            }
+            m_ids = allocated;
+            m_nextId = 0;
+        }
+        return m_ids[m_nextId++];
+    }
+
+    private static void setEventValues(PreparedStatement ps, OnmsEvent event) throws SQLException {
+        int i = 1;
+        ps.setInt(i++, event.getId());
+        ps.setString(i++, event.getEventUei());
+        setInteger(ps, i++, event.getNodeId());
+        setTimestamp(ps, i++, event.getEventTime());
+        ps.setString(i++, event.getEventHost());
+        ps.setString(i++, event.getEventSource());
+        ps.setString(i++, event.getIpAddr() == null ? null : InetAddressUtils.str(event.getIpAddr()));
+        ps.setString(i++, event.getDistPoller() == null ? null : event.getDistPoller().getId());
+        ps.setString(i++, event.getEventSnmpHost());
+        setInteger(ps, i++, event.getServiceType() == null ? null : event.getServiceType().getId());
+        ps.setString(i++, event.getEventSnmp());
+        setTimestamp(ps, i++, event.getEventCreateTime());
+        ps.setString(i++, event.getEventDescr());
+        ps.setString(i++, event.getEventLogGroup());
+        ps.setString(i++, event.getEventLogMsg());
+        setInteger(ps, i++, event.getEventSeverity());
+        ps.setString(i++, event.getEventPathOutage());
+        ps.setString(i++, event.getEventCorrelation());
+        setInteger(ps, i++, event.getEventSuppressedCount());
+        ps.setString(i++, event.getEventOperInstruct());
+        ps.setString(i++, event.getEventAutoAction());
+        ps.setString(i++, event.getEventOperAction());
+        ps.setString(i++, event.getEventOperActionMenuText());
+        ps.setString(i++, event.getEventNotification());
+        ps.setString(i++, event.getEventTTicket());
+        setInteger(ps, i++, event.getEventTTicketState());
+        ps.setString(i++, event.getEventForward());
+        ps.setString(i++, event.getEventMouseOverText());
+        ps.setString(i++, event.getEventLog());
+        ps.setString(i++, event.getEventDisplay());
+        ps.setString(i++, event.getEventAckUser());
+        setTimestamp(ps, i++, event.getEventAckTime());
+        setInteger(ps, i++, event.getAlarm() == null ? null : event.getAlarm().getId());
+        setInteger(ps, i++, event.getIfIndex());
+    }
+
+    private static void setParameterValues(PreparedStatement ps, OnmsEventParameter parameter) throws SQLException {
+        ps.setInt(1, parameter.getEvent().getId());
+        ps.setString(2, parameter.getName());
+        ps.setString(3, parameter.getValue());
+        ps.setString(4, parameter.getType());
+    }
+
+    private static void setInteger(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.INTEGER);
+        } else {
+            ps.setInt(index, value);
+        }
+    }
+
+    private static void setTimestamp(PreparedStatement ps, int index, Date value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.TIMESTAMP);
+        } else {
+            ps.setTimestamp(index, new Timestamp(value.getTime()));
+        }
+    }
+}
@@ -32,7 +32,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.xml.event.Event;
@@ -129,10 +128,14 @@ public class EventTemplate implements ExpandableToken {
 
     @Override
     public String expand(Event event, Map<String, Map<String, String>> decode) {
-        final String collect = tokens.stream()
-                .map(t -> t.expand(event, decode))
-                .collect(Collectors.joining());
-        return collect;
+        if (tokens.size() == 1) {
+            return tokens.get(0).expand(event, decode);
+        }
+        final StringBuilder sb = new StringBuilder(input.length());
+        for (ExpandableToken token : tokens) {
+            sb.append(token.expand(event, decode));
+        }
+        return sb.toString();
     }
 
     // If we find any token which requires a transaction, the template itself requires a transaction as well
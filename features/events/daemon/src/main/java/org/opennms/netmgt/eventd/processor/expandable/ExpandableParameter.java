@@ -65,7 +65,7 @@ public class ExpandableParameter implements ExpandableToken {
 
     @Override
     public String expand(Event event, Map<String, Map<String, String>> decode) {
-        String value = resolver.getValue(token, parsedToken, event, eventUtil);
+        String value = eventUtil.resolve(resolver, token, parsedToken, event);
         LOG.debug("Value of token {}={}", token, value);
 
         if (value != null) {
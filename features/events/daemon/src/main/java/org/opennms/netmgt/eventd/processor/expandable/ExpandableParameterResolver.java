@@ -46,4 +46,12 @@ public interface ExpandableParameterResolver {
     String parse(String parm);
 
     boolean requiresTransaction();
+
+    /**
+     * Returns the key to cache the value of the given parameter for the node of the event.
+     * The value must only depend on the node and the returned key, as it is reused for other events of the node.
+     *
+     * @return The cache key, or null if the value must not be cached.
+     */
+    String getCacheKey(String parm, Event event);
 }
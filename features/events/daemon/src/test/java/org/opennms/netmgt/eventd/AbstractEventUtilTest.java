@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd;
+
+import static org.junit.Assert.assertEquals;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.eventd.processor.expandable.ExpandableParameter;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+public class AbstractEventUtilTest {
+
+    private static class CountingEventUtil extends AbstractEventUtil {
+        private final Map<Long, String> labels = new HashMap<>();
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public String getNodeLabel(long nodeId) {
+            lookups.incrementAndGet();
+            return labels.get(nodeId);
+        }
+
+        @Override
+        public String getIfAlias(long nodeId, String ipAddr) {
+            lookups.incrementAndGet();
+            return "alias-" + nodeId + "-" + ipAddr;
+        }
+
+        @Override
+        public String getAssetFieldValue(String parm, long nodeId) {
+            lookups.incrementAndGet();
+            return parm + "-" + nodeId;
+        }
+
+        @Override
+        public String getHardwareFieldValue(String parm, long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getHostName(int nodeId, String hostip) {
+            return hostip;
+        }
+
+        @Override
+        public String getForeignId(long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getForeignSource(long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getNodeLocation(long nodeId) {
+            return null;
+        }
+    }
+
+    private static Event createEvent(String uei, long nodeId, String ipAddr) {
+        final EventBuilder builder = new EventBuilder(uei, "test");
+        builder.setNodeid(nodeId);
+        if (ipAddr != null) {
+            builder.setInterface(addr(ipAddr));
+        }
+        return builder.getEvent();
+    }
+
+    private static String expand(String token, Event event, EventUtil eventUtil) {
+        return new ExpandableParameter(token, eventUtil).expand(event, null);
+    }
+
+    @Test
+    public void canCacheNodeValuesUntilTheNodeChanges() {
+        final CountingEventUtil eventUtil = new CountingEventUtil();
+        eventUtil.labels.put(1L, "node1");
+        eventUtil.labels.put(2L, "node2");
+
+        final Event event = createEvent("uei.opennms.org/test", 1, null);
+        assertEquals("node1", expand("nodelabel", event, eventUtil));
+        assertEquals("node1", expand("nodelabel", event, eventUtil));
+        assertEquals("asset[city]-1", expand("asset[city]", event, eventUtil));
+        assertEquals("asset[city]-1", expand("asset[city]", event, eventUtil));
+        assertEquals("node2", expand("nodelabel", createEvent("uei.opennms.org/test", 2, null), eventUtil));
+        assertEquals(3, eventUtil.lookups.get());
+        assertEquals(2, eventUtil.getResolverCacheHits());
+        assertEquals(3, eventUtil.getResolverCacheMisses());
+
+        // Values which do not depend on the node are never cached
+        assertEquals("uei.opennms.org/test", expand("uei", event, eventUtil));
+        assertEquals(2, eventUtil.getResolverCacheHits());
+        assertEquals(3, eventUtil.getResolverCacheMisses());
+
+        // Events which do not change a node keep the cached values
+        eventUtil.labels.put(1L, "renamed");
+        eventUtil.invalidateCachedValues(createEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, null));
+        assertEquals("node1", expand("nodelabel", event, eventUtil));
+
+        eventUtil.invalidateCachedValues(createEvent(EventConstants.NODE_LABEL_CHANGED_EVENT_UEI, 1, null));
+        assertEquals("renamed", expand("nodelabel", event, eventUtil));
+        assertEquals("asset[city]-1", expand("asset[city]", event, eventUtil));
+        assertEquals("node2", expand("nodelabel", createEvent("uei.opennms.org/test", 2, null), eventUtil));
+        assertEquals(5, eventUtil.lookups.get());
+    }
+
+    @Test
+    public void canCacheIfAliasPerInterface() {
+        final CountingEventUtil eventUtil = new CountingEventUtil();
+
+        assertEquals("alias-1-10.0.0.1", expand("ifalias", createEvent("uei.opennms.org/test", 1, "10.0.0.1"), eventUtil));
+        assertEquals("alias-1-10.0.0.2", expand("ifalias", createEvent("uei.opennms.org/test", 1, "10.0.0.2"), eventUtil));
+        assertEquals("alias-1-10.0.0.1", expand("ifalias", createEvent("uei.opennms.org/test", 1, "10.0.0.1"), eventUtil));
+        assertEquals(2, eventUtil.lookups.get());
+
+        // The interface was moved away from node 1
+        final EventBuilder reparented = new EventBuilder(EventConstants.INTERFACE_REPARENTED_EVENT_UEI, "test");
+        reparented.setNodeid(2);
+        reparented.addParam(EventConstants.PARM_OLD_NODEID, "1");
+        eventUtil.invalidateCachedValues(reparented.getEvent());
+        assertEquals("alias-1-10.0.0.1", expand("ifalias", createEvent("uei.opennms.org/test", 1, "10.0.0.1"), eventUtil));
+        assertEquals(3, eventUtil.lookups.get());
+    }
+
+    @Test
+    public void canSplitAndExtractLikeTheQuotedPattern() {
+        final String[] separators = new String[] { ",", ".", "::", ".*", "a" };
+        final Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder src = new StringBuilder();
+            for (int n = random.nextInt(12); n > 0; n--) {
+                src.append("ab,.:*".charAt(random.nextInt(6)));
+            }
+            final String sep = separators[random.nextInt(separators.length)];
+            final int offset = random.nextInt(11) - 5;
+            final boolean doRange = random.nextBoolean();
+            final int rangeLen = random.nextInt(7) - 3;
+
+            assertEquals(src + " / " + sep + " / " + offset + " / " + doRange + " / " + rangeLen,
+                    splitAndExtractWithPattern(src.toString(), sep, offset, doRange, rangeLen),
+                    splitAndExtractOrError(src.toString(), sep, offset, doRange, rangeLen));
+        }
+    }
+
+    private static String splitAndExtractOrError(String src, String sep, int offset, boolean doRange, int rangeLen) {
+        try {
+            return AbstractEventUtil.splitAndExtract(src, sep, offset, doRange, rangeLen);
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    /**
+     * The former implementation of {@link AbstractEventUtil#splitAndExtract(String, String, int, boolean, int)}.
+     */
+    private static String splitAndExtractWithPattern(String src, String sep, int offset, boolean doRange, int rangeLen) {
+        try {
+            String sepLiteral = Pattern.quote(sep);
+            if (src.startsWith(sep)) {
+                src = src.replaceFirst(sepLiteral, "");
+            }
+            String[] components = src.split(sepLiteral);
+            int startIndex, endIndex;
+            if ((Math.abs(offset) > components.length) || (offset == 0)) {
+                return null;
+            } else if (offset < 0) {
+                startIndex = components.length + offset;
+            } else {
+                startIndex = offset - 1;
+            }
+            endIndex = startIndex;
+            if (! doRange) {
+                return components[startIndex];
+            } else if (rangeLen == 0) {
+                endIndex = components.length - 1;
+            } else if (rangeLen < 0) {
+                endIndex = startIndex + 1 + rangeLen;
+            } else {
+                endIndex = startIndex - 1 + rangeLen;
+            }
+            final StringBuilder retVal = new StringBuilder();
+            for (int i = startIndex; i <= endIndex; i++) {
+                retVal.append(components[i]);
+                if (i < endIndex) {
+                    retVal.append(sep);
+                }
+            }
+            return retVal.toString();
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+}
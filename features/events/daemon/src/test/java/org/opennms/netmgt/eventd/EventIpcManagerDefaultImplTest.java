@@ -37,8 +37,13 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -51,6 +56,7 @@ import org.junit.Test;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.PartitionedEventListener;
 import org.opennms.netmgt.events.api.ThreadAwareEventListener;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
@@ -825,4 +831,83 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         // Release
         locker.release();
     }
+
+    private static class PartitionedListener implements PartitionedEventListener {
+        private final int numThreads;
+        private final Map<String, List<Integer>> sequencesByKey = new HashMap<>();
+        private final Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+        private final AtomicInteger numEvents = new AtomicInteger();
+
+        public PartitionedListener(int numThreads) {
+            this.numThreads = numThreads;
+        }
+
+        @Override
+        public String getName() {
+            return getClass().getCanonicalName();
+        }
+
+        @Override
+        public void onEvent(Event e) {
+            threadNames.add(Thread.currentThread().getName());
+            synchronized (sequencesByKey) {
+                sequencesByKey.computeIfAbsent(e.getSource(), k -> new ArrayList<>()).add(e.getNodeid().intValue());
+            }
+            try {
+                // Give the other lanes a chance to run
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            numEvents.incrementAndGet();
+        }
+
+        @Override
+        public int getNumThreads() {
+            return numThreads;
+        }
+
+        @Override
+        public Object getPartitionKey(Event e) {
+            return e.getSource();
+        }
+    }
+
+    /**
+     * Verify that an event listener that implements the {@link PartitionedEventListener} interface
+     * receives the events with the same partition key in order, while using multiple threads.
+     */
+    @Test
+    public void testPartitionedEventListener() throws InterruptedException {
+        final int numThreads = 4;
+        final int numKeys = 16;
+        final int numEventsPerKey = 25;
+        PartitionedListener listener = new PartitionedListener(numThreads);
+        m_manager.addEventListener(listener, "uei.opennms.org/foo");
+
+        for (int k = 0; k < numEventsPerKey; k++) {
+            for (int key = 0; key < numKeys; key++) {
+                EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "key" + key);
+                bldr.setNodeid(k);
+                m_manager.broadcastNow(bldr.getEvent(), false);
+            }
+        }
+
+        await().atMost(1, TimeUnit.MINUTES).until(() -> listener.numEvents.get(), equalTo(numKeys * numEventsPerKey));
+
+        // The events for every key must have been handled in the order they were sent
+        assertEquals(numKeys, listener.sequencesByKey.size());
+        for (List<Integer> sequence : listener.sequencesByKey.values()) {
+            assertEquals(numEventsPerKey, sequence.size());
+            for (int k = 0; k < numEventsPerKey; k++) {
+                assertEquals(k, sequence.get(k).intValue());
+            }
+        }
+        // using more than one thread
+        assertTrue(listener.threadNames.size() > 1);
+        assertTrue(listener.threadNames.size() <= numThreads);
+
+        m_manager.removeEventListener(listener);
+        assertFalse(m_manager.hasEventListener("uei.opennms.org/foo"));
+    }
 }
@@ -33,14 +33,21 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
 import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.dao.api.MonitoringLocationDao;
 import org.opennms.netmgt.eventd.EventUtil;
@@ -50,6 +57,8 @@ import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.snmp.SnmpUtils;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Log;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -322,4 +331,113 @@ public class HibernateEventWriterIT {
         assertEquals("event count", new Integer(1), jdbcTemplate.queryForObject("select count(*) from events", Integer.class));
         assertEquals("event service ID", new Integer(serviceId), jdbcTemplate.queryForObject("select serviceID from events", Integer.class));
     }
+
+    /**
+     * Verifies that the events written in batch mode are stored with the
+     * same values as the events written by Hibernate.
+     */
+    @Test
+    public void testBatchWriteEventMatchesHibernate() throws Exception {
+        jdbcTemplate.update("INSERT INTO node (location, nodeId, nodeCreateTime) VALUES ('" + MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID + "', nextVal('nodeNxtId'), now())");
+        final long nodeId = jdbcTemplate.queryForObject("SELECT nodeId FROM node LIMIT 1", Long.class);
+        jdbcTemplate.update("INSERT into ipInterface (nodeId, ipAddr, ipHostname) VALUES (?, ?, ?)", nodeId, "192.168.1.1", "First Interface");
+        jdbcTemplate.update("insert into service (serviceId, serviceName) values (?, ?)", new Object[] { 1, "some bogus service" });
+
+        final Event hibernateEvent = createEvent(nodeId);
+        m_eventWriter.process(createLog(hibernateEvent));
+
+        final Event batchEvent = createEvent(nodeId);
+        final HibernateEventWriter eventWriter = (HibernateEventWriter) m_eventWriter;
+        eventWriter.setBatchMode(true);
+        try {
+            eventWriter.process(createLog(batchEvent));
+        } finally {
+            eventWriter.setBatchMode(false);
+        }
+
+        assertTrue(hibernateEvent.getDbid() > 0);
+        assertTrue(batchEvent.getDbid() > hibernateEvent.getDbid());
+
+        final Map<String, Object> expected = jdbcTemplate.queryForMap("SELECT * FROM events WHERE eventId = ?", hibernateEvent.getDbid());
+        final Map<String, Object> actual = jdbcTemplate.queryForMap("SELECT * FROM events WHERE eventId = ?", batchEvent.getDbid());
+        for (String column : new String[] { "eventid", "eventtime", "eventcreatetime" }) {
+            expected.remove(column);
+            actual.remove(column);
+        }
+        assertEquals(expected, actual);
+        assertEquals("First Interface", actual.get("eventhost"));
+        assertEquals(1, actual.get("serviceid"));
+
+        final String parametersSql = "SELECT name, value, type FROM event_parameters WHERE eventID = ? ORDER BY name";
+        assertEquals(jdbcTemplate.queryForList(parametersSql, hibernateEvent.getDbid()), jdbcTemplate.queryForList(parametersSql, batchEvent.getDbid()));
+    }
+
+    /**
+     * Verifies that all the events of logs which are processed concurrently
+     * in batch mode are stored and get distinct IDs.
+     */
+    @Test
+    public void testBatchWriteConcurrentLogs() throws Exception {
+        final int threads = 8;
+        final int logsPerThread = 50;
+        final HibernateEventWriter eventWriter = (HibernateEventWriter) m_eventWriter;
+        eventWriter.setBatchMode(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<List<Event>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    final List<Event> events = new ArrayList<>();
+                    for (int j = 0; j < logsPerThread; j++) {
+                        final Event e1 = createEvent(null);
+                        final Event e2 = createEvent(null);
+                        m_eventWriter.process(createLog(e1, e2));
+                        events.add(e1);
+                        events.add(e2);
+                    }
+                    return events;
+                }));
+            }
+
+            final Set<Integer> dbids = new HashSet<>();
+            for (Future<List<Event>> future : futures) {
+                for (Event event : future.get()) {
+                    assertTrue(event.getDbid() > 0);
+                    dbids.add(event.getDbid());
+                }
+            }
+            assertEquals(threads * logsPerThread * 2, dbids.size());
+        } finally {
+            executor.shutdown();
+            eventWriter.setBatchMode(false);
+        }
+
+        assertEquals(new Integer(threads * logsPerThread * 2), jdbcTemplate.queryForObject("SELECT count(*) FROM events", Integer.class));
+        assertEquals(new Integer(threads * logsPerThread * 4), jdbcTemplate.queryForObject("SELECT count(*) FROM event_parameters", Integer.class));
+    }
+
+    private static Event createEvent(Long nodeId) {
+        final EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "someSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        bldr.setLogMessage("test");
+        bldr.setDescription("description");
+        bldr.setSeverity("Major");
+        bldr.addParam("param1", "value1");
+        bldr.addParam("param2", 1337);
+        if (nodeId != null) {
+            bldr.setNodeid(nodeId);
+            bldr.setHost("192.168.1.1");
+            bldr.setInterface(InetAddressUtils.addr("192.168.1.1"));
+            bldr.setService("some bogus service");
+        }
+        return bldr.getEvent();
+    }
+
+    private static Log createLog(Event... events) {
+        final Events e = new Events();
+        e.setEvent(events);
+        final Log log = new Log();
+        log.setEvents(e);
+        return log;
+    }
 }
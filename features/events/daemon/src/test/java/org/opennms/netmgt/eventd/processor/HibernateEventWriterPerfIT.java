@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Log;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+/**
+ * Compares the throughput of the {@link HibernateEventWriter} with and without
+ * batch mode, when logs are processed by several threads concurrently as
+ * the event processing threads of eventd do.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath*:/META-INF/opennms/component-service.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-eventDaemon.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(reuseDatabase=false)
+public class HibernateEventWriterPerfIT {
+    private static final Logger LOG = LoggerFactory.getLogger(HibernateEventWriterPerfIT.class);
+
+    private static final int THREADS = 8;
+
+    private static final int LOGS_PER_THREAD = 500;
+
+    private static final int EVENTS_PER_LOG = 2;
+
+    @Autowired
+    private EventWriter m_eventWriter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void compareWriteModes() throws Exception {
+        final HibernateEventWriter eventWriter = (HibernateEventWriter) m_eventWriter;
+
+        // warm up
+        measure(eventWriter, false);
+        measure(eventWriter, true);
+
+        final double hibernate = measure(eventWriter, false);
+        final double batch = measure(eventWriter, true);
+        LOG.info("{} threads, {} events per log: hibernate={} events/s, batch={} events/s, speedup={}",
+                THREADS, EVENTS_PER_LOG, (long) hibernate, (long) batch, String.format("%.2f", batch / hibernate));
+    }
+
+    private double measure(HibernateEventWriter eventWriter, boolean batchMode) throws Exception {
+        jdbcTemplate.execute("DELETE FROM events");
+        eventWriter.setBatchMode(batchMode);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<Void>> futures = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < LOGS_PER_THREAD; j++) {
+                        eventWriter.process(createLog());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            final int eventCount = THREADS * LOGS_PER_THREAD * EVENTS_PER_LOG;
+            assertEquals(new Integer(eventCount), jdbcTemplate.queryForObject("SELECT count(*) FROM events", Integer.class));
+            return eventCount * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        } finally {
+            executor.shutdown();
+            eventWriter.setBatchMode(false);
+        }
+    }
+
+    private static Log createLog() {
+        final Events events = new Events();
+        for (int i = 0; i < EVENTS_PER_LOG; i++) {
+            final EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "someSource");
+            bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+            bldr.setLogMessage("test");
+            bldr.addParam("param1", "value1");
+            bldr.addParam("param2", 1337);
+            events.addEvent(bldr.getEvent());
+        }
+        final Log log = new Log();
+        log.setEvents(events);
+        return log;
+    }
+}
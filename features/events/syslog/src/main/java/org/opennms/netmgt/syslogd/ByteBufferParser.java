@@ -33,4 +33,14 @@ import java.util.concurrent.CompletableFuture;
 
 public interface ByteBufferParser<T> {
 	CompletableFuture<T> parse(ByteBuffer buffer);
+
+	/**
+	 * Parse the buffer on the calling thread. The position of the buffer
+	 * is not modified.
+	 * 
+	 * @return The parse result or null if the buffer could not be parsed
+	 */
+	default T parseSync(ByteBuffer buffer) {
+		return parse(buffer.asReadOnlyBuffer()).join();
+	}
 }
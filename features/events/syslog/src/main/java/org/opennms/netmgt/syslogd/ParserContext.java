@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The reusable state of a synchronous parse operation, see
+ * {@link ByteBufferParser#parseSync(ByteBuffer)}.</p>
+ * 
+ * <p>While the {@link ParserStage} objects are matched against the buffer,
+ * the tokens that they produce are only recorded as positions in the buffer.
+ * Once a complete sequence of stages has matched, the recorded tokens are
+ * converted into values and emitted to the consumers of the stages. This way,
+ * strings are only created for the fields of the successful parse.</p>
+ * 
+ * <p>Each thread uses its own instance, so the arrays are only grown but never
+ * allocated again for each message.</p>
+ */
+public class ParserContext {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ParserContext.class);
+
+	private static final ThreadLocal<ParserContext> CONTEXT = ThreadLocal.withInitial(ParserContext::new);
+
+	private ByteBuffer m_buffer;
+
+	// Tokens recorded along the current sequence of stages
+	private ParserStage[] m_stages = new ParserStage[32];
+	private int[] m_starts = new int[32];
+	private int[] m_ends = new int[32];
+	private int[] m_values = new int[32];
+	private int m_size = 0;
+
+	// Value set by the last matched stage, if it is not a part of the buffer
+	private int m_value = -1;
+
+	private char[] m_chars = new char[256];
+
+	/**
+	 * @return The context of the current thread, reset to parse the given buffer.
+	 */
+	public static ParserContext get(ByteBuffer buffer) {
+		final ParserContext context = CONTEXT.get();
+		context.m_buffer = buffer;
+		context.m_size = 0;
+		context.m_value = -1;
+		return context;
+	}
+
+	public ByteBuffer getBuffer() {
+		return m_buffer;
+	}
+
+	/**
+	 * Release the reference to the buffer of the last parse.
+	 */
+	public void clear() {
+		m_buffer = null;
+		m_size = 0;
+	}
+
+	/**
+	 * @return The number of recorded tokens.
+	 */
+	public int size() {
+		return m_size;
+	}
+
+	/**
+	 * Discard the tokens recorded after the given number of tokens, ie. when
+	 * the parser backtracks to try another sequence of stages.
+	 */
+	public void truncate(int size) {
+		m_size = size;
+	}
+
+	public void setValue(int value) {
+		m_value = value;
+	}
+
+	/**
+	 * Record a token of the given stage, together with the value set by
+	 * {@link #setValue(int)} during the match.
+	 */
+	public void record(ParserStage stage, int start, int end) {
+		if (m_size == m_stages.length) {
+			final int length = m_size * 2;
+			m_stages = Arrays.copyOf(m_stages, length);
+			m_starts = Arrays.copyOf(m_starts, length);
+			m_ends = Arrays.copyOf(m_ends, length);
+			m_values = Arrays.copyOf(m_values, length);
+		}
+		m_stages[m_size] = stage;
+		m_starts[m_size] = start;
+		m_ends[m_size] = end;
+		m_values[m_size] = m_value;
+		m_size++;
+		m_value = -1;
+	}
+
+	/**
+	 * @return The characters of the buffer between the given positions, or null
+	 * if the range is empty
+	 */
+	public String getString(int start, int end) {
+		final int length = end - start;
+		if (length <= 0) {
+			return null;
+		}
+		if (length > m_chars.length) {
+			m_chars = new char[Math.max(length, m_chars.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			m_chars[i] = (char)m_buffer.get(start + i);
+		}
+		return new String(m_chars, 0, length);
+	}
+
+	/**
+	 * Emit the recorded tokens to a new message.
+	 * 
+	 * @return The message or null if any of the values could not be converted
+	 */
+	public SyslogMessage emit() {
+		final ParserState state = new ParserState(m_buffer);
+		try {
+			for (int i = 0; i < m_size; i++) {
+				m_stages[i].emit(state, this, m_starts[i], m_ends[i], m_values[i]);
+			}
+			return state.message;
+		} catch (Exception e) {
+			// Conversion to value failed
+			LOG.trace("Parse failed on result consumer", e);
+			return null;
+		}
+	}
+}
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.syslogd;
 
+import java.nio.ByteBuffer;
+
 /**
  * An individual stage of the token parser. A parser is composed of
  * a sequence of {@link ParserStage} objects.
@@ -77,4 +79,21 @@ public interface ParserStage {
 	 * that the next stage can continue processing.
 	 */
 	ParserState apply(ParserState state);
+
+	/**
+	 * Match this stage against the buffer of the context, starting at
+	 * the given absolute position, without modifying the buffer. Tokens
+	 * are not converted into values but recorded in the context so that
+	 * they can be emitted with {@link #emit(ParserState, ParserContext, int, int, int)}
+	 * once the whole sequence of stages has matched.
+	 * 
+	 * @return The position after the match, or -1 if the stage did not match
+	 */
+	int match(ParserContext context, int position);
+
+	/**
+	 * Convert a token recorded by {@link #match(ParserContext, int)} into
+	 * a value and pass it to the consumer of this stage.
+	 */
+	void emit(ParserState state, ParserContext context, int start, int end, int value);
 }
\ No newline at end of file
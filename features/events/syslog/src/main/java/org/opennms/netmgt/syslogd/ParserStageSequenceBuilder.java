@@ -219,6 +219,18 @@ public class ParserStageSequenceBuilder {
 	 */
 	private static abstract class AbstractParserStage<R> implements ParserStage {
 
+		private static final int NO_MATCH = -1;
+
+		protected static final int UNDERFLOW = -2;
+
+		protected static int cancelledAt(int position) {
+			return -(position + 3);
+		}
+
+		protected static boolean isWhitespace(char c) {
+			return c <= ' ';
+		}
+
 		private boolean m_optional = false;
 		private boolean m_terminal = false;
 		protected final BiConsumer<ParserState, R> m_resultConsumer;
@@ -259,6 +271,52 @@ public class ParserStageSequenceBuilder {
 
 		public abstract AcceptResult acceptChar(ParserStageState state, char c);
 
+		/**
+		 * Scan the buffer of the context from the given position up to the limit,
+		 * following the same rules as {@link #acceptChar(ParserStageState, char)}.
+		 * 
+		 * @return The position after the token if the stage completed,
+		 * {@link #UNDERFLOW} if the limit was reached, or the result of
+		 * {@link #cancelledAt(int)} if the stage was cancelled
+		 */
+		protected abstract int scan(ParserContext context, int position, int limit);
+
+		@Override
+		public final int match(final ParserContext context, final int position) {
+			final int limit = context.getBuffer().limit();
+			context.setValue(-1);
+			final int next = scan(context, position, limit);
+			if (next >= 0) {
+				if (m_resultConsumer != null) {
+					context.record(this, position, next);
+				}
+				return next;
+			} else if (next == UNDERFLOW) {
+				if (m_terminal) {
+					if (m_resultConsumer != null) {
+						context.record(this, position, limit);
+					}
+					return limit;
+				} else if (m_optional) {
+					return limit;
+				} else {
+					return NO_MATCH;
+				}
+			} else {
+				if (m_optional) {
+					// Continue before the character that cancelled the stage
+					return -(next + 3);
+				} else {
+					return NO_MATCH;
+				}
+			}
+		}
+
+		@Override
+		public void emit(ParserState state, ParserContext context, int start, int end, int value) {
+			m_resultConsumer.accept(state, getValue(context, start, end, value));
+		}
+
 		public final ParserState apply(final ParserState incomingState) {
 			if (incomingState == null) {
 				return null;
@@ -385,6 +443,13 @@ public class ParserStageSequenceBuilder {
 		protected R getValue(ParserStageState state) {
 			return null;
 		}
+
+		/**
+		 * Convert a token recorded by {@link #match(ParserContext, int)} into a value.
+		 */
+		protected R getValue(ParserContext context, int start, int end, int value) {
+			return null;
+		}
 	}
 
 	/**
@@ -401,6 +466,17 @@ public class ParserStageSequenceBuilder {
 			}
 		}
 
+		@Override
+		protected int scan(ParserContext context, int position, int limit) {
+			final ByteBuffer buffer = context.getBuffer();
+			for (int i = position; i < limit; i++) {
+				if (!isWhitespace((char)buffer.get(i))) {
+					return i;
+				}
+			}
+			return UNDERFLOW;
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (o == null) return false;
@@ -440,6 +516,17 @@ public class ParserStageSequenceBuilder {
 			}
 		}
 
+		@Override
+		protected int scan(ParserContext context, int position, int limit) {
+			if (position >= limit) {
+				return UNDERFLOW;
+			} else if ((char)context.getBuffer().get(position) == m_char) {
+				return position + 1;
+			} else {
+				return cancelledAt(position);
+			}
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (o == null) return false;
@@ -535,10 +622,70 @@ public class ParserStageSequenceBuilder {
 			MONTH_STRINGS.addChildren(CharacterWithValue.toArray("dec", 12));
 		}
 
+		/**
+		 * Children of each node of {@link #MONTH_STRINGS}, copied into arrays
+		 * so that they can be matched without creating iterators.
+		 */
+		private static class MonthNode {
+			private final char[] m_chars;
+			private final int[] m_values;
+			private final MonthNode[] m_children;
+
+			private MonthNode(RadixTreeNode<CharacterWithValue> node) {
+				final int size = node.getChildren().size();
+				m_chars = new char[size];
+				m_values = new int[size];
+				m_children = new MonthNode[size];
+				int i = 0;
+				for (RadixTreeNode<CharacterWithValue> child : node.getChildren()) {
+					m_chars[i] = child.getContent().getCharacter();
+					m_values[i] = child.getContent().getValue();
+					m_children[i] = child.getChildren().isEmpty() ? null : new MonthNode(child);
+					i++;
+				}
+			}
+		}
+
+		private static final MonthNode MONTH_NODES = new MonthNode(MONTH_STRINGS);
+
 		public MatchMonth(BiConsumer<ParserState,Integer> consumer) {
 			super(consumer);
 		}
 
+		@Override
+		protected int scan(ParserContext context, int position, int limit) {
+			final ByteBuffer buffer = context.getBuffer();
+			MonthNode node = MONTH_NODES;
+			for (int i = position; i < limit; i++) {
+				final char c = (char)buffer.get(i);
+				int match = -1;
+				for (int j = 0; j < node.m_chars.length; j++) {
+					if (node.m_chars[j] == c) {
+						match = j;
+						break;
+					}
+				}
+				if (match < 0) {
+					// No children matched, cancel the stage
+					return cancelledAt(i);
+				}
+				context.setValue(node.m_values[match]);
+				node = node.m_children[match];
+				if (node == null) {
+					return i + 1;
+				}
+			}
+			return UNDERFLOW;
+		}
+
+		@Override
+		protected Integer getValue(ParserContext context, int start, int end, int value) {
+			if (value < 0) {
+				throw new IllegalStateException("No month characters were matched");
+			}
+			return value;
+		}
+
 		@Override
 		public AcceptResult acceptChar(ParserStageState state, char c) {
 			if (state.currentNode == null) {
@@ -626,11 +773,25 @@ public class ParserStageSequenceBuilder {
 			}
 		}
 		
+		@Override
+		protected int scan(ParserContext context, int position, int limit) {
+			if (limit - position >= m_length) {
+				return position + m_length;
+			} else {
+				return UNDERFLOW;
+			}
+		}
+
 		@Override
 		public String getValue(ParserStageState state) {
 			return getAccumulatedValue(state);
 		}
 
+		@Override
+		protected String getValue(ParserContext context, int start, int end, int value) {
+			return context.getString(start, end);
+		}
+
 		@Override
 		public String toString() {
 			return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
@@ -694,6 +855,23 @@ public class ParserStageSequenceBuilder {
 			return AcceptResult.CONTINUE;
 		}
 
+		@Override
+		protected int scan(ParserContext context, int position, int limit) {
+			final ByteBuffer buffer = context.getBuffer();
+			for (int i = position; i < limit; i++) {
+				final char c = (char)buffer.get(i);
+				for (char end : m_end) {
+					if (end == c) {
+						return i;
+					}
+				}
+				if (m_endOnwhitespace && isWhitespace(c)) {
+					return i;
+				}
+			}
+			return UNDERFLOW;
+		}
+
 		@Override
 		public String toString() {
 			return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
@@ -729,6 +907,11 @@ public class ParserStageSequenceBuilder {
 			return getAccumulatedValue(state);
 		}
 
+		@Override
+		protected String getValue(ParserContext context, int start, int end, int value) {
+			return context.getString(start, end);
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (o == null) return false;
@@ -749,8 +932,16 @@ public class ParserStageSequenceBuilder {
 
 		@Override
 		public Integer getValue(ParserStageState state) {
+			return trimAndConvert(getAccumulatedValue(state));
+		}
+
+		@Override
+		protected Integer getValue(ParserContext context, int start, int end, int value) {
+			return trimAndConvert(context.getString(start, end));
+		}
+
+		private static Integer trimAndConvert(String value) {
 			// Trim the leading zeros from this value
-			String value = getAccumulatedValue(state);
 			boolean trimmed = false;
 			while (value.startsWith("0")) {
 				value = value.substring(1);
@@ -796,11 +987,29 @@ public class ParserStageSequenceBuilder {
 			}
 		}
 
+		@Override
+		protected int scan(ParserContext context, int position, int limit) {
+			final ByteBuffer buffer = context.getBuffer();
+			for (int i = position; i < limit; i++) {
+				final char c = (char)buffer.get(i);
+				if (c < '0' || c > '9') {
+					// If any characters were accumulated, complete
+					return i > position ? i : cancelledAt(i);
+				}
+			}
+			return UNDERFLOW;
+		}
+
 		@Override
 		public Integer getValue(ParserStageState state) {
 			return trimAndConvert(getAccumulatedValue(state));
 		}
 
+		@Override
+		protected Integer getValue(ParserContext context, int start, int end, int value) {
+			return trimAndConvert(context.getString(start, end));
+		}
+
 		/**
 		 * Trim the leading zeros from the {@link String} and
 		 * convert what is left to an integer.
@@ -30,6 +30,7 @@ package org.opennms.netmgt.syslogd;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -52,6 +53,11 @@ import org.slf4j.LoggerFactory;
  * <p>You can teach the parser new {@link ParserStage} sequences by using the 
  * {@link #teach(ParserStage[])} method. This will add the stages to the {@link RadixTree}.</p>
  * 
+ * <p>{@link #parseSync(ByteBuffer)} traverses the tree depth-first on the calling
+ * thread instead. The stages are matched directly against the buffer and the
+ * parse state is reused, so values are only created for the branch that
+ * returns the result.</p>
+ * 
  * <p>TODO: Make the parser tree construction phased or asynchronous so that tree 
  * nodes are added as-needed to complete the parse. In many cases, the first
  * several branches of the tree will result in a complete parse, making it unnecessary
@@ -74,6 +80,12 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 
 	final RadixTree<ParserStage> tree = new RadixTreeImpl<>();
 
+	/**
+	 * Copy of the tree that is used by {@link #parseSync(ByteBuffer)}. It is
+	 * discarded whenever the tree changes.
+	 */
+	private volatile MatchNode matchTree;
+
 //	private static final ThreadPoolExecutor m_executor = new ThreadPoolExecutor(
 //		1,
 //		1,
@@ -110,12 +122,14 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 	 */
 	public void teach(ParserStage[] stages) {
 		tree.addChildren(stages);
+		matchTree = null;
 	}
 
 	public void performEdgeCompression() {
 		for (RadixTreeNode<ParserStage> child : tree.getChildren()) {
 			compressNode(child);
 		}
+		matchTree = null;
 	}
 
 	public static void compressNode(RadixTreeNode<ParserStage> node) {
@@ -160,6 +174,24 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 			return currentState;
 		}
 
+		@Override
+		public int match(ParserContext context, int position) {
+			int currentPosition = position;
+			for (ParserStage member : members) {
+				currentPosition = member.match(context, currentPosition);
+				if (currentPosition < 0) {
+					return currentPosition;
+				}
+			}
+			return currentPosition;
+		}
+
+		@Override
+		public void emit(ParserState state, ParserContext context, int start, int end, int value) {
+			// The members record their own tokens
+			throw new UnsupportedOperationException();
+		}
+
 		@Override
 		public void setOptional(boolean optional) {
 			throw new UnsupportedOperationException();
@@ -205,6 +237,80 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 		});
 	}
 
+	@Override
+	public SyslogMessage parseSync(ByteBuffer incoming) {
+		MatchNode root = matchTree;
+		if (root == null) {
+			root = new MatchNode(tree);
+			matchTree = root;
+		}
+
+		final ParserContext context = ParserContext.get(incoming);
+		try {
+			return root.match(context, incoming.position());
+		} finally {
+			context.clear();
+		}
+	}
+
+	/**
+	 * A node of the tree with its children copied into an array, so that
+	 * the tree can be traversed without creating iterators.
+	 */
+	private static class MatchNode {
+		private static final MatchNode[] LEAF = new MatchNode[0];
+
+		private final ParserStage stage;
+		private final MatchNode[] children;
+
+		private MatchNode(RadixTreeNode<ParserStage> node) {
+			stage = node.getContent();
+			final Collection<? extends RadixTreeNode<ParserStage>> nodes = node.getChildren();
+			if (nodes == null || nodes.isEmpty()) {
+				children = LEAF;
+			} else {
+				children = new MatchNode[nodes.size()];
+				int i = 0;
+				for (RadixTreeNode<ParserStage> child : nodes) {
+					children[i++] = new MatchNode(child);
+				}
+			}
+		}
+
+		/**
+		 * Match this node and its children in insertion order.
+		 * 
+		 * @return The message of the first leaf node that completes the parse
+		 */
+		private SyslogMessage match(ParserContext context, int position) {
+			final int size = context.size();
+			try {
+				int next = position;
+				// The root of the radix tree has no content
+				if (stage != null) {
+					next = stage.match(context, position);
+					if (next < 0) {
+						return null;
+					}
+				}
+
+				if (children.length == 0) {
+					return context.emit();
+				}
+				for (MatchNode child : children) {
+					final SyslogMessage message = child.match(context, next);
+					if (message != null) {
+						return message;
+					}
+				}
+				return null;
+			} finally {
+				// Discard the tokens of this branch
+				context.truncate(size);
+			}
+		}
+	}
+
 	/**
 	 * TODO: Use a visitor pattern instead?
 	 */
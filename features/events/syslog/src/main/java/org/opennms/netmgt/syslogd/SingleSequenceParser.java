@@ -68,4 +68,21 @@ public class SingleSequenceParser implements ByteBufferParser<SyslogMessage> {
 			}
 		});
 	}
+
+	@Override
+	public SyslogMessage parseSync(ByteBuffer incoming) {
+		final ParserContext context = ParserContext.get(incoming);
+		try {
+			int position = incoming.position();
+			for (ParserStage stage : m_stages) {
+				position = stage.match(context, position);
+				if (position < 0) {
+					return null;
+				}
+			}
+			return context.emit();
+		} finally {
+			context.clear();
+		}
+	}
 }
@@ -116,6 +116,11 @@ public class SyslogSinkModule extends AbstractXmlSinkModule<SyslogConnection, Sy
             public boolean isBlockWhenFull() {
                 return true;
             }
+
+            @Override
+            public int getBatchSize() {
+                return config.getDispatchBatchSize();
+            }
         };
     }
 
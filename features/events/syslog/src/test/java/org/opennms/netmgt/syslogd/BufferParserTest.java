@@ -32,12 +32,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 import org.opennms.core.test.ConfigurationTestUtils;
@@ -493,6 +498,164 @@ public class BufferParserTest {
 		verifyNms9522Message2(radixParser);
 	}
 
+	/**
+	 * Verify that the synchronous parse returns the same messages as the
+	 * asynchronous parse for the sample messages.
+	 */
+	@Test
+	public void testParseSync() throws Exception {
+		final List<String> patterns = readLines(RadixTreeSyslogParser.class.getClassLoader().getResourceAsStream("org/opennms/netmgt/syslogd/grok-patterns.txt"));
+		final List<String> messages = readSampleMessages();
+
+		final RadixTreeParser radixParser = new RadixTreeParser();
+		final List<ByteBufferParser<SyslogMessage>> sequenceParsers = new ArrayList<>();
+		for (String pattern : patterns) {
+			radixParser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0]));
+			sequenceParsers.add(new SingleSequenceParser(GrokParserStageSequenceBuilder.parseGrok(pattern)));
+		}
+
+		// Verify the uncompressed and the compressed tree
+		assertParseSync(radixParser, messages);
+		radixParser.performEdgeCompression();
+		int parsed = assertParseSync(radixParser, messages);
+		assertEquals(messages.size(), parsed);
+
+		for (ByteBufferParser<SyslogMessage> sequenceParser : sequenceParsers) {
+			assertParseSync(sequenceParser, messages);
+		}
+	}
+
+	@Test
+	public void testParseSyncWithPartialMatches() {
+		final List<ParserStage> stages = new ParserStageSequenceBuilder()
+			.monthString((s,v) -> { s.message.setMonth(v); })
+			.whitespace()
+			.optional().character('[')
+			.optional().integer((s,v) -> { s.message.setProcessId(String.valueOf(v)); })
+			.optional().character(']')
+			.whitespace()
+			.terminal().integer((s,v) -> { s.message.setDayOfMonth(v); })
+			.getStages();
+		final ByteBufferParser<SyslogMessage> parser = new SingleSequenceParser(stages);
+
+		for (String message : new String[] { "Jan [12] 3", "Mar 4", "May [x] 5", "Jun [", "Dec 99999999999", "Feb ", "Ju", "" }) {
+			final ByteBuffer buffer = ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII));
+			assertSameMessage(message, parser.parse(buffer.asReadOnlyBuffer()).join(), parser.parseSync(buffer));
+		}
+
+		// Terminal month with a partial match
+		final ByteBufferParser<SyslogMessage> monthParser = new SingleSequenceParser(new ParserStageSequenceBuilder()
+			.terminal().monthString((s,v) -> { s.message.setMonth(v); })
+			.getStages());
+		for (String message : new String[] { "Ma", "J", "Oct" }) {
+			final ByteBuffer buffer = ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII));
+			assertSameMessage(message, monthParser.parse(buffer.asReadOnlyBuffer()).join(), monthParser.parseSync(buffer));
+		}
+	}
+
+	/**
+	 * Compare the throughput of the synchronous and the asynchronous parse
+	 * of the {@link RadixTreeParser} on the sample messages.
+	 */
+	@Test
+	public void testParseSyncPerformance() throws Exception {
+		final RadixTreeParser radixParser = new RadixTreeParser();
+		for (String pattern : readLines(RadixTreeSyslogParser.class.getClassLoader().getResourceAsStream("org/opennms/netmgt/syslogd/grok-patterns.txt"))) {
+			radixParser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0]));
+		}
+		radixParser.performEdgeCompression();
+
+		final List<ByteBuffer> buffers = readSampleMessages().stream()
+			.map(m -> ByteBuffer.wrap(m.getBytes(StandardCharsets.UTF_8)))
+			.collect(Collectors.toList());
+
+		final int iterations = 100;
+
+		// Warm up both code paths
+		for (ByteBuffer buffer : buffers) {
+			assertNotNull(radixParser.parse(buffer.asReadOnlyBuffer()).join());
+			assertNotNull(radixParser.parseSync(buffer));
+		}
+
+		{
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < iterations; i++) {
+				for (ByteBuffer buffer : buffers) {
+					radixParser.parse(buffer.asReadOnlyBuffer()).join();
+				}
+			}
+			long end = System.currentTimeMillis();
+			System.out.println("RADIX: " + (end - start) + "ms for " + (iterations * buffers.size()) + " messages");
+		}
+
+		{
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < iterations; i++) {
+				for (ByteBuffer buffer : buffers) {
+					radixParser.parseSync(buffer);
+				}
+			}
+			long end = System.currentTimeMillis();
+			System.out.println("RADIX SYNC: " + (end - start) + "ms for " + (iterations * buffers.size()) + " messages");
+		}
+	}
+
+	private static int assertParseSync(ByteBufferParser<SyslogMessage> parser, List<String> messages) {
+		int parsed = 0;
+		for (String message : messages) {
+			final ByteBuffer buffer = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+			final SyslogMessage expected = parser.parse(buffer.asReadOnlyBuffer()).join();
+			final SyslogMessage actual = parser.parseSync(buffer);
+			// The position of the buffer must not be modified
+			assertEquals(0, buffer.position());
+			assertSameMessage(message, expected, actual);
+			if (actual != null) {
+				parsed++;
+			}
+		}
+		return parsed;
+	}
+
+	private static void assertSameMessage(String message, SyslogMessage expected, SyslogMessage actual) {
+		if (expected == null) {
+			assertNull(message, actual);
+			return;
+		}
+		assertNotNull(message, actual);
+		assertEquals(message, expected.getFacility(), actual.getFacility());
+		assertEquals(message, expected.getSeverity(), actual.getSeverity());
+		assertEquals(message, expected.getVersion(), actual.getVersion());
+		assertEquals(message, expected.getYear(), actual.getYear());
+		assertEquals(message, expected.getMonth(), actual.getMonth());
+		assertEquals(message, expected.getDayOfMonth(), actual.getDayOfMonth());
+		assertEquals(message, expected.getHourOfDay(), actual.getHourOfDay());
+		assertEquals(message, expected.getMinute(), actual.getMinute());
+		assertEquals(message, expected.getSecond(), actual.getSecond());
+		assertEquals(message, expected.getMillisecond(), actual.getMillisecond());
+		assertEquals(message, expected.getZoneId(), actual.getZoneId());
+		assertEquals(message, expected.getHostName(), actual.getHostName());
+		assertEquals(message, expected.getProcessName(), actual.getProcessName());
+		assertEquals(message, expected.getProcessId(), actual.getProcessId());
+		assertEquals(message, expected.getMessageID(), actual.getMessageID());
+		assertEquals(message, expected.getMessage(), actual.getMessage());
+	}
+
+	private List<String> readSampleMessages() throws IOException {
+		return readLines(ConfigurationTestUtils.getInputStreamForResource(this, "/syslogMessages.txt")).stream()
+			// Replace the tokens that allow the file to be stored as text
+			.map(m -> m.replaceAll("\\\\u0000", "\u0000").replaceAll("\\\\uFEFF", "\uFEFF"))
+			.collect(Collectors.toList());
+	}
+
+	private static List<String> readLines(InputStream stream) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+			// Ignore comments and blank lines
+			return reader.lines()
+				.filter(l -> l.trim().length() > 0 && !l.trim().startsWith("#"))
+				.collect(Collectors.toList());
+		}
+	}
+
 	private static void verifyNms9522Message1(RadixTreeParser radixParser) {
 		SyslogMessage message;
 		message = radixParser.parse(ByteBuffer.wrap("<14> Nov 16 00:01:25 localhost postfix/smtpd[1713]: connect from www.opennms.org[10.1.1.1]".getBytes(StandardCharsets.US_ASCII))).join();
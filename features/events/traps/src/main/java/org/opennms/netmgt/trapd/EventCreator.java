@@ -46,6 +46,7 @@ import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.eventconf.LogDestType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +54,8 @@ class EventCreator {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(EventCreator.class);
 
+    private static final String DEFAULT_TRAP_UEI = "uei.opennms.org/default/trap";
+
     private final InterfaceToNodeCache cache;
     private final EventConfDao eventConfDao;
 
@@ -61,7 +64,13 @@ class EventCreator {
         this.eventConfDao = Objects.requireNonNull(eventConfDao);
     }
 
-    public Event createEventFrom(final TrapDTO trapDTO, final String systemId, final String location, final InetAddress trapAddress) {
+    /**
+     * Creates the event for a trap.
+     *
+     * @param nodeId the id of the node the trap address belongs to, as returned by {@link #resolveNodeId(String, InetAddress)}
+     * @return the event, or null if the trap matches an event definition which discards it
+     */
+    public Event createEventFrom(final TrapDTO trapDTO, final String systemId, final InetAddress trapAddress, final Optional<Integer> nodeId) {
         LOG.debug("{} trap - trapInterface: {}", trapDTO.getVersion(), trapDTO.getAgentAddress());
 
         // Set event data
@@ -93,9 +102,8 @@ class EventCreator {
             }
         }
 
-        // Resolve Node id and set, if known by OpenNMS
-        resolveNodeId(location, trapAddress)
-                .ifPresent(eventBuilder::setNodeid);
+        // Set node id, if known by OpenNMS
+        nodeId.ifPresent(eventBuilder::setNodeid);
 
         // If there was no systemId in the trap message, assume that
         // it was generated by this system. Eventd will fill in the
@@ -106,16 +114,26 @@ class EventCreator {
 
         // Get event template and set uei, if unknown
         final Event event = eventBuilder.getEvent();
-        final org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
+        org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
         if (econf == null || econf.getUei() == null) {
-            event.setUei("uei.opennms.org/default/trap");
+            event.setUei(DEFAULT_TRAP_UEI);
+            econf = eventConfDao.findByUei(DEFAULT_TRAP_UEI);
         } else {
             event.setUei(econf.getUei());
         }
+
+        // The event definition is only matched once, so decide here whether to discard the trap
+        if (econf != null && econf.getLogmsg() != null && LogDestType.DISCARDTRAPS.equals(econf.getLogmsg().getDest())) {
+            return null;
+        }
         return event;
     }
 
-    private Optional<Integer> resolveNodeId(String location, InetAddress trapAddress) {
+    /**
+     * All traps of a {@link TrapLogDTO} share the location and trap address,
+     * so the node only needs to be resolved once for all of them.
+     */
+    public Optional<Integer> resolveNodeId(String location, InetAddress trapAddress) {
         // If there was no location in the trap message, assume that
         // it was generated in the default location
         if (location == null) {
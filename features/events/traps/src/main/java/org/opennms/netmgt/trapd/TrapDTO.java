@@ -88,7 +88,7 @@ public class TrapDTO implements Message {
 		setTrapIdentity(new TrapIdentityDTO(trapInfo.getTrapIdentity()));
 
 		// Map variable bindings
-		final List<SnmpResult> results = new ArrayList<>();
+		results = new ArrayList<>(trapInfo.getPduLength());
 		for (int i = 0; i < trapInfo.getPduLength(); i++) {
 			final SnmpVarBindDTO varBindDTO = trapInfo.getSnmpVarBindDTO(i);
 			if (varBindDTO != null) {
@@ -96,11 +96,6 @@ public class TrapDTO implements Message {
 				results.add(snmpResult);
 			}
 		}
-		setResults(results);
-	}
-
-	private void setResults(List<SnmpResult> results) {
-		this.results = new ArrayList<>(results);
 	}
 
 	public void setAgentAddress(InetAddress agentAddress) {
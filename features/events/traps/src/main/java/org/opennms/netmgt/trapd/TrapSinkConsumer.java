@@ -30,6 +30,12 @@ package org.opennms.netmgt.trapd;
 
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import javax.annotation.PostConstruct;
 
 import org.opennms.core.ipc.sink.api.MessageConsumer;
@@ -47,8 +53,6 @@ import org.opennms.netmgt.trapd.jmx.TrapdInstrumentation;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
-import org.opennms.netmgt.xml.eventconf.LogDestType;
-import org.opennms.netmgt.xml.eventconf.Logmsg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -65,6 +69,11 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 	 */
 	private static final String LOCALHOST_ADDRESS = InetAddressUtils.getLocalHostName();
 
+	/**
+	 * The number of locks the agents are spread over.
+	 */
+	private static final int AGENT_LOCKS = 256;
+
 	@Autowired
 	private MessageConsumerManager messageConsumerManager;
 
@@ -86,6 +95,14 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 
 	private EventCreator eventCreator;
 
+	private final Lock[] agentLocks = new Lock[AGENT_LOCKS];
+	{
+		for (int i = 0; i < agentLocks.length; i++) {
+			// Fair, so waiting batches of an agent are processed in the order they arrived in
+			agentLocks[i] = new ReentrantLock(true);
+		}
+	}
+
 	@PostConstruct
 	public void init() throws Exception {
 		messageConsumerManager.registerConsumer(this);
@@ -100,15 +117,44 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 	@Override
 	public void handleMessage(TrapLogDTO messageLog) {
 		try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Trapd.LOG4J_CATEGORY)) {
-			final Log eventLog = toLog(messageLog);
+			final long now = System.currentTimeMillis();
+			for (TrapDTO eachMessage : messageLog.getMessages()) {
+				trapdInstrumentation.updateDispatchLatency(now - eachMessage.getCreationTime(), TimeUnit.MILLISECONDS);
+			}
+
+			// The batches are aggregated by trap address, so all traps of a batch come from the
+			// same agent. The consumer threads process the batches of different agents in parallel,
+			// while the batches of an agent are processed one after another, in the order in which
+			// the threads got to them, so its events reach eventd in order.
+			final Lock lock = agentLocks[Math.floorMod(Objects.hashCode(messageLog.getTrapAddress()), agentLocks.length)];
+			final long waiting = System.nanoTime();
+			lock.lock();
+			final Log eventLog;
+			try {
+				final long converting = System.nanoTime();
+				trapdInstrumentation.updateOrderingLatency(converting - waiting, TimeUnit.NANOSECONDS);
 
-			eventForwarder.sendNowSync(eventLog);
+				eventLog = toLog(messageLog);
+
+				final long forwarding = System.nanoTime();
+				trapdInstrumentation.updateConversionLatency(forwarding - converting, TimeUnit.NANOSECONDS);
+
+				// Forward the whole batch at once
+				if (eventLog.getEvents().getEventCount() > 0) {
+					eventForwarder.sendNowSync(eventLog);
+				}
+				trapdInstrumentation.updateForwardingLatency(System.nanoTime() - forwarding, TimeUnit.NANOSECONDS);
+			} finally {
+				lock.unlock();
+			}
 
 			// If configured, also send events for new suspects
 			if (config.getNewSuspectOnTrap()) {
+				// All events of a batch share the interface and the node, so at most one is needed
 				eventLog.getEvents().getEventCollection().stream()
 						.filter(e -> !e.hasNodeid())
-						.forEach(e -> {
+						.findFirst()
+						.ifPresent(e -> {
 							sendNewSuspectEvent(e.getInterface(), e.getDistPoller());
 							LOG.debug("Sent newSuspectEvent for interface {}", e.getInterface());
 						});
@@ -121,14 +167,24 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 		final Events events = new Events();
 		log.setEvents(events);
 
+		// All traps of the batch were sent by the same agent
+		final Optional<Integer> nodeId;
+		try {
+			nodeId = eventCreator.resolveNodeId(messageLog.getLocation(), messageLog.getTrapAddress());
+		} catch (Throwable e) {
+			LOG.error("Unexpected error resolving the node of trap address {}, dropping {} trap(s)", messageLog.getTrapAddress(), messageLog.getMessages().size(), e);
+			messageLog.getMessages().forEach(m -> trapdInstrumentation.incErrorCount());
+			return log;
+		}
+
 		for (TrapDTO eachMessage : messageLog.getMessages()) {
 			try {
 				final Event event = eventCreator.createEventFrom(
 						eachMessage,
 						messageLog.getSystemId(),
-						messageLog.getLocation(),
-						messageLog.getTrapAddress());
-				if (!shouldDiscard(event)) {
+						messageLog.getTrapAddress(),
+						nodeId);
+				if (event != null) {
 					if (event.getSnmp() != null) {
 						trapdInstrumentation.incTrapsReceivedCount(event.getSnmp().getVersion());
 					}
@@ -155,13 +211,4 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 		// send the event to eventd
 		eventForwarder.sendNow(bldr.getEvent());
 	}
-
-	private boolean shouldDiscard(Event event) {
-		org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
-		if (econf != null) {
-			final Logmsg logmsg = econf.getLogmsg();
-			return logmsg != null && LogDestType.DISCARDTRAPS.equals(logmsg.getDest());
-		}
-		return false;
-	}
 }
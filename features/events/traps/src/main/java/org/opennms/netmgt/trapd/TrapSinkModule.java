@@ -129,6 +129,11 @@ public class TrapSinkModule extends AbstractXmlSinkModule<TrapInformationWrapper
             public boolean isBlockWhenFull() {
                 return true;
             }
+
+            @Override
+            public int getBatchSize() {
+                return config.getDispatchBatchSize();
+            }
         };
     }
 
@@ -61,6 +61,7 @@ public class TrapdConfigBean implements TrapdConfig, Serializable {
 	private int batchIntervalInMs;
 	private int batchSize;
 	private int queueSize;
+	private int dispatchBatchSize = 1;
 	private int numThreads;
 	private boolean useAddressFromVarbind;
 
@@ -80,6 +81,7 @@ public class TrapdConfigBean implements TrapdConfig, Serializable {
 		setBatchIntervalMs(trapdConfiguration.getBatchInterval());
 		setBatchSize(trapdConfiguration.getBatchSize());
 		setQueueSize(trapdConfiguration.getQueueSize());
+		setDispatchBatchSize(trapdConfiguration.getDispatchBatchSize());
 		setNumThreads(trapdConfiguration.getThreads());
 		if (trapdConfiguration.getSnmpv3UserCollection() != null) {
 			setSnmpV3Users(trapdConfiguration.getSnmpv3UserCollection().stream()
@@ -161,6 +163,11 @@ public class TrapdConfigBean implements TrapdConfig, Serializable {
 		return batchIntervalInMs;
 	}
 
+	@Override
+	public int getDispatchBatchSize() {
+		return dispatchBatchSize;
+	}
+
 	@Override
 	public void update(TrapdConfig config) {
 		setSnmpTrapAddress(config.getSnmpTrapAddress());
@@ -170,6 +177,7 @@ public class TrapdConfigBean implements TrapdConfig, Serializable {
 		setBatchIntervalMs(config.getBatchIntervalMs());
 		setBatchSize(config.getBatchSize());
 		setQueueSize(config.getQueueSize());
+		setDispatchBatchSize(config.getDispatchBatchSize());
 		setNumThreads(config.getNumThreads());
 		setSnmpV3Users(config.getSnmpV3Users());
 	}
@@ -186,6 +194,10 @@ public class TrapdConfigBean implements TrapdConfig, Serializable {
 		this.queueSize = queueSize;
 	}
 
+	public void setDispatchBatchSize(int dispatchBatchSize) {
+		this.dispatchBatchSize = dispatchBatchSize;
+	}
+
 	public void setNumThreads(int numThreads) {
 		this.numThreads = numThreads;
 	}
@@ -92,6 +92,58 @@ public class Trapd extends AbstractSpringContextJmxServiceDaemon<org.opennms.net
         return getTrapdInstrumentation().getTrapsErrored();
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public double getDispatchLatencyMean() {
+        return toMillis(getTrapdInstrumentation().getDispatchLatency().getSnapshot().getMean());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getDispatchLatency99thPercentile() {
+        return toMillis(getTrapdInstrumentation().getDispatchLatency().getSnapshot().get99thPercentile());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getOrderingLatencyMean() {
+        return toMillis(getTrapdInstrumentation().getOrderingLatency().getSnapshot().getMean());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getOrderingLatency99thPercentile() {
+        return toMillis(getTrapdInstrumentation().getOrderingLatency().getSnapshot().get99thPercentile());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getConversionLatencyMean() {
+        return toMillis(getTrapdInstrumentation().getConversionLatency().getSnapshot().getMean());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getConversionLatency99thPercentile() {
+        return toMillis(getTrapdInstrumentation().getConversionLatency().getSnapshot().get99thPercentile());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getForwardingLatencyMean() {
+        return toMillis(getTrapdInstrumentation().getForwardingLatency().getSnapshot().getMean());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getForwardingLatency99thPercentile() {
+        return toMillis(getTrapdInstrumentation().getForwardingLatency().getSnapshot().get99thPercentile());
+    }
+
+    private static double toMillis(double micros) {
+        return micros / 1000.0;
+    }
+
     private TrapdInstrumentation getTrapdInstrumentation() {
         return TrapSinkConsumer.trapdInstrumentation;
     }
@@ -31,6 +31,10 @@ package org.opennms.netmgt.trapd.jmx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TrapdInstrumentation {
@@ -45,6 +49,13 @@ public class TrapdInstrumentation {
     private final AtomicLong trapsDiscarded = new AtomicLong();
     private final AtomicLong trapsErrored = new AtomicLong();
 
+    // Latencies of the stages a trap passes through, in microseconds. The
+    // reservoirs keep a bounded sample, so they are cheap even during a storm.
+    private final Histogram dispatchLatency = new Histogram(new ExponentiallyDecayingReservoir());
+    private final Histogram orderingLatency = new Histogram(new ExponentiallyDecayingReservoir());
+    private final Histogram conversionLatency = new Histogram(new ExponentiallyDecayingReservoir());
+    private final Histogram forwardingLatency = new Histogram(new ExponentiallyDecayingReservoir());
+
     public void incTrapsReceivedCount(String version) {
         trapsReceived.incrementAndGet();
         if ("v1".equals(version)) {
@@ -67,6 +78,36 @@ public class TrapdInstrumentation {
         trapsErrored.incrementAndGet();
     }
 
+    /**
+     * Records the time from the reception of a trap by the listener until
+     * its batch is handed to the consumer, which includes the aggregation
+     * into batches and the transport over the sink.
+     */
+    public void updateDispatchLatency(long duration, TimeUnit unit) {
+        dispatchLatency.update(unit.toMicros(duration));
+    }
+
+    /**
+     * Records the time a batch waited for the previous batch of the same agent.
+     */
+    public void updateOrderingLatency(long duration, TimeUnit unit) {
+        orderingLatency.update(unit.toMicros(duration));
+    }
+
+    /**
+     * Records the time to convert a batch of traps into events.
+     */
+    public void updateConversionLatency(long duration, TimeUnit unit) {
+        conversionLatency.update(unit.toMicros(duration));
+    }
+
+    /**
+     * Records the time to forward the events of a batch to eventd.
+     */
+    public void updateForwardingLatency(long duration, TimeUnit unit) {
+        forwardingLatency.update(unit.toMicros(duration));
+    }
+
     public long getV1TrapsReceived() {
         return v1TrapsReceived.get();
     }
@@ -94,4 +135,20 @@ public class TrapdInstrumentation {
     public long getTrapsReceived() {
         return trapsReceived.get();
     }
+
+    public Histogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    public Histogram getOrderingLatency() {
+        return orderingLatency;
+    }
+
+    public Histogram getConversionLatency() {
+        return conversionLatency;
+    }
+
+    public Histogram getForwardingLatency() {
+        return forwardingLatency;
+    }
 }
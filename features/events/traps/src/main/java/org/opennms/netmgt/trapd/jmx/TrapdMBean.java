@@ -57,4 +57,28 @@ public interface TrapdMBean extends BaseOnmsMBean {
     
     /** @return The number of traps not processed due to errors since Trapd was last started */
     public long getTrapsErrored();
+
+    /** @return The mean of the time from the reception of a trap until its batch is handed to the consumer, in milliseconds */
+    public double getDispatchLatencyMean();
+
+    /** @return The 99th percentile of the time from the reception of a trap until its batch is handed to the consumer, in milliseconds */
+    public double getDispatchLatency99thPercentile();
+
+    /** @return The mean of the time a batch waited for the previous batch of the same agent, in milliseconds */
+    public double getOrderingLatencyMean();
+
+    /** @return The 99th percentile of the time a batch waited for the previous batch of the same agent, in milliseconds */
+    public double getOrderingLatency99thPercentile();
+
+    /** @return The mean of the time to convert a batch of traps into events, in milliseconds */
+    public double getConversionLatencyMean();
+
+    /** @return The 99th percentile of the time to convert a batch of traps into events, in milliseconds */
+    public double getConversionLatency99thPercentile();
+
+    /** @return The mean of the time to forward the events of a batch to eventd, in milliseconds */
+    public double getForwardingLatencyMean();
+
+    /** @return The 99th percentile of the time to forward the events of a batch to eventd, in milliseconds */
+    public double getForwardingLatency99thPercentile();
 }
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.opennms.core.ipc.sink.api.MessageConsumerManager;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.TrapdConfig;
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+import org.opennms.netmgt.xml.eventconf.LogDestType;
+import org.opennms.netmgt.xml.eventconf.Logmsg;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TrapSinkConsumerTest {
+
+    private static final InetAddress AGENT_A = InetAddressUtils.addr("10.0.0.1");
+    private static final InetAddress AGENT_B = InetAddressUtils.addr("10.0.0.2");
+
+    @Mock
+    private MessageConsumerManager messageConsumerManager;
+
+    @Mock
+    private EventConfDao eventConfDao;
+
+    @Mock
+    private EventForwarder eventForwarder;
+
+    @Mock
+    private InterfaceToNodeCache interfaceToNodeCache;
+
+    @Mock
+    private TrapdConfig config;
+
+    @Mock
+    private DistPollerDao distPollerDao;
+
+    @InjectMocks
+    private TrapSinkConsumer consumer;
+
+    @Before
+    public void setUp() throws Exception {
+        when(interfaceToNodeCache.getFirstNodeId(anyString(), any(InetAddress.class))).thenReturn(Optional.empty());
+        consumer.init();
+    }
+
+    @Test
+    public void forwardsBatchAsSingleLog() {
+        when(interfaceToNodeCache.getFirstNodeId("Default", AGENT_A)).thenReturn(Optional.of(1));
+        final org.opennms.netmgt.xml.eventconf.Event econf = new org.opennms.netmgt.xml.eventconf.Event();
+        econf.setUei("uei.opennms.org/test/trap");
+        when(eventConfDao.findByEvent(any(Event.class))).thenReturn(econf);
+
+        consumer.handleMessage(batch(AGENT_A, "a", "b", "c"));
+
+        // The node is resolved once per batch and the event definition once per trap
+        verify(interfaceToNodeCache, times(1)).getFirstNodeId(anyString(), any(InetAddress.class));
+        verify(eventConfDao, times(3)).findByEvent(any(Event.class));
+
+        final ArgumentCaptor<Log> log = ArgumentCaptor.forClass(Log.class);
+        verify(eventForwarder, times(1)).sendNowSync(log.capture());
+        assertEquals(3, log.getValue().getEvents().getEventCount());
+        for (final Event event : log.getValue().getEvents().getEventCollection()) {
+            assertEquals("uei.opennms.org/test/trap", event.getUei());
+            assertEquals(Long.valueOf(1), event.getNodeid());
+        }
+    }
+
+    @Test
+    public void discardsTrapsOfDiscardingDefinitions() {
+        final org.opennms.netmgt.xml.eventconf.Event econf = new org.opennms.netmgt.xml.eventconf.Event();
+        econf.setUei("uei.opennms.org/default/trap");
+        final Logmsg logmsg = new Logmsg();
+        logmsg.setDest(LogDestType.DISCARDTRAPS);
+        econf.setLogmsg(logmsg);
+        when(eventConfDao.findByUei("uei.opennms.org/default/trap")).thenReturn(econf);
+
+        final long discarded = TrapSinkConsumer.trapdInstrumentation.getTrapsDiscarded();
+        consumer.handleMessage(batch(AGENT_A, "a", "b"));
+
+        assertEquals(discarded + 2, TrapSinkConsumer.trapdInstrumentation.getTrapsDiscarded());
+        verify(eventForwarder, never()).sendNowSync(any(Log.class));
+    }
+
+    @Test
+    public void sendsOneNewSuspectEventPerBatch() {
+        when(config.getNewSuspectOnTrap()).thenReturn(true);
+
+        consumer.handleMessage(batch(AGENT_A, "a", "b", "c"));
+
+        verify(eventForwarder, times(1)).sendNowSync(any(Log.class));
+        verify(eventForwarder, times(1)).sendNow(any(Event.class));
+    }
+
+    @Test(timeout = 30000)
+    public void keepsBatchesOfAnAgentInOrder() throws Exception {
+        final List<String> forwarded = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch firstForwarding = new CountDownLatch(1);
+        final CountDownLatch otherAgentForwarded = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            final Log log = (Log) invocation.getArguments()[0];
+            final String batch = log.getEvents().getEvent(0).getSnmp().getCommunity();
+            forwarded.add(batch);
+            if ("a1".equals(batch)) {
+                firstForwarding.countDown();
+                release.await();
+            } else if ("b1".equals(batch)) {
+                otherAgentForwarded.countDown();
+            }
+            return null;
+        }).when(eventForwarder).sendNowSync(any(Log.class));
+
+        final Thread a1 = handleInThread(batch(AGENT_A, "a1"));
+        assertTrue(firstForwarding.await(10, TimeUnit.SECONDS));
+        final Thread a2 = handleInThread(batch(AGENT_A, "a2"));
+        final Thread b1 = handleInThread(batch(AGENT_B, "b1"));
+
+        // The other agent is not held up by the blocked batch, but the second batch of the agent is
+        assertTrue(otherAgentForwarded.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertFalse(forwarded.contains("a2"));
+
+        release.countDown();
+        a1.join();
+        a2.join();
+        b1.join();
+        assertEquals(3, forwarded.size());
+        assertTrue(forwarded.indexOf("a1") < forwarded.indexOf("a2"));
+        assertTrue(TrapSinkConsumer.trapdInstrumentation.getOrderingLatency().getCount() > 0);
+    }
+
+    private Thread handleInThread(TrapLogDTO batch) {
+        final Thread thread = new Thread(() -> consumer.handleMessage(batch));
+        thread.start();
+        return thread;
+    }
+
+    private static TrapLogDTO batch(InetAddress agent, String... communities) {
+        final TrapLogDTO batch = new TrapLogDTO("00000000-0000-0000-0000-000000000000", "Default", agent);
+        for (final String community : communities) {
+            final TrapDTO trap = new TrapDTO();
+            trap.setAgentAddress(agent);
+            trap.setCommunity(community);
+            trap.setVersion("v2c");
+            trap.setCreationTime(System.currentTimeMillis());
+            final TrapIdentityDTO trapIdentity = new TrapIdentityDTO();
+            trapIdentity.setEnterpriseId(".1.3.6.1.4.1.5813");
+            trapIdentity.setGeneric(6);
+            trapIdentity.setSpecific(1);
+            trap.setTrapIdentity(trapIdentity);
+            batch.addMessage(trap);
+        }
+        return batch;
+    }
+}
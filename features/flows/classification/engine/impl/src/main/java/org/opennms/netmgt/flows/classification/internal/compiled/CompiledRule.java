@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.matcher.DstAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.FilterMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.Matcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.SrcAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.value.PortValue;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleDefinition;
+
+/**
+ * A rule with its definitions parsed once, so it can be matched against a request
+ * without any further parsing or boxing.
+ *
+ * Protocols and ports are matched by lookups into the compiled values, while the addresses
+ * and the exporter filter are still matched by the {@link Matcher}s also used by
+ * the {@link org.opennms.netmgt.flows.classification.internal.classifier.CombinedClassifier}.
+ */
+class CompiledRule {
+
+    // Protocol numbers are 8 bit values
+    static final int PROTOCOL_COUNT = 256;
+
+    private final String name;
+
+    // Accepted protocols indexed by their decimal value, null if any protocol is accepted
+    private final boolean[] protocols;
+
+    // Accepted ports as pairs of inclusive bounds in ascending order, null if any port is accepted
+    private final int[] srcPorts;
+    private final int[] dstPorts;
+
+    private final Matcher[] matchers;
+
+    CompiledRule(RuleDefinition ruleDefinition, FilterService filterService) {
+        Objects.requireNonNull(ruleDefinition);
+        this.name = ruleDefinition.getName();
+        this.protocols = ruleDefinition.hasProtocolDefinition() ? toProtocols(ruleDefinition.getProtocol()) : null;
+        this.srcPorts = ruleDefinition.hasSrcPortDefinition() ? toRanges(ruleDefinition.getSrcPort()) : null;
+        this.dstPorts = ruleDefinition.hasDstPortDefinition() ? toRanges(ruleDefinition.getDstPort()) : null;
+
+        // The exporter filter is the most expensive check, so it goes last
+        final List<Matcher> matchers = new ArrayList<>();
+        if (ruleDefinition.hasSrcAddressDefinition()) {
+            matchers.add(new SrcAddressMatcher(ruleDefinition.getSrcAddress()));
+        }
+        if (ruleDefinition.hasDstAddressDefinition()) {
+            matchers.add(new DstAddressMatcher(ruleDefinition.getDstAddress()));
+        }
+        if (ruleDefinition.hasExportFilterDefinition()) {
+            matchers.add(new FilterMatcher(ruleDefinition.getExporterFilter(), Objects.requireNonNull(filterService)));
+        }
+        this.matchers = matchers.toArray(new Matcher[matchers.size()]);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    boolean[] getProtocols() {
+        return protocols;
+    }
+
+    int[] getSrcPorts() {
+        return srcPorts;
+    }
+
+    int[] getDstPorts() {
+        return dstPorts;
+    }
+
+    public boolean matches(ClassificationRequest request) {
+        if (protocols != null && !contains(protocols, request.getProtocol())) {
+            return false;
+        }
+        if (srcPorts != null && !contains(srcPorts, request.getSrcPort())) {
+            return false;
+        }
+        if (dstPorts != null && !contains(dstPorts, request.getDstPort())) {
+            return false;
+        }
+        for (Matcher matcher : matchers) {
+            if (!matcher.matches(request)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(boolean[] protocols, Protocol protocol) {
+        if (protocol == null) {
+            return false;
+        }
+        final int decimal = protocol.getDecimal();
+        return decimal >= 0 && decimal < protocols.length && protocols[decimal];
+    }
+
+    private static boolean contains(int[] ranges, int port) {
+        // Binary search for the last range starting at or before the port
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (ranges[mid * 2] <= port) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && port <= ranges[high * 2 + 1];
+    }
+
+    private static boolean[] toProtocols(String input) {
+        // Unknown protocols are ignored, the same way the ProtocolMatcher does
+        final boolean[] protocols = new boolean[PROTOCOL_COUNT];
+        for (StringValue value : new StringValue(input).splitBy(",")) {
+            final Protocol protocol = Protocols.getProtocol(value.getValue());
+            if (protocol != null && protocol.getDecimal() >= 0 && protocol.getDecimal() < PROTOCOL_COUNT) {
+                protocols[protocol.getDecimal()] = true;
+            }
+        }
+        return protocols;
+    }
+
+    // Uses the PortValue to resolve the ports, to accept exactly the same ports as the PortMatcher does
+    private static int[] toRanges(String input) {
+        final int[] ports = new PortValue(input).getPorts().stream().mapToInt(Integer::intValue).sorted().toArray();
+        final List<int[]> ranges = new ArrayList<>();
+        for (int i = 0; i < ports.length; i++) {
+            final int start = ports[i];
+            while (i + 1 < ports.length && ports[i + 1] == ports[i] + 1) {
+                i++;
+            }
+            ranges.add(new int[]{start, ports[i]});
+        }
+        return ranges.stream().flatMapToInt(Arrays::stream).toArray();
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Maps a port to the ranks of the rules accepting it.
+ *
+ * The port space is split into the elementary intervals formed by the bounds of all indexed
+ * port ranges. All ports of an interval are accepted by the same rules, so a lookup is a
+ * binary search for the interval, no matter how many ports the rules define.
+ */
+class PortIndex {
+
+    private static final int[] NONE = new int[0];
+
+    // Lower bound of each interval in ascending order, the first interval starts at Integer.MIN_VALUE
+    private final int[] bounds;
+
+    // The ranks of the rules accepting the ports of each interval in ascending order
+    private final int[][] ranks;
+
+    private PortIndex(int[] bounds, int[][] ranks) {
+        this.bounds = bounds;
+        this.ranks = ranks;
+    }
+
+    public int[] lookup(int port) {
+        int index = Arrays.binarySearch(bounds, port);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return ranks[index];
+    }
+
+    public static class Builder {
+        private final List<Integer> ranks = new ArrayList<>();
+        private final List<int[]> ranges = new ArrayList<>();
+
+        // Rules must be added in the order of their rank
+        public Builder withRule(int rank, int[] ranges) {
+            this.ranks.add(rank);
+            this.ranges.add(ranges);
+            return this;
+        }
+
+        public PortIndex build() {
+            final TreeSet<Integer> boundSet = new TreeSet<>();
+            boundSet.add(Integer.MIN_VALUE);
+            for (int[] eachRanges : ranges) {
+                for (int i = 0; i < eachRanges.length; i += 2) {
+                    boundSet.add(eachRanges[i]);
+                    if (eachRanges[i + 1] != Integer.MAX_VALUE) {
+                        boundSet.add(eachRanges[i + 1] + 1);
+                    }
+                }
+            }
+            final int[] bounds = boundSet.stream().mapToInt(Integer::intValue).toArray();
+
+            final List<List<Integer>> intervals = new ArrayList<>(bounds.length);
+            for (int i = 0; i < bounds.length; i++) {
+                intervals.add(new ArrayList<>());
+            }
+            for (int i = 0; i < ranks.size(); i++) {
+                final int[] eachRanges = ranges.get(i);
+                for (int j = 0; j < eachRanges.length; j += 2) {
+                    final int from = Arrays.binarySearch(bounds, eachRanges[j]);
+                    final int to = eachRanges[j + 1] == Integer.MAX_VALUE ? bounds.length : Arrays.binarySearch(bounds, eachRanges[j + 1] + 1);
+                    for (int k = from; k < to; k++) {
+                        intervals.get(k).add(ranks.get(i));
+                    }
+                }
+            }
+
+            final int[][] ranks = new int[bounds.length][];
+            for (int i = 0; i < bounds.length; i++) {
+                final List<Integer> intervalRanks = intervals.get(i);
+                ranks[i] = intervalRanks.isEmpty() ? NONE : intervalRanks.stream().mapToInt(Integer::intValue).toArray();
+            }
+            return new PortIndex(bounds, ranks);
+        }
+    }
+}
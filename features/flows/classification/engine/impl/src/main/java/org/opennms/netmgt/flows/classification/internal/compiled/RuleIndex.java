@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleDefinition;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
+
+/**
+ * An immutable index over a set of rules, which resolves the rule with the highest priority matching
+ * a request without evaluating every rule.
+ *
+ * The rules are ranked by the {@link RulePriorityComparator}, rules with an equal priority keep the
+ * order in which they were provided. Each rule is indexed by the most selective value it defines:
+ *
+ * <ol>
+ *     <li>its dst port ranges,</li>
+ *     <li>its src port ranges,</li>
+ *     <li>its dst address, if it is not a wildcard expression,</li>
+ *     <li>its src address, if it is not a wildcard expression,</li>
+ *     <li>its protocols.</li>
+ * </ol>
+ *
+ * Rules defining none of them are candidates for each request. A request looks up the candidates in
+ * each of the indices, which are merged by rank. The first candidate matching the request in full wins.
+ */
+public class RuleIndex {
+
+    private static final int[] NONE = new int[0];
+
+    public static final RuleIndex EMPTY = compile(new ArrayList<>(), FilterService.NOOP);
+
+    // The compiled rules by rank
+    private final CompiledRule[] rules;
+
+    private final PortIndex dstPortIndex;
+    private final PortIndex srcPortIndex;
+    private final Map<String, int[]> dstAddressIndex;
+    private final Map<String, int[]> srcAddressIndex;
+    private final int[][] protocolIndex;
+    private final int[] unindexed;
+
+    private RuleIndex(CompiledRule[] rules, PortIndex dstPortIndex, PortIndex srcPortIndex,
+                      Map<String, int[]> dstAddressIndex, Map<String, int[]> srcAddressIndex,
+                      int[][] protocolIndex, int[] unindexed) {
+        this.rules = rules;
+        this.dstPortIndex = dstPortIndex;
+        this.srcPortIndex = srcPortIndex;
+        this.dstAddressIndex = dstAddressIndex;
+        this.srcAddressIndex = srcAddressIndex;
+        this.protocolIndex = protocolIndex;
+        this.unindexed = unindexed;
+    }
+
+    public static RuleIndex compile(List<? extends RuleDefinition> ruleDefinitions, FilterService filterService) {
+        Objects.requireNonNull(ruleDefinitions);
+        Objects.requireNonNull(filterService);
+
+        // The sort is stable, so rules with equal priority keep their order
+        final List<RuleDefinition> sortedRules = new ArrayList<>(ruleDefinitions);
+        sortedRules.sort(new RulePriorityComparator());
+
+        final CompiledRule[] rules = new CompiledRule[sortedRules.size()];
+        final PortIndex.Builder dstPortIndex = new PortIndex.Builder();
+        final PortIndex.Builder srcPortIndex = new PortIndex.Builder();
+        final Map<String, List<Integer>> dstAddressIndex = new HashMap<>();
+        final Map<String, List<Integer>> srcAddressIndex = new HashMap<>();
+        final List<List<Integer>> protocolIndex = new ArrayList<>(CompiledRule.PROTOCOL_COUNT);
+        for (int decimal = 0; decimal < CompiledRule.PROTOCOL_COUNT; decimal++) {
+            protocolIndex.add(new ArrayList<>());
+        }
+        final List<Integer> unindexed = new ArrayList<>();
+
+        for (int rank = 0; rank < rules.length; rank++) {
+            final RuleDefinition ruleDefinition = sortedRules.get(rank);
+            final CompiledRule rule = new CompiledRule(ruleDefinition, filterService);
+            rules[rank] = rule;
+
+            if (rule.getDstPorts() != null) {
+                dstPortIndex.withRule(rank, rule.getDstPorts());
+            } else if (rule.getSrcPorts() != null) {
+                srcPortIndex.withRule(rank, rule.getSrcPorts());
+            } else if (isExactAddress(ruleDefinition.getDstAddress())) {
+                dstAddressIndex.computeIfAbsent(ruleDefinition.getDstAddress(), key -> new ArrayList<>()).add(rank);
+            } else if (isExactAddress(ruleDefinition.getSrcAddress())) {
+                srcAddressIndex.computeIfAbsent(ruleDefinition.getSrcAddress(), key -> new ArrayList<>()).add(rank);
+            } else if (rule.getProtocols() != null) {
+                final boolean[] protocols = rule.getProtocols();
+                for (int decimal = 0; decimal < protocols.length; decimal++) {
+                    if (protocols[decimal]) {
+                        protocolIndex.get(decimal).add(rank);
+                    }
+                }
+            } else {
+                unindexed.add(rank);
+            }
+        }
+
+        return new RuleIndex(rules,
+                dstPortIndex.build(),
+                srcPortIndex.build(),
+                toArrays(dstAddressIndex),
+                toArrays(srcAddressIndex),
+                protocolIndex.stream().map(RuleIndex::toArray).toArray(int[][]::new),
+                toArray(unindexed));
+    }
+
+    public String classify(ClassificationRequest request) {
+        final int[][] candidates = new int[][]{
+                dstPortIndex.lookup(request.getDstPort()),
+                srcPortIndex.lookup(request.getSrcPort()),
+                lookup(dstAddressIndex, request.getDstAddress()),
+                lookup(srcAddressIndex, request.getSrcAddress()),
+                lookup(protocolIndex, request.getProtocol()),
+                unindexed
+        };
+
+        // Each rank is indexed only once, so merging the candidates by rank visits each rule at most once
+        final int[] positions = new int[candidates.length];
+        while (true) {
+            int next = -1;
+            int rank = Integer.MAX_VALUE;
+            for (int i = 0; i < candidates.length; i++) {
+                if (positions[i] < candidates[i].length && candidates[i][positions[i]] < rank) {
+                    next = i;
+                    rank = candidates[i][positions[i]];
+                }
+            }
+            if (next == -1) {
+                return null;
+            }
+            positions[next]++;
+            if (rules[rank].matches(request)) {
+                return rules[rank].getName();
+            }
+        }
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    private static boolean isExactAddress(String address) {
+        return RuleDefinition.isDefined(address) && !new StringValue(address).hasWildcard();
+    }
+
+    private static int[] lookup(Map<String, int[]> index, String address) {
+        if (address == null) {
+            return NONE;
+        }
+        return index.getOrDefault(address, NONE);
+    }
+
+    private static int[] lookup(int[][] index, Protocol protocol) {
+        if (protocol == null || protocol.getDecimal() < 0 || protocol.getDecimal() >= index.length) {
+            return NONE;
+        }
+        return index[protocol.getDecimal()];
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, List<Integer>> index) {
+        return index.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> toArray(e.getValue())));
+    }
+
+    private static int[] toArray(List<Integer> ranks) {
+        return ranks.isEmpty() ? NONE : ranks.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the throughput and the reload time of the {@link DefaultClassificationEngine}
+ * and the {@link CompiledClassificationEngine} for rule sets of different sizes.
+ *
+ * The rule sets resemble the pre-defined rules, which map well-known ports and protocols,
+ * extended by a few rules for addresses and port ranges.
+ */
+public class CompiledClassificationEnginePerfIT {
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledClassificationEnginePerfIT.class);
+
+    private static final long DURATION_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final int REQUEST_COUNT = 10000;
+
+    // The default engine keeps a list of rules for each port, which does not fit into a reasonable heap for larger rule sets
+    private static final int DEFAULT_ENGINE_MAX_RULES = 1000;
+
+    @Test
+    public void compareEngines() {
+        for (int ruleCount : new int[]{100, 1000, 6000}) {
+            final Random random = new Random(ruleCount);
+            final List<Rule> rules = createRules(random, ruleCount);
+            final List<ClassificationRequest> requests = new ArrayList<>(REQUEST_COUNT);
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                requests.add(createRequest(random));
+            }
+
+            // Each engine is measured on its own, so the other engine's memory does not affect the results
+            final Result compiled = measure(() -> new CompiledClassificationEngine(() -> rules, FilterService.NOOP), requests);
+            if (ruleCount > DEFAULT_ENGINE_MAX_RULES) {
+                LOG.info("{} rules: compiled={} requests/s reload={} ms",
+                        ruleCount, (long) compiled.requestsPerSecond, compiled.reloadMs);
+                continue;
+            }
+            final Result defaults = measure(() -> new DefaultClassificationEngine(() -> rules, FilterService.NOOP), requests);
+            LOG.info("{} rules: default={} requests/s reload={} ms, compiled={} requests/s reload={} ms, speedup={}",
+                    ruleCount,
+                    (long) defaults.requestsPerSecond, defaults.reloadMs,
+                    (long) compiled.requestsPerSecond, compiled.reloadMs,
+                    String.format("%.2f", compiled.requestsPerSecond / defaults.requestsPerSecond));
+        }
+    }
+
+    private static Result measure(Supplier<ClassificationEngine> engineSupplier, List<ClassificationRequest> requests) {
+        final long reloadStart = System.nanoTime();
+        final ClassificationEngine engine = engineSupplier.get();
+        final long reloadMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - reloadStart);
+
+        // warm up
+        run(engine, requests);
+        return new Result(run(engine, requests), reloadMs);
+    }
+
+    private static double run(ClassificationEngine engine, List<ClassificationRequest> requests) {
+        long count = 0;
+        long matches = 0;
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        while (System.nanoTime() < end) {
+            for (ClassificationRequest request : requests) {
+                if (engine.classify(request) != null) {
+                    matches++;
+                }
+            }
+            count += requests.size();
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        // Ensure the results are actually used
+        assertEquals(true, matches > 0);
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private static List<Rule> createRules(Random random, int count) {
+        final List<Rule> rules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final RuleBuilder builder = new RuleBuilder().withName("rule" + i);
+            switch (i % 10) {
+                case 0:
+                    builder.withDstAddress("10.0." + random.nextInt(256) + ".*").withDstPort(random.nextInt(1024));
+                    break;
+                case 1:
+                    builder.withSrcAddress("10.0." + random.nextInt(256) + "." + random.nextInt(256));
+                    break;
+                case 2:
+                    final int start = 1024 + random.nextInt(60000);
+                    builder.withDstPort(start + "-" + (start + random.nextInt(100))).withProtocol("tcp");
+                    break;
+                default:
+                    builder.withDstPort(random.nextInt(Rule.MAX_PORT_VALUE)).withProtocol(random.nextBoolean() ? "tcp" : "tcp,udp");
+            }
+            rules.add(builder.build());
+        }
+        return rules;
+    }
+
+    private static ClassificationRequest createRequest(Random random) {
+        return new ClassificationRequestBuilder()
+                .withLocation("Default")
+                .withProtocol(random.nextBoolean() ? ProtocolType.TCP : ProtocolType.UDP)
+                .withSrcAddress("10.0." + random.nextInt(256) + "." + random.nextInt(256))
+                .withSrcPort(1024 + random.nextInt(Rule.MAX_PORT_VALUE - 1024))
+                .withDstAddress("10.0." + random.nextInt(256) + "." + random.nextInt(256))
+                .withDstPort(random.nextInt(2) == 0 ? random.nextInt(1024) : random.nextInt(Rule.MAX_PORT_VALUE))
+                .build();
+    }
+
+    private static class Result {
+        private final double requestsPerSecond;
+        private final long reloadMs;
+
+        private Result(double requestsPerSecond, long reloadMs) {
+            this.requestsPerSecond = requestsPerSecond;
+            this.reloadMs = reloadMs;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.opennms.core.network.IPAddress;
+import org.opennms.core.network.IPAddressRange;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.classifier.CombinedClassifier;
+import org.opennms.netmgt.flows.classification.persistence.api.Group;
+import org.opennms.netmgt.flows.classification.persistence.api.GroupBuilder;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
+
+import com.google.common.collect.Lists;
+
+public class CompiledClassificationEngineTest {
+
+    @Test
+    public void verifyRuleEngineBasic() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() ->
+            Lists.newArrayList(
+                    new RuleBuilder().withName("rule1").withSrcPort(80).build(),
+                    new RuleBuilder().withName("rule2").withDstPort(443).build(),
+                    new RuleBuilder().withName("rule3").withSrcPort(8888).withDstPort(9999).build(),
+                    new RuleBuilder().withName("rule4").withSrcPort(8888).withDstPort(80).build(),
+                    new RuleBuilder().withName("rule5").build()
+            ), FilterService.NOOP);
+
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(443).build()));
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(9999).build()));
+        assertEquals("rule4", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(80).build()));
+        assertEquals("rule1", engine.classify(new ClassificationRequestBuilder().withSrcPort(80).withDstPort(8888).build()));
+        assertEquals("rule5", engine.classify(new ClassificationRequestBuilder().withSrcPort(1234).withDstPort(4321).build()));
+    }
+
+    @Test
+    public void verifyRuleEngineExtended() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new Rule("SSH", "22"),
+                new Rule("HTTP", "80"),
+                new Rule("HTTP_CUSTOM", "192.168.0.1", "80"),
+                new Rule("DUMMY", "192.168.1.*", "8000-9000,80,8080"),
+                new Rule("RANGE-TEST", "7000-8000"),
+                new Rule("OpenNMS", "8980"),
+                new RuleBuilder().withName("OpenNMS Monitor").withDstPort("1077").withSrcPort("5347").withSrcAddress("10.0.0.5").build()
+            ), FilterService.NOOP
+        );
+
+        // Verify concrete mappings
+        assertEquals("SSH",         engine.classify(new ClassificationRequest("Default", 22, "127.0.0.1", ProtocolType.TCP)));
+        assertEquals("HTTP_CUSTOM", engine.classify(new ClassificationRequest("Default", 80, "192.168.0.1", ProtocolType.TCP)));
+        assertEquals("HTTP",        engine.classify(new ClassificationRequest("Default", 80, "192.168.0.2", ProtocolType.TCP)));
+        assertEquals(null,          engine.classify(new ClassificationRequest("Default", 5000, "localhost", ProtocolType.UDP)));
+        assertEquals("OpenNMS",     engine.classify(new ClassificationRequest("Default", 8980, "127.0.0.1", ProtocolType.TCP)));
+        assertEquals("OpenNMS Monitor", engine.classify(
+                new ClassificationRequestBuilder()
+                        .withLocation("Default")
+                        .withSrcAddress("10.0.0.5")
+                        .withSrcPort(5347)
+                        .withDstPort(1077)
+                        .withDstAddress("192.168.0.2")
+                        .withProtocol(ProtocolType.TCP).build()));
+        assertEquals("HTTP", engine.classify(
+                new ClassificationRequestBuilder()
+                        .withLocation("Default")
+                        .withSrcAddress("10.0.0.5")
+                        .withSrcPort(5347)
+                        .withDstPort(80)
+                        .withDstAddress("192.168.0.2")
+                        .withProtocol(ProtocolType.TCP).build()));
+
+        // Verify IP Range
+        final IPAddressRange ipAddresses = new IPAddressRange("192.168.1.0", "192.168.1.255");
+        for (IPAddress ipAddress : ipAddresses) {
+            final ClassificationRequest classificationRequest = new ClassificationRequest("Default", 8080, ipAddress.toString(), ProtocolType.TCP);
+            assertEquals("DUMMY", engine.classify(classificationRequest));
+        }
+
+        // Verify Port Range
+        IntStream.range(7000, 8000).forEach(i -> assertEquals("RANGE-TEST", engine.classify(new ClassificationRequest("Default", i, "192.168.0.2", ProtocolType.TCP))));
+    }
+
+    @Test
+    public void verifyAddressRuleWins() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+            new RuleBuilder().withName("HTTP").withDstPort(80).build(),
+            new RuleBuilder().withName("XXX2").withSrcAddress("192.168.2.1").withSrcPort(4789).build(),
+            new RuleBuilder().withName("XXX").withDstAddress("192.168.2.1").build()
+        ), FilterService.NOOP);
+
+        assertEquals("XXX", engine.classify(new ClassificationRequest("Default", 80, "192.168.2.1", ProtocolType.TCP)));
+        assertEquals("XXX2", engine.classify(new ClassificationRequestBuilder()
+                .withLocation("Default")
+                .withProtocol(ProtocolType.TCP)
+                .withSrcAddress("192.168.2.1").withSrcPort(4789)
+                .withDstAddress("52.31.45.219").withDstPort(80)
+                .build()));
+    }
+
+    @Test
+    public void verifyGroupPriorityWins() {
+        final Group system = new GroupBuilder().withName("system").withPriority(0).build();
+        final Group user = new GroupBuilder().withName("user").withPriority(10).build();
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("specific").withDstAddress("10.0.0.1").withDstPort(80).withGroup(system).build(),
+                new RuleBuilder().withName("any-tcp").withProtocol("tcp").withGroup(user).build()
+        ), FilterService.NOOP);
+
+        assertEquals("any-tcp", engine.classify(new ClassificationRequest("Default", 80, "10.0.0.1", ProtocolType.TCP)));
+        assertEquals("specific", engine.classify(new ClassificationRequest("Default", 80, "10.0.0.1", ProtocolType.UDP)));
+    }
+
+    @Test
+    public void verifyRulesOfEqualPriorityKeepTheirOrder() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("src").withSrcPort(80).build(),
+                new RuleBuilder().withName("dst").withDstPort(80).build()
+        ), FilterService.NOOP);
+
+        assertEquals("src", engine.classify(new ClassificationRequestBuilder().withSrcPort(80).withDstPort(80).build()));
+    }
+
+    @Test
+    public void verifyBothPortsMustMatch() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("both").withSrcPort(1000).withDstPort(2000).build()
+        ), FilterService.NOOP);
+
+        assertEquals("both", engine.classify(new ClassificationRequestBuilder().withSrcPort(1000).withDstPort(2000).build()));
+        assertEquals(null, engine.classify(new ClassificationRequestBuilder().withSrcPort(2000).withDstPort(1000).build()));
+        assertEquals(null, engine.classify(new ClassificationRequestBuilder().withSrcPort(1000).withDstPort(1000).build()));
+    }
+
+    @Test
+    public void verifyReloadReplacesRules() {
+        final List<Rule> rules = Lists.newArrayList(new RuleBuilder().withName("HTTP").withDstPort(80).build());
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> new ArrayList<>(rules), FilterService.NOOP);
+        final ClassificationRequest request = new ClassificationRequest("Default", 80, "10.0.0.1", ProtocolType.TCP);
+        assertEquals("HTTP", engine.classify(request));
+
+        rules.add(new RuleBuilder().withName("WEB").withDstAddress("10.0.0.1").withDstPort(80).build());
+        assertEquals("HTTP", engine.classify(request));
+
+        engine.reload();
+        assertEquals("WEB", engine.classify(request));
+    }
+
+    @Test
+    public void verifyAllPortsToEnsureEngineIsProperlyInitialized() {
+        final ClassificationEngine classificationEngine = new CompiledClassificationEngine(() -> new ArrayList<>(), FilterService.NOOP);
+        for (int i=Rule.MIN_PORT_VALUE; i<Rule.MAX_PORT_VALUE; i++) {
+            assertEquals(null, classificationEngine.classify(new ClassificationRequest("Default", i, "127.0.0.1", ProtocolType.TCP)));
+        }
+    }
+
+    @Test(timeout=5000)
+    public void verifyInitializesQuickly() {
+        new CompiledClassificationEngine(() -> Lists.newArrayList(new Rule("Test", "0-10000")), FilterService.NOOP);
+    }
+
+    // Verifies random rule sets against evaluating all rules in the order of the RulePriorityComparator
+    @Test
+    public void verifyResultsMatchRulePriorityOrder() {
+        final Random random = new Random(42);
+        final FilterService filterService = new FilterService() {
+            @Override
+            public void validate(String filterExpression) {
+
+            }
+
+            @Override
+            public boolean matches(String address, String filterExpression) {
+                return address != null && (address.hashCode() + filterExpression.hashCode()) % 3 == 0;
+            }
+        };
+
+        for (int run = 0; run < 20; run++) {
+            final List<Rule> rules = RandomRules.createRules(random, 200);
+            final ClassificationEngine engine = new CompiledClassificationEngine(() -> rules, filterService);
+
+            final List<CombinedClassifier> classifiers = rules.stream()
+                    .sorted(new RulePriorityComparator())
+                    .map(rule -> new CombinedClassifier(rule, filterService))
+                    .collect(Collectors.toList());
+
+            for (int i = 0; i < 2000; i++) {
+                final ClassificationRequest request = RandomRules.createRequest(random);
+                final String expected = classifiers.stream()
+                        .map(classifier -> classifier.classify(request))
+                        .filter(Objects::nonNull)
+                        .findFirst()
+                        .orElse(null);
+                assertEquals(String.format("%s:%d -> %s:%d", request.getSrcAddress(), request.getSrcPort(), request.getDstAddress(), request.getDstPort()), expected, engine.classify(request));
+            }
+        }
+    }
+
+    static class RandomRules {
+        private static final String[] ADDRESSES = {"10.0.0.1", "10.0.0.2", "10.0.1.1", "192.168.0.1", "10.0.0.*", "10.0.*.1", "*"};
+        private static final String[] PROTOCOLS = {"tcp", "udp", "tcp,udp", "icmp"};
+        private static final String[] EXPORTERS = {"10.1.0.1", "10.1.0.2", "10.1.0.3"};
+        private static final Protocol[] REQUEST_PROTOCOLS = {ProtocolType.TCP, ProtocolType.UDP, Protocols.getProtocol("icmp")};
+
+        static List<Rule> createRules(Random random, int count) {
+            final List<Group> groups = Lists.newArrayList(
+                    new GroupBuilder().withName("low").withPriority(0).build(),
+                    new GroupBuilder().withName("high").withPriority(5).build());
+
+            final List<Rule> rules = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final RuleBuilder builder = new RuleBuilder().withName("rule" + i).withGroup(groups.get(random.nextInt(groups.size())));
+                if (random.nextInt(3) == 0) builder.withProtocol(PROTOCOLS[random.nextInt(PROTOCOLS.length)]);
+                if (random.nextInt(3) == 0) builder.withSrcPort(createPorts(random));
+                if (random.nextInt(2) == 0) builder.withDstPort(createPorts(random));
+                if (random.nextInt(4) == 0) builder.withSrcAddress(ADDRESSES[random.nextInt(ADDRESSES.length)]);
+                if (random.nextInt(3) == 0) builder.withDstAddress(ADDRESSES[random.nextInt(ADDRESSES.length)]);
+                if (random.nextInt(8) == 0) builder.withExporterFilter("filter" + random.nextInt(3));
+                rules.add(builder.build());
+            }
+            return rules;
+        }
+
+        static ClassificationRequest createRequest(Random random) {
+            return new ClassificationRequestBuilder()
+                    .withLocation("Default")
+                    .withProtocol(REQUEST_PROTOCOLS[random.nextInt(REQUEST_PROTOCOLS.length)])
+                    .withSrcAddress(ADDRESSES[random.nextInt(4)])
+                    .withSrcPort(random.nextInt(120))
+                    .withDstAddress(ADDRESSES[random.nextInt(4)])
+                    .withDstPort(random.nextInt(120))
+                    .withExporterAddress(EXPORTERS[random.nextInt(EXPORTERS.length)])
+                    .build();
+        }
+
+        private static String createPorts(Random random) {
+            final List<String> ports = new ArrayList<>();
+            for (int i = random.nextInt(3); i >= 0; i--) {
+                final int start = random.nextInt(100);
+                ports.add(random.nextBoolean() ? Integer.toString(start) : start + "-" + (start + random.nextInt(20)));
+            }
+            return String.join(",", ports);
+        }
+    }
+}
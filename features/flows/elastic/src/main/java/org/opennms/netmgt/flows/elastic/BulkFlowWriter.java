@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.opennms.netmgt.flows.api.FlowException;
+import org.opennms.plugins.elasticsearch.rest.bulk.BulkException;
+import org.opennms.plugins.elasticsearch.rest.bulk.BulkRequest;
+import org.opennms.plugins.elasticsearch.rest.bulk.BulkWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.searchbox.client.JestClient;
+
+/**
+ * Persists flow documents using concurrent bulk requests.
+ *
+ * Documents are written to a bounded buffer and are picked up by a fixed number of
+ * flushing threads. Each thread sends a bulk request as soon as it collected the configured
+ * number of documents or the flush interval elapsed, whatever happens first. Items which
+ * fail are retried by the {@link BulkRequest}, which only re-submits the failed ones.
+ *
+ * If the buffer is full, the writer waits at most for the configured offer timeout before
+ * rejecting the remaining documents with a {@link FlowException}. This way the caller is
+ * never blocked longer than the timeout and learns about the back-pressure.
+ *
+ * The documents which were persisted are handed to the given consumer after each bulk.
+ */
+public class BulkFlowWriter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkFlowWriter.class);
+
+    /**
+     * Time to wait for the first document of a bulk before checking if the writer was closed
+     */
+    private static final long IDLE_POLL_MS = 250;
+
+    private final JestClient client;
+
+    private final Function<List<FlowDocument>, BulkWrapper> documentToBulkTransformer;
+
+    private final Consumer<List<FlowDocument>> persistedDocumentsConsumer;
+
+    private final int bulkRetryCount;
+
+    private final int bulkSize;
+
+    private final long flushIntervalNanos;
+
+    private final long offerTimeoutNanos;
+
+    private final BlockingQueue<FlowDocument> buffer;
+
+    private final ExecutorService executor;
+
+    private volatile boolean running = true;
+
+    /**
+     * Flows/second throughput
+     */
+    private final Meter flowsPersistedMeter;
+
+    /**
+     * Flows/second rejected because the buffer was full
+     */
+    private final Meter flowsRejectedMeter;
+
+    /**
+     * Flows/second which could not be persisted, even after retrying
+     */
+    private final Meter flowsFailedMeter;
+
+    /**
+     * Time taken to send a bulk, including retries
+     */
+    private final Timer bulkFlushTimer;
+
+    /**
+     * Number of flows per bulk
+     */
+    private final Histogram flowsPerBulk;
+
+    public BulkFlowWriter(final MetricRegistry metricRegistry,
+                          final JestClient client,
+                          final Function<List<FlowDocument>, BulkWrapper> documentToBulkTransformer,
+                          final int bulkRetryCount,
+                          final BulkWriterConfig config,
+                          final Consumer<List<FlowDocument>> persistedDocumentsConsumer) {
+        Objects.requireNonNull(config).validate();
+
+        this.client = Objects.requireNonNull(client);
+        this.documentToBulkTransformer = Objects.requireNonNull(documentToBulkTransformer);
+        this.persistedDocumentsConsumer = Objects.requireNonNull(persistedDocumentsConsumer);
+        this.bulkRetryCount = bulkRetryCount;
+        this.bulkSize = config.getBulkSize();
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getFlushInterval());
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getOfferTimeout());
+        this.buffer = new ArrayBlockingQueue<>(config.getBufferSize());
+
+        flowsPersistedMeter = metricRegistry.meter("flowsPersisted");
+        flowsRejectedMeter = metricRegistry.meter("flowsRejected");
+        flowsFailedMeter = metricRegistry.meter("flowsFailed");
+        bulkFlushTimer = metricRegistry.timer("bulkFlushing");
+        flowsPerBulk = metricRegistry.histogram("flowsPerBulk");
+        metricRegistry.register("bulkBufferOccupancy", (Gauge<Integer>) buffer::size);
+
+        LOG.debug("Starting bulk writer with {}", config);
+        this.executor = Executors.newFixedThreadPool(config.getConcurrency(), new ThreadFactoryBuilder()
+                .setNameFormat("flow-bulk-writer-%d")
+                .build());
+        for (int i = 0; i < config.getConcurrency(); i++) {
+            this.executor.execute(this::run);
+        }
+    }
+
+    /**
+     * Hands the documents over to the flushing threads.
+     *
+     * @throws FlowException if the writer is closed or the buffer did not drain in time. In the latter case,
+     * the documents preceding the rejected ones have been accepted.
+     */
+    public void write(final List<FlowDocument> documents) throws FlowException {
+        if (!running) {
+            throw new FlowException("The bulk writer has been closed.");
+        }
+
+        final long deadline = System.nanoTime() + offerTimeoutNanos;
+        for (int i = 0; i < documents.size(); i++) {
+            final FlowDocument document = documents.get(i);
+            if (buffer.offer(document)) {
+                continue;
+            }
+
+            boolean accepted = false;
+            try {
+                accepted = buffer.offer(document, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!accepted) {
+                final int rejected = documents.size() - i;
+                flowsRejectedMeter.mark(rejected);
+                throw new FlowException(String.format("The bulk buffer is full. Rejected %d of %d flows.", rejected, documents.size()));
+            }
+        }
+    }
+
+    private void run() {
+        final List<FlowDocument> bulk = new ArrayList<>(bulkSize);
+        try {
+            while (running || !buffer.isEmpty()) {
+                final FlowDocument first = buffer.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                bulk.add(first);
+
+                // Fill the bulk until it is complete or the flush interval elapsed
+                final long deadline = System.nanoTime() + flushIntervalNanos;
+                while (bulk.size() < bulkSize) {
+                    buffer.drainTo(bulk, bulkSize - bulk.size());
+                    final long remaining = deadline - System.nanoTime();
+                    if (bulk.size() >= bulkSize || remaining <= 0) {
+                        break;
+                    }
+                    final FlowDocument next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    bulk.add(next);
+                }
+
+                flush(bulk);
+                bulk.clear();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Bulk writer was interrupted. Dropping {} buffered flows.", bulk.size() + buffer.size());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush(final List<FlowDocument> bulk) {
+        flowsPerBulk.update(bulk.size());
+        List<FlowDocument> persisted = Collections.emptyList();
+        try (final Timer.Context ctx = bulkFlushTimer.time()) {
+            // the bulk request considers retries and only re-submits the failed items
+            new BulkRequest<>(client, bulk, documentToBulkTransformer, bulkRetryCount).execute();
+            persisted = bulk;
+        } catch (BulkException ex) {
+            persisted = withoutFailedDocuments(bulk, ex);
+            LOG.error("Failed to persist {} of {} flows: {}", bulk.size() - persisted.size(), bulk.size(), ex.getMessage(), ex);
+        } catch (IOException ex) {
+            LOG.error("An error occurred while executing the bulk request: {}", ex.getMessage(), ex);
+        } catch (RuntimeException ex) {
+            // Keep the thread alive, it is not replaced by the pool
+            LOG.error("An unexpected error occurred while executing the bulk request: {}", ex.getMessage(), ex);
+        }
+        flowsFailedMeter.mark(bulk.size() - persisted.size());
+        flowsPersistedMeter.mark(persisted.size());
+
+        if (!persisted.isEmpty()) {
+            try {
+                persistedDocumentsConsumer.accept(persisted);
+            } catch (RuntimeException ex) {
+                LOG.error("An error occurred while handling {} persisted flows: {}", persisted.size(), ex.getMessage(), ex);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<FlowDocument> withoutFailedDocuments(final List<FlowDocument> bulk, final BulkException ex) {
+        if (ex.getBulkResult() == null || ex.getBulkResult().getFailedDocuments().isEmpty()) {
+            return Collections.emptyList();
+        }
+        final Set<FlowDocument> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        failed.addAll((List<FlowDocument>) ex.getBulkResult().getFailedDocuments());
+        final List<FlowDocument> persisted = new ArrayList<>(bulk.size() - failed.size());
+        for (final FlowDocument document : bulk) {
+            if (!failed.contains(document)) {
+                persisted.add(document);
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * Stops accepting documents and waits for the buffered ones to be flushed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("Buffered flows were not flushed in time. Dropping {} flows.", buffer.size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
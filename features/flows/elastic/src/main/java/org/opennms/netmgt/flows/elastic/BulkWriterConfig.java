@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Configures the {@link BulkFlowWriter} used by the {@link ElasticFlowRepository}.
+ * This is helpful when configuring the writer in blueprint bundles.
+ */
+public class BulkWriterConfig {
+
+    private boolean enabled = true;
+
+    private int bufferSize = 10000;
+
+    private int bulkSize = 1000;
+
+    private long flushInterval = 500; // Milliseconds
+
+    private int concurrency = 2;
+
+    private long offerTimeout = 1000; // Milliseconds
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBulkSize() {
+        return bulkSize;
+    }
+
+    public void setBulkSize(int bulkSize) {
+        this.bulkSize = bulkSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public long getOfferTimeout() {
+        return offerTimeout;
+    }
+
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    public void validate() {
+        if (bufferSize < 1) {
+            throw new IllegalStateException("The buffer size must be positive, but was " + bufferSize);
+        }
+        if (bulkSize < 1) {
+            throw new IllegalStateException("The bulk size must be positive, but was " + bulkSize);
+        }
+        if (concurrency < 1) {
+            throw new IllegalStateException("The concurrency must be positive, but was " + concurrency);
+        }
+        if (flushInterval < 0 || offerTimeout < 0) {
+            throw new IllegalStateException("The flush interval and offer timeout must not be negative");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("enabled", enabled)
+                .add("bufferSize", bufferSize)
+                .add("bulkSize", bulkSize)
+                .add("flushInterval", flushInterval + " ms")
+                .add("concurrency", concurrency)
+                .add("offerTimeout", offerTimeout + " ms")
+                .toString();
+    }
+}
@@ -29,15 +29,23 @@
 package org.opennms.netmgt.flows.elastic;
 
 import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.opennms.core.cache.Cache;
 import org.opennms.core.cache.CacheBuilder;
 import org.opennms.core.cache.CacheConfig;
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.core.criteria.Fetch.FetchType;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.NodeDao;
@@ -51,6 +59,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.support.TransactionOperations;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.cache.CacheLoader;
@@ -66,11 +75,19 @@ public class DocumentEnricher {
 
     private final ClassificationEngine classificationEngine;
 
-    // Caches NodeDocument data
+    // Caches NodeDocument data, addresses without a node are cached as empty
     private final Cache<NodeInfoKey, Optional<NodeDocument>> nodeInfoCache;
 
+    /**
+     * Time taken to load the nodes missing in the cache
+     */
     private final Timer nodeLoadTimer;
 
+    /**
+     * Number of nodes loaded at once
+     */
+    private final Histogram nodesPerLoad;
+
     public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
                             TransactionOperations transactionOperations, ClassificationEngine classificationEngine,
                             CacheConfig cacheConfig) {
@@ -84,10 +101,16 @@ public class DocumentEnricher {
                 .withCacheLoader(new CacheLoader<NodeInfoKey, Optional<NodeDocument>>() {
                     @Override
                     public Optional<NodeDocument> load(NodeInfoKey key) {
-                        return getNodeInfo(key.location, key.ipAddress);
+                        return getNodeInfos(Collections.singleton(key)).get(key);
+                    }
+
+                    @Override
+                    public Map<NodeInfoKey, Optional<NodeDocument>> loadAll(Iterable<? extends NodeInfoKey> keys) {
+                        return getNodeInfos(keys);
                     }
                 }).build();
         this.nodeLoadTimer = metricRegistry.timer("nodeLoadTime");
+        this.nodesPerLoad = metricRegistry.histogram("nodesPerLoad");
     }
 
     public void enrich(final List<FlowDocument> documents, final FlowSource source) {
@@ -97,18 +120,21 @@ public class DocumentEnricher {
         }
 
         transactionOperations.execute(callback -> {
+            // Resolve all addresses of the batch at once, so the ones missing in the cache are loaded together
+            final Function<String, Optional<NodeDocument>> nodeInfos = getNodeInfosFromCache(source, documents);
+
             documents.forEach(document -> {
                 // Metadata from message
                 document.setHost(source.getSourceAddress());
                 document.setLocation(source.getLocation());
 
                 // Node data
-                getNodeInfoFromCache(source.getLocation(), source.getSourceAddress()).ifPresent(document::setNodeExporter);
+                nodeInfos.apply(source.getSourceAddress()).ifPresent(document::setNodeExporter);
                 if (document.getDstAddr() != null) {
-                    getNodeInfoFromCache(source.getLocation(), document.getDstAddr()).ifPresent(document::setNodeDst);
+                    nodeInfos.apply(document.getDstAddr()).ifPresent(document::setNodeDst);
                 }
                 if (document.getSrcAddr() != null) {
-                    getNodeInfoFromCache(source.getLocation(), document.getSrcAddr()).ifPresent(document::setNodeSrc);
+                    nodeInfos.apply(document.getSrcAddr()).ifPresent(document::setNodeSrc);
                 }
 
                 // Locality
@@ -140,39 +166,77 @@ public class DocumentEnricher {
         return inetAddress.isLoopbackAddress() || inetAddress.isLinkLocalAddress() || inetAddress.isSiteLocalAddress();
     }
 
-    private Optional<NodeDocument> getNodeInfoFromCache(String location, String ipAddress) {
-        final NodeInfoKey key = new NodeInfoKey(location, ipAddress);
+    private Function<String, Optional<NodeDocument>> getNodeInfosFromCache(FlowSource source, List<FlowDocument> documents) {
+        final Set<NodeInfoKey> keys = new HashSet<>();
+        keys.add(new NodeInfoKey(source.getLocation(), source.getSourceAddress()));
+        for (FlowDocument document : documents) {
+            if (document.getDstAddr() != null) {
+                keys.add(new NodeInfoKey(source.getLocation(), document.getDstAddr()));
+            }
+            if (document.getSrcAddr() != null) {
+                keys.add(new NodeInfoKey(source.getLocation(), document.getSrcAddr()));
+            }
+        }
+
+        final Map<NodeInfoKey, Optional<NodeDocument>> nodeInfos;
         try {
-            return nodeInfoCache.get(key);
+            nodeInfos = nodeInfoCache.getAll(keys);
         } catch (ExecutionException e) {
             LOG.error("Error while retrieving NodeDocument from NodeInfoCache: {}.", e.getMessage(), e);
             throw new RuntimeException(e);
         }
+        return ipAddress -> nodeInfos.get(new NodeInfoKey(source.getLocation(), ipAddress));
     }
 
-    private Optional<NodeDocument> getNodeInfo(String location, String ipAddress) {
-        return getNodeInfo(location, InetAddressUtils.addr(ipAddress));
-    }
-
-    private Optional<NodeDocument> getNodeInfo(String location, InetAddress ipAddress) {
-        final Optional<Integer> nodeId = interfaceToNodeCache.getFirstNodeId(location, ipAddress);
-        if (nodeId.isPresent()) {
-            try (Timer.Context ctx = nodeLoadTimer.time()) {
-                final OnmsNode onmsNode = nodeDao.get(nodeId.get());
-                if (onmsNode != null) {
-                    final NodeDocument nodeInfo = new NodeDocument();
-                    nodeInfo.setForeignSource(onmsNode.getForeignSource());
-                    nodeInfo.setForeignId(onmsNode.getForeignId());
-                    nodeInfo.setNodeId(nodeId.get());
-                    nodeInfo.setCategories(onmsNode.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
-
-                    return Optional.of(nodeInfo);
-                } else {
-                    LOG.warn("Node with id: {} at location: {} with IP address: {} is in the interface to node cache, but wasn't found in the database.");
-                }
+    private Map<NodeInfoKey, Optional<NodeDocument>> getNodeInfos(Iterable<? extends NodeInfoKey> keys) {
+        final Map<NodeInfoKey, Optional<NodeDocument>> nodeInfos = new HashMap<>();
+
+        // Resolve the addresses to nodes, addresses without a node are cached as empty
+        final Map<NodeInfoKey, Integer> nodeIds = new HashMap<>();
+        for (NodeInfoKey key : keys) {
+            final Optional<Integer> nodeId = interfaceToNodeCache.getFirstNodeId(key.location, InetAddressUtils.addr(key.ipAddress));
+            if (nodeId.isPresent()) {
+                nodeIds.put(key, nodeId.get());
+            } else {
+                nodeInfos.put(key, Optional.empty());
             }
         }
-        return Optional.empty();
+        if (nodeIds.isEmpty()) {
+            return nodeInfos;
+        }
+
+        // Load all nodes with a single query, including their categories. The categories are
+        // joined, so a node is returned once per category. Distinct results can't be used here,
+        // as these are implemented by a sub-query which drops the fetched categories.
+        final Map<Integer, NodeDocument> nodes;
+        try (Timer.Context ctx = nodeLoadTimer.time()) {
+            nodes = nodeDao.findMatching(new CriteriaBuilder(OnmsNode.class)
+                    .fetch("categories", FetchType.EAGER)
+                    .in("id", new HashSet<>(nodeIds.values()))
+                    .toCriteria())
+                    .stream()
+                    .collect(Collectors.toMap(OnmsNode::getId, DocumentEnricher::toNodeDocument, (a, b) -> a));
+        }
+        nodesPerLoad.update(nodes.size());
+
+        nodeIds.forEach((key, nodeId) -> {
+            final NodeDocument nodeInfo = nodes.get(nodeId);
+            if (nodeInfo == null) {
+                LOG.warn("Node with id: {} at location: {} with IP address: {} is in the interface to node cache, but wasn't found in the database.",
+                        nodeId, key.location, key.ipAddress);
+            }
+            nodeInfos.put(key, Optional.ofNullable(nodeInfo));
+        });
+        return nodeInfos;
+    }
+
+    private static NodeDocument toNodeDocument(OnmsNode onmsNode) {
+        final NodeDocument nodeInfo = new NodeDocument();
+        nodeInfo.setForeignSource(onmsNode.getForeignSource());
+        nodeInfo.setForeignId(onmsNode.getForeignId());
+        nodeInfo.setNodeId(onmsNode.getId());
+        nodeInfo.setCategories(onmsNode.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
+        return nodeInfo;
     }
 
     // Key class, which is used to cache NodeDocument objects
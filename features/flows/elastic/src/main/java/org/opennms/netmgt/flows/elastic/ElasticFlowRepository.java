@@ -63,6 +63,7 @@ import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
@@ -75,7 +76,11 @@ import io.searchbox.core.Bulk;
 import io.searchbox.core.Index;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
+import io.searchbox.core.search.aggregation.DateHistogramAggregation;
+import io.searchbox.core.search.aggregation.FilterAggregation;
 import io.searchbox.core.search.aggregation.MetricAggregation;
+import io.searchbox.core.search.aggregation.MinAggregation;
+import io.searchbox.core.search.aggregation.SumAggregation;
 import io.searchbox.core.search.aggregation.TermsAggregation;
 
 public class ElasticFlowRepository implements FlowRepository {
@@ -87,6 +92,12 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private static final String TYPE = "netflow";
 
+    private static final String ROLLUP_TYPE = "netflow_rollup";
+
+    private static final String APPLICATIONS_ROLLUP_PATH = "applications";
+
+    private static final String CONVERSATIONS_ROLLUP_PATH = "conversations";
+
     private final JestClient client;
 
     private final IndexStrategy indexStrategy;
@@ -124,19 +135,71 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private final IndexSelector indexSelector;
 
+    /**
+     * Writes the flows asynchronously, or null if the flows are persisted by the calling thread
+     */
+    private final BulkFlowWriter bulkWriter;
+
+    private final IndexSelector rollupIndexSelector;
+
+    /**
+     * The rollup configuration, or null if the rollups are disabled
+     */
+    private final RollupConfig rollupConfig;
+
+    /**
+     * Aggregates the persisted flows into rollups, or null if the rollups are disabled
+     */
+    private final FlowRollupAggregator rollupAggregator;
+
+    /**
+     * Timestamp of the earliest rollup, or null if not known yet
+     */
+    private volatile Long earliestRollup;
+
+    private volatile long earliestRollupCheckedAt;
+
     public ElasticFlowRepository(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy
             , DocumentEnricher documentEnricher, int bulkRetryCount, long maxFlowDurationMs) {
+        this(metricRegistry, jestClient, indexStrategy, documentEnricher, bulkRetryCount, maxFlowDurationMs, null);
+    }
+
+    public ElasticFlowRepository(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy
+            , DocumentEnricher documentEnricher, int bulkRetryCount, long maxFlowDurationMs, BulkWriterConfig bulkWriterConfig) {
+        this(metricRegistry, jestClient, indexStrategy, documentEnricher, bulkRetryCount, maxFlowDurationMs, bulkWriterConfig, null);
+    }
+
+    public ElasticFlowRepository(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy
+            , DocumentEnricher documentEnricher, int bulkRetryCount, long maxFlowDurationMs, BulkWriterConfig bulkWriterConfig
+            , RollupConfig rollupConfig) {
         this.client = Objects.requireNonNull(jestClient);
         this.indexStrategy = Objects.requireNonNull(indexStrategy);
         this.documentEnricher = Objects.requireNonNull(documentEnricher);
         this.bulkRetryCount = bulkRetryCount;
         this.indexSelector = new IndexSelector(TYPE, indexStrategy, maxFlowDurationMs);
+        // A rollup only covers its own interval
+        this.rollupIndexSelector = new IndexSelector(ROLLUP_TYPE, indexStrategy, 0);
 
         flowsPersistedMeter = metricRegistry.meter("flowsPersisted");
         logConversionTimer = metricRegistry.timer("logConversion");
         logEnrichementTimer = metricRegistry.timer("logEnrichment");
         logPersistingTimer = metricRegistry.timer("logPersisting");
         flowsPerLog = metricRegistry.histogram("flowsPerLog");
+
+        if (rollupConfig != null && rollupConfig.isEnabled()) {
+            this.rollupConfig = rollupConfig;
+            this.rollupAggregator = new FlowRollupAggregator(metricRegistry, rollupConfig, this::persistRollups);
+        } else {
+            this.rollupConfig = null;
+            this.rollupAggregator = null;
+        }
+
+        if (bulkWriterConfig != null && bulkWriterConfig.isEnabled()) {
+            // the rollups only account for the flows once these are persisted
+            bulkWriter = new BulkFlowWriter(metricRegistry, jestClient, this::toBulk, bulkRetryCount, bulkWriterConfig, this::aggregate);
+        } else {
+            bulkWriter = null;
+        }
     }
 
     @Override
@@ -167,17 +230,13 @@ public class ElasticFlowRepository implements FlowRepository {
 
         LOG.debug("Persisting {} flow documents.", flowDocuments.size());
         try (final Timer.Context ctx = logPersistingTimer.time()) {
-            final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, flowDocuments, (documents) -> {
-                final Bulk.Builder bulkBuilder = new Bulk.Builder();
-                for (FlowDocument flowDocument : documents) {
-                   final String index = indexStrategy.getIndex(TYPE, Instant.ofEpochMilli(flowDocument.getTimestamp()));
-                   final Index.Builder indexBuilder = new Index.Builder(flowDocument)
-                        .index(index)
-                        .type(TYPE);
-                    bulkBuilder.addAction(indexBuilder.build());
-                }
-                return new BulkWrapper(bulkBuilder);
-            }, bulkRetryCount);
+            if (bulkWriter != null) {
+                // the writer sends the bulks and accounts for the persisted flows, including the rollups
+                bulkWriter.write(flowDocuments);
+                return;
+            }
+
+            final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, flowDocuments, this::toBulk, bulkRetryCount);
             try {
                 // the bulk request considers retries
                 bulkRequest.execute();
@@ -189,6 +248,63 @@ public class ElasticFlowRepository implements FlowRepository {
             }
             flowsPersistedMeter.mark(flowDocuments.size());
         }
+        aggregate(flowDocuments);
+    }
+
+    private void aggregate(final List<FlowDocument> flowDocuments) {
+        if (rollupAggregator != null) {
+            rollupAggregator.aggregate(flowDocuments);
+        }
+    }
+
+    private void persistRollups(final List<RollupDocument> rollups) throws FlowException {
+        final BulkRequest<RollupDocument> bulkRequest = new BulkRequest<>(client, rollups, this::toRollupBulk, bulkRetryCount);
+        try {
+            bulkRequest.execute();
+        } catch (BulkException ex) {
+            if (ex.getBulkResult() != null) {
+                // Only retry the rollups which were not written
+                throw new RollupPersistenceException(ex.getMessage(), ex.getBulkResult().getFailedDocuments());
+            }
+            throw new FlowException(ex.getMessage(), ex);
+        } catch (IOException ex) {
+            LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
+            throw new FlowException(ex.getMessage(), ex);
+        }
+    }
+
+    private BulkWrapper toBulk(final List<FlowDocument> documents) {
+        final Bulk.Builder bulkBuilder = new Bulk.Builder();
+        for (FlowDocument flowDocument : documents) {
+            final String index = indexStrategy.getIndex(TYPE, Instant.ofEpochMilli(flowDocument.getTimestamp()));
+            final Index.Builder indexBuilder = new Index.Builder(flowDocument)
+                    .index(index)
+                    .type(TYPE);
+            bulkBuilder.addAction(indexBuilder.build());
+        }
+        return new BulkWrapper(bulkBuilder);
+    }
+
+    private BulkWrapper toRollupBulk(final List<RollupDocument> documents) {
+        final Bulk.Builder bulkBuilder = new Bulk.Builder();
+        for (RollupDocument rollupDocument : documents) {
+            final String index = indexStrategy.getIndex(ROLLUP_TYPE, Instant.ofEpochMilli(rollupDocument.getTimestamp()));
+            final Index.Builder indexBuilder = new Index.Builder(rollupDocument)
+                    .index(index)
+                    .type(ROLLUP_TYPE);
+            bulkBuilder.addAction(indexBuilder.build());
+        }
+        return new BulkWrapper(bulkBuilder);
+    }
+
+    public void destroy() {
+        if (bulkWriter != null) {
+            bulkWriter.close();
+        }
+        // Close the aggregator last, so the rollups include the flows flushed by the writer
+        if (rollupAggregator != null) {
+            rollupAggregator.close();
+        }
     }
 
     @Override
@@ -242,17 +358,17 @@ public class ElasticFlowRepository implements FlowRepository {
 
     @Override
     public CompletableFuture<List<TrafficSummary<String>>> getTopNApplications(int N, boolean includeOther, List<Filter> filters) {
-        return getTotalBytesFromTopN(N, "netflow.application", UNKNOWN_APPLICATION_NAME, includeOther, filters);
+        return getTotalBytesFromTopN(N, "netflow.application", APPLICATIONS_ROLLUP_PATH, UNKNOWN_APPLICATION_NAME, includeOther, filters);
     }
 
     @Override
     public CompletableFuture<Table<Directional<String>, Long, Double>> getTopNApplicationsSeries(int N, long step, boolean includeOther, List<Filter> filters) {
-        return getSeriesFromTopN(N, step, "netflow.application", UNKNOWN_APPLICATION_NAME, includeOther, filters).thenApply((res) -> mapTable(res, s -> s));
+        return getSeriesFromTopN(N, step, "netflow.application", APPLICATIONS_ROLLUP_PATH, UNKNOWN_APPLICATION_NAME, includeOther, filters).thenApply((res) -> mapTable(res, s -> s));
     }
 
     @Override
     public CompletableFuture<List<TrafficSummary<ConversationKey>>> getTopNConversations(int N, List<Filter> filters) {
-        return getTotalBytesFromTopN(N, "netflow.convo_key", null, false, filters).thenApply((res) -> res.stream()
+        return getTotalBytesFromTopN(N, "netflow.convo_key", CONVERSATIONS_ROLLUP_PATH, null, false, filters).thenApply((res) -> res.stream()
                 .map(summary -> {
                     // Map the strings to the corresponding conversation keys
                     final TrafficSummary<ConversationKey> out = new TrafficSummary<>(ConversationKeyUtils.fromJsonString(summary.getEntity()));
@@ -265,7 +381,7 @@ public class ElasticFlowRepository implements FlowRepository {
 
     @Override
     public CompletableFuture<Table<Directional<ConversationKey>, Long, Double>> getTopNConversationsSeries(int N, long step, List<Filter> filters) {
-        return getSeriesFromTopN(N, step, "netflow.convo_key", null, false, filters).thenApply((res) -> mapTable(res, ConversationKeyUtils::fromJsonString));
+        return getSeriesFromTopN(N, step, "netflow.convo_key", CONVERSATIONS_ROLLUP_PATH, null, false, filters).thenApply((res) -> mapTable(res, ConversationKeyUtils::fromJsonString));
     }
 
     private CompletableFuture<List<String>> getTopN(int N, String groupByTerm, String keyForMissingTerm, List<Filter> filters) {
@@ -361,10 +477,54 @@ public class ElasticFlowRepository implements FlowRepository {
     }
 
     private CompletableFuture<Table<Directional<String>, Long, Double>> getSeriesFromTopN(int N, long step, String groupByTerm,
-                                                                                          String keyForMissingTerm, boolean includeOther,
-                                                                                          List<Filter> filters) {
-        return getTopN(N, groupByTerm, keyForMissingTerm, filters)
-                .thenCompose((topN) -> getSeriesFromTopN(topN, step, groupByTerm, keyForMissingTerm, includeOther, filters));
+                                                                                          String rollupPath, String keyForMissingTerm,
+                                                                                          boolean includeOther, List<Filter> filters) {
+        return getRollupRange(step, filters).thenCompose(rollupRange -> {
+            if (rollupRange == null) {
+                return getTopN(N, groupByTerm, keyForMissingTerm, filters)
+                        .thenCompose((topN) -> getSeriesFromTopN(topN, step, groupByTerm, keyForMissingTerm, includeOther, filters));
+            }
+            return getTopNFromRollups(N, rollupPath, rollupRange, filters)
+                    .thenCompose((topN) -> getSeriesFromTopN(topN, step, groupByTerm, rollupPath, keyForMissingTerm, includeOther, filters, rollupRange));
+        });
+    }
+
+    /**
+     * Builds the series of the given top N from the rollups covering the given range, and from the
+     * flows before and after it.
+     */
+    private CompletableFuture<Table<Directional<String>, Long, Double>> getSeriesFromTopN(List<String> topN, long step, String groupByTerm,
+                                                                                          String rollupPath, String keyForMissingTerm,
+                                                                                          boolean includeOther, List<Filter> filters,
+                                                                                          TimeRangeFilter rollupRange) {
+        final Table<Directional<String>, Long, Double> series = HashBasedTable.create();
+        CompletableFuture<Void> seriesFuture;
+        if (topN.size() < 1) {
+            // If there are no entries, skip the query
+            seriesFuture = CompletableFuture.completedFuture(null);
+        } else {
+            final String seriesFromRollupsQuery = searchQueryProvider.getRollupSeriesFromTopNQuery(topN, step,
+                    rollupRange.getStart(), rollupRange.getEnd(), rollupPath, filters);
+            seriesFuture = searchRollupsAsync(seriesFromRollupsQuery, rollupRange)
+                    .thenAccept(res -> toRollupSummaries(res, topN, includeOther).forEach((time, summaries) -> {
+                        for (TrafficSummary<String> summary : summaries) {
+                            merge(series, new Directional<>(summary.getEntity(), true), time, summary.getBytesIn());
+                            merge(series, new Directional<>(summary.getEntity(), false), time, summary.getBytesOut());
+                        }
+                    }));
+        }
+
+        for (TimeRangeFilter remainder : getRemainders(filters, rollupRange)) {
+            final CompletableFuture<Table<Directional<String>, Long, Double>> remainderFuture = getSeriesFromTopN(topN, step,
+                    groupByTerm, keyForMissingTerm, includeOther, withTimeRange(filters, remainder));
+            seriesFuture = seriesFuture.thenCombine(remainderFuture, (ignored, remainderSeries) -> {
+                remainderSeries.cellSet().forEach(cell -> merge(series, cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
+                return null;
+            });
+        }
+
+        // Sort the table to ensure that the rows as in the same order as the Top N
+        return seriesFuture.thenApply(ignored -> TableUtils.sortTableByRowKeys(series, topN));
     }
 
     private CompletableFuture<List<TrafficSummary<String>>> getTotalBytesFromTopN(List<String> topN, String groupByTerm,
@@ -468,9 +628,238 @@ public class ElasticFlowRepository implements FlowRepository {
         return summaries;
     }
 
-    private CompletableFuture<List<TrafficSummary<String>>> getTotalBytesFromTopN(int N, String groupByTerm, String keyForMissingTerm, boolean includeOther, List<Filter> filters) {
-        return getTopN(N, groupByTerm, keyForMissingTerm, filters)
-                .thenCompose((topN) -> getTotalBytesFromTopN(topN, groupByTerm, keyForMissingTerm, includeOther, filters));
+    private CompletableFuture<List<TrafficSummary<String>>> getTotalBytesFromTopN(int N, String groupByTerm, String rollupPath,
+                                                                                  String keyForMissingTerm, boolean includeOther,
+                                                                                  List<Filter> filters) {
+        return getRollupRange(0, filters).thenCompose(rollupRange -> {
+            if (rollupRange == null) {
+                return getTopN(N, groupByTerm, keyForMissingTerm, filters)
+                        .thenCompose((topN) -> getTotalBytesFromTopN(topN, groupByTerm, keyForMissingTerm, includeOther, filters));
+            }
+            return getTopNFromRollups(N, rollupPath, rollupRange, filters)
+                    .thenCompose((topN) -> getTotalBytesFromTopN(topN, groupByTerm, rollupPath, keyForMissingTerm, includeOther, filters, rollupRange));
+        });
+    }
+
+    /**
+     * Sums up the bytes of the given top N from the rollups covering the given range, and from the
+     * flows before and after it.
+     */
+    private CompletableFuture<List<TrafficSummary<String>>> getTotalBytesFromTopN(List<String> topN, String groupByTerm,
+                                                                                  String rollupPath, String keyForMissingTerm,
+                                                                                  boolean includeOther, List<Filter> filters,
+                                                                                  TimeRangeFilter rollupRange) {
+        final Map<String, TrafficSummary<String>> totals = new LinkedHashMap<>();
+        CompletableFuture<Void> totalsFuture;
+        if (topN.size() < 1) {
+            // If there are no entries, skip the query
+            totalsFuture = CompletableFuture.completedFuture(null);
+        } else {
+            // A single step
+            final long step = rollupRange.getEnd() - rollupRange.getStart();
+            final String bytesFromRollupsQuery = searchQueryProvider.getRollupSeriesFromTopNQuery(topN, step,
+                    rollupRange.getStart(), rollupRange.getEnd(), rollupPath, filters);
+            totalsFuture = searchRollupsAsync(bytesFromRollupsQuery, rollupRange)
+                    .thenAccept(res -> toRollupSummaries(res, topN, includeOther).values()
+                            .forEach(summaries -> summaries.forEach(summary -> merge(totals, summary))));
+        }
+
+        for (TimeRangeFilter remainder : getRemainders(filters, rollupRange)) {
+            final CompletableFuture<List<TrafficSummary<String>>> remainderFuture = getTotalBytesFromTopN(topN, groupByTerm,
+                    keyForMissingTerm, includeOther, withTimeRange(filters, remainder));
+            totalsFuture = totalsFuture.thenCombine(remainderFuture, (ignored, summaries) -> {
+                summaries.forEach(summary -> merge(totals, summary));
+                return null;
+            });
+        }
+
+        return totalsFuture.thenApply(ignored -> {
+            // Now build a list in the same order as the given top N list
+            final List<TrafficSummary<String>> topNRes = new ArrayList<>(topN.size());
+            for (String topNEntry : topN) {
+                final TrafficSummary<String> summary = totals.remove(topNEntry);
+                if (summary != null) {
+                    topNRes.add(summary);
+                }
+            }
+            // Append any remaining elements
+            topNRes.addAll(totals.values());
+            return topNRes;
+        });
+    }
+
+    private CompletableFuture<List<String>> getTopNFromRollups(int N, String rollupPath, TimeRangeFilter rollupRange, List<Filter> filters) {
+        if (N < 1) {
+            // Avoid a query and return an empty list
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        // Increase the multiplier for increased accuracy, as for the flows
+        final int multiplier = 2;
+        final String query = searchQueryProvider.getRollupTopNQuery(multiplier*N, rollupPath,
+                rollupRange.getStart(), rollupRange.getEnd(), filters);
+        return searchRollupsAsync(query, rollupRange)
+                .thenApply(res -> {
+                    final FilterAggregation entities = res.getAggregations().getFilterAggregation("entities");
+                    final TermsAggregation groupedBy = entities != null ? entities.getTermsAggregation("grouped_by") : null;
+                    if (groupedBy == null) {
+                        // No results
+                        return Collections.emptyList();
+                    }
+                    return groupedBy.getBuckets().stream()
+                            .map(TermsAggregation.Entry::getKey)
+                            .limit(N)
+                            .collect(Collectors.toList());
+                });
+    }
+
+    /**
+     * Determines the part of the queried time range which can be served from the rollups.
+     *
+     * The range must be aligned to the given step, or to the interval of the rollups, must not extend past the
+     * flushed rollups and must be long enough to make the additional queries worthwhile.
+     *
+     * @return the range, or null if the query must be served from the flows
+     */
+    private CompletableFuture<TimeRangeFilter> getRollupRange(long step, List<Filter> filters) {
+        if (rollupConfig == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final long interval = rollupConfig.getInterval();
+        final long alignment = step > 0 ? step : interval;
+        if (alignment % interval != 0) {
+            // The rollups can not be split into the steps
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final TimeRangeFilter timeRangeFilter = getRequiredTimeRangeFilter(filters);
+        return getEarliestRollup().thenApply(earliest -> {
+            if (earliest == null) {
+                return null;
+            }
+            // The first interval may not contain all of the flows, as the aggregator was started during it
+            final long start = ceil(Math.max(timeRangeFilter.getStart(), earliest + interval), alignment);
+            final long end = floor(Math.min(timeRangeFilter.getEnd(), rollupAggregator.getFlushedUntil()), alignment);
+            if (end - start < Math.max(alignment, rollupConfig.getMinimumQueryRange())) {
+                return null;
+            }
+            return new TimeRangeFilter(start, end);
+        });
+    }
+
+    private CompletableFuture<Long> getEarliestRollup() {
+        final Long earliest = earliestRollup;
+        final long now = System.currentTimeMillis();
+        if (earliest != null || now - earliestRollupCheckedAt < rollupConfig.getInterval()) {
+            return CompletableFuture.completedFuture(earliest);
+        }
+        earliestRollupCheckedAt = now;
+
+        return searchRollupsAsync(searchQueryProvider.getEarliestRollupQuery(), null)
+                .thenApply(res -> {
+                    final MinAggregation min = res.getAggregations().getMinAggregation("earliest");
+                    if (min == null || min.getMin() == null) {
+                        // No rollups yet
+                        return null;
+                    }
+                    earliestRollup = min.getMin().longValue();
+                    return earliestRollup;
+                })
+                .exceptionally(ex -> {
+                    LOG.warn("Failed to determine the earliest rollup. Serving the queries from the flows: {}", ex.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Extracts the traffic of the top N, and of the other entities, per bucket from the given rollup series.
+     */
+    private static Map<Long, List<TrafficSummary<String>>> toRollupSummaries(SearchResult res, List<String> topN, boolean includeOther) {
+        final Map<Long, List<TrafficSummary<String>>> summariesByTime = new LinkedHashMap<>();
+        final DateHistogramAggregation series = res.getAggregations().getDateHistogramAggregation("series");
+        if (series == null) {
+            // No results
+            return summariesByTime;
+        }
+        for (DateHistogramAggregation.DateHistogram bucket : series.getBuckets()) {
+            final Map<String, TrafficSummary<String>> summaries = new LinkedHashMap<>();
+            for (String topNEntry : topN) {
+                summaries.put(topNEntry, new TrafficSummary<>(topNEntry));
+            }
+
+            long bytesIn = sum(bucket.getSumAggregation("bytes_ingress"));
+            long bytesOut = sum(bucket.getSumAggregation("bytes_egress"));
+            final FilterAggregation entities = bucket.getFilterAggregation("entities");
+            final FilterAggregation entitiesInTopN = entities != null ? entities.getFilterAggregation("top_n") : null;
+            final TermsAggregation groupedBy = entitiesInTopN != null ? entitiesInTopN.getTermsAggregation("grouped_by") : null;
+            if (groupedBy != null) {
+                for (TermsAggregation.Entry entry : groupedBy.getBuckets()) {
+                    final TrafficSummary<String> summary = summaries.get(entry.getKey());
+                    if (summary != null) {
+                        summary.setBytesIn(sum(entry.getSumAggregation("bytes_ingress")));
+                        summary.setBytesOut(sum(entry.getSumAggregation("bytes_egress")));
+                        bytesIn -= summary.getBytesIn();
+                        bytesOut -= summary.getBytesOut();
+                    }
+                }
+            }
+
+            if (includeOther) {
+                // Everything not accounted for by the top N, including the entities which did not fit into the rollups
+                final TrafficSummary<String> other = new TrafficSummary<>(OTHER_APPLICATION_NAME);
+                other.setBytesIn(Math.max(0, bytesIn));
+                other.setBytesOut(Math.max(0, bytesOut));
+                summaries.put(OTHER_APPLICATION_NAME, other);
+            }
+            summariesByTime.put(bucket.getTime(), new ArrayList<>(summaries.values()));
+        }
+        return summariesByTime;
+    }
+
+    /**
+     * @return the parts of the queried time range before and after the given rollup range
+     */
+    private static List<TimeRangeFilter> getRemainders(List<Filter> filters, TimeRangeFilter rollupRange) {
+        final TimeRangeFilter timeRangeFilter = getRequiredTimeRangeFilter(filters);
+        final List<TimeRangeFilter> remainders = new ArrayList<>(2);
+        if (timeRangeFilter.getStart() < rollupRange.getStart()) {
+            remainders.add(new TimeRangeFilter(timeRangeFilter.getStart(), rollupRange.getStart()));
+        }
+        if (rollupRange.getEnd() < timeRangeFilter.getEnd()) {
+            remainders.add(new TimeRangeFilter(rollupRange.getEnd(), timeRangeFilter.getEnd()));
+        }
+        return remainders;
+    }
+
+    private static List<Filter> withTimeRange(List<Filter> filters, TimeRangeFilter timeRangeFilter) {
+        final List<Filter> replaced = filters.stream()
+                .filter(f -> !(f instanceof TimeRangeFilter))
+                .collect(Collectors.toCollection(ArrayList::new));
+        replaced.add(timeRangeFilter);
+        return replaced;
+    }
+
+    private static void merge(Map<String, TrafficSummary<String>> totals, TrafficSummary<String> summary) {
+        final TrafficSummary<String> total = totals.computeIfAbsent(summary.getEntity(), TrafficSummary::new);
+        total.setBytesIn(total.getBytesIn() + summary.getBytesIn());
+        total.setBytesOut(total.getBytesOut() + summary.getBytesOut());
+    }
+
+    private static void merge(Table<Directional<String>, Long, Double> series, Directional<String> rowKey, Long time, double value) {
+        final Double existing = series.get(rowKey, time);
+        series.put(rowKey, time, existing != null ? existing + value : value);
+    }
+
+    private static long sum(SumAggregation sumAggregation) {
+        return sumAggregation != null && sumAggregation.getSum() != null ? sumAggregation.getSum().longValue() : 0L;
+    }
+
+    private static long floor(long timestamp, long alignment) {
+        return Math.floorDiv(timestamp, alignment) * alignment;
+    }
+
+    private static long ceil(long timestamp, long alignment) {
+        return -Math.floorDiv(-timestamp, alignment) * alignment;
     }
 
     private CompletableFuture<SearchResult> searchAsync(String query, TimeRangeFilter timeRangeFilter) {
@@ -484,6 +873,19 @@ public class ElasticFlowRepository implements FlowRepository {
         return executeAsync(builder.build());
     }
 
+    private CompletableFuture<SearchResult> searchRollupsAsync(String query, TimeRangeFilter timeRangeFilter) {
+        LOG.debug("Executing asynchronous rollup query: {}", query);
+        Search.Builder builder = new Search.Builder(query)
+                .addType(ROLLUP_TYPE);
+        if(timeRangeFilter != null) {
+            builder.addIndices(rollupIndexSelector.getIndexNames(timeRangeFilter));
+        } else {
+            builder.addIndex(ROLLUP_TYPE + "-*");
+        }
+        builder.setParameter("ignore_unavailable", "true"); // ignore unknown index
+        return executeAsync(builder.build());
+    }
+
     private <T extends JestResult> CompletableFuture<T> executeAsync(Action<T> action) {
         final CompletableFuture<T> future = new CompletableFuture<>();
         client.executeAsync(action, new JestResultHandler<T>() {
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.opennms.netmgt.flows.api.FlowException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Aggregates the persisted flows into rollups of the traffic per exporter interface and interval.
+ *
+ * The bytes of a flow are distributed over the intervals it spans, proportional to the time spent
+ * in each interval, the same way the proportional_sum aggregation does for the raw flows.
+ * Applications and conversations are kept in a {@link SpaceSavingTopK} sketch per rollup, so the
+ * memory used by a rollup is bounded, no matter how many distinct entities are seen.
+ *
+ * An interval is flushed once the configured lateness has elapsed after its end. Flows arriving
+ * later open a new rollup for their interval, which is flushed with the next run. As all queries
+ * sum up the rollups, this does not affect the results.
+ *
+ * Rollups which could not be written are kept and retried with the next run. Until they are
+ * written, {@link #getFlushedUntil()} does not advance past their interval, so that the queries
+ * serve that interval from the raw flows instead.
+ */
+public class FlowRollupAggregator implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowRollupAggregator.class);
+
+    @FunctionalInterface
+    public interface RollupWriter {
+        /**
+         * Writes the given rollups.
+         *
+         * @throws RollupPersistenceException if only some of the rollups could be written
+         * @throws FlowException if none of the rollups could be written
+         */
+        void write(List<RollupDocument> rollups) throws FlowException;
+    }
+
+    private final RollupWriter writer;
+
+    private final LongSupplier clock;
+
+    private final long interval;
+
+    private final long lateness;
+
+    private final int topK;
+
+    private final ConcurrentMap<Key, Rollup> rollups = new ConcurrentHashMap<>();
+
+    /**
+     * Rollups which could not be written yet
+     */
+    private final List<RollupDocument> pending = new ArrayList<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * End of the last interval flushed, all rollups ending before have been written successfully
+     */
+    private volatile long flushedUntil;
+
+    /**
+     * Rollups/second written
+     */
+    private final Meter rollupsPersistedMeter;
+
+    /**
+     * Rollups/second which could not be written
+     */
+    private final Meter rollupsFailedMeter;
+
+    /**
+     * Time taken to flush the closed intervals
+     */
+    private final Timer rollupFlushTimer;
+
+    /**
+     * Number of rollups waiting to be retried
+     */
+    private volatile int numPending;
+
+    public FlowRollupAggregator(final MetricRegistry metricRegistry, final RollupConfig config, final RollupWriter writer) {
+        this(metricRegistry, config, writer, System::currentTimeMillis, true);
+    }
+
+    protected FlowRollupAggregator(final MetricRegistry metricRegistry, final RollupConfig config, final RollupWriter writer,
+                                   final LongSupplier clock, final boolean schedule) {
+        Objects.requireNonNull(config).validate();
+
+        this.writer = Objects.requireNonNull(writer);
+        this.clock = Objects.requireNonNull(clock);
+        this.interval = config.getInterval();
+        this.lateness = config.getLateness();
+        this.topK = config.getTopK();
+        this.flushedUntil = watermark();
+
+        rollupsPersistedMeter = metricRegistry.meter("rollupsPersisted");
+        rollupsFailedMeter = metricRegistry.meter("rollupsFailed");
+        rollupFlushTimer = metricRegistry.timer("rollupFlushing");
+        metricRegistry.register("rollupsOpen", (Gauge<Integer>) rollups::size);
+        metricRegistry.register("rollupsPending", (Gauge<Integer>) () -> numPending);
+
+        if (schedule) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("flow-rollup-flusher-%d")
+                    .build());
+            scheduler.scheduleWithFixedDelay(this::flushClosed, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+        LOG.debug("Aggregating flows into rollups: {}", config);
+    }
+
+    public void aggregate(final List<FlowDocument> documents) {
+        for (FlowDocument document : documents) {
+            final Long bytes = document.getBytes();
+            if (bytes == null || bytes <= 0 || document.getDirection() == null) {
+                // Flows without a direction are not accounted for by any of the queries
+                continue;
+            }
+            final boolean ingress = document.getDirection() == Direction.INGRESS;
+            final String application = document.getApplication() != null ? document.getApplication() : ElasticFlowRepository.UNKNOWN_APPLICATION_NAME;
+
+            final long first = document.getFirstSwitched() != null ? document.getFirstSwitched() : document.getTimestamp();
+            final long last = document.getLastSwitched() != null ? Math.max(first, document.getLastSwitched()) : first;
+            final long duration = last - first;
+
+            // Distribute the bytes proportionally, rounding the cumulative share to keep the total exact
+            long distributed = 0;
+            for (long start = Math.floorDiv(first, interval) * interval; start <= last; start += interval) {
+                final long share;
+                if (duration == 0) {
+                    share = bytes;
+                } else {
+                    final long cumulative = Math.round((double) bytes * (Math.min(last, start + interval) - first) / duration);
+                    share = cumulative - distributed;
+                    distributed = cumulative;
+                }
+                if (share > 0) {
+                    add(new Key(document.getNodeExporter(), document.getInputSnmp(), start), document, application, share, ingress);
+                }
+                if (duration == 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the end of the last interval for which all rollups have been written
+     */
+    public long getFlushedUntil() {
+        return flushedUntil;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Flushes all rollups of the intervals which ended before the lateness elapsed,
+     * along with the rollups which failed to be written before.
+     */
+    public void flushClosed() {
+        final long watermark = watermark();
+        try {
+            final long earliestPending = flush(rollup -> rollup.key.start + interval <= watermark);
+            flushedUntil = earliestPending < Long.MAX_VALUE
+                    ? Math.min(watermark, earliestPending)
+                    : Math.max(flushedUntil, watermark);
+        } catch (RuntimeException ex) {
+            // Never let an exception cancel the scheduled flushes
+            LOG.error("An error occurred while flushing the rollups: {}", ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Flush whatever is left, even if the intervals are not complete yet
+        if (flush(rollup -> true) < Long.MAX_VALUE) {
+            LOG.error("Dropping {} rollups which could not be written. The traffic of the affected intervals will be incomplete.", numPending);
+        }
+    }
+
+    private void add(final Key key, final FlowDocument document, final String application, final long bytes, final boolean ingress) {
+        while (true) {
+            final Rollup rollup = rollups.computeIfAbsent(key, k -> new Rollup(k, document.getNodeExporter(), topK));
+            synchronized (rollup) {
+                // The rollup may have been flushed while we were looking it up, in which case we open a new one
+                if (!rollup.flushed) {
+                    rollup.add(application, document.getConvoKey(), bytes, ingress);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the rollups matching the given predicate, along with the pending ones.
+     *
+     * @return the start of the earliest interval with rollups which are still pending,
+     *         or {@link Long#MAX_VALUE} if all rollups were written
+     */
+    private synchronized long flush(final Predicate<Rollup> predicate) {
+        final List<RollupDocument> documents = new ArrayList<>(pending);
+        pending.clear();
+        try (final Timer.Context ctx = rollupFlushTimer.time()) {
+            for (final Map.Entry<Key, Rollup> entry : rollups.entrySet()) {
+                final Rollup rollup = entry.getValue();
+                if (predicate.test(rollup) && rollups.remove(entry.getKey(), rollup)) {
+                    synchronized (rollup) {
+                        rollup.flushed = true;
+                        documents.add(rollup.toDocument(interval));
+                    }
+                }
+            }
+            if (!documents.isEmpty()) {
+                LOG.debug("Writing {} rollups.", documents.size());
+                try {
+                    writer.write(documents);
+                    rollupsPersistedMeter.mark(documents.size());
+                } catch (RollupPersistenceException ex) {
+                    LOG.warn("Failed to write {} of {} rollups. Will retry with the next flush: {}", ex.getFailedDocuments().size(), documents.size(), ex.getMessage(), ex);
+                    rollupsPersistedMeter.mark(documents.size() - ex.getFailedDocuments().size());
+                    rollupsFailedMeter.mark(ex.getFailedDocuments().size());
+                    pending.addAll(ex.getFailedDocuments());
+                } catch (FlowException ex) {
+                    LOG.warn("Failed to write {} rollups. Will retry with the next flush: {}", documents.size(), ex.getMessage(), ex);
+                    rollupsFailedMeter.mark(documents.size());
+                    pending.addAll(documents);
+                }
+            }
+        }
+        numPending = pending.size();
+        return pending.stream().mapToLong(RollupDocument::getTimestamp).min().orElse(Long.MAX_VALUE);
+    }
+
+    private long watermark() {
+        return Math.floorDiv(clock.getAsLong() - lateness, interval) * interval;
+    }
+
+    private static class Key {
+        private final Integer nodeId;
+        private final String foreignSource;
+        private final String foreignId;
+        private final Integer inputSnmp;
+        private final long start;
+
+        private Key(final NodeDocument exporter, final Integer inputSnmp, final long start) {
+            this.nodeId = exporter != null ? exporter.getNodeId() : null;
+            this.foreignSource = exporter != null ? exporter.getForeignSource() : null;
+            this.foreignId = exporter != null ? exporter.getForeignId() : null;
+            this.inputSnmp = inputSnmp;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key that = (Key) o;
+            return start == that.start
+                    && Objects.equals(nodeId, that.nodeId)
+                    && Objects.equals(foreignSource, that.foreignSource)
+                    && Objects.equals(foreignId, that.foreignId)
+                    && Objects.equals(inputSnmp, that.inputSnmp);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nodeId, foreignSource, foreignId, inputSnmp, start);
+        }
+    }
+
+    private static class Rollup {
+        private final Key key;
+        private final NodeDocument exporter;
+        private final SpaceSavingTopK applications;
+        private final SpaceSavingTopK conversations;
+        private long bytesIngress;
+        private long bytesEgress;
+        private boolean flushed;
+
+        private Rollup(final Key key, final NodeDocument exporter, final int topK) {
+            this.key = key;
+            this.exporter = exporter;
+            this.applications = new SpaceSavingTopK(topK);
+            this.conversations = new SpaceSavingTopK(topK);
+        }
+
+        private void add(final String application, final String conversation, final long bytes, final boolean ingress) {
+            if (ingress) {
+                bytesIngress += bytes;
+            } else {
+                bytesEgress += bytes;
+            }
+            applications.add(application, bytes, ingress);
+            if (conversation != null) {
+                conversations.add(conversation, bytes, ingress);
+            }
+        }
+
+        private RollupDocument toDocument(final long interval) {
+            final RollupDocument document = new RollupDocument();
+            document.setTimestamp(key.start);
+            document.setInterval(interval);
+            document.setNodeExporter(exporter);
+            document.setInputSnmp(key.inputSnmp);
+            document.setBytesIngress(bytesIngress);
+            document.setBytesEgress(bytesEgress);
+            document.setApplications(toTraffic(applications));
+            document.setConversations(toTraffic(conversations));
+            return document;
+        }
+
+        private static List<RollupDocument.Traffic> toTraffic(final SpaceSavingTopK topK) {
+            return topK.getEntries().stream()
+                    .map(e -> new RollupDocument.Traffic(e.getKey(), e.getBytesIngress(), e.getBytesEgress(), e.getError()))
+                    .collect(Collectors.toList());
+        }
+    }
+}
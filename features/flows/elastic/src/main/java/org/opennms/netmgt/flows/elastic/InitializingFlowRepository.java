@@ -43,8 +43,10 @@ import org.opennms.netmgt.flows.api.FlowSource;
 import org.opennms.netmgt.flows.api.TrafficSummary;
 import org.opennms.netmgt.flows.filter.api.Filter;
 import org.opennms.plugins.elasticsearch.rest.template.IndexSettings;
+import org.opennms.plugins.elasticsearch.rest.template.TemplateInitializer;
 import org.osgi.framework.BundleContext;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Table;
 
 import io.searchbox.client.JestClient;
@@ -52,23 +54,26 @@ import io.searchbox.client.JestClient;
 /**
  * This {@link FlowRepository} wrapper will ensure that the repository has
  * been initialized before any *write* calls are made to the given delegate.
+ *
+ * This includes the templates of the flow and of the rollup indices.
  */
 public class InitializingFlowRepository implements FlowRepository {
 
-    private final ElasticFlowRepositoryInitializer initializer;
+    private final List<TemplateInitializer> initializers;
     private final FlowRepository delegate;
 
     public InitializingFlowRepository(final BundleContext bundleContext, final FlowRepository delegate, final JestClient client, final IndexSettings indexSettings) {
-        this(delegate, new ElasticFlowRepositoryInitializer(bundleContext, client, indexSettings));
+        this(delegate, new ElasticFlowRepositoryInitializer(bundleContext, client, indexSettings),
+                new RollupRepositoryInitializer(bundleContext, client, indexSettings));
     }
 
     protected InitializingFlowRepository(final FlowRepository delegate, final JestClient client) {
-        this(delegate, new ElasticFlowRepositoryInitializer(client));
+        this(delegate, new ElasticFlowRepositoryInitializer(client), new RollupRepositoryInitializer(client));
     }
 
-    private InitializingFlowRepository(final FlowRepository delegate, final ElasticFlowRepositoryInitializer initializer) {
+    private InitializingFlowRepository(final FlowRepository delegate, final TemplateInitializer... initializers) {
         this.delegate = Objects.requireNonNull(delegate);
-        this.initializer = Objects.requireNonNull(initializer);
+        this.initializers = ImmutableList.copyOf(initializers);
     }
 
     @Override
@@ -113,8 +118,10 @@ public class InitializingFlowRepository implements FlowRepository {
     }
 
     private void ensureInitialized() {
-        if (!initializer.isInitialized()) {
-            initializer.initialize();
+        for (TemplateInitializer initializer : initializers) {
+            if (!initializer.isInitialized()) {
+                initializer.initialize();
+            }
         }
     }
 
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Configures the {@link FlowRollupAggregator} and the use of its rollups by the {@link ElasticFlowRepository}.
+ * This is helpful when configuring the rollups in blueprint bundles.
+ */
+public class RollupConfig {
+
+    private boolean enabled = true;
+
+    private long interval = 60000; // Milliseconds
+
+    private int topK = 50;
+
+    private long lateness = 120000; // Milliseconds
+
+    private long minimumQueryRange = 3600000; // Milliseconds
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    public long getLateness() {
+        return lateness;
+    }
+
+    public void setLateness(long lateness) {
+        this.lateness = lateness;
+    }
+
+    public long getMinimumQueryRange() {
+        return minimumQueryRange;
+    }
+
+    public void setMinimumQueryRange(long minimumQueryRange) {
+        this.minimumQueryRange = minimumQueryRange;
+    }
+
+    public void validate() {
+        if (interval < 1) {
+            throw new IllegalStateException("The interval must be positive, but was " + interval);
+        }
+        if (topK < 1) {
+            throw new IllegalStateException("The top K must be positive, but was " + topK);
+        }
+        if (lateness < 0 || minimumQueryRange < 0) {
+            throw new IllegalStateException("The lateness and minimum query range must not be negative");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(getClass())
+                .add("enabled", enabled)
+                .add("interval", interval + " ms")
+                .add("topK", topK)
+                .add("lateness", lateness + " ms")
+                .add("minimumQueryRange", minimumQueryRange + " ms")
+                .toString();
+    }
+}
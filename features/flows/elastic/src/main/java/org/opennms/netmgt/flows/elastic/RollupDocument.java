@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.List;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * The traffic of a single interface of an exporter within one interval, as persisted by the {@link FlowRollupAggregator}.
+ *
+ * Only the applications and conversations with the most traffic are kept, see {@link SpaceSavingTopK}.
+ * The totals account for all flows, so the traffic of the remaining entities is the difference.
+ *
+ * Member variables are sorted by the value of the @SerializedName annotation.
+ */
+public class RollupDocument {
+    private static final int DOCUMENT_VERSION = 1;
+
+    /**
+     * Start of the interval.
+     */
+    @SerializedName("@timestamp")
+    private long timestamp;
+
+    /**
+     * Schema version.
+     */
+    @SerializedName("@version")
+    private Integer version = DOCUMENT_VERSION;
+
+    /**
+     * Applications with the most traffic.
+     */
+    @SerializedName("applications")
+    private List<Traffic> applications;
+
+    /**
+     * Total number of bytes sent by the interface.
+     */
+    @SerializedName("bytes_egress")
+    private long bytesEgress;
+
+    /**
+     * Total number of bytes received by the interface.
+     */
+    @SerializedName("bytes_ingress")
+    private long bytesIngress;
+
+    /**
+     * Conversations with the most traffic.
+     */
+    @SerializedName("conversations")
+    private List<Traffic> conversations;
+
+    /**
+     * Length of the interval in milliseconds.
+     */
+    @SerializedName("interval")
+    private long interval;
+
+    /**
+     * SNMP input interface index, named like the field of the flow document to share the filters.
+     */
+    @SerializedName("netflow.input_snmp")
+    private Integer inputSnmp;
+
+    /**
+     * Exporter node details.
+     */
+    @SerializedName("node_exporter")
+    private NodeDocument nodeExporter;
+
+    public static class Traffic {
+        @SerializedName("key")
+        private String key;
+
+        /**
+         * Number of bytes in both directions, used for ranking.
+         */
+        @SerializedName("bytes")
+        private long bytes;
+
+        @SerializedName("bytes_egress")
+        private long bytesEgress;
+
+        @SerializedName("bytes_ingress")
+        private long bytesIngress;
+
+        /**
+         * Maximum number of bytes of the entity which may have been attributed to other entities.
+         */
+        @SerializedName("error")
+        private long error;
+
+        public Traffic() {
+        }
+
+        public Traffic(String key, long bytesIngress, long bytesEgress, long error) {
+            this.key = key;
+            this.bytes = bytesIngress + bytesEgress;
+            this.bytesIngress = bytesIngress;
+            this.bytesEgress = bytesEgress;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getBytesEgress() {
+            return bytesEgress;
+        }
+
+        public long getBytesIngress() {
+            return bytesIngress;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public List<Traffic> getApplications() {
+        return applications;
+    }
+
+    public void setApplications(List<Traffic> applications) {
+        this.applications = applications;
+    }
+
+    public long getBytesEgress() {
+        return bytesEgress;
+    }
+
+    public void setBytesEgress(long bytesEgress) {
+        this.bytesEgress = bytesEgress;
+    }
+
+    public long getBytesIngress() {
+        return bytesIngress;
+    }
+
+    public void setBytesIngress(long bytesIngress) {
+        this.bytesIngress = bytesIngress;
+    }
+
+    public List<Traffic> getConversations() {
+        return conversations;
+    }
+
+    public void setConversations(List<Traffic> conversations) {
+        this.conversations = conversations;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public Integer getInputSnmp() {
+        return inputSnmp;
+    }
+
+    public void setInputSnmp(Integer inputSnmp) {
+        this.inputSnmp = inputSnmp;
+    }
+
+    public NodeDocument getNodeExporter() {
+        return nodeExporter;
+    }
+
+    public void setNodeExporter(NodeDocument nodeExporter) {
+        this.nodeExporter = nodeExporter;
+    }
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import org.opennms.plugins.elasticsearch.rest.template.DefaultTemplateInitializer;
+import org.opennms.plugins.elasticsearch.rest.template.DefaultTemplateLoader;
+import org.opennms.plugins.elasticsearch.rest.template.IndexSettings;
+import org.osgi.framework.BundleContext;
+
+import io.searchbox.client.JestClient;
+
+/**
+ * Initializes the template of the indices holding the flow rollups.
+ */
+public class RollupRepositoryInitializer extends DefaultTemplateInitializer {
+
+    public static final String TEMPLATE_RESOURCE = "/netflow_rollup-template";
+
+    private static final String ROLLUP_TEMPLATE_NAME = "netflow_rollup";
+
+    public RollupRepositoryInitializer(BundleContext bundleContext, JestClient client, IndexSettings indexSettings) {
+        super(bundleContext, client, TEMPLATE_RESOURCE, ROLLUP_TEMPLATE_NAME, indexSettings);
+    }
+
+    protected RollupRepositoryInitializer(JestClient client) {
+        super(client, TEMPLATE_RESOURCE, ROLLUP_TEMPLATE_NAME, new DefaultTemplateLoader());
+    }
+}
@@ -31,6 +31,7 @@ package org.opennms.netmgt.flows.elastic;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -135,6 +136,29 @@ public class SearchQueryProvider implements FilterVisitor<String> {
                 .build());
     }
 
+    public String getEarliestRollupQuery() {
+        return render("rollup_earliest.ftl", ImmutableMap.builder().build());
+    }
+
+    public String getRollupTopNQuery(int N, String path, long start, long end, List<Filter> filters) {
+        return render("rollup_top_n_terms.ftl", ImmutableMap.builder()
+                .put("filters", getRollupFilterQueries(filters, start, end))
+                .put("N", N)
+                .put("path", path)
+                .build());
+    }
+
+    public String getRollupSeriesFromTopNQuery(List<String> topN, long step, long start, long end,
+                                               String path, List<Filter> filters) {
+        return render("rollup_series_for_terms.ftl", ImmutableMap.builder()
+                .put("filters", getRollupFilterQueries(filters, start, end))
+                .put("topN", topN)
+                .put("path", path)
+                .put("step", step)
+                .put("offset", Math.floorMod(start, step))
+                .build());
+    }
+
     private String render(String templateName, Map<Object, Object> context) {
         try {
             final StringWriter writer = new StringWriter();
@@ -152,6 +176,22 @@ public class SearchQueryProvider implements FilterVisitor<String> {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * The rollups share the fields of the exporter and interface filters with the flows,
+     * but cover an interval starting at their timestamp, instead of the switched times.
+     */
+    private List<String> getRollupFilterQueries(List<Filter> filters, long start, long end) {
+        final List<String> queries = filters.stream()
+                .filter(f -> !(f instanceof TimeRangeFilter))
+                .map(f -> f.visit(this))
+                .collect(Collectors.toCollection(ArrayList::new));
+        queries.add(render("rollup_filter_time_range.ftl", ImmutableMap.builder()
+                .put("start", start)
+                .put("end", end)
+                .build()));
+        return queries;
+    }
+
     @Override
     public String visit(ExporterNodeFilter exporterNodeFilter) {
         return render("filter_exporter_node.ftl", ImmutableMap.builder()
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the keys with the most traffic in a stream of flows, using a bounded amount of memory.
+ *
+ * This implements the Space-Saving algorithm for weighted items: at most {@code capacity} keys are tracked.
+ * If an untracked key arrives while the sketch is full, it replaces the tracked key with the lowest count
+ * and inherits that count as its error. Any key whose traffic exceeds {@code total / capacity} is
+ * guaranteed to be tracked, and the count of a tracked key overestimates its traffic by at most its error.
+ *
+ * Besides the count used for ranking, each entry keeps the ingress and egress bytes observed since the key
+ * was tracked. These never overestimate the traffic of a key, so the bytes of all entries never exceed
+ * the total bytes.
+ *
+ * The sketch is not thread safe.
+ */
+public class SpaceSavingTopK {
+
+    public static class Entry {
+        private String key;
+        private long count;
+        private long error;
+        private long bytesIngress;
+        private long bytesEgress;
+        private int index;
+
+        private Entry(String key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        public long getBytesIngress() {
+            return bytesIngress;
+        }
+
+        public long getBytesEgress() {
+            return bytesEgress;
+        }
+
+        private void add(long bytes, boolean ingress) {
+            count += bytes;
+            if (ingress) {
+                bytesIngress += bytes;
+            } else {
+                bytesEgress += bytes;
+            }
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    // Min-heap of the entries ordered by count
+    private final Entry[] heap;
+
+    private int size;
+
+    public SpaceSavingTopK(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive, but was " + capacity);
+        }
+        this.entries = new HashMap<>(capacity * 2);
+        this.heap = new Entry[capacity];
+    }
+
+    public void add(String key, long bytes, boolean ingress) {
+        if (bytes <= 0) {
+            return;
+        }
+
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (size < heap.length) {
+                entry = new Entry(key, size);
+                heap[size++] = entry;
+                siftUp(entry.index);
+            } else {
+                // Replace the entry with the lowest count, which inherits its count as error
+                entry = heap[0];
+                entries.remove(entry.key);
+                entry.key = key;
+                entry.error = entry.count;
+                entry.bytesIngress = 0;
+                entry.bytesEgress = 0;
+            }
+            entries.put(key, entry);
+        }
+
+        // The count only grows, so the entry can only move towards the leaves
+        entry.add(bytes, ingress);
+        siftDown(entry.index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the tracked entries, the entry with the highest count first
+     */
+    public List<Entry> getEntries() {
+        final List<Entry> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(heap[i]);
+        }
+        result.sort(Comparator.comparingLong(Entry::getCount).reversed());
+        return result;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            final int parent = (index - 1) / 2;
+            if (heap[parent].count <= heap[index].count) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            final int left = index * 2 + 1;
+            if (left >= size) {
+                return;
+            }
+            final int right = left + 1;
+            final int smallest = right < size && heap[right].count < heap[left].count ? right : left;
+            if (heap[index].count <= heap[smallest].count) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final Entry entry = heap[i];
+        heap[i] = heap[j];
+        heap[j] = entry;
+        heap[i].index = i;
+        heap[j].index = j;
+    }
+}
@@ -0,0 +1,10 @@
+{
+  "size": 0,
+  "aggs": {
+    "earliest": {
+      "min": {
+        "field": "@timestamp"
+      }
+    }
+  }
+}
\ No newline at end of file
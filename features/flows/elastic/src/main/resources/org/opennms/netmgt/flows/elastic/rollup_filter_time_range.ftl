@@ -0,0 +1,9 @@
+{
+  "range": {
+    "@timestamp": {
+      "gte": ${start?long?c},
+      "lt": ${end?long?c},
+      "format": "epoch_millis"
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+{
+  "size": 0,
+  "query": {
+    "bool": {
+      "filter": [
+<#list filters as filter>${filter}<#sep>,</#list>
+      ]
+    }
+  },
+  "aggs": {
+    "series": {
+      "date_histogram": {
+        "field": "@timestamp",
+        "interval": "${step?long?c}ms",
+        "offset": "${offset?long?c}ms"
+      },
+      "aggs": {
+        "bytes_ingress": {
+          "sum": {
+            "field": "bytes_ingress"
+          }
+        },
+        "bytes_egress": {
+          "sum": {
+            "field": "bytes_egress"
+          }
+        },
+        "entities": {
+          "nested": {
+            "path": "${path?json_string}"
+          },
+          "aggs": {
+            "top_n": {
+              "filter": {
+                "terms": {
+                  "${path?json_string}.key": [<#list topN as topNTerm>"${topNTerm?json_string}"<#sep>,</#list>]
+                }
+              },
+              "aggs": {
+                "grouped_by": {
+                  "terms": {
+                    "field": "${path?json_string}.key",
+                    "size": ${topN?size?long?c}
+                  },
+                  "aggs": {
+                    "bytes_ingress": {
+                      "sum": {
+                        "field": "${path?json_string}.bytes_ingress"
+                      }
+                    },
+                    "bytes_egress": {
+                      "sum": {
+                        "field": "${path?json_string}.bytes_egress"
+                      }
+                    }
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,35 @@
+{
+  "size": 0,
+  "query": {
+    "bool": {
+      "filter": [
+        <#list filters as filter>${filter}<#sep>,</#list>
+      ]
+    }
+  },
+  "aggs": {
+    "entities": {
+      "nested": {
+        "path": "${path?json_string}"
+      },
+      "aggs": {
+        "grouped_by": {
+          "terms": {
+            "field": "${path?json_string}.key",
+            "size": ${N?long?c},
+            "order": {
+              "total_bytes": "desc"
+            }
+          },
+          "aggs": {
+            "total_bytes": {
+              "sum": {
+                "field": "${path?json_string}.bytes"
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.flows.api.FlowException;
+import org.opennms.plugins.elasticsearch.rest.bulk.BulkWrapper;
+import org.opennms.plugins.elasticsearch.rest.index.IndexStrategy;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.config.HttpClientConfig;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Index;
+
+public class BulkFlowWriterIT {
+
+    private static final String SUCCESS_RESPONSE = "{\"took\":1,\"errors\":false,\"items\":[]}";
+
+    private static final String PARTIAL_ERROR_RESPONSE = "{\"took\":1,\"errors\":true,\"items\":["
+            + "{\"index\":{\"_index\":\"netflow-2017-11\",\"_type\":\"netflow\",\"_id\":\"1\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution\"}}},"
+            + "{\"index\":{\"_index\":\"netflow-2017-11\",\"_type\":\"netflow\",\"_id\":\"2\",\"status\":201}}]}";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(WireMockConfiguration.options().dynamicPort());
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private JestClient client;
+
+    private ElasticFlowRepository elasticFlowRepository;
+
+    @Before
+    public void setUp() {
+        final JestClientFactory factory = new JestClientFactory();
+        factory.setHttpClientConfig(new HttpClientConfig.Builder("http://localhost:" + wireMockRule.port()).build());
+        client = factory.getObject();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (elasticFlowRepository != null) {
+            elasticFlowRepository.destroy();
+        }
+        client.close();
+    }
+
+    @Test
+    public void verifySendsBulksBySizeAndInterval() throws Exception {
+        stubFor(post("/_bulk")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(SUCCESS_RESPONSE)));
+
+        final BulkWriterConfig config = new BulkWriterConfig();
+        config.setBulkSize(10);
+        config.setFlushInterval(100);
+        config.setConcurrency(1);
+        createRepository(config);
+
+        elasticFlowRepository.persist(flows(25), FlowDocumentTest.getMockFlowSource());
+
+        // Two full bulks and the remaining flows after the flush interval elapsed
+        await().atMost(10, TimeUnit.SECONDS).until(() -> metricRegistry.meter("flowsPersisted").getCount(), equalTo(25L));
+        assertThat(documentsPerRequest(), equalTo(new int[]{10, 10, 5}));
+        assertThat(metricRegistry.histogram("flowsPerBulk").getCount(), equalTo(3L));
+        assertThat(metricRegistry.timer("bulkFlushing").getCount(), equalTo(3L));
+    }
+
+    @Test
+    public void verifyRetriesFailedItemsOnly() throws Exception {
+        stubFor(post("/_bulk").inScenario("retry")
+                .whenScenarioStateIs(STARTED)
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(PARTIAL_ERROR_RESPONSE))
+                .willSetStateTo("retried"));
+        stubFor(post("/_bulk").inScenario("retry")
+                .whenScenarioStateIs("retried")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(SUCCESS_RESPONSE)));
+
+        final BulkWriterConfig config = new BulkWriterConfig();
+        config.setBulkSize(2);
+        config.setConcurrency(1);
+        createRepository(config);
+
+        elasticFlowRepository.persist(flows(2), FlowDocumentTest.getMockFlowSource());
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> metricRegistry.meter("flowsPersisted").getCount(), equalTo(2L));
+        assertThat(documentsPerRequest(), equalTo(new int[]{2, 1}));
+        assertThat(metricRegistry.meter("flowsFailed").getCount(), equalTo(0L));
+    }
+
+    @Test
+    public void verifyRejectsFlowsWhenBufferIsFull() throws Exception {
+        stubFor(post("/_bulk")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(2000)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(SUCCESS_RESPONSE)));
+
+        final BulkWriterConfig config = new BulkWriterConfig();
+        config.setBufferSize(2);
+        config.setBulkSize(1);
+        config.setConcurrency(1);
+        config.setOfferTimeout(100);
+        createRepository(config);
+
+        final long start = System.currentTimeMillis();
+        try {
+            elasticFlowRepository.persist(flows(10), FlowDocumentTest.getMockFlowSource());
+            fail("The flows should have been rejected");
+        } catch (FlowException e) {
+            // expected
+        }
+
+        // The caller is only blocked for the offer timeout, not until the bulk request completed
+        assertThat(System.currentTimeMillis() - start < 1000, equalTo(true));
+        assertThat(metricRegistry.meter("flowsRejected").getCount(), greaterThan(0L));
+        assertThat(metricRegistry.getGauges().get("bulkBufferOccupancy").getValue(), equalTo(2));
+    }
+
+    @Test
+    public void verifyKeepsFlushingAfterUnexpectedErrors() throws Exception {
+        stubFor(post("/_bulk")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(SUCCESS_RESPONSE)));
+
+        final BulkWriterConfig config = new BulkWriterConfig();
+        config.setBulkSize(2);
+        config.setFlushInterval(100);
+        config.setConcurrency(1);
+
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        final List<FlowDocument> persisted = new CopyOnWriteArrayList<>();
+        try (BulkFlowWriter writer = new BulkFlowWriter(metricRegistry, client, documents -> {
+            if (fail.getAndSet(false)) {
+                throw new IllegalStateException("Failed to transform the documents");
+            }
+            final Bulk.Builder bulkBuilder = new Bulk.Builder();
+            for (FlowDocument document : documents) {
+                bulkBuilder.addAction(new Index.Builder(document).index("netflow-2017-11").type("netflow").build());
+            }
+            return new BulkWrapper(bulkBuilder);
+        }, 1, config, persisted::addAll)) {
+            writer.write(documents(2));
+            await().atMost(10, TimeUnit.SECONDS).until(() -> metricRegistry.meter("flowsFailed").getCount(), equalTo(2L));
+
+            // The flushing thread survived and only the persisted flows are handed over
+            final List<FlowDocument> documents = documents(2);
+            writer.write(documents);
+            await().atMost(10, TimeUnit.SECONDS).until(() -> metricRegistry.meter("flowsPersisted").getCount(), equalTo(2L));
+            assertThat(persisted, equalTo(documents));
+        }
+    }
+
+    private void createRepository(final BulkWriterConfig config) {
+        elasticFlowRepository = new ElasticFlowRepository(metricRegistry, client, IndexStrategy.MONTHLY,
+                mock(DocumentEnricher.class), 3, 12000, config);
+    }
+
+    private static List<Flow> flows(final int count) {
+        return Collections.nCopies(count, FlowDocumentTest.getMockFlow());
+    }
+
+    private static List<FlowDocument> documents(final int count) {
+        return flows(count).stream().map(FlowDocument::from).collect(Collectors.toList());
+    }
+
+    private static int[] documentsPerRequest() {
+        // Each document is sent as an action line followed by a source line
+        return findAll(postRequestedFor(urlEqualTo("/_bulk"))).stream()
+                .map(LoggedRequest::getBodyAsString)
+                .mapToInt(body -> body.trim().split("\n").length / 2)
+                .toArray();
+    }
+}
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.flows.elastic;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -47,6 +48,7 @@ public class DocumentEnricherTest {
 
     private DocumentEnricher enricher;
     private AtomicInteger nodeDaoGetCounter;
+    private AtomicInteger nodeDaoFindMatchingCounter;
 
     @Before
     public void setUp() {
@@ -55,6 +57,7 @@ public class DocumentEnricherTest {
         final NodeDao nodeDao = factory.getNodeDao();
         final InterfaceToNodeCache interfaceToNodeCache = factory.getInterfaceToNodeCache();
         nodeDaoGetCounter = factory.getNodeDaoGetCounter();
+        nodeDaoFindMatchingCounter = factory.getNodeDaoFindMatchingCounter();
 
         interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.1"), 1);
         interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.2"), 2);
@@ -72,8 +75,33 @@ public class DocumentEnricherTest {
         documents.add(createFlowDocument("10.0.0.1", "10.0.0.3"));
         enricher.enrich(documents, new FlowSource("Default", "127.0.0.1"));
 
-        // get is also called for each save, so we account for those as well
-        assertEquals(6, nodeDaoGetCounter.get());
+        // get is only called for each save, the nodes are loaded by a single query
+        assertEquals(3, nodeDaoGetCounter.get());
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
+    }
+
+    @Test
+    public void verifyOnlyCacheMissesAreLoaded() {
+        final List<FlowDocument> documents = Lists.newArrayList(createFlowDocument("10.0.0.1", "10.0.0.2"));
+        enricher.enrich(documents, new FlowSource("Default", "127.0.0.1"));
+        assertEquals(1, nodeDaoFindMatchingCounter.get());
+        assertEquals(Integer.valueOf(1), documents.get(0).getNodeSrc().getNodeId());
+        assertEquals(Integer.valueOf(2), documents.get(0).getNodeDst().getNodeId());
+        assertNull(documents.get(0).getNodeExporter());
+
+        // 10.0.0.3 is missing in the cache
+        final List<FlowDocument> moreDocuments = Lists.newArrayList(
+                createFlowDocument("10.0.0.1", "10.0.0.3"),
+                createFlowDocument("10.0.0.2", "10.0.0.4"));
+        enricher.enrich(moreDocuments, new FlowSource("Default", "127.0.0.1"));
+        assertEquals(2, nodeDaoFindMatchingCounter.get());
+        assertEquals(Integer.valueOf(3), moreDocuments.get(0).getNodeDst().getNodeId());
+        assertEquals(Integer.valueOf(2), moreDocuments.get(1).getNodeSrc().getNodeId());
+        assertNull(moreDocuments.get(1).getNodeDst());
+
+        // Everything is cached now, including the addresses without a node
+        enricher.enrich(Lists.newArrayList(createFlowDocument("10.0.0.3", "10.0.0.4")), new FlowSource("Default", "127.0.0.1"));
+        assertEquals(2, nodeDaoFindMatchingCounter.get());
     }
 
     private static FlowDocument createFlowDocument(String sourceIp, String destIp) {
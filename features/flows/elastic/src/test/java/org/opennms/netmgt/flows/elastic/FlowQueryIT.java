@@ -33,6 +33,7 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
 
 import java.net.MalformedURLException;
@@ -40,14 +41,19 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.hamcrest.Matcher;
 import org.hamcrest.collection.IsIterableContainingInOrder;
 import org.hamcrest.number.IsCloseTo;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -68,15 +74,23 @@ import org.opennms.plugins.elasticsearch.rest.RestClientFactory;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 
 import io.searchbox.client.JestClient;
+import io.searchbox.core.Search;
 
 public class FlowQueryIT {
 
     private static final String HTTP_PORT = "9205";
     private static final String HTTP_TRANSPORT_PORT = "9305";
 
+    /**
+     * The rollups distribute the whole bytes of a flow over the intervals it spans, while the queries on the
+     * flows use fractions of bytes, so the results may differ by less than a byte for every flow involved.
+     */
+    private static final double ROLLUP_ERROR = 2;
+
     @Rule
     public ElasticSearchRule elasticServerRule = new ElasticSearchRule(
             new ElasticSearchServerConfig()
@@ -89,8 +103,17 @@ public class FlowQueryIT {
                     .withPlugins(DriftPlugin.class)
     );
 
+    private JestClient client;
+
     private ElasticFlowRepository flowRepository;
 
+    /**
+     * Queries the same flows as {@link #flowRepository}, but uses the rollups where possible.
+     */
+    private ElasticFlowRepository rollupRepository;
+
+    private MetricRegistry rollupMetricRegistry;
+
     @Before
     public void setUp() throws MalformedURLException, FlowException, ExecutionException, InterruptedException {
         MockLogAppender.setupLogging(true, "DEBUG");
@@ -99,15 +122,25 @@ public class FlowQueryIT {
 
         final MetricRegistry metricRegistry = new MetricRegistry();
         final RestClientFactory restClientFactory = new RestClientFactory("http://localhost:" + HTTP_PORT, null, null);
-        final JestClient client = restClientFactory.createClient();
+        client = restClientFactory.createClient();
         flowRepository = new ElasticFlowRepository(metricRegistry, client, IndexStrategy.MONTHLY, documentEnricher
                 , 3, 12000);
         final IndexSettings settings = new IndexSettings();
         final ElasticFlowRepositoryInitializer initializer = new ElasticFlowRepositoryInitializer(client, settings);
 
+        // Roll up the flows into intervals of 10ms, and use the rollups for any query range
+        final RollupConfig rollupConfig = new RollupConfig();
+        rollupConfig.setInterval(10);
+        rollupConfig.setLateness(0);
+        rollupConfig.setMinimumQueryRange(0);
+        rollupMetricRegistry = new MetricRegistry();
+        rollupRepository = new ElasticFlowRepository(rollupMetricRegistry, client, IndexStrategy.MONTHLY, documentEnricher
+                , 3, 12000, null, rollupConfig);
+
         // Here we load the flows by building the documents ourselves,
         // so we must initialize the repository manually
         initializer.initialize();
+        new RollupRepositoryInitializer(client).initialize();
 
         // The repository should be empty
         assertThat(flowRepository.getFlowCount(Collections.singletonList(new TimeRangeFilter(0, 0))).get(), equalTo(0L));
@@ -116,6 +149,11 @@ public class FlowQueryIT {
         loadDefaultFlows();
     }
 
+    @After
+    public void tearDown() {
+        rollupRepository.destroy();
+    }
+
     @Test
     public void canGetExportersWithFlows() throws ExecutionException, InterruptedException {
         assertThat(flowRepository.getExportersWithFlows(10, Collections.emptyList()).get(), contains(99));
@@ -289,6 +327,96 @@ public class FlowQueryIT {
         assertThat(convoTraffic.rowKeySet(), hasSize(8));
     }
 
+    @Test
+    public void canGetTopNApplicationsFromRollups() throws Exception {
+        awaitRollups();
+
+        for (int N : new int[]{10, 1, 0}) {
+            for (boolean includeOther : new boolean[]{true, false}) {
+                assertSameTotals(flowRepository.getTopNApplications(N, includeOther, getFilters()).get(),
+                        rollupRepository.getTopNApplications(N, includeOther, getFilters()).get(), Function.identity());
+            }
+        }
+    }
+
+    @Test
+    public void canGetTopNConversationsFromRollups() throws Exception {
+        awaitRollups();
+
+        for (int N : new int[]{10, 2}) {
+            assertSameTotals(flowRepository.getTopNConversations(N, getFilters()).get(),
+                    rollupRepository.getTopNConversations(N, getFilters()).get(), ConversationKey::toString);
+        }
+    }
+
+    @Test
+    public void canGetTopNAppsSeriesFromRollups() throws Exception {
+        awaitRollups();
+
+        for (int N : new int[]{10, 1}) {
+            for (boolean includeOther : new boolean[]{true, false}) {
+                final Table<Directional<String>, Long, Double> rollupSeries = rollupRepository.getTopNApplicationsSeries(N, 10, includeOther, getFilters()).get();
+                assertSameSeries(flowRepository.getTopNApplicationsSeries(N, 10, includeOther, getFilters()).get(), rollupSeries);
+
+                // The first interval is served from the flows, the others from the rollups which only hold whole bytes
+                for (Table.Cell<Directional<String>, Long, Double> cell : rollupSeries.cellSet()) {
+                    if (cell.getColumnKey() >= 10) {
+                        assertThat(cell.toString(), cell.getValue(), equalTo(Math.rint(cell.getValue())));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canGetTopNConversationsSeriesFromRollups() throws Exception {
+        awaitRollups();
+
+        assertSameSeries(flowRepository.getTopNConversationsSeries(10, 10, getFilters()).get(),
+                rollupRepository.getTopNConversationsSeries(10, 10, getFilters()).get());
+    }
+
+    /**
+     * Waits until all of the flows have been rolled up and the rollups can be searched.
+     */
+    private void awaitRollups() {
+        await().atMost(30, TimeUnit.SECONDS).until(() -> rollupMetricRegistry.getGauges().get("rollupsOpen").getValue(), equalTo(0));
+        await().atMost(30, TimeUnit.SECONDS).until(() -> rollupMetricRegistry.getGauges().get("rollupsPending").getValue(), equalTo(0));
+        final long numRollups = rollupMetricRegistry.meter("rollupsPersisted").getCount();
+        assertThat(numRollups, greaterThan(0L));
+        await().atMost(30, TimeUnit.SECONDS).until(() -> client.execute(new Search.Builder("{\"size\": 0}")
+                .addIndex("netflow_rollup-*")
+                .build()).getTotal(), equalTo(numRollups));
+    }
+
+    private static <T> void assertSameTotals(List<TrafficSummary<T>> expected, List<TrafficSummary<T>> actual,
+                                             Function<T, String> toKey) {
+        final Map<String, TrafficSummary<T>> expectedByKey = expected.stream()
+                .collect(Collectors.toMap(s -> toKey.apply(s.getEntity()), s -> s));
+        final Map<String, TrafficSummary<T>> actualByKey = actual.stream()
+                .collect(Collectors.toMap(s -> toKey.apply(s.getEntity()), s -> s));
+        assertThat(actualByKey.keySet(), equalTo(expectedByKey.keySet()));
+        for (Map.Entry<String, TrafficSummary<T>> entry : expectedByKey.entrySet()) {
+            final TrafficSummary<T> actualSummary = actualByKey.get(entry.getKey());
+            assertThat(entry.getKey(), (double) actualSummary.getBytesIn(), IsCloseTo.closeTo(entry.getValue().getBytesIn(), ROLLUP_ERROR));
+            assertThat(entry.getKey(), (double) actualSummary.getBytesOut(), IsCloseTo.closeTo(entry.getValue().getBytesOut(), ROLLUP_ERROR));
+        }
+    }
+
+    private static <T> void assertSameSeries(Table<Directional<T>, Long, Double> expected, Table<Directional<T>, Long, Double> actual) {
+        assertThat(actual.rowKeySet(), equalTo(expected.rowKeySet()));
+        // The rollups may yield empty buckets for the entities of the top N
+        final Set<Long> timestamps = new HashSet<>(Sets.union(expected.columnKeySet(), actual.columnKeySet()));
+        for (Directional<T> row : expected.rowKeySet()) {
+            for (Long timestamp : timestamps) {
+                final Double expectedValue = expected.get(row, timestamp);
+                final Double actualValue = actual.get(row, timestamp);
+                assertThat(row + "@" + timestamp, actualValue != null ? actualValue : 0d,
+                        IsCloseTo.closeTo(expectedValue != null ? expectedValue : 0d, ROLLUP_ERROR));
+            }
+        }
+    }
+
     private void loadDefaultFlows() throws FlowException {
         final List<FlowDocument> flows = new FlowBuilder()
                 .withExporter("SomeFs", "SomeFid", 99)
@@ -314,7 +442,8 @@ public class FlowQueryIT {
                 .withDirection(Direction.EGRESS)
                 .withFlow(new Date(50), new Date(52), "10.1.1.13", 50001, "192.168.1.102", 50000, 100)
                 .build();
-        flowRepository.enrichAndPersistFlows(flows, new FlowSource("test", "127.0.0.1"));
+        // Persist the flows through the repository with rollups, so they are rolled up as well
+        rollupRepository.enrichAndPersistFlows(flows, new FlowSource("test", "127.0.0.1"));
 
         // Retrieve all the flows we just persisted
         await().atMost(30, TimeUnit.SECONDS).until(() -> flowRepository.getFlowCount(Collections.singletonList(
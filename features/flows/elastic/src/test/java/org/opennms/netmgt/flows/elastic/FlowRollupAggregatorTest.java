@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.flows.api.FlowException;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class FlowRollupAggregatorTest {
+
+    private final AtomicLong now = new AtomicLong(0);
+
+    private final List<RollupDocument> written = new ArrayList<>();
+
+    private RollupConfig config;
+
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() {
+        config = new RollupConfig();
+        config.setInterval(1000);
+        config.setLateness(500);
+        config.setTopK(2);
+        metricRegistry = new MetricRegistry();
+    }
+
+    @Test
+    public void canAggregateFlowsPerInterfaceAndInterval() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(metricRegistry, config, written::addAll, now::get, false);
+        aggregator.aggregate(Arrays.asList(
+                flow(1, 100, 100, 10, Direction.INGRESS, "http", "c1"),
+                flow(1, 200, 300, 20, Direction.EGRESS, "http", "c1"),
+                flow(1, 500, 500, 5, Direction.INGRESS, null, null),
+                flow(2, 600, 600, 7, Direction.INGRESS, "https", "c2"),
+                flow(1, 1100, 1100, 3, Direction.INGRESS, "ssh", "c3")));
+
+        // Nothing is flushed before the lateness elapsed
+        now.set(1400);
+        aggregator.flushClosed();
+        assertThat(written, hasSize(0));
+        assertThat(aggregator.getFlushedUntil(), equalTo(0L));
+
+        now.set(1500);
+        aggregator.flushClosed();
+        assertThat(aggregator.getFlushedUntil(), equalTo(1000L));
+        assertThat(written, hasSize(2));
+        written.sort(Comparator.comparing(RollupDocument::getInputSnmp));
+
+        final RollupDocument first = written.get(0);
+        assertThat(first.getTimestamp(), equalTo(0L));
+        assertThat(first.getInterval(), equalTo(1000L));
+        assertThat(first.getInputSnmp(), equalTo(1));
+        assertThat(first.getNodeExporter().getNodeId(), equalTo(42));
+        assertThat(first.getBytesIngress(), equalTo(15L));
+        assertThat(first.getBytesEgress(), equalTo(20L));
+        assertThat(keys(first.getApplications()), contains("http", ElasticFlowRepository.UNKNOWN_APPLICATION_NAME));
+        assertThat(first.getApplications().get(0).getBytesIngress(), equalTo(10L));
+        assertThat(first.getApplications().get(0).getBytesEgress(), equalTo(20L));
+        // Flows without a conversation key only account for the totals
+        assertThat(keys(first.getConversations()), contains("c1"));
+
+        assertThat(written.get(1).getInputSnmp(), equalTo(2));
+        assertThat(written.get(1).getBytesIngress(), equalTo(7L));
+
+        // The open interval is flushed on close
+        written.clear();
+        aggregator.close();
+        assertThat(written, hasSize(1));
+        assertThat(written.get(0).getTimestamp(), equalTo(1000L));
+        assertThat(keys(written.get(0).getApplications()), contains("ssh"));
+    }
+
+    @Test
+    public void canDistributeBytesProportionally() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(metricRegistry, config, written::addAll, now::get, false);
+        // Spans 3 intervals: 250ms in the first, 1000ms in the second and 251ms in the third
+        aggregator.aggregate(Arrays.asList(flow(1, 750, 2251, 1001, Direction.INGRESS, "http", "c1")));
+        aggregator.close();
+
+        written.sort(Comparator.comparing(RollupDocument::getTimestamp));
+        assertThat(written.stream().map(RollupDocument::getTimestamp).collect(Collectors.toList()), contains(0L, 1000L, 2000L));
+        assertThat(written.stream().map(RollupDocument::getBytesIngress).collect(Collectors.toList()), contains(167L, 667L, 167L));
+        // No bytes are lost by rounding
+        assertThat(written.stream().mapToLong(RollupDocument::getBytesIngress).sum(), equalTo(1001L));
+    }
+
+    @Test
+    public void canOpenNewRollupForLateFlows() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(metricRegistry, config, written::addAll, now::get, false);
+        aggregator.aggregate(Arrays.asList(flow(1, 100, 100, 10, Direction.INGRESS, "http", "c1")));
+        now.set(2000);
+        aggregator.flushClosed();
+        assertThat(written, hasSize(1));
+
+        // A late flow for an interval which was already flushed
+        aggregator.aggregate(Arrays.asList(flow(1, 200, 200, 5, Direction.INGRESS, "http", "c1")));
+        aggregator.flushClosed();
+        assertThat(written, hasSize(2));
+        assertThat(written.get(1).getTimestamp(), equalTo(0L));
+        assertThat(written.get(1).getBytesIngress(), equalTo(5L));
+    }
+
+    @Test
+    public void canKeepTopKEntitiesPerRollup() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(metricRegistry, config, written::addAll, now::get, false);
+        aggregator.aggregate(Arrays.asList(
+                flow(1, 100, 100, 100, Direction.INGRESS, "a", "c1"),
+                flow(1, 100, 100, 50, Direction.INGRESS, "b", "c2"),
+                flow(1, 100, 100, 1, Direction.INGRESS, "c", "c3")));
+        aggregator.close();
+
+        assertThat(written, hasSize(1));
+        // The totals include the traffic of the entities which were not tracked
+        assertThat(written.get(0).getBytesIngress(), equalTo(151L));
+        assertThat(written.get(0).getApplications(), hasSize(2));
+        assertThat(written.get(0).getConversations(), hasSize(2));
+    }
+
+    @Test
+    public void canTrackFailedRollups() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(metricRegistry, config, rollups -> {
+            throw new FlowException("Nope");
+        }, now::get, false);
+        aggregator.aggregate(Arrays.asList(flow(1, 100, 100, 10, Direction.INGRESS, "http", "c1")));
+        aggregator.close();
+
+        assertThat(metricRegistry.meter("rollupsFailed").getCount(), equalTo(1L));
+        assertThat(metricRegistry.meter("rollupsPersisted").getCount(), equalTo(0L));
+    }
+
+    @Test
+    public void canRetryFailedRollups() {
+        final AtomicLong failures = new AtomicLong(1);
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(metricRegistry, config, rollups -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new FlowException("Nope");
+            }
+            written.addAll(rollups);
+        }, now::get, false);
+        aggregator.aggregate(Arrays.asList(flow(1, 100, 100, 10, Direction.INGRESS, "http", "c1")));
+
+        // The failed interval must not be served from the rollups
+        now.set(1500);
+        aggregator.flushClosed();
+        assertThat(written, hasSize(0));
+        assertThat(aggregator.getFlushedUntil(), equalTo(0L));
+        assertThat(metricRegistry.meter("rollupsFailed").getCount(), equalTo(1L));
+
+        // The next run writes the failed rollups along with the newly closed ones
+        aggregator.aggregate(Arrays.asList(flow(1, 1100, 1100, 3, Direction.INGRESS, "ssh", "c3")));
+        now.set(2500);
+        aggregator.flushClosed();
+        assertThat(aggregator.getFlushedUntil(), equalTo(2000L));
+        written.sort(Comparator.comparing(RollupDocument::getTimestamp));
+        assertThat(written.stream().map(RollupDocument::getTimestamp).collect(Collectors.toList()), contains(0L, 1000L));
+        assertThat(metricRegistry.meter("rollupsPersisted").getCount(), equalTo(2L));
+    }
+
+    @Test
+    public void canRetryPartiallyFailedRollups() {
+        final AtomicLong failures = new AtomicLong(1);
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(metricRegistry, config, rollups -> {
+            if (failures.getAndDecrement() > 0) {
+                // Only write the rollups of the second interface
+                final List<RollupDocument> failed = rollups.stream().filter(r -> r.getInputSnmp() == 1).collect(Collectors.toList());
+                rollups.stream().filter(r -> r.getInputSnmp() != 1).forEach(written::add);
+                throw new RollupPersistenceException("Partially failed", failed);
+            }
+            written.addAll(rollups);
+        }, now::get, false);
+        aggregator.aggregate(Arrays.asList(
+                flow(1, 100, 100, 10, Direction.INGRESS, "http", "c1"),
+                flow(2, 100, 100, 7, Direction.INGRESS, "http", "c2")));
+
+        now.set(1500);
+        aggregator.flushClosed();
+        assertThat(written, hasSize(1));
+        assertThat(aggregator.getFlushedUntil(), equalTo(0L));
+
+        // Only the failed rollup is written again
+        aggregator.flushClosed();
+        assertThat(written, hasSize(2));
+        written.sort(Comparator.comparing(RollupDocument::getInputSnmp));
+        assertThat(written.get(0).getBytesIngress(), equalTo(10L));
+        assertThat(written.get(1).getBytesIngress(), equalTo(7L));
+        assertThat(aggregator.getFlushedUntil(), equalTo(1000L));
+    }
+
+    private static List<String> keys(List<RollupDocument.Traffic> traffic) {
+        return traffic.stream().map(RollupDocument.Traffic::getKey).collect(Collectors.toList());
+    }
+
+    private static FlowDocument flow(int inputSnmp, long firstSwitched, long lastSwitched, long bytes, Direction direction,
+                                     String application, String convoKey) {
+        final NodeDocument exporter = new NodeDocument();
+        exporter.setNodeId(42);
+        exporter.setForeignSource("test");
+        exporter.setForeignId("exporter");
+
+        final FlowDocument flow = new FlowDocument();
+        flow.setTimestamp(lastSwitched);
+        flow.setFirstSwitched(firstSwitched);
+        flow.setLastSwitched(lastSwitched);
+        flow.setBytes(bytes);
+        flow.setDirection(direction);
+        flow.setApplication(application);
+        flow.setConvoKey(convoKey);
+        flow.setInputSnmp(inputSnmp);
+        flow.setNodeExporter(exporter);
+        return flow;
+    }
+}
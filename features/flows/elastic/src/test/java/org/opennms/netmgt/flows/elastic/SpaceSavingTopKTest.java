@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class SpaceSavingTopKTest {
+
+    @Test
+    public void canTrackAllKeysWithinCapacity() {
+        final SpaceSavingTopK topK = new SpaceSavingTopK(3);
+        topK.add("a", 10, true);
+        topK.add("b", 30, false);
+        topK.add("a", 5, false);
+        topK.add("c", 20, true);
+        topK.add("c", 0, true);
+
+        final List<SpaceSavingTopK.Entry> entries = topK.getEntries();
+        assertThat(entries.stream().map(SpaceSavingTopK.Entry::getKey).collect(Collectors.toList()), contains("b", "c", "a"));
+
+        final SpaceSavingTopK.Entry a = entries.get(2);
+        assertThat(a.getCount(), equalTo(15L));
+        assertThat(a.getBytesIngress(), equalTo(10L));
+        assertThat(a.getBytesEgress(), equalTo(5L));
+        assertThat(a.getError(), equalTo(0L));
+    }
+
+    @Test
+    public void canReplaceTheSmallestKey() {
+        final SpaceSavingTopK topK = new SpaceSavingTopK(2);
+        topK.add("a", 100, true);
+        topK.add("b", 10, true);
+        topK.add("c", 5, false);
+
+        assertThat(topK.size(), equalTo(2));
+        final List<SpaceSavingTopK.Entry> entries = topK.getEntries();
+        assertThat(entries.stream().map(SpaceSavingTopK.Entry::getKey).collect(Collectors.toList()), contains("a", "c"));
+
+        // The new key inherits the count of the replaced one as error, but only its own bytes
+        final SpaceSavingTopK.Entry c = entries.get(1);
+        assertThat(c.getCount(), equalTo(15L));
+        assertThat(c.getError(), equalTo(10L));
+        assertThat(c.getBytesIngress(), equalTo(0L));
+        assertThat(c.getBytesEgress(), equalTo(5L));
+    }
+
+    @Test
+    public void canFindHeavyHittersInSkewedStream() {
+        final int capacity = 20;
+        final SpaceSavingTopK topK = new SpaceSavingTopK(capacity);
+        final Map<String, Long> actual = new HashMap<>();
+        final Random random = new Random(42);
+        long total = 0;
+        for (int i = 0; i < 100000; i++) {
+            // A few heavy keys and a long tail of light ones
+            final String key = random.nextInt(10) < 6 ? "heavy-" + random.nextInt(5) : "light-" + random.nextInt(5000);
+            final long bytes = 1 + random.nextInt(1500);
+            topK.add(key, bytes, random.nextBoolean());
+            actual.merge(key, bytes, Long::sum);
+            total += bytes;
+        }
+
+        final List<String> keys = topK.getEntries().stream().map(SpaceSavingTopK.Entry::getKey).collect(Collectors.toList());
+        for (int i = 0; i < 5; i++) {
+            assertThat(keys, hasItem("heavy-" + i));
+        }
+        long tracked = 0;
+        for (SpaceSavingTopK.Entry entry : topK.getEntries()) {
+            final long bytes = entry.getBytesIngress() + entry.getBytesEgress();
+            // The bytes never overestimate, and the count never underestimates the actual traffic
+            assertThat(bytes, lessThanOrEqualTo(actual.get(entry.getKey())));
+            assertThat(entry.getCount(), greaterThanOrEqualTo(actual.get(entry.getKey())));
+            assertThat(entry.getCount() - entry.getError(), lessThanOrEqualTo(actual.get(entry.getKey())));
+            assertThat(entry.getError(), lessThanOrEqualTo(total / capacity));
+            tracked += bytes;
+        }
+        assertThat(tracked, lessThanOrEqualTo(total));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCapacity() {
+        new SpaceSavingTopK(0);
+    }
+}
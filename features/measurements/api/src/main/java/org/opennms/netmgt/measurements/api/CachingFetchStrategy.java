@@ -0,0 +1,428 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import org.opennms.netmgt.measurements.model.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+
+/**
+ * Caches the results of another fetch strategy, so that many clients
+ * refreshing the same graphs only cause a single fetch.
+ *
+ * The results are cached by the sources and parameters of the fetch,
+ * with the start and the end of the time window aligned, so that
+ * requests issued shortly after each other share the same window.
+ *
+ * For every set of sources and parameters the results of the most recent
+ * window are kept:
+ * <ul>
+ *  <li>Requests for the same window are answered from the cache, as long as
+ *  the results are no older than the time to live.</li>
+ *  <li>Requests for a window that slid forward, i.e. "the last N hours",
+ *  reuse the rows which had settled when the results were fetched, and only
+ *  fetch the remaining rows. The rows overlapping with the cache must match,
+ *  otherwise the whole window is fetched again. This is the case when the
+ *  strategy selects a different archive or resolution for the shorter window.</li>
+ * </ul>
+ *
+ * Sliding windows are not reused when maxrows is set, since the resolution
+ * then depends on the length of the window.
+ *
+ * Requests arriving while the same window is being fetched wait for that
+ * fetch to complete, instead of issuing their own. The concurrency and the
+ * timeout of a request only apply to the fetches issued by the request itself.
+ *
+ * The results are shared between all users, so the cache must not be used
+ * when ACLs restrict the resources the users can access, see {@link #isEnabled()}.
+ */
+public class CachingFetchStrategy implements MeasurementFetchStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingFetchStrategy.class);
+
+    public static final long MAX_SIZE = Long.getLong("org.opennms.measurements.cache.maxSize", 0L);
+
+    public static final long TTL_MS = Long.getLong("org.opennms.measurements.cache.ttl", TimeUnit.MINUTES.toMillis(1));
+
+    public static final long SETTLE_TIME_MS = Long.getLong("org.opennms.measurements.cache.settleTime", TimeUnit.MINUTES.toMillis(15));
+
+    public static final long ALIGNMENT_MS = Long.getLong("org.opennms.measurements.cache.alignment", TimeUnit.MINUTES.toMillis(1));
+
+    public static final long EXPIRE_AFTER_ACCESS_MS = Long.getLong("org.opennms.measurements.cache.expireAfterAccess", TimeUnit.HOURS.toMillis(1));
+
+    /**
+     * Number of steps fetched again before the last settled row, used to verify that the
+     * rows fetched match the cache, and to give strategies which aggregate the samples at
+     * the time of the request the samples preceding the rows.
+     */
+    private static final int OVERLAP_STEPS = 4;
+
+    private final MeasurementFetchStrategy delegate;
+
+    private final Cache<Key, Entry> cache;
+
+    private final ConcurrentMap<Key, Load> loads = new ConcurrentHashMap<>();
+
+    private final long ttl;
+
+    private final long settleTime;
+
+    private final long alignment;
+
+    private final LongSupplier clock;
+
+    public CachingFetchStrategy(MeasurementFetchStrategy delegate) {
+        this(delegate, MAX_SIZE, TTL_MS, SETTLE_TIME_MS, ALIGNMENT_MS, EXPIRE_AFTER_ACCESS_MS, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    protected CachingFetchStrategy(MeasurementFetchStrategy delegate, long maxSize, long ttl, long settleTime,
+                                   long alignment, long expireAfterAccess, LongSupplier clock) {
+        Preconditions.checkArgument(maxSize > 0, "maxSize must be positive");
+        Preconditions.checkArgument(alignment > 0, "alignment must be positive");
+        this.delegate = Objects.requireNonNull(delegate);
+        this.ttl = ttl;
+        this.settleTime = settleTime;
+        this.alignment = alignment;
+        this.clock = Objects.requireNonNull(clock);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(expireAfterAccess, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return true if the results should be cached, i.e. a cache size is configured and
+     *         the results of a fetch do not depend on the user issuing it
+     */
+    public static boolean isEnabled() {
+        return MAX_SIZE > 0 && !Boolean.getBoolean("org.opennms.web.aclsEnabled");
+    }
+
+    @Override
+    public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat,
+                              List<Source> sources, boolean relaxed) throws Exception {
+        return fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed, null, null);
+    }
+
+    @Override
+    public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat,
+                              List<Source> sources, boolean relaxed, Integer concurrency, Long timeout) throws Exception {
+        final long alignedStart = start - Math.floorMod(start, alignment);
+        final long alignedEnd = end - Math.floorMod(end, alignment);
+        if (alignedEnd <= alignedStart) {
+            return delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed, concurrency, timeout);
+        }
+
+        // Build the key before fetching, the strategies replace the attributes of the sources by their fallback
+        final Key key = new Key(step, maxrows, interval, heartbeat, sources, relaxed);
+        final long now = clock.getAsLong();
+
+        final Entry entry = cache.getIfPresent(key);
+        if (entry != null && entry.start == alignedStart && entry.end == alignedEnd && now - entry.fetchedAt <= ttl) {
+            LOG.debug("Using cached results for {}.", key);
+            return toFetchResults(entry);
+        }
+
+        final Load load = new Load(alignedStart, alignedEnd);
+        final Load inProgress = loads.putIfAbsent(key, load);
+        if (inProgress != null) {
+            if (inProgress.start == alignedStart && inProgress.end == alignedEnd) {
+                LOG.debug("Waiting for the results of {} which are being fetched.", key);
+                return toFetchResults(inProgress.await());
+            }
+            // Another window is being fetched, don't make the others wait for ours
+            return toFetchResults(load(key, entry, alignedStart, alignedEnd, now, step, maxrows, interval, heartbeat, sources, relaxed, concurrency, timeout));
+        }
+
+        try {
+            final Entry loaded = load(key, entry, alignedStart, alignedEnd, now, step, maxrows, interval, heartbeat, sources, relaxed, concurrency, timeout);
+            load.future.complete(loaded);
+            return toFetchResults(loaded);
+        } catch (Exception e) {
+            load.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * Fetches the given window, reusing the rows of the given entry if possible, and caches the results.
+     *
+     * @return the cached results, or null if the delegate did not return any
+     */
+    private Entry load(Key key, Entry entry, long start, long end, long now, long step, int maxrows, Long interval,
+                       Long heartbeat, List<Source> sources, boolean relaxed, Integer concurrency, Long timeout) throws Exception {
+        FetchResults results = null;
+        if (entry != null && maxrows <= 0) {
+            results = slide(entry, start, end, step, interval, heartbeat, sources, relaxed, concurrency, timeout);
+        }
+        if (results == null) {
+            results = delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed, concurrency, timeout);
+        }
+        if (results == null) {
+            return null;
+        }
+        final Entry loaded = new Entry(results, start, end, now);
+        cache.put(key, loaded);
+        return loaded;
+    }
+
+    private static FetchResults toFetchResults(Entry entry) {
+        return entry != null ? entry.toFetchResults(0, entry.timestamps.length) : null;
+    }
+
+    /**
+     * Reuses the settled rows of the given entry for the given window and fetches the remaining rows.
+     *
+     * @return null if the rows of the entry cannot be reused
+     */
+    private FetchResults slide(Entry entry, long start, long end, long step, Long interval, Long heartbeat,
+                               List<Source> sources, boolean relaxed, Integer concurrency, Long timeout) throws Exception {
+        final long[] timestamps = entry.timestamps;
+        final long effectiveStep = entry.step;
+        if (end < entry.end || timestamps.length < 2 || effectiveStep <= 0) {
+            return null;
+        }
+
+        // Rows are settled if their whole step passed at least the settle time before they were fetched
+        final int lastSettled = lastIndexAtOrBefore(timestamps, entry.fetchedAt - settleTime - effectiveStep);
+        if (lastSettled < 1 || timestamps[lastSettled] < start) {
+            return null;
+        }
+
+        // Start between two rows, so that the first row fetched tells whether the strategies round the start up or down
+        final long lookback = Math.max(OVERLAP_STEPS * effectiveStep, heartbeat != null ? heartbeat + effectiveStep : 0L);
+        final long tailStart = timestamps[lastSettled] - lookback - effectiveStep / 2;
+        final FetchResults tail = delegate.fetch(tailStart, end, step, 0, interval, heartbeat, sources, relaxed, concurrency, timeout);
+        if (tail == null || tail.getStep() != effectiveStep || tail.getTimestamps().length < 1
+                || !tail.getColumns().keySet().equals(entry.columns.keySet())) {
+            return null;
+        }
+
+        // Verify the last two settled rows, and the row after these, match the rows fetched
+        final long[] tailTimestamps = tail.getTimestamps();
+        final int overlap = Arrays.binarySearch(tailTimestamps, timestamps[lastSettled]);
+        if (overlap < 1 || tailTimestamps[overlap - 1] != timestamps[lastSettled - 1]
+                || (overlap + 1 < tailTimestamps.length && tailTimestamps[overlap + 1] != timestamps[lastSettled] + effectiveStep)) {
+            LOG.debug("The rows fetched are not aligned with the cached rows.");
+            return null;
+        }
+        for (final Map.Entry<String, double[]> column : entry.columns.entrySet()) {
+            final double[] tailValues = tail.getColumns().get(column.getKey());
+            if (Double.compare(column.getValue()[lastSettled], tailValues[overlap]) != 0
+                    || Double.compare(column.getValue()[lastSettled - 1], tailValues[overlap - 1]) != 0) {
+                LOG.debug("The rows fetched do not match the cached rows of column {}.", column.getKey());
+                return null;
+            }
+        }
+
+        // Find the first row of the window in the same way
+        final long firstOffset = tailTimestamps[0] - tailStart;
+        final int first;
+        if (firstOffset >= 0 && firstOffset < effectiveStep) {
+            first = lastIndexAtOrBefore(timestamps, start - 1) + 1;
+        } else if (firstOffset < 0 && firstOffset > -effectiveStep) {
+            first = lastIndexAtOrBefore(timestamps, start);
+        } else {
+            return null;
+        }
+        if (first < 0 || first > lastSettled || Math.abs(timestamps[first] - start) >= effectiveStep) {
+            return null;
+        }
+
+        // Join the settled rows and the rows following them
+        final int numCached = lastSettled - first + 1;
+        final int numFetched = tailTimestamps.length - overlap - 1;
+        final long[] mergedTimestamps = new long[numCached + numFetched];
+        System.arraycopy(timestamps, first, mergedTimestamps, 0, numCached);
+        System.arraycopy(tailTimestamps, overlap + 1, mergedTimestamps, numCached, numFetched);
+
+        final Map<String, double[]> mergedColumns = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, double[]> column : entry.columns.entrySet()) {
+            final double[] values = new double[numCached + numFetched];
+            System.arraycopy(column.getValue(), first, values, 0, numCached);
+            System.arraycopy(tail.getColumns().get(column.getKey()), overlap + 1, values, numCached, numFetched);
+            mergedColumns.put(column.getKey(), values);
+        }
+
+        LOG.debug("Reused {} cached rows and fetched {} rows.", numCached, numFetched);
+        return new FetchResults(mergedTimestamps, mergedColumns, effectiveStep, tail.getConstants());
+    }
+
+    private static int lastIndexAtOrBefore(long[] timestamps, long timestamp) {
+        final int index = Arrays.binarySearch(timestamps, timestamp);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Identifies the fetches which only differ by their time window.
+     */
+    private static class Key {
+        private final long step;
+        private final int maxrows;
+        private final Long interval;
+        private final Long heartbeat;
+        private final List<List<Object>> sources;
+        private final boolean relaxed;
+
+        private Key(long step, int maxrows, Long interval, Long heartbeat, List<Source> sources, boolean relaxed) {
+            this.step = step;
+            this.maxrows = maxrows;
+            this.interval = interval;
+            this.heartbeat = heartbeat;
+            // Source#equals() does not consider all of the fields used by the fetch
+            this.sources = sources.stream()
+                    .map(s -> Arrays.<Object>asList(s.getLabel(), s.getResourceId(), s.getAttribute(),
+                            s.getFallbackAttribute(), s.getDataSource(), s.getAggregation()))
+                    .collect(Collectors.toList());
+            this.relaxed = relaxed;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return step == other.step
+                    && maxrows == other.maxrows
+                    && relaxed == other.relaxed
+                    && Objects.equals(interval, other.interval)
+                    && Objects.equals(heartbeat, other.heartbeat)
+                    && Objects.equals(sources, other.sources);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(step, maxrows, interval, heartbeat, sources, relaxed);
+        }
+
+        @Override
+        public String toString() {
+            return com.google.common.base.Objects.toStringHelper(this)
+                    .add("step", step)
+                    .add("maxrows", maxrows)
+                    .add("interval", interval)
+                    .add("heartbeat", heartbeat)
+                    .add("sources", sources)
+                    .add("relaxed", relaxed)
+                    .toString();
+        }
+    }
+
+    /**
+     * A fetch in progress.
+     */
+    private static class Load {
+        private final long start;
+        private final long end;
+        private final CompletableFuture<Entry> future = new CompletableFuture<>();
+
+        private Load(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private Entry await() throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * A copy of the results of a fetch, these are copied again when handed out
+     * since the callers modify the results.
+     */
+    private static class Entry {
+        private final long start;
+        private final long end;
+        private final long fetchedAt;
+        private final long[] timestamps;
+        private final Map<String, double[]> columns;
+        private final long step;
+        private final Map<String, Object> constants;
+
+        private Entry(FetchResults results, long start, long end, long fetchedAt) {
+            this.start = start;
+            this.end = end;
+            this.fetchedAt = fetchedAt;
+            this.timestamps = results.getTimestamps().clone();
+            this.columns = Maps.newLinkedHashMap();
+            for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+                this.columns.put(column.getKey(), column.getValue().clone());
+            }
+            this.step = results.getStep();
+            this.constants = Maps.newHashMap(results.getConstants());
+        }
+
+        private FetchResults toFetchResults(int from, int to) {
+            final Map<String, double[]> copy = Maps.newLinkedHashMap();
+            for (final Map.Entry<String, double[]> column : columns.entrySet()) {
+                copy.put(column.getKey(), Arrays.copyOfRange(column.getValue(), from, to));
+            }
+            return new FetchResults(Arrays.copyOfRange(timestamps, from, to), copy, step, Maps.newHashMap(constants));
+        }
+    }
+}
@@ -53,7 +53,8 @@ public class DefaultMeasurementsService implements MeasurementsService {
 
     @Autowired
     public DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine) {
-        this.fetchStrategy = Preconditions.checkNotNull(fetchStrategy);
+        Preconditions.checkNotNull(fetchStrategy);
+        this.fetchStrategy = CachingFetchStrategy.isEnabled() ? new CachingFetchStrategy(fetchStrategy) : fetchStrategy;
         this.expressionEngine = Preconditions.checkNotNull(expressionEngine);
         this.filterEngine = Preconditions.checkNotNull(filterEngine);
     }
@@ -73,7 +74,9 @@ public class DefaultMeasurementsService implements MeasurementsService {
                     request.getHeartbeat(),
                     request.getInterval(),
                     request.getSources(),
-                    request.isRelaxed());
+                    request.isRelaxed(),
+                    request.getConcurrency(),
+                    request.getTimeout());
         } catch (Exception e) {
             throw new FetchException(e, "Fetch failed: {}", e.getMessage());
         }
@@ -99,6 +102,11 @@ public class DefaultMeasurementsService implements MeasurementsService {
             }
         }
 
+        // Reduce the number of rows
+        if (request.getMaxPoints() != null && request.getMaxPoints() > 0) {
+            results = Downsampling.fromName(request.getDownsampling()).downsample(results, request.getMaxPoints());
+        }
+
         // Build the response
         final QueryResponse response = new QueryResponse();
         response.setStart(request.getStart());
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Methods used to reduce the number of rows of the fetch results
+ * before these are returned to the client.
+ *
+ * All methods keep the rows aligned across the columns, so that the
+ * timestamps of the results can still be shared.
+ */
+public enum Downsampling {
+
+    /**
+     * Largest-Triangle-Three-Buckets: keeps the first and the last row and
+     * selects one row per bucket in between. The selected row is the one
+     * forming the largest triangle with the row selected in the previous
+     * bucket and the average of the next bucket, summed over all columns.
+     * The values of each column are normalized to their range, so that columns
+     * of a different magnitude have the same weight.
+     *
+     * This preserves the visual shape of the series, but the values of the
+     * rows are not consolidated.
+     */
+    LTTB {
+        @Override
+        protected FetchResults doDownsample(FetchResults results, int maxPoints) {
+            final long[] timestamps = results.getTimestamps();
+            final int numRows = timestamps.length;
+            final int numBuckets = maxPoints - 2;
+
+            final double[][] values = columns(results);
+            final double[] scales = new double[values.length];
+            for (int c = 0; c < values.length; c++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (double value : values[c]) {
+                    if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                }
+                // Columns without a range do not contribute to the areas
+                scales[c] = max > min ? 1d / (max - min) : 0d;
+            }
+            final double xScale = 1d / Math.max(1L, timestamps[numRows - 1] - timestamps[0]);
+
+            final int[] selected = new int[maxPoints];
+            final double[] averages = new double[values.length];
+            final double bucketSize = (double) (numRows - 2) / numBuckets;
+
+            int a = 0;
+            for (int i = 0; i < numBuckets; i++) {
+                // The average of the next bucket, which is the last row for the last bucket
+                final int nextFrom = (int) Math.floor((i + 1) * bucketSize) + 1;
+                final int nextTo = Math.min((int) Math.floor((i + 2) * bucketSize) + 1, numRows);
+                double averageX = 0;
+                for (int k = nextFrom; k < nextTo; k++) {
+                    averageX += (timestamps[k] - timestamps[0]) * xScale;
+                }
+                averageX /= nextTo - nextFrom;
+                for (int c = 0; c < values.length; c++) {
+                    double sum = 0;
+                    int count = 0;
+                    for (int k = nextFrom; k < nextTo; k++) {
+                        if (!Double.isNaN(values[c][k])) {
+                            sum += values[c][k];
+                            count++;
+                        }
+                    }
+                    averages[c] = count > 0 ? sum / count : Double.NaN;
+                }
+
+                // Select the row of the current bucket forming the largest triangle
+                final int from = (int) Math.floor(i * bucketSize) + 1;
+                final int to = (int) Math.floor((i + 1) * bucketSize) + 1;
+                final double ax = (timestamps[a] - timestamps[0]) * xScale;
+                double maxArea = -1;
+                int maxIndex = from;
+                for (int j = from; j < to; j++) {
+                    final double jx = (timestamps[j] - timestamps[0]) * xScale;
+                    double area = 0;
+                    for (int c = 0; c < values.length; c++) {
+                        final double ay = values[c][a] * scales[c];
+                        final double jy = values[c][j] * scales[c];
+                        final double cy = averages[c] * scales[c];
+                        final double term = Math.abs((ax - averageX) * (jy - ay) - (ax - jx) * (cy - ay));
+                        if (!Double.isNaN(term) && !Double.isInfinite(term)) {
+                            area += term;
+                        }
+                    }
+                    if (area > maxArea) {
+                        maxArea = area;
+                        maxIndex = j;
+                    }
+                }
+                selected[i + 1] = maxIndex;
+                a = maxIndex;
+            }
+            selected[maxPoints - 1] = numRows - 1;
+
+            return select(results, selected, maxPoints);
+        }
+    },
+
+    /**
+     * Splits the rows in buckets and keeps two rows per bucket, holding the
+     * minimum and the maximum of each column in the order of their occurrence.
+     * The rows use the first and the last timestamp of the bucket.
+     *
+     * This preserves the peaks of the series.
+     */
+    MINMAX {
+        @Override
+        protected FetchResults doDownsample(FetchResults results, int maxPoints) {
+            final long[] timestamps = results.getTimestamps();
+            final int numRows = timestamps.length;
+            final int numBuckets = maxPoints / 2;
+
+            final double[][] values = columns(results);
+            final double[][] downsampled = new double[values.length][maxPoints];
+            final long[] downsampledTimestamps = new long[maxPoints];
+
+            int k = 0;
+            for (int i = 0; i < numBuckets; i++) {
+                final int from = (int) ((long) i * numRows / numBuckets);
+                final int to = (int) ((long) (i + 1) * numRows / numBuckets);
+
+                if (to - from == 1) {
+                    downsampledTimestamps[k] = timestamps[from];
+                    for (int c = 0; c < values.length; c++) {
+                        downsampled[c][k] = values[c][from];
+                    }
+                    k += 1;
+                    continue;
+                }
+
+                downsampledTimestamps[k] = timestamps[from];
+                downsampledTimestamps[k + 1] = timestamps[to - 1];
+                for (int c = 0; c < values.length; c++) {
+                    int minIndex = -1;
+                    int maxIndex = -1;
+                    for (int j = from; j < to; j++) {
+                        final double value = values[c][j];
+                        if (Double.isNaN(value)) {
+                            continue;
+                        }
+                        if (minIndex < 0 || value < values[c][minIndex]) {
+                            minIndex = j;
+                        }
+                        if (maxIndex < 0 || value > values[c][maxIndex]) {
+                            maxIndex = j;
+                        }
+                    }
+                    if (minIndex < 0) {
+                        downsampled[c][k] = Double.NaN;
+                        downsampled[c][k + 1] = Double.NaN;
+                    } else {
+                        downsampled[c][k] = values[c][Math.min(minIndex, maxIndex)];
+                        downsampled[c][k + 1] = values[c][Math.max(minIndex, maxIndex)];
+                    }
+                }
+                k += 2;
+            }
+
+            final Map<String, double[]> columns = Maps.newLinkedHashMap();
+            int c = 0;
+            for (final String label : results.getColumns().keySet()) {
+                columns.put(label, Arrays.copyOf(downsampled[c++], k));
+            }
+            final long[] selectedTimestamps = Arrays.copyOf(downsampledTimestamps, k);
+            return new FetchResults(selectedTimestamps, columns, step(results, selectedTimestamps), results.getConstants());
+        }
+    };
+
+    /**
+     * Downsamples the given results to at most the given number of rows.
+     *
+     * @param results   the results to downsample
+     * @param maxPoints maximum number of rows, must be at least 3
+     * @return the given results if these have no more than maxPoints rows
+     */
+    public FetchResults downsample(FetchResults results, int maxPoints) {
+        if (maxPoints < 3) {
+            throw new IllegalArgumentException("maxPoints must be >= 3: " + maxPoints);
+        }
+        if (results.getTimestamps().length <= maxPoints) {
+            return results;
+        }
+        return doDownsample(results, maxPoints);
+    }
+
+    protected abstract FetchResults doDownsample(FetchResults results, int maxPoints);
+
+    /**
+     * @return the method with the given name, {@link #LTTB} if the name is null or empty
+     * @throws IllegalArgumentException if there is no method with the given name
+     */
+    public static Downsampling fromName(String name) {
+        if (name == null || name.isEmpty()) {
+            return LTTB;
+        }
+        for (final Downsampling downsampling : values()) {
+            if (downsampling.name().equalsIgnoreCase(name)) {
+                return downsampling;
+            }
+        }
+        throw new IllegalArgumentException("Unknown downsampling method: " + name);
+    }
+
+    private static double[][] columns(FetchResults results) {
+        return results.getColumns().values().toArray(new double[0][]);
+    }
+
+    private static FetchResults select(FetchResults results, int[] rows, int numRows) {
+        final long[] timestamps = new long[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = results.getTimestamps()[rows[i]];
+        }
+
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            final double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                values[i] = column.getValue()[rows[i]];
+            }
+            columns.put(column.getKey(), values);
+        }
+
+        return new FetchResults(timestamps, columns, step(results, timestamps), results.getConstants());
+    }
+
+    /**
+     * The rows are no longer evenly spaced after downsampling, so we use the average spacing as step.
+     */
+    private static long step(FetchResults results, long[] timestamps) {
+        if (timestamps.length < 2) {
+            return results.getStep();
+        }
+        return Math.max(results.getStep(), (timestamps[timestamps.length - 1] - timestamps[0]) / (timestamps.length - 1));
+    }
+}
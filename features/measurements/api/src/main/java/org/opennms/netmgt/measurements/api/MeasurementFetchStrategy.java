@@ -57,4 +57,20 @@ public interface MeasurementFetchStrategy {
     public FetchResults fetch(long start, long end, long step, int maxrows,
                               Long interval, Long heartbeat,
                               List<Source> sources, boolean relaxed) throws Exception;
+
+    /**
+     * Fetches the measurements for the given sources, within the limits of the query.
+     *
+     * Strategies which do not support the limits fetch the measurements without them.
+     *
+     * @param concurrency maximum number of reads the query may issue in parallel - the default of the strategy when null
+     * @param timeout     duration in milliseconds after which the query fails - the default of the strategy when null
+     * @see #fetch(long, long, long, int, Long, Long, List, boolean)
+     */
+    public default FetchResults fetch(long start, long end, long step, int maxrows,
+                                      Long interval, Long heartbeat,
+                                      List<Source> sources, boolean relaxed,
+                                      Integer concurrency, Long timeout) throws Exception {
+        return fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+    }
 }
@@ -45,6 +45,14 @@ public class QueryRequestValidator {
         if (request.getStep() <= 0) {
             throw new ValidationException("Query step must be > 0: {}", request.getStep());
         }
+        if (request.getMaxPoints() != null && request.getMaxPoints() != 0 && request.getMaxPoints() < 3) {
+            throw new ValidationException("Max points must be 0 or >= 3: {}", request.getMaxPoints());
+        }
+        try {
+            Downsampling.fromName(request.getDownsampling());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Downsampling must be one of lttb or minmax: {}", request.getDownsampling());
+        }
         if ((request.getHeartbeat() == null && request.getInterval() != null)
                 || (request.getHeartbeat() != null && request.getInterval() == null)) {
             throw new ValidationException("If either the heartbeat or the interval are set, then both must be set.");
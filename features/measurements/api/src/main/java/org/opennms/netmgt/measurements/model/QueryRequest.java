@@ -70,6 +70,17 @@ public class QueryRequest {
      */
     private int maxrows = 0;
 
+    /**
+     * Maximum number of rows returned, the rows fetched are downsampled when exceeding it.
+     * No downsampling is applied when not set.
+     */
+    private Integer maxpoints;
+
+    /**
+     * The method used to downsample the rows, either <code>lttb</code> (default) or <code>minmax</code>.
+     */
+    private String downsampling;
+
     /**
      * Interval in ms.
      */
@@ -86,6 +97,18 @@ public class QueryRequest {
      */
     private boolean relaxed = false;
 
+    /**
+     * Maximum number of reads issued in parallel, for the strategies supporting it.
+     * The default of the strategy is used when not set.
+     */
+    private Integer concurrency;
+
+    /**
+     * Timeout in ms, for the strategies supporting it.
+     * The default of the strategy is used when not set.
+     */
+    private Long timeout;
+
     private List<Source> sources = Lists.newArrayListWithCapacity(0);
 
     private List<Expression> expressions = Lists.newArrayListWithCapacity(0);
@@ -128,6 +151,24 @@ public class QueryRequest {
         this.maxrows = maxrows;
     }
 
+    @XmlAttribute(name = "maxpoints")
+    public Integer getMaxPoints() {
+        return maxpoints;
+    }
+
+    public void setMaxPoints(Integer maxpoints) {
+        this.maxpoints = maxpoints;
+    }
+
+    @XmlAttribute(name = "downsampling")
+    public String getDownsampling() {
+        return downsampling;
+    }
+
+    public void setDownsampling(String downsampling) {
+        this.downsampling = downsampling;
+    }
+
     @XmlAttribute(name = "interval")
     public Long getInterval() {
         return interval;
@@ -146,6 +187,24 @@ public class QueryRequest {
         this.heartbeat = heartbeat;
     }
 
+    @XmlAttribute(name = "concurrency")
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    @XmlAttribute(name = "timeout")
+    public Long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Long timeout) {
+        this.timeout = timeout;
+    }
+
     @XmlElement(name = "source")
     @JsonProperty("source")
     public List<Source> getSources() {
@@ -198,8 +257,12 @@ public class QueryRequest {
              && com.google.common.base.Objects.equal(this.start, other.start)
              && com.google.common.base.Objects.equal(this.end, other.end)
              && com.google.common.base.Objects.equal(this.maxrows, other.maxrows)
+             && com.google.common.base.Objects.equal(this.maxpoints, other.maxpoints)
+             && com.google.common.base.Objects.equal(this.downsampling, other.downsampling)
              && com.google.common.base.Objects.equal(this.interval, other.interval)
              && com.google.common.base.Objects.equal(this.heartbeat, other.heartbeat)
+             && com.google.common.base.Objects.equal(this.concurrency, other.concurrency)
+             && com.google.common.base.Objects.equal(this.timeout, other.timeout)
              && com.google.common.base.Objects.equal(this.sources, other.sources)
              && com.google.common.base.Objects.equal(this.expressions, other.expressions)
              && com.google.common.base.Objects.equal(this.filters, other.filters)
@@ -209,8 +272,9 @@ public class QueryRequest {
     @Override
     public int hashCode() {
        return com.google.common.base.Objects.hashCode(
-                 this.step, this.start, this.end, this.relaxed, this.maxrows, this.interval,
-                 this.heartbeat ,this.sources, this.expressions, this.filters);
+                 this.step, this.start, this.end, this.relaxed, this.maxrows, this.maxpoints,
+                 this.downsampling, this.interval, this.heartbeat, this.concurrency, this.timeout,
+                 this.sources, this.expressions, this.filters);
     }
 
     @Override
@@ -221,8 +285,12 @@ public class QueryRequest {
                  .add("End", this.end)
                  .add("Relaxed", this.relaxed)
                  .add("Max Rows", this.maxrows)
+                 .add("Max Points", this.maxpoints)
+                 .add("Downsampling", this.downsampling)
                  .add("Interval", this.interval)
                  .add("Heartbeat", this.heartbeat)
+                 .add("Concurrency", this.concurrency)
+                 .add("Timeout", this.timeout)
                  .add("Sources", this.sources)
                  .add("Expressions", this.expressions)
                  .add("Filters", this.filters)
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class CachingFetchStrategyTest {
+
+    private static final long STEP = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long WINDOW = TimeUnit.HOURS.toMillis(4);
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toMillis(17000) + 123456);
+
+    private SeriesFetchStrategy delegate;
+
+    private CachingFetchStrategy cachingFetchStrategy;
+
+    @Before
+    public void setUp() {
+        delegate = new SeriesFetchStrategy();
+        cachingFetchStrategy = new CachingFetchStrategy(delegate, 100, TimeUnit.MINUTES.toMillis(1),
+                TimeUnit.MINUTES.toMillis(15), TimeUnit.MINUTES.toMillis(1), TimeUnit.HOURS.toMillis(1), now::get);
+    }
+
+    @Test
+    public void canServeIdenticalQueriesFromCache() throws Exception {
+        final FetchResults expected = fetchLastWindow(delegate, "AVERAGE");
+        final FetchResults first = fetchLastWindow(cachingFetchStrategy, "AVERAGE");
+        assertEquals(2, delegate.fetches);
+
+        // The callers modify the results
+        first.getColumns().get("x")[0] = -1;
+        first.getColumns().put("y", new double[0]);
+
+        now.addAndGet(TimeUnit.SECONDS.toMillis(20));
+        final FetchResults second = fetchLastWindow(cachingFetchStrategy, "AVERAGE");
+        assertEquals(2, delegate.fetches);
+        assertEquals(1, second.getColumns().size());
+        assertResultsEquals(expected, second);
+    }
+
+    @Test
+    public void canReuseSettledRowsOfSlidingWindows() throws Exception {
+        fetchLastWindow(cachingFetchStrategy, "AVERAGE");
+        assertEquals(WINDOW / STEP, delegate.rows, 1);
+
+        for (int i = 0; i < 60; i++) {
+            now.addAndGet(TimeUnit.MINUTES.toMillis(1));
+            delegate.rows = 0;
+            final FetchResults results = fetchLastWindow(cachingFetchStrategy, "AVERAGE");
+            // Only the unsettled rows, and the rows overlapping with these are fetched again
+            assertTrue("Fetched " + delegate.rows + " rows", delegate.rows < 12);
+            assertResultsEquals(fetchLastWindow(delegate, "AVERAGE"), results);
+        }
+    }
+
+    @Test
+    public void canReuseSettledRowsWhenStartIsRoundedDown() throws Exception {
+        delegate.roundDown = true;
+        canReuseSettledRowsOfSlidingWindows();
+    }
+
+    @Test
+    public void canFetchWholeWindowWhenRowsDoNotMatch() throws Exception {
+        fetchLastWindow(cachingFetchStrategy, "AVERAGE");
+
+        // Fetches of shorter windows use a different archive
+        delegate.offsetBelow = TimeUnit.HOURS.toMillis(1);
+
+        now.addAndGet(TimeUnit.MINUTES.toMillis(2));
+        delegate.fetches = 0;
+        final FetchResults results = fetchLastWindow(cachingFetchStrategy, "AVERAGE");
+        assertEquals(2, delegate.fetches);
+        assertResultsEquals(fetchLastWindow(delegate, "AVERAGE"), results);
+    }
+
+    @Test
+    public void canSeparateFetchesOfDifferentSources() throws Exception {
+        final FetchResults average = fetchLastWindow(cachingFetchStrategy, "AVERAGE");
+        final FetchResults max = fetchLastWindow(cachingFetchStrategy, "MAX");
+        assertEquals(2, delegate.fetches);
+        assertEquals(average.getColumns().get("x")[0] + 1, max.getColumns().get("x")[0], 0.0001);
+    }
+
+    @Test(timeout = 60000)
+    public void canShareConcurrentFetchesOfTheSameWindow() throws Exception {
+        final FetchResults expected = fetchLastWindow(delegate, "AVERAGE");
+        delegate.fetches = 0;
+        delegate.gate = new CountDownLatch(1);
+
+        final List<FetchResults> results = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    final FetchResults result = fetchLastWindow(cachingFetchStrategy, "AVERAGE");
+                    synchronized (results) {
+                        results.add(result);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+
+        // Give all of the threads a chance to request the window before the first fetch completes
+        Thread.sleep(500);
+        delegate.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, delegate.fetches);
+        assertEquals(threads.size(), results.size());
+        for (FetchResults result : results) {
+            assertResultsEquals(expected, result);
+        }
+    }
+
+    private FetchResults fetchLastWindow(MeasurementFetchStrategy strategy, String aggregation) throws Exception {
+        final long end = now.get() - now.get() % TimeUnit.MINUTES.toMillis(1);
+        final Source source = new Source("x", "node[1].nodeSnmp[]", "x", "x", false);
+        source.setAggregation(aggregation);
+        final FetchResults results = strategy.fetch(end - WINDOW, end, STEP, 0, null, null, Lists.newArrayList(source), false);
+        assertNotNull(results);
+        return results;
+    }
+
+    private static void assertResultsEquals(FetchResults expected, FetchResults actual) {
+        assertEquals(expected.getStep(), actual.getStep());
+        assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+        assertEquals(expected.getColumns().keySet(), actual.getColumns().keySet());
+        for (final String label : expected.getColumns().keySet()) {
+            assertArrayEquals(expected.getColumns().get(label), actual.getColumns().get(label), 0d);
+        }
+        assertEquals(expected.getConstants(), actual.getConstants());
+    }
+
+    /**
+     * Generates a series on an aligned grid, where the rows of the last ten minutes
+     * are not known yet and the last complete row still changes.
+     */
+    private class SeriesFetchStrategy implements MeasurementFetchStrategy {
+        private int fetches;
+        private long rows;
+        private long offsetBelow;
+        private boolean roundDown;
+        private CountDownLatch gate;
+
+        @Override
+        public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat,
+                                  List<Source> sources, boolean relaxed) throws InterruptedException {
+            if (gate != null) {
+                gate.await();
+            }
+            fetches++;
+            final long first = roundDown ? start - Math.floorMod(start, STEP) : start + Math.floorMod(-start, STEP);
+            final int numRows = (int) ((end - first) / STEP) + 1;
+            rows += numRows;
+
+            final long[] timestamps = new long[numRows];
+            final Map<String, double[]> columns = Maps.newLinkedHashMap();
+            for (final Source source : sources) {
+                final double[] values = new double[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    timestamps[i] = first + i * STEP;
+                    values[i] = value(timestamps[i], source, end - start < offsetBelow);
+                }
+                columns.put(source.getLabel(), values);
+            }
+
+            final Map<String, Object> constants = Maps.newHashMap();
+            constants.put("x.ifSpeed", "1000");
+            return new FetchResults(timestamps, columns, STEP, constants);
+        }
+
+        private double value(long timestamp, Source source, boolean offset) {
+            final long age = now.get() - timestamp;
+            if (age < TimeUnit.MINUTES.toMillis(5)) {
+                return Double.NaN;
+            }
+            double value = Math.sin(timestamp / (double) STEP) * 100 + ("MAX".equals(source.getAggregation()) ? 1 : 0);
+            if (age < TimeUnit.MINUTES.toMillis(10)) {
+                value += now.get() % 7;
+            }
+            return offset ? value + 1 : value;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class DownsamplingTest {
+
+    @Test
+    public void canKeepResultsWithFewRows() {
+        final FetchResults results = createResults(100);
+        assertSame(results, Downsampling.LTTB.downsample(results, 100));
+        assertSame(results, Downsampling.MINMAX.downsample(results, 200));
+    }
+
+    @Test
+    public void canDownsampleWithLttb() {
+        final FetchResults results = createResults(10000);
+        final FetchResults downsampled = Downsampling.LTTB.downsample(results, 500);
+
+        final long[] timestamps = downsampled.getTimestamps();
+        assertEquals(500, timestamps.length);
+        assertEquals(results.getTimestamps()[0], timestamps[0]);
+        assertEquals(results.getTimestamps()[9999], timestamps[499]);
+        for (int i = 1; i < timestamps.length; i++) {
+            assertTrue(timestamps[i] > timestamps[i - 1]);
+        }
+        assertEquals(results.getConstants(), downsampled.getConstants());
+        assertEquals(results.getStep() * 20, downsampled.getStep(), results.getStep());
+
+        // The spike stands out of the series, so it must be selected
+        assertEquals(1000d, max(downsampled.getColumns().get("spiky")), 0d);
+        assertEquals(-1d, min(downsampled.getColumns().get("spiky")), 0d);
+        assertEquals(500, downsampled.getColumns().get("linear").length);
+    }
+
+    @Test
+    public void canDownsampleWithMinMax() {
+        final FetchResults results = createResults(10001);
+        final FetchResults downsampled = Downsampling.MINMAX.downsample(results, 501);
+
+        assertTrue(downsampled.getTimestamps().length <= 501);
+        for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            final double[] values = downsampled.getColumns().get(column.getKey());
+            assertEquals(downsampled.getTimestamps().length, values.length);
+            assertEquals(max(column.getValue()), max(values), 0d);
+            assertEquals(min(column.getValue()), min(values), 0d);
+        }
+
+        // Values are ordered by their occurrence within the bucket
+        final double[] linear = downsampled.getColumns().get("linear");
+        for (int i = 1; i < linear.length; i++) {
+            assertTrue(linear[i] > linear[i - 1]);
+        }
+    }
+
+    @Test
+    public void canDownsampleWithGaps() {
+        final FetchResults results = createResults(1000);
+        final double[] values = results.getColumns().get("linear");
+        for (int i = 200; i < 400; i++) {
+            values[i] = Double.NaN;
+        }
+
+        for (final Downsampling downsampling : Downsampling.values()) {
+            final FetchResults downsampled = downsampling.downsample(results, 100);
+            assertEquals(999d, max(downsampled.getColumns().get("linear")), 0d);
+            assertTrue(Double.isNaN(downsampled.getColumns().get("linear")[30]));
+        }
+    }
+
+    @Test
+    public void canFindDownsamplingByName() {
+        assertEquals(Downsampling.LTTB, Downsampling.fromName(null));
+        assertEquals(Downsampling.LTTB, Downsampling.fromName("lttb"));
+        assertEquals(Downsampling.MINMAX, Downsampling.fromName("MinMax"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotFindUnknownDownsampling() {
+        Downsampling.fromName("median");
+    }
+
+    private static FetchResults createResults(int numRows) {
+        final long step = 300000;
+        final long[] timestamps = new long[numRows];
+        final double[] linear = new double[numRows];
+        final double[] spiky = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = 1500000000000L + i * step;
+            linear[i] = i;
+            spiky[i] = i % 2;
+        }
+        spiky[numRows / 3] = 1000;
+        spiky[numRows / 2] = -1;
+
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        columns.put("linear", linear);
+        columns.put("spiky", spiky);
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("linear.ifSpeed", "100");
+        return new FetchResults(timestamps, columns, step, constants);
+    }
+
+    private static double max(double[] values) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                max = Math.max(max, value);
+            }
+        }
+        return max;
+    }
+
+    private static double min(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                min = Math.min(min, value);
+            }
+        }
+        return min;
+    }
+}
@@ -58,6 +58,14 @@ public class JEXLExpressionEngine implements ExpressionEngine {
 
     private static final Logger LOG = LoggerFactory.getLogger(JEXLExpressionEngine.class);
 
+    /**
+     * Used to disable the evaluation of the expressions on whole columns,
+     * which falls back to JEXL for unsupported expressions.
+     */
+    private static final boolean VECTORIZED = Boolean.parseBoolean(System.getProperty("org.opennms.measurements.expressions.vectorized", "true"));
+
+    private boolean m_vectorized = VECTORIZED;
+
     /**
      * Use a single instance of the JEXL engine, which is thread-safe.
      */
@@ -114,6 +122,11 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
 
+        // Evaluate the expressions on whole columns if possible
+        if (m_vectorized && VectorizedExpressionEvaluator.apply(request.getExpressions(), results)) {
+            return;
+        }
+
         // Prepare the JEXL context
         final Map<String, Object> jexlValues = Maps.newHashMap();
         final JexlContext context = new MapContext(jexlValues);
@@ -193,4 +206,8 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
     }
+
+    public void setVectorized(boolean vectorized) {
+        m_vectorized = vectorized;
+    }
 }
@@ -0,0 +1,918 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Evaluates the expressions of a query on whole columns of primitive doubles,
+ * instead of evaluating them row by row with JEXL.
+ *
+ * Only a subset of the JEXL syntax is supported: numeric literals, references to
+ * the sources, to previous expressions and to the constants, arithmetic, comparison
+ * and logical operators, the ternary operator and the functions of {@link Math}
+ * and {@link StrictMath} which take and return doubles. Within this subset, the
+ * operators are only supported for the operand types for which JEXL uses
+ * floating point arithmetic.
+ *
+ * If any of the expressions of a query is not supported, or if a value is hit for
+ * which the result of JEXL is not replicated (i.e. a division by zero, or comparing
+ * NaN), none of the expressions are evaluated, and the caller is expected to fall
+ * back to JEXL.
+ *
+ * @see JEXLExpressionEngine
+ */
+public class VectorizedExpressionEvaluator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VectorizedExpressionEvaluator.class);
+
+    private static final Set<String> KEYWORDS = ImmutableSet.of("or", "and", "eq", "ne", "lt", "gt", "le", "ge",
+            "div", "mod", "not", "null", "true", "false", "empty", "size", "new", "if", "else", "for", "foreach",
+            "while", "var", "return", "function");
+
+    private static final Map<String, DoubleUnaryOperator> MATH_UNARY_FUNCTIONS = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("abs", Math::abs).put("acos", Math::acos).put("asin", Math::asin).put("atan", Math::atan)
+            .put("cbrt", Math::cbrt).put("ceil", Math::ceil).put("cos", Math::cos).put("cosh", Math::cosh)
+            .put("exp", Math::exp).put("expm1", Math::expm1).put("floor", Math::floor).put("log", Math::log)
+            .put("log10", Math::log10).put("log1p", Math::log1p).put("rint", Math::rint).put("signum", Math::signum)
+            .put("sin", Math::sin).put("sinh", Math::sinh).put("sqrt", Math::sqrt).put("tan", Math::tan)
+            .put("tanh", Math::tanh).put("toDegrees", Math::toDegrees).put("toRadians", Math::toRadians)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> MATH_BINARY_FUNCTIONS = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("atan2", Math::atan2).put("hypot", Math::hypot).put("IEEEremainder", Math::IEEEremainder)
+            .put("max", Math::max).put("min", Math::min).put("pow", Math::pow)
+            .build();
+
+    private static final Map<String, DoubleUnaryOperator> STRICTMATH_UNARY_FUNCTIONS = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("abs", StrictMath::abs).put("acos", StrictMath::acos).put("asin", StrictMath::asin).put("atan", StrictMath::atan)
+            .put("cbrt", StrictMath::cbrt).put("ceil", StrictMath::ceil).put("cos", StrictMath::cos).put("cosh", StrictMath::cosh)
+            .put("exp", StrictMath::exp).put("expm1", StrictMath::expm1).put("floor", StrictMath::floor).put("log", StrictMath::log)
+            .put("log10", StrictMath::log10).put("log1p", StrictMath::log1p).put("rint", StrictMath::rint).put("signum", StrictMath::signum)
+            .put("sin", StrictMath::sin).put("sinh", StrictMath::sinh).put("sqrt", StrictMath::sqrt).put("tan", StrictMath::tan)
+            .put("tanh", StrictMath::tanh).put("toDegrees", StrictMath::toDegrees).put("toRadians", StrictMath::toRadians)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> STRICTMATH_BINARY_FUNCTIONS = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("atan2", StrictMath::atan2).put("hypot", StrictMath::hypot).put("IEEEremainder", StrictMath::IEEEremainder)
+            .put("max", StrictMath::max).put("min", StrictMath::min).put("pow", StrictMath::pow)
+            .build();
+
+    /**
+     * The type of the values JEXL would compute for a node.
+     */
+    private enum Kind {
+        /** {@link Double} values */
+        DOUBLE,
+        /** {@link Float} values, i.e. literals without a suffix */
+        FLOAT,
+        /** {@link Integer} or {@link Long} values */
+        INTEGER,
+        /** Either {@link Double} or {@link Integer} values, i.e. the result of a ternary operator */
+        NUMBER,
+        /** {@link Boolean} values */
+        BOOLEAN
+    }
+
+    /**
+     * Thrown when an expression is not supported.
+     */
+    private static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedExpressionException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * The values of a node for all rows.
+     */
+    private static class Column {
+        private final double[] values;
+        private final boolean[] flags;
+        // The rows for which the value computed by JEXL may differ, null if there are none
+        private BitSet uncertain;
+
+        private Column(double[] values, boolean[] flags) {
+            this.values = values;
+            this.flags = flags;
+        }
+
+        private void addUncertain(int row) {
+            if (uncertain == null) {
+                uncertain = new BitSet();
+            }
+            uncertain.set(row);
+        }
+
+        private void addUncertain(BitSet rows) {
+            if (rows == null || rows.isEmpty()) {
+                return;
+            }
+            if (uncertain == null) {
+                uncertain = new BitSet();
+            }
+            uncertain.or(rows);
+        }
+    }
+
+    private abstract static class Node {
+        protected final Kind kind;
+
+        private Node(Kind kind) {
+            this.kind = kind;
+        }
+
+        protected abstract Column eval(int numRows);
+    }
+
+    private static class Constant extends Node {
+        private final double value;
+
+        private Constant(Kind kind, double value) {
+            super(kind);
+            this.value = value;
+        }
+
+        @Override
+        protected Column eval(int numRows) {
+            final double[] values = new double[numRows];
+            Arrays.fill(values, value);
+            return new Column(values, null);
+        }
+    }
+
+    private static class Reference extends Node {
+        private final double[][] columns;
+        private final int index;
+
+        private Reference(Kind kind, double[][] columns, int index) {
+            super(kind);
+            this.columns = columns;
+            this.index = index;
+        }
+
+        @Override
+        protected Column eval(int numRows) {
+            // The column is shared, it must not be modified
+            return new Column(columns[index], null);
+        }
+    }
+
+    private enum Operator {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO, EQUAL, NOT_EQUAL, LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL, AND, OR
+    }
+
+    private static class Binary extends Node {
+        private final Operator operator;
+        private final Node left;
+        private final Node right;
+
+        private Binary(Kind kind, Operator operator, Node left, Node right) {
+            super(kind);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        protected Column eval(int numRows) {
+            final Column l = left.eval(numRows);
+            final Column r = right.eval(numRows);
+            final Column result;
+            switch (operator) {
+                case ADD: {
+                    final double[] out = new double[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        out[i] = l.values[i] + r.values[i];
+                    }
+                    result = new Column(out, null);
+                    break;
+                }
+                case SUBTRACT: {
+                    final double[] out = new double[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        out[i] = l.values[i] - r.values[i];
+                    }
+                    result = new Column(out, null);
+                    break;
+                }
+                case MULTIPLY: {
+                    final double[] out = new double[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        out[i] = l.values[i] * r.values[i];
+                    }
+                    result = new Column(out, null);
+                    break;
+                }
+                case DIVIDE:
+                case MODULO: {
+                    final double[] out = new double[numRows];
+                    result = new Column(out, null);
+                    for (int i = 0; i < numRows; i++) {
+                        if (r.values[i] == 0.0d) {
+                            // JEXL fails on a division by zero
+                            result.addUncertain(i);
+                        }
+                        out[i] = operator == Operator.DIVIDE ? l.values[i] / r.values[i] : l.values[i] % r.values[i];
+                    }
+                    break;
+                }
+                case EQUAL:
+                case NOT_EQUAL: {
+                    // JEXL compares two doubles with Double.equals(), so NaN equals NaN
+                    final boolean[] out = new boolean[numRows];
+                    final boolean equal = operator == Operator.EQUAL;
+                    for (int i = 0; i < numRows; i++) {
+                        out[i] = (Double.doubleToLongBits(l.values[i]) == Double.doubleToLongBits(r.values[i])) == equal;
+                    }
+                    result = new Column(null, out);
+                    break;
+                }
+                case LESS:
+                case LESS_OR_EQUAL:
+                case GREATER:
+                case GREATER_OR_EQUAL: {
+                    final boolean[] out = new boolean[numRows];
+                    result = new Column(null, out);
+                    for (int i = 0; i < numRows; i++) {
+                        final double a = l.values[i];
+                        final double b = r.values[i];
+                        if (Double.isNaN(a) || Double.isNaN(b)) {
+                            // The ordering of NaN differs from the Java operators
+                            result.addUncertain(i);
+                        }
+                        switch (operator) {
+                            case LESS: out[i] = a < b; break;
+                            case LESS_OR_EQUAL: out[i] = a <= b; break;
+                            case GREATER: out[i] = a > b; break;
+                            default: out[i] = a >= b; break;
+                        }
+                    }
+                    break;
+                }
+                case AND:
+                case OR: {
+                    // The right operand is only evaluated by JEXL if the left one does not decide the result
+                    final boolean[] out = new boolean[numRows];
+                    result = new Column(null, out);
+                    final boolean and = operator == Operator.AND;
+                    for (int i = 0; i < numRows; i++) {
+                        if (l.flags[i] == and) {
+                            out[i] = r.flags[i];
+                            if (r.uncertain != null && r.uncertain.get(i)) {
+                                result.addUncertain(i);
+                            }
+                        } else {
+                            out[i] = l.flags[i];
+                        }
+                    }
+                    result.addUncertain(l.uncertain);
+                    return result;
+                }
+                default:
+                    throw new IllegalStateException("Unknown operator: " + operator);
+            }
+            result.addUncertain(l.uncertain);
+            result.addUncertain(r.uncertain);
+            return result;
+        }
+    }
+
+    private static class Negate extends Node {
+        private final Node operand;
+
+        private Negate(Kind kind, Node operand) {
+            super(kind);
+            this.operand = operand;
+        }
+
+        @Override
+        protected Column eval(int numRows) {
+            final Column c = operand.eval(numRows);
+            final Column result;
+            if (kind == Kind.BOOLEAN) {
+                final boolean[] out = new boolean[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    out[i] = !c.flags[i];
+                }
+                result = new Column(null, out);
+            } else {
+                final double[] out = new double[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    out[i] = -c.values[i];
+                }
+                result = new Column(out, null);
+            }
+            result.addUncertain(c.uncertain);
+            return result;
+        }
+    }
+
+    private static class Ternary extends Node {
+        private final Node condition;
+        private final Node then;
+        private final Node otherwise;
+
+        private Ternary(Kind kind, Node condition, Node then, Node otherwise) {
+            super(kind);
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        protected Column eval(int numRows) {
+            final Column c = condition.eval(numRows);
+            final Column t = then.eval(numRows);
+            final Column o = otherwise.eval(numRows);
+            final Column result;
+            if (kind == Kind.BOOLEAN) {
+                final boolean[] out = new boolean[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    out[i] = c.flags[i] ? t.flags[i] : o.flags[i];
+                }
+                result = new Column(null, out);
+            } else {
+                final double[] out = new double[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    out[i] = c.flags[i] ? t.values[i] : o.values[i];
+                }
+                result = new Column(out, null);
+            }
+            // Only the branch taken by a row is evaluated by JEXL
+            result.addUncertain(c.uncertain);
+            for (int i = 0; i < numRows; i++) {
+                final BitSet uncertain = c.flags[i] ? t.uncertain : o.uncertain;
+                if (uncertain != null && uncertain.get(i)) {
+                    result.addUncertain(i);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Function extends Node {
+        private final DoubleUnaryOperator unary;
+        private final DoubleBinaryOperator binary;
+        private final List<Node> arguments;
+
+        private Function(DoubleUnaryOperator unary, DoubleBinaryOperator binary, List<Node> arguments) {
+            super(Kind.DOUBLE);
+            this.unary = unary;
+            this.binary = binary;
+            this.arguments = arguments;
+        }
+
+        @Override
+        protected Column eval(int numRows) {
+            final double[] out = new double[numRows];
+            final Column result = new Column(out, null);
+            final Column a = arguments.get(0).eval(numRows);
+            result.addUncertain(a.uncertain);
+            if (unary != null) {
+                for (int i = 0; i < numRows; i++) {
+                    out[i] = unary.applyAsDouble(a.values[i]);
+                }
+            } else {
+                final Column b = arguments.get(1).eval(numRows);
+                result.addUncertain(b.uncertain);
+                for (int i = 0; i < numRows; i++) {
+                    out[i] = binary.applyAsDouble(a.values[i], b.values[i]);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Parses an expression into nodes. The names are resolved while parsing.
+     */
+    private static class Parser {
+        private final String text;
+        private final Map<String, Node> names;
+        private int pos = 0;
+
+        private Parser(String text, Map<String, Node> names) {
+            this.text = text;
+            this.names = names;
+        }
+
+        private Node parse() throws UnsupportedExpressionException {
+            final Node node = ternary();
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw unsupported("Unexpected character '" + text.charAt(pos) + "'");
+            }
+            return node;
+        }
+
+        private Node ternary() throws UnsupportedExpressionException {
+            final Node condition = or();
+            if (!accept("?")) {
+                return condition;
+            }
+            if (peek(":")) {
+                throw unsupported("Elvis operator");
+            }
+            final Node then = ternary();
+            expect(":");
+            final Node otherwise = ternary();
+            if (condition.kind != Kind.BOOLEAN) {
+                throw unsupported("Condition is not a boolean");
+            }
+
+            final Kind kind;
+            if (then.kind == otherwise.kind) {
+                kind = then.kind;
+            } else if (isDoubleOrInteger(then.kind) && isDoubleOrInteger(otherwise.kind)) {
+                kind = Kind.NUMBER;
+            } else {
+                throw unsupported("Branches of different types");
+            }
+            return new Ternary(kind, condition, then, otherwise);
+        }
+
+        private Node or() throws UnsupportedExpressionException {
+            Node node = and();
+            while (accept("||")) {
+                node = logical(Operator.OR, node, and());
+            }
+            return node;
+        }
+
+        private Node and() throws UnsupportedExpressionException {
+            Node node = equality();
+            while (accept("&&")) {
+                node = logical(Operator.AND, node, equality());
+            }
+            return node;
+        }
+
+        private Node equality() throws UnsupportedExpressionException {
+            Node node = relational();
+            while (true) {
+                final Operator operator;
+                if (accept("==")) {
+                    operator = Operator.EQUAL;
+                } else if (accept("!=")) {
+                    operator = Operator.NOT_EQUAL;
+                } else {
+                    return node;
+                }
+                final Node right = relational();
+                if (node.kind != Kind.DOUBLE || right.kind != Kind.DOUBLE) {
+                    throw unsupported("Equality of non doubles");
+                }
+                node = new Binary(Kind.BOOLEAN, operator, node, right);
+            }
+        }
+
+        private Node relational() throws UnsupportedExpressionException {
+            Node node = additive();
+            while (true) {
+                final Operator operator;
+                if (accept("<=")) {
+                    operator = Operator.LESS_OR_EQUAL;
+                } else if (accept(">=")) {
+                    operator = Operator.GREATER_OR_EQUAL;
+                } else if (accept("<")) {
+                    operator = Operator.LESS;
+                } else if (accept(">")) {
+                    operator = Operator.GREATER;
+                } else {
+                    return node;
+                }
+                final Node right = additive();
+                if (!isFloatingPoint(node.kind) || !isFloatingPoint(right.kind)) {
+                    throw unsupported("Comparison of non floating point values");
+                }
+                node = new Binary(Kind.BOOLEAN, operator, node, right);
+            }
+        }
+
+        private Node additive() throws UnsupportedExpressionException {
+            Node node = multiplicative();
+            while (true) {
+                if (accept("+")) {
+                    node = arithmetic(Operator.ADD, node, multiplicative());
+                } else if (accept("-")) {
+                    node = arithmetic(Operator.SUBTRACT, node, multiplicative());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node multiplicative() throws UnsupportedExpressionException {
+            Node node = unary();
+            while (true) {
+                if (accept("*")) {
+                    node = arithmetic(Operator.MULTIPLY, node, unary());
+                } else if (accept("/")) {
+                    node = arithmetic(Operator.DIVIDE, node, unary());
+                } else if (accept("%")) {
+                    node = arithmetic(Operator.MODULO, node, unary());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node unary() throws UnsupportedExpressionException {
+            if (accept("-")) {
+                final Node operand = unary();
+                if (operand.kind == Kind.BOOLEAN) {
+                    throw unsupported("Negation of a boolean");
+                }
+                if (operand instanceof Constant) {
+                    final Constant constant = (Constant) operand;
+                    if (constant.kind != Kind.DOUBLE && constant.kind != Kind.FLOAT && (constant.value == Integer.MIN_VALUE || constant.value == Long.MIN_VALUE)) {
+                        throw unsupported("Negation overflows");
+                    }
+                    // Negating the integer zero does not yield a negative zero
+                    return new Constant(constant.kind, constant.kind == Kind.INTEGER && constant.value == 0 ? 0 : -constant.value);
+                }
+                if (operand.kind != Kind.DOUBLE && operand.kind != Kind.FLOAT) {
+                    throw unsupported("Negation of a non floating point value");
+                }
+                return new Negate(operand.kind, operand);
+            }
+            if (accept("!")) {
+                final Node operand = unary();
+                if (operand.kind != Kind.BOOLEAN) {
+                    throw unsupported("Not of a non boolean");
+                }
+                return new Negate(Kind.BOOLEAN, operand);
+            }
+            return primary();
+        }
+
+        private Node primary() throws UnsupportedExpressionException {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw unsupported("Unexpected end of expression");
+            }
+            final char c = text.charAt(pos);
+            if (c == '(') {
+                pos++;
+                final Node node = ternary();
+                expect(")");
+                return node;
+            }
+            if (Character.isDigit(c)) {
+                return number();
+            }
+            if (isIdentifierStart(c)) {
+                final String identifier = identifier();
+                // Functions are called with a namespace, i.e. math:sin(x)
+                final int mark = pos;
+                if (accept(":")) {
+                    skipWhitespace();
+                    if (pos < text.length() && isIdentifierStart(text.charAt(pos))) {
+                        final String function = identifier();
+                        if (accept("(")) {
+                            return function(identifier, function);
+                        }
+                    }
+                    pos = mark;
+                }
+                if (peek("(") || peek(".") || peek("[")) {
+                    throw unsupported("Method call or property access");
+                }
+                final Node node = names.get(identifier);
+                if (node == null) {
+                    throw unsupported("Unknown variable '" + identifier + "'");
+                }
+                return node;
+            }
+            throw unsupported("Unexpected character '" + c + "'");
+        }
+
+        private Node number() throws UnsupportedExpressionException {
+            final int start = pos;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos < text.length() && text.charAt(pos) == '.') {
+                pos++;
+                final int fraction = pos;
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                if (fraction == pos) {
+                    throw unsupported("Incomplete decimal literal");
+                }
+                final String literal = text.substring(start, pos);
+                if (pos < text.length() && (text.charAt(pos) == 'd' || text.charAt(pos) == 'D')) {
+                    pos++;
+                    checkEndOfLiteral();
+                    return new Constant(Kind.DOUBLE, Double.parseDouble(literal));
+                }
+                if (pos < text.length() && (text.charAt(pos) == 'f' || text.charAt(pos) == 'F')) {
+                    pos++;
+                }
+                checkEndOfLiteral();
+                // JEXL parses decimal literals as floats, and converts them to doubles using their string representation
+                return new Constant(Kind.FLOAT, Double.parseDouble(Float.toString(Float.parseFloat(literal))));
+            }
+            final String literal = text.substring(start, pos);
+            checkEndOfLiteral();
+            if (literal.length() > 1 && literal.charAt(0) == '0') {
+                throw unsupported("Octal literal");
+            }
+            if (literal.length() > 15) {
+                throw unsupported("Integer literal out of range");
+            }
+            return new Constant(Kind.INTEGER, Long.parseLong(literal));
+        }
+
+        private void checkEndOfLiteral() throws UnsupportedExpressionException {
+            if (pos < text.length() && (isIdentifierStart(text.charAt(pos)) || Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                throw unsupported("Unsupported literal");
+            }
+        }
+
+        private Node function(String namespace, String name) throws UnsupportedExpressionException {
+            final List<Node> arguments = Lists.newArrayListWithCapacity(2);
+            if (!accept(")")) {
+                do {
+                    arguments.add(ternary());
+                } while (accept(","));
+                expect(")");
+            }
+            for (Node argument : arguments) {
+                if (argument.kind != Kind.DOUBLE) {
+                    throw unsupported("Function argument is not a double");
+                }
+            }
+
+            final Map<String, DoubleUnaryOperator> unaryFunctions;
+            final Map<String, DoubleBinaryOperator> binaryFunctions;
+            if ("math".equals(namespace)) {
+                unaryFunctions = MATH_UNARY_FUNCTIONS;
+                binaryFunctions = MATH_BINARY_FUNCTIONS;
+            } else if ("strictmath".equals(namespace)) {
+                unaryFunctions = STRICTMATH_UNARY_FUNCTIONS;
+                binaryFunctions = STRICTMATH_BINARY_FUNCTIONS;
+            } else {
+                throw unsupported("Function namespace '" + namespace + "'");
+            }
+
+            if (arguments.size() == 1 && unaryFunctions.containsKey(name)) {
+                return new Function(unaryFunctions.get(name), null, arguments);
+            } else if (arguments.size() == 2 && binaryFunctions.containsKey(name)) {
+                return new Function(null, binaryFunctions.get(name), arguments);
+            }
+            throw unsupported("Function '" + namespace + ":" + name + "' with " + arguments.size() + " arguments");
+        }
+
+        private String identifier() throws UnsupportedExpressionException {
+            final int start = pos;
+            while (pos < text.length() && (isIdentifierStart(text.charAt(pos)) || Character.isDigit(text.charAt(pos)))) {
+                pos++;
+            }
+            final String identifier = text.substring(start, pos);
+            if (KEYWORDS.contains(identifier)) {
+                throw unsupported("Keyword '" + identifier + "'");
+            }
+            return identifier;
+        }
+
+        private Node logical(Operator operator, Node left, Node right) throws UnsupportedExpressionException {
+            if (left.kind != Kind.BOOLEAN || right.kind != Kind.BOOLEAN) {
+                throw unsupported("Logical operator on non booleans");
+            }
+            return new Binary(Kind.BOOLEAN, operator, left, right);
+        }
+
+        private Node arithmetic(Operator operator, Node left, Node right) throws UnsupportedExpressionException {
+            // JEXL only uses floating point arithmetic if one of the operands is a floating point number
+            if (left.kind == Kind.BOOLEAN || right.kind == Kind.BOOLEAN
+                    || !(isFloatingPoint(left.kind) || isFloatingPoint(right.kind))) {
+                throw unsupported("Arithmetic on non floating point values");
+            }
+            final Binary node = new Binary(Kind.DOUBLE, operator, left, right);
+            if (left instanceof Constant && right instanceof Constant) {
+                final Column folded = node.eval(1);
+                if (folded.uncertain != null) {
+                    throw unsupported("Division by zero");
+                }
+                return new Constant(Kind.DOUBLE, folded.values[0]);
+            }
+            return node;
+        }
+
+        private boolean accept(String token) {
+            skipWhitespace();
+            if (text.startsWith(token, pos)) {
+                // Do not split operators like "<=" or "&&"
+                final int end = pos + token.length();
+                if (end < text.length() && token.length() == 1 && isOperatorContinuation(token.charAt(0), text.charAt(end))) {
+                    return false;
+                }
+                pos = end;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean peek(String token) {
+            skipWhitespace();
+            return text.startsWith(token, pos);
+        }
+
+        private void expect(String token) throws UnsupportedExpressionException {
+            if (!accept(token)) {
+                throw unsupported("Expected '" + token + "'");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private UnsupportedExpressionException unsupported(String reason) {
+            return new UnsupportedExpressionException(reason + " at position " + pos + " of '" + text + "'");
+        }
+
+        private static boolean isOperatorContinuation(char c, char next) {
+            switch (c) {
+                case '<': case '>': case '!': case '=': return next == '=' || next == '~';
+                case '&': return next == '&';
+                case '|': return next == '|';
+                default: return false;
+            }
+        }
+
+        private static boolean isIdentifierStart(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        }
+
+        private static boolean isFloatingPoint(Kind kind) {
+            return kind == Kind.DOUBLE || kind == Kind.FLOAT;
+        }
+
+        private static boolean isDoubleOrInteger(Kind kind) {
+            return kind == Kind.DOUBLE || kind == Kind.INTEGER || kind == Kind.NUMBER;
+        }
+    }
+
+    /**
+     * Evaluates the given expressions on the columns of the given results, and stores
+     * the values of the non-transient expressions as additional columns.
+     *
+     * @return <code>false</code> if the expressions are not supported, in which case
+     *         the results are left unchanged
+     */
+    public static boolean apply(final List<Expression> expressions, final FetchResults results) {
+        try {
+            final Map<String, double[]> values = evaluate(expressions, results);
+            for (Expression expression : expressions) {
+                if (!expression.getTransient()) {
+                    results.getColumns().put(expression.getLabel(), values.get(expression.getLabel()));
+                }
+            }
+            return true;
+        } catch (UnsupportedExpressionException e) {
+            LOG.debug("Falling back to JEXL: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static Map<String, double[]> evaluate(final List<Expression> expressions, final FetchResults results) throws UnsupportedExpressionException {
+        final long[] timestamps = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = timestamps.length;
+
+        final Set<String> labels = Sets.newHashSet();
+        for (Expression expression : expressions) {
+            if (!labels.add(expression.getLabel()) || columns.containsKey(expression.getLabel())
+                    || expression.getLabel().startsWith("__") || "timestamp".equals(expression.getLabel())) {
+                throw new UnsupportedExpressionException("Label '" + expression.getLabel() + "' is ambiguous");
+            }
+        }
+
+        // Resolve the names in the same order of precedence as the JEXL context
+        final Map<String, Node> names = Maps.newHashMap();
+        for (Map.Entry<String, Object> constant : results.getConstants().entrySet()) {
+            final Object value = constant.getValue();
+            if (value instanceof Double) {
+                names.put(constant.getKey(), new Constant(Kind.DOUBLE, (Double) value));
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                names.put(constant.getKey(), new Constant(Kind.INTEGER, ((Number) value).longValue()));
+            } else if (value instanceof Float) {
+                names.put(constant.getKey(), new Constant(Kind.FLOAT, Double.parseDouble(value.toString())));
+            }
+            // Other constants are not supported, and will fail when referenced
+        }
+        names.put("__inf", new Constant(Kind.DOUBLE, Double.POSITIVE_INFINITY));
+        names.put("__neg_inf", new Constant(Kind.DOUBLE, Double.NEGATIVE_INFINITY));
+        names.put("NaN", new Constant(Kind.DOUBLE, Double.NaN));
+        names.put("__E", new Constant(Kind.DOUBLE, Math.E));
+        names.put("__PI", new Constant(Kind.DOUBLE, Math.PI));
+        names.put("__diff_time", new Constant(Kind.DOUBLE, numRows < 1 ? 0d : timestamps[numRows - 1] - timestamps[0]));
+
+        // Keep references to all columns in a single array, followed by the results of the expressions
+        final List<String> sourceLabels = Lists.newArrayList(columns.keySet());
+        final double[][] data = new double[sourceLabels.size() + 2 + expressions.size()][];
+        int index = 0;
+        for (String sourceLabel : sourceLabels) {
+            data[index] = columns.get(sourceLabel);
+            index++;
+        }
+
+        final double[] timestampValues = new double[numRows];
+        final double[] indexValues = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestampValues[i] = timestamps[i];
+            indexValues[i] = i;
+        }
+        data[index] = timestampValues;
+        data[index + 1] = indexValues;
+        final int firstExpressionIndex = index + 2;
+
+        final Map<String, double[]> values = Maps.newHashMap();
+        index = firstExpressionIndex;
+        for (Expression expression : expressions) {
+            // Sources and row values take precedence over the results of previous expressions
+            final Map<String, Node> scope = Maps.newHashMap(names);
+            for (int j = 0; j < sourceLabels.size(); j++) {
+                scope.put(sourceLabels.get(j), new Reference(Kind.DOUBLE, data, j));
+            }
+            scope.put("timestamp", new Reference(Kind.INTEGER, data, firstExpressionIndex - 2));
+            scope.put("__i", new Reference(Kind.INTEGER, data, firstExpressionIndex - 1));
+            // The results of the current and the following expressions are those of the previous row
+            for (Expression other : expressions.subList(index - firstExpressionIndex, expressions.size())) {
+                scope.put(other.getLabel(), null);
+            }
+
+            final Node node = new Parser(expression.getExpression(), scope).parse();
+            if (node.kind == Kind.BOOLEAN) {
+                throw new UnsupportedExpressionException("Expression '" + expression.getLabel() + "' does not return a number");
+            }
+            final Column column = node.eval(numRows);
+            if (column.uncertain != null && !column.uncertain.isEmpty()) {
+                throw new UnsupportedExpressionException("Expression '" + expression.getLabel() + "' has "
+                        + column.uncertain.cardinality() + " rows which need to be evaluated by JEXL");
+            }
+
+            // References share the column, so copy it
+            final double[] result = node instanceof Reference ? Arrays.copyOf(column.values, numRows) : column.values;
+            data[index] = result;
+            values.put(expression.getLabel(), result);
+
+            // Make the result available to the following expressions
+            names.put(expression.getLabel(), new Reference(Kind.DOUBLE, data, index));
+            index++;
+        }
+        return values;
+    }
+}
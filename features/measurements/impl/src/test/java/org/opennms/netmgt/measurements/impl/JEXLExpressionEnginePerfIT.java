@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the throughput of evaluating the expressions of typical graph
+ * definitions with JEXL and on whole columns, and verifies both yield the
+ * same values.
+ */
+public class JEXLExpressionEnginePerfIT {
+    private static final Logger LOG = LoggerFactory.getLogger(JEXLExpressionEnginePerfIT.class);
+
+    private static final long DURATION_MS = TimeUnit.SECONDS.toMillis(5);
+
+    // A year of 5 minute samples
+    private static final int NUM_ROWS = 365 * 24 * 12;
+
+    /**
+     * Expressions as used by the mib2 bits, percent utilization and the
+     * response time graphs.
+     */
+    private static final String[][] GRAPHS = new String[][] {
+        { "octIn", "ifHCInOctets * 8",
+          "octOut", "-1 * ifHCOutOctets * 8",
+          "bitsIn", "octIn / 1000000.0",
+          "bitsOut", "octOut / 1000000.0" },
+        { "percentIn", "ifHCInOctets * 8 / ifSpeed * 100",
+          "percentOut", "ifHCOutOctets * 8 / ifSpeed * 100",
+          "percentTotal", "(ifHCInOctets + ifHCOutOctets) * 8 / ifSpeed * 100" },
+        { "rtMicro", "icmp / 1000.0d",
+          "rtLimited", "( ( rtMicro == NaN ) ? 0.0d : math:min(rtMicro, 1000.0d) )",
+          "rtAvg", "( ( ( icmp == NaN ) && ( rtMicro == NaN ) ) ? NaN : ( ( icmp == NaN ) ? rtMicro : ( ( rtMicro == NaN ) ? icmp : ( icmp + rtMicro ) / 2 ) ) )" },
+    };
+
+    @Test
+    public void canEvaluateFasterOnColumns() throws ExpressionException {
+        final Random random = new Random(42);
+        final FetchResults template = createResults(random);
+
+        for (String[] graph : GRAPHS) {
+            final QueryRequest request = createRequest(graph);
+
+            // Verify both modes yield the same values
+            final FetchResults expected = copy(template);
+            final FetchResults actual = copy(template);
+            evaluate(request, expected, false);
+            evaluate(request, actual, true);
+            for (int i = 0; i < graph.length; i += 2) {
+                assertArrayEquals(graph[i + 1], expected.getColumns().get(graph[i]), actual.getColumns().get(graph[i]), 0.0d);
+            }
+
+            final double jexlRate = measure(request, template, false);
+            final double vectorizedRate = measure(request, template, true);
+            LOG.info("{}: {} rows/s with JEXL, {} rows/s on columns ({}x)", graph[1],
+                    String.format("%.0f", jexlRate), String.format("%.0f", vectorizedRate),
+                    String.format("%.1f", vectorizedRate / jexlRate));
+        }
+    }
+
+    private static double measure(QueryRequest request, FetchResults template, boolean vectorized) throws ExpressionException {
+        // Warm up
+        for (int i = 0; i < 3; i++) {
+            evaluate(request, copy(template), vectorized);
+        }
+
+        long rows = 0;
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        long now;
+        do {
+            evaluate(request, copy(template), vectorized);
+            rows += NUM_ROWS;
+            now = System.nanoTime();
+        } while (now < end);
+        return rows / ((now - start) / 1e9);
+    }
+
+    private static void evaluate(QueryRequest request, FetchResults results, boolean vectorized) throws ExpressionException {
+        final JEXLExpressionEngine engine = new JEXLExpressionEngine();
+        engine.setVectorized(vectorized);
+        engine.applyExpressions(request, results);
+    }
+
+    private static QueryRequest createRequest(String[] graph) {
+        final List<Expression> expressions = Lists.newArrayList();
+        for (int i = 0; i < graph.length; i += 2) {
+            final Expression expression = new Expression();
+            expression.setLabel(graph[i]);
+            expression.setExpression(graph[i + 1]);
+            expressions.add(expression);
+        }
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(expressions);
+        return request;
+    }
+
+    private static FetchResults createResults(Random random) {
+        final long[] timestamps = new long[NUM_ROWS];
+        final double[] in = new double[NUM_ROWS];
+        final double[] out = new double[NUM_ROWS];
+        final double[] icmp = new double[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            timestamps[i] = 1431047069000L + i * 300000L;
+            in[i] = random.nextInt(100) == 0 ? Double.NaN : random.nextDouble() * 1e7;
+            out[i] = random.nextInt(100) == 0 ? Double.NaN : random.nextDouble() * 1e7;
+            icmp[i] = random.nextInt(20) == 0 ? Double.NaN : random.nextDouble() * 1e6;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("ifHCInOctets", in);
+        columns.put("ifHCOutOctets", out);
+        columns.put("icmp", icmp);
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("ifSpeed", 1000000000.0d);
+        return new FetchResults(timestamps, columns, 300000, constants);
+    }
+
+    private static FetchResults copy(FetchResults results) {
+        final Map<String, double[]> columns = Maps.newHashMap();
+        for (Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            columns.put(column.getKey(), column.getValue().clone());
+        }
+        return new FetchResults(results.getTimestamps(), columns, results.getStep(), Maps.newHashMap(results.getConstants()));
+    }
+}
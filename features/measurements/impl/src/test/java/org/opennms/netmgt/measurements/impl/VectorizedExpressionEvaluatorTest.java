@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class VectorizedExpressionEvaluatorTest {
+
+    private static final int N = 100;
+
+    @Test
+    public void canEvaluateArithmetic() {
+        final FetchResults results = createResults();
+        assertTrue(VectorizedExpressionEvaluator.apply(expressions("y", "x * 5 + 7", "z", "-1 * (y - x) / 2.0d"), results));
+
+        final double[] y = results.getColumns().get("y");
+        final double[] z = results.getColumns().get("z");
+        for (int i = 0; i < N; i++) {
+            assertEquals(i * 5 + 7, y[i], 0.0d);
+            assertEquals(-1 * (y[i] - i) / 2.0d, z[i], 0.0d);
+        }
+    }
+
+    @Test
+    public void canEvaluateFloatLiteralsLikeJexl() {
+        // JEXL parses decimal literals as floats, and converts these to doubles using their string representation
+        final FetchResults results = createResults();
+        assertTrue(VectorizedExpressionEvaluator.apply(expressions("y", "x / 0.62137"), results));
+        assertEquals(1 / 0.62137, results.getColumns().get("y")[1], 0.0d);
+    }
+
+    @Test
+    public void canReferenceRowValuesAndConstants() {
+        final FetchResults results = createResults();
+        results.getConstants().put("speed", 65);
+        results.getConstants().put("factor", 2.5d);
+        assertTrue(VectorizedExpressionEvaluator.apply(expressions(
+                "a", "timestamp / 125.0d",
+                "b", "1 * __diff_time",
+                "c", "speed / 0.5d + factor",
+                "d", "__i * factor"), results));
+
+        assertEquals(400.0d, results.getColumns().get("a")[50], 0.0d);
+        assertEquals(99000.0d, results.getColumns().get("b")[0], 0.0d);
+        assertEquals(132.5d, results.getColumns().get("c")[0], 0.0d);
+        assertEquals(25.0d, results.getColumns().get("d")[10], 0.0d);
+    }
+
+    @Test
+    public void canEvaluateConditionsAndFunctions() {
+        final FetchResults results = createResults();
+        final double[] a = new double[N];
+        final double[] b = new double[N];
+        for (int i = 0; i < N; i++) {
+            a[i] = i % 3 == 0 ? Double.NaN : i;
+            b[i] = i % 5 == 0 ? Double.NaN : N - i;
+        }
+        results.getColumns().put("A", a);
+        results.getColumns().put("B", b);
+        assertTrue(VectorizedExpressionEvaluator.apply(expressions(
+                "min", "( ( A == NaN ) ? B : ( ( B == NaN ) ? A : math:min(A,B) ) )",
+                "sum", "( ( ( A == NaN ) && ( B == NaN ) ) ? NaN : ( ( A == NaN ) ? B : ( ( B == NaN ) ? A : ( A + B ) ) ) )",
+                "sin", "strictmath:sin(x)"), results));
+
+        for (int i = 0; i < N; i++) {
+            final double expectedMin = Double.isNaN(a[i]) ? b[i] : Double.isNaN(b[i]) ? a[i] : Math.min(a[i], b[i]);
+            final double expectedSum = Double.isNaN(a[i]) && Double.isNaN(b[i]) ? Double.NaN : Double.isNaN(a[i]) ? b[i] : Double.isNaN(b[i]) ? a[i] : a[i] + b[i];
+            assertEquals(expectedMin, results.getColumns().get("min")[i], 0.0d);
+            assertEquals(expectedSum, results.getColumns().get("sum")[i], 0.0d);
+            assertEquals(StrictMath.sin(i), results.getColumns().get("sin")[i], 0.0d);
+        }
+    }
+
+    @Test
+    public void canSkipTransientExpressions() {
+        final FetchResults results = createResults();
+        final List<Expression> expressions = expressions("y", "x * 2.0d", "z", "y + 1.0d");
+        expressions.get(0).setTransient(true);
+        assertTrue(VectorizedExpressionEvaluator.apply(expressions, results));
+
+        assertFalse(results.getColumns().containsKey("y"));
+        assertEquals(7.0d, results.getColumns().get("z")[3], 0.0d);
+    }
+
+    @Test
+    public void canGuardAgainstDivisionByZeroInUntakenBranches() {
+        final FetchResults results = createResults();
+        assertTrue(VectorizedExpressionEvaluator.apply(expressions("y", "x == 0.0d ? 0.0d : 1.0d / x"), results));
+        assertEquals(0.0d, results.getColumns().get("y")[0], 0.0d);
+        assertEquals(0.5d, results.getColumns().get("y")[2], 0.0d);
+    }
+
+    @Test
+    public void doesNotEvaluateUnsupportedExpressions() {
+        for (String expression : new String[] {
+                // Integer arithmetic
+                "1 + 2", "__i / 2", "timestamp * 2",
+                // Division by zero
+                "x / 0", "1.0d / x",
+                // Comparing NaN
+                "(x / 0.5d + NaN) < 1.0d ? 1.0d : 2.0d",
+                // Comparison with integers
+                "x > 0 ? x : 0.0d",
+                // Functions and syntax outside of the subset
+                "fn:arrayNaN(\"x\", 5)", "math:round(x)", "math:pow(x, 2)", "x.y", "x = 1", "x ?: 1.0d", "size(x)",
+                "x + unknown", "__x[0]", "!(!true)", "x > 1.0d", "1e5 * x", "010 * x", "x and x",
+                // References to the current or a following expression
+                "y + x", "z + x"}) {
+            final FetchResults results = createResults();
+            assertFalse(expression, VectorizedExpressionEvaluator.apply(expressions("y", expression, "z", "x * 2.0d"), results));
+            assertEquals(expression, 1, results.getColumns().size());
+        }
+    }
+
+    @Test
+    public void canMatchJexl() throws ExpressionException {
+        final String[] expressions = new String[] {
+                "x * 8",
+                "-1 * x * 8",
+                "x * 8 / 1000000.0",
+                "(x + y) / 2",
+                "x * 100 / speed",
+                "x - y + 0.5",
+                "math:max(x, y) - math:min(x, y)",
+                "x % 7.5",
+                "(x == NaN) ? 0.0d : x",
+                "x >= y ? x : y",
+                "x < y && y < 50.0d ? -x : math:sqrt(y)",
+                "!(x > y) || x == y ? 1.0d : 0.0d",
+                "-0.5 * x",
+                "timestamp / 1000.0d - x",
+                "x / 3.3f + __diff_time / 1000.0d",
+                "w >= 50.0d && w != 70.0d ? w : -w",
+                "w <= 25.5 || w == 99.0d ? 1.0d : 2.0d",
+                "w > 10.0d ? 100 : w",
+        };
+
+        final Random random = new Random(42);
+        for (String expression : expressions) {
+            final FetchResults vectorized = createRandomResults(random);
+            final FetchResults jexl = copy(vectorized);
+            applyExpression(expression, vectorized, true);
+            applyExpression(expression, jexl, false);
+            assertArrayEquals(expression, jexl.getColumns().get("z"), vectorized.getColumns().get("z"), 0.0d);
+        }
+    }
+
+    private static void applyExpression(String expression, FetchResults results, boolean vectorized) throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(expressions("z", expression));
+        final JEXLExpressionEngine engine = new JEXLExpressionEngine();
+        engine.setVectorized(vectorized);
+        engine.applyExpressions(request, results);
+    }
+
+    private static List<Expression> expressions(String... labelsAndExpressions) {
+        final List<Expression> expressions = Lists.newArrayList();
+        for (int i = 0; i < labelsAndExpressions.length; i += 2) {
+            final Expression expression = new Expression();
+            expression.setLabel(labelsAndExpressions[i]);
+            expression.setExpression(labelsAndExpressions[i + 1]);
+            expressions.add(expression);
+        }
+        return expressions;
+    }
+
+    private static FetchResults createResults() {
+        final long[] timestamps = new long[N];
+        final double[] x = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            x[i] = i;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", x);
+        return new FetchResults(timestamps, columns, 1000, Maps.newHashMap());
+    }
+
+    private static FetchResults createRandomResults(Random random) {
+        final long[] timestamps = new long[N];
+        final double[] x = new double[N];
+        final double[] y = new double[N];
+        final double[] w = new double[N];
+        for (int i = 0; i < N; i++) {
+            w[i] = random.nextInt(100);
+            timestamps[i] = 1431047069000L + i * 300000;
+            x[i] = random.nextInt(10) == 0 ? Double.NaN : random.nextDouble() * 100;
+            y[i] = random.nextInt(10) == 0 ? x[i] : random.nextInt(100);
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", x);
+        columns.put("y", y);
+        columns.put("w", w);
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 100000000.0d);
+        return new FetchResults(timestamps, columns, 300000, constants);
+    }
+
+    private static FetchResults copy(FetchResults results) {
+        final Map<String, double[]> columns = Maps.newHashMap();
+        for (Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            columns.put(column.getKey(), column.getValue().clone());
+        }
+        return new FetchResults(results.getTimestamps().clone(), columns, results.getStep(), Maps.newHashMap(results.getConstants()));
+    }
+}
@@ -30,16 +30,24 @@ package org.opennms.netmgt.measurements.impl;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.dao.api.ResourceDao;
@@ -86,6 +94,19 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * cores, but can be reduced if the operator wishes to ensure cores are available
  * for other purposes.
  *
+ * The calls are performed by a bounded pool of threads shared by all queries. The
+ * "concurrency" attribute limits how many of these calls a single query may have
+ * outstanding at once, so that a large query can not starve the others. The rows of
+ * each call are copied into the result columns as soon as the call completes, so only
+ * the rows of the outstanding calls are kept in memory.
+ *
+ * If a "timeout" is set, a query which did not complete in time fails, and its
+ * outstanding calls are cancelled: calls which were not issued yet are dropped,
+ * and calls in progress are interrupted and skip the aggregation.
+ *
+ * The "concurrency" and the "timeout" set on the strategy are the defaults, a query
+ * can set its own.
+ *
  * @author jwhite
  */
 public class NewtsFetchStrategy implements MeasurementFetchStrategy {
@@ -100,6 +121,12 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
 
     public static final int PARALLELISM = Integer.getInteger("org.opennms.newts.query.parallelism", Runtime.getRuntime().availableProcessors());
 
+    public static final int MAX_THREADS = Integer.getInteger("org.opennms.newts.query.max_threads", PARALLELISM * 4);
+
+    public static final int DEFAULT_CONCURRENCY = Integer.getInteger("org.opennms.newts.query.concurrency", PARALLELISM * 2);
+
+    public static final long DEFAULT_TIMEOUT_MS = Long.getLong("org.opennms.newts.query.timeout", 0L);
+
     @Autowired
     private Context m_context;
 
@@ -111,17 +138,28 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
 
     private final ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("NewtsFetchStrateg-%d").build();
 
-    private final ExecutorService threadPool = Executors.newCachedThreadPool(namedThreadFactory);
+    private final ExecutorService threadPool = newBoundedThreadPool(MAX_THREADS, namedThreadFactory);
+
+    private int m_concurrency = DEFAULT_CONCURRENCY;
+
+    private long m_timeoutMs = DEFAULT_TIMEOUT_MS;
 
     // Used to limit the number of threads that are performing aggregation calculations in parallel
     private final Semaphore availableAggregationThreads = new Semaphore(PARALLELISM);
 
     @Override
     public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat, List<Source> sources, boolean relaxed) {
+        return fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed, null, null);
+    }
+
+    @Override
+    public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat, List<Source> sources, boolean relaxed,
+                              Integer concurrency, Long timeout) {
         final LateAggregationParams lag = getLagParams(step, interval, heartbeat);
         final Optional<Timestamp> startTs = Optional.of(Timestamp.fromEpochMillis(start));
         final Optional<Timestamp> endTs = Optional.of(Timestamp.fromEpochMillis(end));
         final Map<String, Object> constants = Maps.newHashMap();
+        final Query query = new Query(concurrency != null ? concurrency : m_concurrency, timeout != null ? timeout : m_timeoutMs);
 
         // Group the sources by resource id to avoid calling the ResourceDao
         // multiple times for the same resource
@@ -129,25 +167,23 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
                 .collect(Collectors.groupingBy((source) -> ResourceId.fromString(source.getResourceId())));
 
         // Lookup the OnmsResources in parallel
-        Map<ResourceId, Future<OnmsResource>> resourceFuturesById = Maps.newHashMapWithExpectedSize(sourcesByResourceId.size());
+        List<Callable<Entry<ResourceId, OnmsResource>>> resourceCallables = Lists.newArrayListWithCapacity(sourcesByResourceId.size());
         for (ResourceId resourceId : sourcesByResourceId.keySet()) {
-            resourceFuturesById.put(resourceId, threadPool.submit(getResourceByIdCallable(resourceId)));
+            resourceCallables.add(getResourceByIdCallable(resourceId));
         }
+        Map<ResourceId, OnmsResource> resourcesById = Maps.newHashMapWithExpectedSize(sourcesByResourceId.size());
+        query.invokeAll(resourceCallables, (entry) -> resourcesById.put(entry.getKey(), entry.getValue()));
 
         // Gather the results, fail if any of the resources were not found
         Map<OnmsResource, List<Source>> sourcesByResource = Maps.newHashMapWithExpectedSize(sourcesByResourceId.size());
-        for (Entry<ResourceId, Future<OnmsResource>> entry : resourceFuturesById.entrySet()) {
-            try {
-                OnmsResource resource = entry.getValue().get();
-                if (resource == null) {
-                    if (relaxed) continue;
-                    LOG.error("No resource with id: {}", entry.getKey());
-                    return null;
-                }
-                sourcesByResource.put(resource, sourcesByResourceId.get(entry.getKey()));
-            } catch (ExecutionException | InterruptedException e) {
-                throw Throwables.propagate(e);
+        for (Entry<ResourceId, OnmsResource> entry : resourcesById.entrySet()) {
+            OnmsResource resource = entry.getValue();
+            if (resource == null) {
+                if (relaxed) continue;
+                LOG.error("No resource with id: {}", entry.getKey());
+                return null;
             }
+            sourcesByResource.put(resource, sourcesByResourceId.get(entry.getKey()));
         }
 
         // Now group the sources by Newts Resource ID, which differs from the OpenNMS Resource ID.
@@ -193,49 +229,20 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
 
         // The Newts API only allows us to perform a query using a single (Newts) Resource ID,
         // so we perform multiple queries in parallel, and aggregate the results.
-        Map<String, Future<Collection<Row<Measurement>>>> measurementsByNewtsResourceId = Maps.newHashMapWithExpectedSize(sourcesByNewtsResourceId.size());
+        List<Callable<Columns>> measurementCallables = Lists.newArrayListWithCapacity(sourcesByNewtsResourceId.size());
         for (Entry<String, List<Source>> entry : sourcesByNewtsResourceId.entrySet()) {
-            measurementsByNewtsResourceId.put(entry.getKey(), threadPool.submit(
-                    getMeasurementsForResourceCallable(entry.getKey(), entry.getValue(), startTs, endTs, lag)));
+            measurementCallables.add(getMeasurementsForResourceCallable(entry.getKey(), entry.getValue(), startTs, endTs, lag, query));
         }
 
-        long[] timestamps = null;
-        Map<String, double[]> columns = Maps.newHashMap();
-
-        for (Entry<String, Future<Collection<Row<Measurement>>>> entry : measurementsByNewtsResourceId.entrySet()) {
-            Collection<Row<Measurement>> rows;
-            try {
-                rows = entry.getValue().get();
-            } catch (InterruptedException | ExecutionException e) {
-                throw Throwables.propagate(e);
-            }
-
-            final int N = rows.size();
-
-            if (timestamps == null) {
-                timestamps = new long[N];
-                int k=0;
-                for (final Row<Measurement> row : rows) {
-                    timestamps[k] = row.getTimestamp().asMillis();
-                    k++;
-                }
+        final Columns merged = new Columns();
+        query.invokeAll(measurementCallables, (columns) -> {
+            if (merged.timestamps == null) {
+                merged.timestamps = columns.timestamps;
             }
+            merged.values.putAll(columns.values);
+        });
 
-            int k = 0;
-            for (Row<Measurement> row : rows) {
-                for (Measurement measurement : row.getElements()) {
-                    double[] column = columns.get(measurement.getName());
-                    if (column == null) {
-                        column = new double[N];
-                        columns.put(measurement.getName(), column);
-                    }
-                    column[k] = measurement.getValue();
-                }
-                k += 1;
-            }
-        }
-
-        FetchResults fetchResults = new FetchResults(timestamps, columns, lag.getStep(), constants);
+        FetchResults fetchResults = new FetchResults(merged.timestamps, merged.values, lag.getStep(), constants);
         if (relaxed) {
             Utils.fillMissingValues(fetchResults, sources);
         }
@@ -243,42 +250,51 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
         return fetchResults;
     }
 
-    private Callable<OnmsResource> getResourceByIdCallable(final ResourceId resourceId) {
-        return new Callable<OnmsResource>() {
+    private Callable<Entry<ResourceId, OnmsResource>> getResourceByIdCallable(final ResourceId resourceId) {
+        return new Callable<Entry<ResourceId, OnmsResource>>() {
             @Override
-            public OnmsResource call() throws IllegalArgumentException {
+            public Entry<ResourceId, OnmsResource> call() throws IllegalArgumentException {
                 final OnmsResource resource = m_resourceDao.getResourceById(resourceId);
                 if (resource != null) {
                     // The attributes are typically lazy loaded, so we trigger the load here
                     // while we're in a threaded context
                     resource.getAttributes();
                 }
-                return resource;
+                return Maps.immutableEntry(resourceId, resource);
             }
         };
     }
 
-    private SampleSelectCallback limitConcurrentAggregationsCallback = new SampleSelectCallback() {
+    /**
+     * Limits the number of concurrent aggregations, and skips the aggregation
+     * if the query was cancelled while the samples were read.
+     */
+    private SampleSelectCallback getLimitConcurrentAggregationsCallback(final Query query) {
+        return new SampleSelectCallback() {
 
-        @Override
-        public void beforeProcess() {
-            try {
-                availableAggregationThreads.acquire();
-            } catch (InterruptedException e) {
-                throw Throwables.propagate(e);
+            @Override
+            public void beforeProcess() {
+                if (query.isCancelled()) {
+                    throw new CancellationException("Query was cancelled");
+                }
+                try {
+                    availableAggregationThreads.acquire();
+                } catch (InterruptedException e) {
+                    throw Throwables.propagate(e);
+                }
             }
-        }
 
-        @Override
-        public void afterProcess() {
-            availableAggregationThreads.release();
-        }
-    };
+            @Override
+            public void afterProcess() {
+                availableAggregationThreads.release();
+            }
+        };
+    }
 
-    private Callable<Collection<Row<Measurement>>> getMeasurementsForResourceCallable(final String newtsResourceId, final List<Source> listOfSources, final Optional<Timestamp> start, final Optional<Timestamp> end, final LateAggregationParams lag) {
-        return new Callable<Collection<Row<Measurement>>>() {
+    private Callable<Columns> getMeasurementsForResourceCallable(final String newtsResourceId, final List<Source> listOfSources, final Optional<Timestamp> start, final Optional<Timestamp> end, final LateAggregationParams lag, final Query query) {
+        return new Callable<Columns>() {
             @Override
-            public Collection<Row<Measurement>> call() throws Exception {
+            public Columns call() throws Exception {
                 ResultDescriptor resultDescriptor = new ResultDescriptor(lag.getInterval());
                 for (Source source : listOfSources) {
                     // Use the datasource as the metric name if set, otherwise use the name of the attribute
@@ -292,14 +308,121 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
 
                 LOG.debug("Querying Newts for resource id {} with result descriptor: {}", newtsResourceId, resultDescriptor);
                 Results<Measurement> results = m_sampleRepository.select(m_context, new Resource(newtsResourceId), start, end,
-                        resultDescriptor, Optional.of(Duration.millis(lag.getStep())), limitConcurrentAggregationsCallback);
+                        resultDescriptor, Optional.of(Duration.millis(lag.getStep())), getLimitConcurrentAggregationsCallback(query));
                 Collection<Row<Measurement>> rows = results.getRows();
                 LOG.debug("Found {} rows.", rows.size());
-                return rows;
+                return toColumns(rows);
             }
         };
     }
 
+    /**
+     * Copies the measurements of the given rows into columns, so that
+     * the rows can be released before the other resources are fetched.
+     */
+    @VisibleForTesting
+    protected static Columns toColumns(Collection<Row<Measurement>> rows) {
+        final int N = rows.size();
+
+        final Columns columns = new Columns();
+        columns.timestamps = new long[N];
+
+        int k = 0;
+        for (Row<Measurement> row : rows) {
+            columns.timestamps[k] = row.getTimestamp().asMillis();
+            for (Measurement measurement : row.getElements()) {
+                double[] column = columns.values.get(measurement.getName());
+                if (column == null) {
+                    column = new double[N];
+                    columns.values.put(measurement.getName(), column);
+                }
+                column[k] = measurement.getValue();
+            }
+            k += 1;
+        }
+        return columns;
+    }
+
+    @VisibleForTesting
+    protected static class Columns {
+        long[] timestamps;
+        final Map<String, double[]> values = Maps.newHashMap();
+    }
+
+    /**
+     * Runs the calls of a single query on the shared thread pool, with at most
+     * {@code concurrency} of them outstanding at once, and before the deadline.
+     */
+    private class Query {
+        private final int concurrency;
+        private final long timeoutMs;
+        private final long deadline;
+        private volatile boolean cancelled = false;
+
+        private Query(int concurrency, long timeoutMs) {
+            this.concurrency = Math.max(1, concurrency);
+            this.timeoutMs = timeoutMs;
+            this.deadline = timeoutMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : Long.MAX_VALUE;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Invokes the given callables and passes their results to the consumer in the calling thread,
+         * in order of completion. If any of the callables fails, or the deadline passes, the outstanding
+         * callables are cancelled and the failure is propagated.
+         */
+        public <T> void invokeAll(List<Callable<T>> callables, Consumer<T> consumer) {
+            final CompletionService<T> completionService = new ExecutorCompletionService<>(threadPool);
+            final List<Future<T>> outstanding = Lists.newArrayListWithCapacity(Math.min(concurrency, callables.size()));
+            final Iterator<Callable<T>> it = callables.iterator();
+            try {
+                while (it.hasNext() && outstanding.size() < concurrency) {
+                    outstanding.add(completionService.submit(it.next()));
+                }
+                while (!outstanding.isEmpty()) {
+                    final Future<T> future = poll(completionService);
+                    outstanding.remove(future);
+                    if (it.hasNext()) {
+                        outstanding.add(completionService.submit(it.next()));
+                    }
+                    consumer.accept(future.get());
+                }
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            } catch (InterruptedException | TimeoutException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                if (!outstanding.isEmpty()) {
+                    cancelled = true;
+                    for (Future<T> future : outstanding) {
+                        future.cancel(true);
+                    }
+                }
+            }
+        }
+
+        private <T> Future<T> poll(CompletionService<T> completionService) throws InterruptedException, TimeoutException {
+            if (deadline == Long.MAX_VALUE) {
+                return completionService.take();
+            }
+            final Future<T> future = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (future == null) {
+                throw new TimeoutException("Query did not complete within " + timeoutMs + "ms");
+            }
+            return future;
+        }
+    }
+
+    private static ExecutorService newBoundedThreadPool(int maxThreads, ThreadFactory threadFactory) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
 
     private static AggregationFunction toAggregationFunction(String fn) {
         if ("average".equalsIgnoreCase(fn) || "avg".equalsIgnoreCase(fn)) {
@@ -411,4 +534,20 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
     protected void setContext(Context context) {
         m_context = context;
     }
+
+    /**
+     * Sets the maximum number of calls to the {@link SampleRepository} a single query may have outstanding,
+     * unless the query sets its own.
+     */
+    public void setConcurrency(int concurrency) {
+        m_concurrency = concurrency;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a query fails, where 0 disables the timeout,
+     * unless the query sets its own.
+     */
+    public void setTimeout(long timeoutMs) {
+        m_timeoutMs = timeoutMs;
+    }
 }
@@ -28,15 +28,24 @@
 
 package org.opennms.netmgt.measurements.impl;
 
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -77,6 +86,14 @@ public class NewtsFetchStrategyTest {
 
     private Capture<ResultDescriptor> lastCapturedResultDescriptor = new Capture<>();
 
+    private long m_selectLatencyMs = 0;
+
+    private final AtomicInteger m_selectsStarted = new AtomicInteger();
+
+    private final AtomicInteger m_selectsInFlight = new AtomicInteger();
+
+    private final AtomicInteger m_maxSelectsInFlight = new AtomicInteger();
+
     @Before
     public void setUp() throws Exception {
         m_context = new Context("test");
@@ -86,7 +103,7 @@ public class NewtsFetchStrategyTest {
         m_newtsFetchStrategy = new NewtsFetchStrategy();
         m_newtsFetchStrategy.setContext(m_context);
         m_newtsFetchStrategy.setResourceDao(m_resourceDao);
-        m_newtsFetchStrategy.setSampleRepository(m_sampleRepository);
+        m_newtsFetchStrategy.setSampleRepository(delayed(m_sampleRepository));
     }
 
     @After
@@ -225,6 +242,93 @@ public class NewtsFetchStrategyTest {
         assertEquals("ping1", lastCapturedResultDescriptor.getValue().getDatasources().get("ping1Micro").getSource());
     }
 
+    @Test
+    public void canLimitConcurrencyPerQuery() {
+        final List<Source> sources = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            sources.add(createMockResource("icmp" + i, "icmp", "127.0.0." + i));
+        }
+        replay();
+
+        m_selectLatencyMs = 20;
+        m_newtsFetchStrategy.setConcurrency(2);
+
+        FetchResults fetchResults = m_newtsFetchStrategy.fetch(1431047069000L - (60 * 60 * 1000), 1431047069000L,
+                300 * 1000, 0, null, null, sources, false);
+        assertEquals(10, fetchResults.getColumns().keySet().size());
+        assertEquals(1, fetchResults.getTimestamps().length);
+        assertEquals(10, m_selectsStarted.get());
+        assertEquals(2, m_maxSelectsInFlight.get());
+    }
+
+    @Test
+    public void canCancelOutstandingQueriesWhenTimedOut() throws Exception {
+        final List<Source> sources = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            sources.add(createMockResource("icmp" + i, "icmp", "127.0.0." + i, false));
+        }
+        replay();
+
+        m_selectLatencyMs = 10000;
+        m_newtsFetchStrategy.setConcurrency(2);
+        m_newtsFetchStrategy.setTimeout(100);
+
+        try {
+            m_newtsFetchStrategy.fetch(1431047069000L - (60 * 60 * 1000), 1431047069000L,
+                    300 * 1000, 0, null, null, sources, false);
+            fail("The query should time out");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // The selects in flight are interrupted, the others are never issued
+        await().atMost(5, TimeUnit.SECONDS).until(m_selectsInFlight::get, equalTo(0));
+        assertEquals(2, m_selectsStarted.get());
+    }
+
+    @Test
+    public void canOverrideConcurrencyAndTimeoutPerQuery() throws Exception {
+        final List<Source> sources = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            sources.add(createMockResource("icmp" + i, "icmp", "127.0.0." + i, false));
+        }
+        replay();
+
+        m_selectLatencyMs = 10000;
+        m_newtsFetchStrategy.setConcurrency(2);
+        m_newtsFetchStrategy.setTimeout(0);
+
+        try {
+            m_newtsFetchStrategy.fetch(1431047069000L - (60 * 60 * 1000), 1431047069000L,
+                    300 * 1000, 0, null, null, sources, false, 3, 100L);
+            fail("The query should time out");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        await().atMost(5, TimeUnit.SECONDS).until(m_selectsInFlight::get, equalTo(0));
+        assertEquals(3, m_selectsStarted.get());
+    }
+
+    @Test
+    public void canConvertRowsToColumns() {
+        replay();
+
+        final Resource resource = new Resource("test");
+        final Results<Measurement> results = new Results<>();
+        for (int i = 0; i < 3; i++) {
+            final Row<Measurement> row = new Row<Measurement>(Timestamp.fromEpochSeconds(i), resource);
+            row.addElement(new Measurement(Timestamp.fromEpochSeconds(i), resource, "a", i));
+            row.addElement(new Measurement(Timestamp.fromEpochSeconds(i), resource, "b", i * 2));
+            results.addRow(row);
+        }
+
+        final NewtsFetchStrategy.Columns columns = NewtsFetchStrategy.toColumns(results.getRows());
+        assertArrayEquals(new long[] { 0, 1000, 2000 }, columns.timestamps);
+        assertArrayEquals(new double[] { 0, 1, 2 }, columns.values.get("a"), 0.0d);
+        assertArrayEquals(new double[] { 0, 2, 4 }, columns.values.get("b"), 0.0d);
+    }
+
     public Source createMockResource(final String label, final String attr, final String node) {
         return createMockResource(label, attr, node, true);
     }
@@ -270,6 +374,30 @@ public class NewtsFetchStrategyTest {
         return source;
     }
 
+    /**
+     * Delays the selects of the given repository by {@link #m_selectLatencyMs}, and
+     * tracks how many of them are in flight. This is done outside of the mock, since
+     * the calls to the mock are serialized.
+     */
+    private SampleRepository delayed(final SampleRepository sampleRepository) {
+        return (SampleRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { SampleRepository.class }, (proxy, method, args) -> {
+            if ("select".equals(method.getName())) {
+                m_selectsStarted.incrementAndGet();
+                m_maxSelectsInFlight.accumulateAndGet(m_selectsInFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(m_selectLatencyMs);
+                } finally {
+                    m_selectsInFlight.decrementAndGet();
+                }
+            }
+            try {
+                return method.invoke(sampleRepository, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
     private void replay() {
         for (Entry<ResourceId, OnmsResource> entry : m_resources.entrySet()) {
             EasyMock.expect(m_resourceDao.getResourceById(entry.getKey())).andReturn(entry.getValue());
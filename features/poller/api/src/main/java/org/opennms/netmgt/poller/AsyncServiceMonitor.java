@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ * A {@link ServiceMonitor} that can poll a service without blocking the
+ * calling thread.
+ * </p>
+ *
+ * <p>
+ * Callers that are aware of this interface use {@link #pollAsync(MonitoredService, Map)}
+ * and are free to issue many polls before any of them completes, so the
+ * number of outstanding polls is no longer bound by the number of poller
+ * threads. {@link #poll(MonitoredService, Map)} must return the same result
+ * as the asynchronous variant, including the retries, timeouts and response
+ * time, so both can be used interchangeably.
+ * </p>
+ *
+ * <P>
+ * <STRONG>NOTE: </STRONG> The returned future is typically completed by an
+ * I/O thread. Dependent stages that block must therefore be run on an
+ * executor of their own.
+ * </P>
+ */
+public interface AsyncServiceMonitor extends ServiceMonitor {
+
+    /**
+     * Polls the service asynchronously.
+     *
+     * @param svc
+     *            Includes details about to the service being monitored.
+     * @param parameters
+     *            Includes the service parameters defined in <EM>poller-configuration.xml</EM> and those
+     *            returned by {@link #getRuntimeAttributes(MonitoredService, Map)}.
+     * @return a future that is completed with the availability of the
+     *         service once all attempts are done
+     * @exception java.lang.RuntimeException
+     *                Thrown if the parameters are invalid, before any attempt
+     *                is made.
+     */
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters);
+
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.Distributable;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AsyncAttempts;
+import org.opennms.netmgt.poller.monitors.support.AsyncMonitorEventLoop;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryEncoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseDecoder;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsSection;
+
+/**
+ * Asynchronous variant of the {@link DnsMonitor}, which accepts the same
+ * parameters and yields the same results, but does not block a thread while
+ * waiting for the answer of the server.
+ *
+ * Unlike the resolver used by the blocking monitor, truncated answers are
+ * not retried over TCP. The answer still carries the response code, which is
+ * all that is needed unless <code>min-answers</code> or
+ * <code>max-answers</code> are given.
+ */
+@Distributable
+public final class AsyncDnsMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncDnsMonitor.class);
+
+    /**
+     * Default DNS port.
+     */
+    private static final int DEFAULT_PORT = 53;
+
+    /**
+     * Default retries.
+     */
+    private static final int DEFAULT_RETRY = 0;
+
+    /**
+     * Default timeout. Specifies how long (in milliseconds) to wait for data
+     * from the monitored interface.
+     */
+    private static final int DEFAULT_TIMEOUT = 5000;
+
+    /**
+     * Default list of fatal response codes, see {@link DnsMonitor}.
+     */
+    private static final int[] DEFAULT_FATAL_RESP_CODES = { 2 };
+
+    /**
+     * Default value for minimum number of answers in response
+     */
+    private static final int DEFAULT_MIN_ANSWERS = 0;
+
+    /**
+     * Default value for maximum number of answers in response
+     */
+    private static final int DEFAULT_MAX_ANSWERS = Integer.MAX_VALUE;
+
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+
+        String lookup = ParameterMap.getKeyedString(parameters, "lookup", null);
+        if (lookup == null || lookup.length() == 0) {
+            lookup = InetAddressUtils.getLocalHostAddressAsString();
+            if (lookup == null) {
+                throw new UnsupportedOperationException("Unable to look up local host address.");
+            }
+        }
+        final String name = lookup;
+
+        final List<Integer> fatalCodes = new ArrayList<>();
+        for (final int code : ParameterMap.getKeyedIntegerArray(parameters, "fatal-response-codes", DEFAULT_FATAL_RESP_CODES)) {
+            fatalCodes.add(code);
+        }
+
+        final int minAnswers = ParameterMap.getKeyedInteger(parameters, "min-answers", DEFAULT_MIN_ANSWERS);
+        final int maxAnswers = ParameterMap.getKeyedInteger(parameters, "max-answers", DEFAULT_MAX_ANSWERS);
+
+        final InetAddress address = svc.getAddress();
+        final String addr = InetAddressUtils.str(address);
+
+        final PollStatus neverReceived = PollStatus.unavailable("Never received valid DNS response for address: " + addr);
+
+        return new AsyncAttempts(tracker, neverReceived) {
+            @Override
+            protected CompletableFuture<PollStatus> attempt(final TimeoutTracker tracker) {
+                final double timeout = tracker.getSoTimeout() / 1000d;
+                final long timeoutSeconds = timeout < 1 ? 1 : (long) timeout;
+
+                return query(address, port, name, timeoutSeconds, tracker, fatalCodes, minAnswers, maxAnswers).exceptionally(ex -> {
+                    final Throwable cause = AsyncAttempts.unwrap(ex);
+                    if (cause instanceof NoRouteToHostException) {
+                        final String reason = "No route to host exception for address: " + addr;
+                        LOG.debug(reason, cause);
+                        return PollStatus.unavailable(reason);
+                    } else if (cause instanceof ConnectException) {
+                        final String reason = "Connection exception for address: " + addr;
+                        LOG.debug(reason, cause);
+                        return PollStatus.unavailable(reason);
+                    } else if (cause instanceof IOException) {
+                        final String reason = "IOException while polling address: " + addr + " " + cause.getMessage();
+                        LOG.debug(reason, cause);
+                        return PollStatus.unavailable(reason);
+                    }
+                    throw new CompletionException(cause);
+                });
+            }
+
+            @Override
+            protected boolean isDone(final PollStatus status) {
+                // Only timeouts are retried, which do not produce a status
+                return true;
+            }
+        }.run().thenApply(status -> {
+            if (status == neverReceived) {
+                LOG.debug(status.getReason());
+            }
+            return status;
+        });
+    }
+
+    /**
+     * Sends a single query and evaluates the answer.
+     *
+     * @return a future completed with the status, or with <code>null</code>
+     *         if no answer was received in time
+     */
+    private static CompletableFuture<PollStatus> query(final InetAddress address, final int port, final String name, final long timeoutSeconds,
+            final TimeoutTracker tracker, final List<Integer> fatalCodes, final int minAnswers, final int maxAnswers) {
+        final CompletableFuture<PollStatus> future = new CompletableFuture<>();
+        final InetSocketAddress remote = new InetSocketAddress(address, port);
+        final int id = ThreadLocalRandom.current().nextInt(0x10000);
+
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(AsyncMonitorEventLoop.getEventLoopGroup())
+                .channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(final DatagramChannel ch) {
+                        ch.pipeline().addLast(new DatagramDnsQueryEncoder());
+                        ch.pipeline().addLast(new DatagramDnsResponseDecoder());
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<DatagramDnsResponse>() {
+                            @Override
+                            protected void channelRead0(final ChannelHandlerContext ctx, final DatagramDnsResponse response) {
+                                if (response.id() != id) {
+                                    LOG.debug("Ignoring DNS response with unexpected id {} from {}", response.id(), response.sender());
+                                    return;
+                                }
+                                final double responseTime = tracker.elapsedTimeInMillis();
+                                future.complete(evaluate(response, responseTime, address, fatalCodes, minAnswers, maxAnswers));
+                            }
+
+                            @Override
+                            public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+                                future.completeExceptionally(cause);
+                            }
+                        });
+                    }
+                });
+
+        // Connect the channel, so that ICMP errors are reported
+        bootstrap.connect(remote).addListener((ChannelFuture f) -> {
+            if (!f.isSuccess()) {
+                future.completeExceptionally(f.cause());
+                return;
+            }
+
+            future.whenComplete((status, ex) -> f.channel().close());
+            f.channel().eventLoop().schedule(() -> future.complete(null), timeoutSeconds, TimeUnit.SECONDS);
+
+            final DatagramDnsQuery query = new DatagramDnsQuery(null, remote, id);
+            query.setRecursionDesired(true);
+            query.addRecord(DnsSection.QUESTION, new DefaultDnsQuestion(name, DnsRecordType.A));
+            f.channel().writeAndFlush(query).addListener((ChannelFuture w) -> {
+                if (!w.isSuccess()) {
+                    future.completeExceptionally(w.cause());
+                }
+            });
+        });
+        return future;
+    }
+
+    private static PollStatus evaluate(final DatagramDnsResponse response, final double responseTime, final InetAddress address,
+            final List<Integer> fatalCodes, final int minAnswers, final int maxAnswers) {
+        final String addr = InetAddressUtils.str(address);
+        final Integer rcode = response.code().intValue();
+        LOG.debug("received response code: {}", rcode);
+
+        final PollStatus status;
+        if (fatalCodes.contains(rcode)) {
+            status = PollStatus.unavailable("Received an invalid DNS response for address: " + addr);
+            LOG.debug(status.getReason());
+        } else if (minAnswers != DEFAULT_MIN_ANSWERS || maxAnswers != DEFAULT_MAX_ANSWERS) {
+            final int numAnswers = response.count(DnsSection.ANSWER);
+            if (numAnswers < minAnswers) {
+                status = PollStatus.unavailable("Response contained only " + numAnswers + " answer(s), but at least " + minAnswers + " answers(s) are needed.");
+                LOG.warn(status.getReason());
+            } else if (numAnswers > maxAnswers) {
+                status = PollStatus.unavailable("Response contained " + numAnswers + " answer(s), but " + maxAnswers + " or fewer answers(s) are needed.");
+                LOG.warn(status.getReason());
+            } else {
+                status = PollStatus.up(responseTime);
+                LOG.debug("valid DNS response received with {} answer(s), responseTime = {}ms", numAnswers, responseTime);
+            }
+        } else {
+            status = PollStatus.up(responseTime);
+            LOG.debug("valid DNS response received, responseTime = {}ms", responseTime);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.lang.StringUtils;
+import org.opennms.core.utils.IPLike;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.Distributable;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AsyncAttempts;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineConnection;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ConnectTimeoutException;
+
+/**
+ * Asynchronous variant of the {@link HttpMonitor}, which accepts the same
+ * parameters and yields the same results, but does not block a thread while
+ * waiting for the server.
+ *
+ * The ports are tried one after the other, each with its own retries, until
+ * the service is found to be available.
+ */
+@Distributable
+public class AsyncHttpMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncHttpMonitor.class);
+
+    /**
+     * Default HTTP ports.
+     */
+    private static final int[] DEFAULT_PORTS = { 80, 8080, 8888 };
+
+    /**
+     * Default retries.
+     */
+    private static final int DEFAULT_RETRY = 0;
+
+    /**
+     * Default timeout. Specifies how long (in milliseconds) to wait for data
+     * from the monitored interface.
+     */
+    private static final int DEFAULT_TIMEOUT = 3000;
+
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final HttpPoll poll = new HttpPoll(svc, new TreeMap<String, Object>(parameters));
+        final CompletableFuture<PollStatus> result = new CompletableFuture<>();
+        poll.pollPort(0, result);
+        return result;
+    }
+
+    /**
+     * <p>determinePorts</p>
+     *
+     * @param parameters a {@link java.util.Map} object.
+     * @return an array of int.
+     */
+    protected int[] determinePorts(final Map<String, Object> parameters) {
+        return ParameterMap.getKeyedIntegerArray(parameters, HttpMonitor.PARAMETER_PORT, DEFAULT_PORTS);
+    }
+
+    /**
+     * Returns the context used to secure the connections, or
+     * <code>null</code> for plain connections.
+     */
+    protected SSLContext getSSLContext() {
+        return null;
+    }
+
+    /**
+     * The state of a single poll, which is kept across the attempts on all
+     * ports in the same way as by the blocking monitor.
+     */
+    private final class HttpPoll {
+        private final InetAddress m_addr;
+        private final String m_svcName;
+        private final Map<String, Object> m_parameters;
+        private final int[] m_ports;
+        private final String m_httpCmd;
+        private final String m_responseText;
+        private final boolean m_verbose;
+
+        private int m_serviceStatus = PollStatus.SERVICE_UNAVAILABLE;
+        private String m_reason;
+        private double m_responseTime;
+        private int m_currentPort = -1;
+        private boolean m_responseTextFound = false;
+        private boolean m_headerFinished = false;
+        private boolean m_noRouteToHost = false;
+
+        private HttpPoll(final MonitoredService svc, final Map<String, Object> parameters) {
+            m_addr = svc.getAddress();
+            m_svcName = svc.getSvcName();
+            m_parameters = parameters;
+            m_ports = determinePorts(parameters);
+            m_httpCmd = HttpMonitor.buildHttpCommand(m_addr, svc.getNodeLabel(), parameters);
+            m_responseText = HttpMonitor.determineResponseText(parameters);
+            m_verbose = HttpMonitor.determineVerbosity(parameters);
+        }
+
+        private void pollPort(final int portIndex, final CompletableFuture<PollStatus> result) {
+            if (portIndex >= m_ports.length || m_serviceStatus == PollStatus.SERVICE_AVAILABLE || m_noRouteToHost) {
+                result.complete(determinePollStatusResponse());
+                return;
+            }
+
+            m_currentPort = m_ports[portIndex];
+            final TimeoutTracker tracker = new TimeoutTracker(m_parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+            LOG.debug("Port = {}, Address = {}, {}", m_currentPort, m_addr, tracker);
+
+            final String serviceInfo = new StringBuilder(m_addr.toString())
+                    .append(":").append(m_svcName).append(":").append(m_currentPort)
+                    .toString();
+
+            new AsyncAttempts(tracker, null) {
+                @Override
+                protected CompletableFuture<PollStatus> attempt(final TimeoutTracker tracker) {
+                    return attemptPort(tracker, serviceInfo).handle((v, ex) -> {
+                        if (ex != null) {
+                            handleException(AsyncAttempts.unwrap(ex), tracker, serviceInfo);
+                        }
+                        return PollStatus.get(m_serviceStatus, m_reason);
+                    });
+                }
+
+                @Override
+                protected boolean isDone(final PollStatus status) {
+                    return m_serviceStatus == PollStatus.SERVICE_AVAILABLE || m_noRouteToHost;
+                }
+            }.run().whenComplete((status, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                } else {
+                    pollPort(portIndex + 1, result);
+                }
+            });
+        }
+
+        private CompletableFuture<Void> attemptPort(final TimeoutTracker tracker, final String serviceInfo) {
+            return AsyncLineConnection.connect(m_addr, m_currentPort, tracker.getConnectionTimeout(), tracker.getSoTimeout(), Charset.defaultCharset(), false, getSSLContext())
+                    .thenCompose(connection -> {
+                        LOG.debug("AsyncHttpMonitor: connected to host: {} on port: {}", m_addr, m_currentPort);
+                        m_serviceStatus = PollStatus.SERVICE_UNRESPONSIVE;
+
+                        if (m_verbose) {
+                            LOG.debug("Sending HTTP command: {}", m_httpCmd);
+                        }
+                        return connection.write(m_httpCmd)
+                                .thenCompose(v -> connection.readLine())
+                                .thenCompose(line -> {
+                                    logLine(line);
+                                    if (m_verbose) {
+                                        LOG.debug("Server response: {}", line);
+                                    }
+                                    determineServerInitialResponse(line);
+                                    // Clean header flag for each HTTP request.
+                                    m_headerFinished = false;
+
+                                    if (line == null) {
+                                        return CompletableFuture.<Void>completedFuture(null);
+                                    }
+
+                                    m_responseTime = tracker.elapsedTimeInMillis();
+                                    LOG.debug("poll: response= {}", line);
+                                    LOG.debug("poll: responseTime= {}ms", m_responseTime);
+
+                                    if (m_serviceStatus == PollStatus.SERVICE_AVAILABLE && StringUtils.isNotBlank(m_responseText)) {
+                                        m_serviceStatus = PollStatus.SERVICE_UNAVAILABLE;
+                                        return readBody(connection, serviceInfo);
+                                    }
+                                    return CompletableFuture.<Void>completedFuture(null);
+                                })
+                                .whenComplete((v, ex) -> connection.close());
+                    });
+        }
+
+        private CompletableFuture<Void> readBody(final AsyncLineConnection connection, final String serviceInfo) {
+            return connection.readLine().thenCompose(first -> {
+                readLineMatching(first);
+                if (first == null) {
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+
+                // Consume the remainder of the response
+                return connection.readUntil(line -> {
+                    readLineMatching(line);
+                    return false;
+                }).thenApply(eof -> {
+                    if (!m_responseTextFound) {
+                        LOG.debug("Matching text: [{}] not found in body of HTTP response for {}", m_responseText, serviceInfo);
+                        m_reason = "Matching text: [" + m_responseText + "] not found in body of HTTP response";
+                    }
+                    return null;
+                });
+            });
+        }
+
+        private void handleException(final Throwable cause, final TimeoutTracker tracker, final String serviceInfo) {
+            if (cause instanceof NoRouteToHostException) {
+                LOG.warn("checkStatus: No route to host exception while polling {}", serviceInfo, cause);
+                m_noRouteToHost = true;
+                m_reason = "No route to host exception";
+            } else if (cause instanceof SocketTimeoutException || cause instanceof ConnectTimeoutException) {
+                LOG.info("checkStatus: HTTP socket connection for service {} timed out with {}", serviceInfo, tracker);
+                m_reason = "HTTP connection timeout";
+            } else if (cause instanceof ConnectException) {
+                LOG.warn("Connection exception for {}", serviceInfo, cause);
+                m_reason = "HTTP connection exception on port: " + m_currentPort + ": " + cause.getMessage();
+            } else if (cause instanceof IOException) {
+                LOG.warn("{} while polling {}", cause.getClass().getSimpleName(), serviceInfo, cause);
+                m_reason = "IOException while polling address: " + m_addr + ": " + cause.getMessage();
+            } else {
+                LOG.warn("Unexpected {} while polling {}", cause.getClass().getSimpleName(), serviceInfo, cause);
+                m_reason = "Unexpected exception while polling address: " + m_addr + ": " + cause.getMessage();
+            }
+        }
+
+        private void logLine(final String line) {
+            if (m_verbose && LOG.isDebugEnabled()) {
+                LOG.debug("\t<<: {}", line);
+            }
+        }
+
+        private void readLineMatching(final String line) {
+            logLine(line);
+            if (m_responseText != null && line != null && !m_responseTextFound) {
+                if (checkLineMatchesResponseText(line)) {
+                    LOG.debug("response-text: {}: found.", m_responseText);
+                    m_serviceStatus = PollStatus.SERVICE_AVAILABLE;
+                }
+            }
+        }
+
+        private boolean checkLineMatchesResponseText(final String line) {
+            if (!m_headerFinished && StringUtils.isEmpty(line)) {
+                // Set to true when all HTTP headers has been processed.
+                m_headerFinished = true;
+            }
+            if (!m_headerFinished) {
+                // Skip perform the regex processing over HTTP headers.
+                return false;
+            }
+            if (m_responseText.charAt(0) == '~' && !m_responseTextFound) {
+                m_responseTextFound = line.matches(m_responseText.substring(1));
+            } else {
+                m_responseTextFound = line.indexOf(m_responseText) != -1;
+            }
+            return m_responseTextFound;
+        }
+
+        private void determineServerInitialResponse(final String line) {
+            if (line == null || !line.startsWith("HTTP/")) {
+                return;
+            }
+
+            final int serverResponseValue = parseHttpResponse(line);
+            final String response = HttpMonitor.determineResponse(m_parameters);
+            if (IPLike.matchNumericListOrRange(String.valueOf(serverResponseValue), response)) {
+                LOG.debug("determineServerResponse: valid server response: {} found.", serverResponseValue);
+                m_serviceStatus = PollStatus.SERVICE_AVAILABLE;
+            } else {
+                m_serviceStatus = PollStatus.SERVICE_UNAVAILABLE;
+                m_reason = "HTTP response value: " + serverResponseValue + ". Expecting: " + response + ".";
+            }
+        }
+
+        private int parseHttpResponse(final String line) {
+            final StringTokenizer t = new StringTokenizer(line);
+            if (t.hasMoreTokens()) {
+                t.nextToken();
+            }
+
+            int serverResponse = -1;
+            if (t.hasMoreTokens()) {
+                try {
+                    serverResponse = Integer.parseInt(t.nextToken());
+                } catch (final NumberFormatException nfE) {
+                    LOG.info("Error converting response code from host = {}, response = {}", m_addr, line);
+                }
+            }
+            return serverResponse;
+        }
+
+        private PollStatus determinePollStatusResponse() {
+            /*
+             * Add the 'qualifier' parm to the parameter map. This parm will
+             * contain the port on which the service was found if AVAILABLE or
+             * will contain a comma delimited list of the port(s) which were
+             * tried if the service is UNAVAILABLE
+             */
+            if (m_serviceStatus == PollStatus.SERVICE_UNAVAILABLE) {
+                final StringBuilder testedPorts = new StringBuilder();
+                for (int i = 0; i < m_ports.length; i++) {
+                    if (i > 0) {
+                        testedPorts.append(',');
+                    }
+                    testedPorts.append(m_ports[i]);
+                }
+
+                m_parameters.put("qualifier", testedPorts.toString());
+                m_reason = m_reason + "/Ports: " + testedPorts.toString();
+
+                LOG.debug("checkStatus: Reason: \"{}\"", m_reason);
+                return PollStatus.unavailable(m_reason);
+            } else if (m_serviceStatus == PollStatus.SERVICE_AVAILABLE) {
+                m_parameters.put("qualifier", Integer.toString(m_currentPort));
+                return PollStatus.available(m_responseTime);
+            } else {
+                return PollStatus.get(m_serviceStatus, m_reason);
+            }
+        }
+    }
+}
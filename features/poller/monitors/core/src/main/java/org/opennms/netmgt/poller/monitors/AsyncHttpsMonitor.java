@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.RelaxedX509ExtendedTrustManager;
+import org.opennms.netmgt.poller.Distributable;
+
+/**
+ * Asynchronous variant of the {@link HttpsMonitor}. As with the blocking
+ * monitor, the certificate of the server is not verified.
+ */
+@Distributable
+public class AsyncHttpsMonitor extends AsyncHttpMonitor {
+
+    /**
+     * Default HTTPS ports.
+     */
+    private static final int[] DEFAULT_PORTS = { 443 };
+
+    private final SSLContext m_sslContext;
+
+    public AsyncHttpsMonitor() {
+        try {
+            m_sslContext = SSLContext.getInstance("SSL");
+            m_sslContext.init(null, new TrustManager[] { new RelaxedX509ExtendedTrustManager() }, new SecureRandom());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No such algorithm in SSLContext: " + e);
+        } catch (KeyManagementException e) {
+            throw new IllegalStateException("Key management exception in SSLContext: " + e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int[] determinePorts(Map<String, Object> parameters) {
+        return ParameterMap.getKeyedIntegerArray(parameters, "port", DEFAULT_PORTS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected SSLContext getSSLContext() {
+        return m_sslContext;
+    }
+
+}
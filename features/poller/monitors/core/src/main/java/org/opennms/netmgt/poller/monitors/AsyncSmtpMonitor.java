@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.Distributable;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AsyncAttempts;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineConnection;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ConnectTimeoutException;
+
+/**
+ * Asynchronous variant of the {@link SmtpMonitor}, which accepts the same
+ * parameters and yields the same results, but does not block a thread while
+ * talking to the server.
+ *
+ * The banner is verified to carry a 220 return code, followed by a
+ * <code>HELO</code> that has to be answered with 250 and a <code>QUIT</code>
+ * that has to be answered with 221.
+ */
+@Distributable
+public final class AsyncSmtpMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSmtpMonitor.class);
+
+    /**
+     * Default SMTP port.
+     */
+    private static final int DEFAULT_PORT = 25;
+
+    /**
+     * Default retries.
+     */
+    private static final int DEFAULT_RETRY = 0;
+
+    /**
+     * Default timeout. Specifies how long (in milliseconds) to wait for data
+     * from the monitored interface.
+     */
+    private static final int DEFAULT_TIMEOUT = 3000;
+
+    /**
+     * The name of the local host.
+     */
+    private static final String LOCALHOST_NAME = InetAddressUtils.getLocalHostName();
+
+    /**
+     * Used to check for a multiline response. A multiline response begins with
+     * the same 3 digit response code, but has a hyphen after the last number
+     * instead of a space.
+     */
+    private static final Pattern MULTILINE = Pattern.compile("^[0-9]{3}-");
+
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+        final InetAddress ipAddr = svc.getAddress();
+
+        final String hostAddress = InetAddressUtils.str(ipAddr);
+        LOG.debug("poll: address = {}, port = {}, {}", hostAddress, port, tracker);
+
+        return new AsyncAttempts(tracker, PollStatus.unavailable()) {
+            private boolean m_noRouteToHost = false;
+
+            @Override
+            protected CompletableFuture<PollStatus> attempt(final TimeoutTracker tracker) {
+                // Forcing to check for CRLF instead of any other line terminator as per RFC specification
+                return AsyncLineConnection.connect(ipAddr, port, tracker.getConnectionTimeout(), tracker.getSoTimeout(), StandardCharsets.US_ASCII, true, null)
+                        .thenCompose(connection -> {
+                            LOG.debug("AsyncSmtpMonitor: connected to host: {} on port: {}", ipAddr, port);
+                            return converse(connection, tracker).whenComplete((status, ex) -> connection.close());
+                        }).exceptionally(ex -> {
+                            final Throwable cause = AsyncAttempts.unwrap(ex);
+                            if (cause instanceof NumberFormatException || cause instanceof NoSuchElementException) {
+                                final String reason = "NumberFormatException while polling address " + hostAddress;
+                                LOG.debug(reason, cause);
+                                return PollStatus.unavailable(reason);
+                            } else if (cause instanceof NoRouteToHostException) {
+                                m_noRouteToHost = true;
+                                final String reason = "No route to host exception for address " + hostAddress;
+                                LOG.debug(reason, cause);
+                                return PollStatus.unavailable(reason);
+                            } else if (cause instanceof InterruptedIOException || cause instanceof ConnectTimeoutException) {
+                                final String reason = "Did not receive expected response within timeout " + tracker;
+                                LOG.debug(reason);
+                                return PollStatus.unavailable(reason);
+                            } else if (cause instanceof ConnectException) {
+                                final String reason = "Unable to connect to address " + hostAddress;
+                                LOG.debug(reason, cause);
+                                return PollStatus.unavailable(reason);
+                            } else if (cause instanceof IOException) {
+                                final String reason = "IOException while polling address " + hostAddress;
+                                LOG.debug(reason, cause);
+                                return PollStatus.unavailable(reason);
+                            }
+                            throw new CompletionException(cause);
+                        });
+            }
+
+            @Override
+            protected boolean isDone(final PollStatus status) {
+                return status.isAvailable() || m_noRouteToHost;
+            }
+        }.run();
+    }
+
+    /**
+     * Checks the banner, then sends HELO and QUIT. As with the blocking
+     * monitor, a server that closes the connection early leaves the service
+     * unresponsive.
+     */
+    private static CompletableFuture<PollStatus> converse(final AsyncLineConnection connection, final TimeoutTracker tracker) {
+        return sendMessage(connection, null).thenCompose(banner -> {
+            LOG.debug("poll: banner = {}", banner);
+
+            final int rc = Integer.parseInt(new StringTokenizer(banner).nextToken());
+            if (rc == 220) {
+                // Send the HELO command
+                return connection.write("HELO " + LOCALHOST_NAME + "\r\n")
+                        .thenCompose(v -> connection.readLine())
+                        .thenCompose(response -> {
+                            final double responseTime = tracker.elapsedTimeInMillis();
+                            if (response == null) {
+                                return CompletableFuture.completedFuture(PollStatus.unresponsive());
+                            }
+
+                            final CompletableFuture<String> lastLine;
+                            if (MULTILINE.matcher(response).find()) {
+                                // Read until we hit the last line of the multi-line response
+                                final Pattern endMultiline = Pattern.compile(response.substring(0, 3));
+                                lastLine = connection.readUntil(line -> endMultiline.matcher(line).find());
+                            } else {
+                                lastLine = CompletableFuture.completedFuture(response);
+                            }
+
+                            return lastLine.thenCompose(line -> {
+                                if (line == null) {
+                                    return CompletableFuture.completedFuture(PollStatus.unresponsive());
+                                }
+                                if (Integer.parseInt(new StringTokenizer(line).nextToken()) != 250) {
+                                    return CompletableFuture.completedFuture(PollStatus.unavailable());
+                                }
+                                return sendMessage(connection, "QUIT\r\n").thenApply(quit -> {
+                                    if (Integer.parseInt(new StringTokenizer(quit).nextToken()) == 221) {
+                                        return PollStatus.available(responseTime);
+                                    }
+                                    return PollStatus.unavailable();
+                                });
+                            });
+                        });
+            } else if (rc == 554) {
+                return sendMessage(connection, "QUIT\r\n").thenApply(quit -> PollStatus.unavailable("Server rejecting transactions with 554"));
+            }
+            return CompletableFuture.completedFuture(PollStatus.unavailable());
+        });
+    }
+
+    private static CompletableFuture<String> sendMessage(final AsyncLineConnection connection, final String command) {
+        final CompletableFuture<Void> written;
+        if (command != null && !"".equals(command)) {
+            written = connection.write(command);
+        } else {
+            written = CompletableFuture.completedFuture(null);
+        }
+
+        return written.thenCompose(v -> connection.readLine()).thenCompose(response -> {
+            if (response == null) {
+                return CompletableFuture.completedFuture("");
+            }
+            if (MULTILINE.matcher(response).find()) {
+                // The last line of the response will start with the
+                // return code followed by a space.
+                final Pattern endMultiline = Pattern.compile(response.substring(0, 3) + " ");
+                return connection.readUntil(line -> endMultiline.matcher(line).find()).thenApply(line -> line == null ? "" : line);
+            }
+            return CompletableFuture.completedFuture(response);
+        });
+    }
+}
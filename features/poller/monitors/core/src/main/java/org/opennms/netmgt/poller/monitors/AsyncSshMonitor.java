@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.Distributable;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AsyncAttempts;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineConnection;
+import org.opennms.netmgt.poller.monitors.support.Ssh;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous variant of the {@link SshMonitor}, which accepts the same
+ * parameters and yields the same results, but does not block a thread while
+ * waiting for the banner of the server.
+ *
+ * As with {@link Ssh}, the connection timeout is used for reading the banner
+ * as well.
+ */
+@Distributable
+public final class AsyncSshMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSshMonitor.class);
+
+    private static final int DEFAULT_RETRY = 0;
+
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, SshMonitor.DEFAULT_TIMEOUT);
+
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", SshMonitor.DEFAULT_PORT);
+        final String banner = ParameterMap.getKeyedString(parameters, "banner", null);
+        final String match = ParameterMap.getKeyedString(parameters, "match", null);
+        final String clientBanner = ParameterMap.getKeyedString(parameters, "client-banner", Ssh.DEFAULT_CLIENT_BANNER);
+
+        final Pattern regex;
+        try {
+            if (match == null && (banner == null || banner.equals("*"))) {
+                regex = null;
+            } else if (match != null) {
+                regex = Pattern.compile(match);
+                LOG.debug("match: /{}/", match);
+            } else {
+                regex = Pattern.compile(banner);
+                LOG.debug("banner: /{}/", banner);
+            }
+        } catch (final PatternSyntaxException e) {
+            final String matchString = match == null ? banner : match;
+            LOG.info("Invalid regular expression for SSH banner match /{}/: {}", matchString, e.getMessage());
+            return CompletableFuture.completedFuture(PollStatus.unavailable());
+        }
+
+        final InetAddress address = svc.getAddress();
+
+        return new AsyncAttempts(tracker, PollStatus.unavailable()) {
+            private boolean m_bannerChecked = false;
+
+            @Override
+            protected CompletableFuture<PollStatus> attempt(final TimeoutTracker tracker) {
+                return AsyncLineConnection.connect(address, port, tracker.getConnectionTimeout(), tracker.getConnectionTimeout(), Charset.defaultCharset(), false, null)
+                        .thenCompose(connection -> connection.readLine()
+                                // Send our own banner, then disconnect
+                                .thenCompose(serverBanner -> connection.write(clientBanner + "\r\n").thenApply(v -> {
+                                    final double responseTime = tracker.elapsedTimeInMillis();
+                                    m_bannerChecked = true;
+                                    return matchBanner(regex, banner, serverBanner, responseTime);
+                                }))
+                                .whenComplete((status, ex) -> connection.close()))
+                        .exceptionally(ex -> {
+                            final Throwable cause = AsyncAttempts.unwrap(ex);
+                            LOG.debug("connection failed", cause);
+                            return PollStatus.unavailable(cause.getMessage());
+                        });
+            }
+
+            @Override
+            protected boolean isDone(final PollStatus status) {
+                // Only the failures to talk to the server are retried, a banner mismatch is final
+                return status.isAvailable() || m_bannerChecked;
+            }
+        }.run();
+    }
+
+    private static PollStatus matchBanner(final Pattern regex, final String banner, final String response, final double responseTime) {
+        if (regex == null) {
+            return PollStatus.available(responseTime);
+        }
+
+        if (response == null) {
+            return PollStatus.unavailable("server closed connection before banner was received.");
+        }
+
+        if (regex.matcher(response).find()) {
+            LOG.debug("isServer: matching response={}", response);
+            return PollStatus.available(responseTime);
+        } else {
+            LOG.debug("isServer: NON-matching response={}", response);
+            return PollStatus.unavailable("server responded, but banner did not match '" + banner + "'");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.Distributable;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AsyncAttempts;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineConnection;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ConnectTimeoutException;
+
+/**
+ * Asynchronous variant of the {@link TcpMonitor}, which accepts the same
+ * parameters and yields the same results, but does not block a thread while
+ * connecting to the service or waiting for its banner.
+ */
+@Distributable
+public final class AsyncTcpMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncTcpMonitor.class);
+
+    /**
+     * Default port.
+     */
+    private static final int DEFAULT_PORT = -1;
+
+    /**
+     * Default retries.
+     */
+    private static final int DEFAULT_RETRY = 0;
+
+    /**
+     * Default timeout. Specifies how long (in milliseconds) to wait for data
+     * from the monitored interface.
+     */
+    private static final int DEFAULT_TIMEOUT = 3000;
+
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+
+        final int port = ParameterMap.getKeyedInteger(parameters, TcpMonitor.PARAMETER_PORT, DEFAULT_PORT);
+        if (port == DEFAULT_PORT) {
+            throw new RuntimeException("AsyncTcpMonitor: required parameter 'port' is not present in supplied properties.");
+        }
+
+        final String strBannerMatch = ParameterMap.getKeyedString(parameters, TcpMonitor.PARAMETER_BANNER, null);
+
+        final InetAddress ipAddr = svc.getAddress();
+        final String hostAddress = InetAddressUtils.str(ipAddr);
+        LOG.debug("poll: address = {}, port = {}, {}", hostAddress, port, tracker);
+
+        return new AsyncAttempts(tracker, PollStatus.unavailable()) {
+            private boolean m_noRouteToHost = false;
+
+            @Override
+            protected CompletableFuture<PollStatus> attempt(final TimeoutTracker tracker) {
+                return AsyncLineConnection.connect(ipAddr, port, tracker.getConnectionTimeout(), tracker.getSoTimeout(), Charset.defaultCharset(), false, null)
+                        .thenCompose(connection -> {
+                            LOG.debug("AsyncTcpMonitor: connected to host: {} on port: {}", ipAddr, port);
+
+                            if (strBannerMatch == null || strBannerMatch.length() == 0 || strBannerMatch.equals("*")) {
+                                connection.close();
+                                return CompletableFuture.completedFuture(PollStatus.available(tracker.elapsedTimeInMillis()));
+                            }
+
+                            return connection.readLine().thenApply(response -> {
+                                final double responseTime = tracker.elapsedTimeInMillis();
+                                if (response == null) {
+                                    // We're connected, but did not get a banner
+                                    return PollStatus.unresponsive();
+                                }
+                                LOG.debug("poll: banner = {}", response);
+                                LOG.debug("poll: responseTime= {}ms", responseTime);
+                                return matchBanner(strBannerMatch, response, responseTime);
+                            }).whenComplete((status, ex) -> connection.close());
+                        }).exceptionally(ex -> {
+                            final Throwable cause = AsyncAttempts.unwrap(ex);
+                            if (cause instanceof NoRouteToHostException) {
+                                m_noRouteToHost = true;
+                                final String reason = "No route to host exception for address " + hostAddress;
+                                LOG.debug(reason, cause);
+                                return PollStatus.unavailable(reason);
+                            } else if (cause instanceof InterruptedIOException || cause instanceof ConnectTimeoutException) {
+                                final String reason = "did not connect to host with " + tracker;
+                                LOG.debug(reason);
+                                return PollStatus.unavailable(reason);
+                            } else if (cause instanceof ConnectException) {
+                                final String reason = "Connection exception for address: " + ipAddr;
+                                LOG.debug(reason, cause);
+                                return PollStatus.unavailable(reason);
+                            } else if (cause instanceof IOException) {
+                                final String reason = "IOException while polling address: " + ipAddr;
+                                LOG.debug(reason, cause);
+                                return PollStatus.unavailable(reason);
+                            }
+                            throw new CompletionException(cause);
+                        });
+            }
+
+            @Override
+            protected boolean isDone(final PollStatus status) {
+                return status.isAvailable() || m_noRouteToHost;
+            }
+        }.run();
+    }
+
+    private static PollStatus matchBanner(final String strBannerMatch, final String response, final double responseTime) {
+        // Could it be a regex?
+        if (strBannerMatch.charAt(0) == '~') {
+            if (!response.matches(strBannerMatch.substring(1))) {
+                return PollStatus.unavailable("Banner does not match Regex '" + strBannerMatch + "'");
+            } else {
+                return PollStatus.available(responseTime);
+            }
+        } else {
+            if (response.indexOf(strBannerMatch) > -1) {
+                return PollStatus.available(responseTime);
+            } else {
+                return PollStatus.unavailable("Banner: '" + response + "' does not contain match string '" + strBannerMatch + "'");
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.PollStatus;
+
+/**
+ * Asynchronous counterpart of the retry loop used by the blocking monitors:
+ *
+ * <pre>
+ * for (tracker.reset(); tracker.shouldRetry() &amp;&amp; !done; tracker.nextAttempt()) {
+ *     tracker.startAttempt();
+ *     status = attempt();
+ * }
+ * </pre>
+ *
+ * Every attempt is started once the previous one completed. With strict
+ * timeouts, the next attempt is delayed on the event loop instead of
+ * sleeping in {@link TimeoutTracker#startAttempt()}.
+ *
+ * An attempt may complete with <code>null</code> if it did not produce a
+ * status, in which case the status of the previous attempt is kept.
+ */
+public abstract class AsyncAttempts {
+
+    private final TimeoutTracker m_tracker;
+
+    private final CompletableFuture<PollStatus> m_result = new CompletableFuture<>();
+
+    private PollStatus m_status;
+
+    /**
+     * @param tracker the tracker for the retries and timeouts
+     * @param status the status returned if no attempt produced one
+     */
+    protected AsyncAttempts(final TimeoutTracker tracker, final PollStatus status) {
+        m_tracker = tracker;
+        m_status = status;
+    }
+
+    /**
+     * Starts the attempts.
+     *
+     * @return a future completed with the status of the last attempt
+     */
+    public CompletableFuture<PollStatus> run() {
+        m_tracker.reset();
+        next();
+        return m_result;
+    }
+
+    /**
+     * Makes a single attempt. {@link TimeoutTracker#startAttempt()} was
+     * already called.
+     */
+    protected abstract CompletableFuture<PollStatus> attempt(TimeoutTracker tracker);
+
+    /**
+     * Returns whether no further attempt should be made after the given
+     * status. By default, attempts are made until the service is available.
+     */
+    protected boolean isDone(final PollStatus status) {
+        return status.isAvailable();
+    }
+
+    private void next() {
+        if (!m_tracker.shouldRetry()) {
+            m_result.complete(m_status);
+            return;
+        }
+
+        final long delay = m_tracker.getNanosUntilNextAttempt();
+        if (delay > 0) {
+            AsyncMonitorEventLoop.getEventLoopGroup().schedule(this::start, delay, TimeUnit.NANOSECONDS);
+        } else {
+            start();
+        }
+    }
+
+    private void start() {
+        final CompletableFuture<PollStatus> attempt;
+        try {
+            m_tracker.startAttempt();
+            attempt = attempt(m_tracker);
+        } catch (final RuntimeException e) {
+            m_result.completeExceptionally(e);
+            return;
+        }
+
+        attempt.whenComplete((status, ex) -> {
+            if (ex != null) {
+                m_result.completeExceptionally(unwrap(ex));
+                return;
+            }
+            if (status != null) {
+                m_status = status;
+                if (isDone(status)) {
+                    m_result.complete(status);
+                    return;
+                }
+            }
+            m_tracker.nextAttempt();
+            next();
+        });
+    }
+
+    /**
+     * Returns the exception a future was completed with, without the
+     * wrappers added by the dependent stages.
+     */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+}
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * A non-blocking TCP connection that is read line by line, for the
+ * asynchronous monitors of line based protocols.
+ *
+ * The connection mimics a socket read through a {@link java.io.BufferedReader}:
+ * {@link #readLine()} completes with the next line without its terminator,
+ * or with <code>null</code> at the end of the stream, and fails with a
+ * {@link SocketTimeoutException} if no line is received within the read
+ * timeout, just like a blocking read with the same <code>SO_TIMEOUT</code>.
+ * Lines are terminated by a line feed, a carriage return or both, unless
+ * the connection is restricted to CRLF.
+ *
+ * The futures are completed on the I/O thread of the connection, so the
+ * dependent stages must not block.
+ */
+public class AsyncLineConnection {
+
+    /**
+     * The maximum length of a line, as a safe guard against peers that never
+     * send a line terminator.
+     */
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    private final int m_soTimeout;
+
+    private final Charset m_charset;
+
+    private volatile Channel m_channel;
+
+    // The following fields are only accessed by the I/O thread
+    private final Queue<String> m_lines = new ArrayDeque<>();
+
+    private boolean m_endOfStream = false;
+
+    private Throwable m_error;
+
+    private CompletableFuture<String> m_pendingRead;
+
+    private Predicate<String> m_pendingPredicate;
+
+    private ScheduledFuture<?> m_pendingTimeout;
+
+    private AsyncLineConnection(final int soTimeout, final Charset charset) {
+        m_soTimeout = soTimeout;
+        m_charset = charset;
+    }
+
+    /**
+     * Opens a connection.
+     *
+     * @param address the address to connect to
+     * @param port the port to connect to
+     * @param connectionTimeout the connect timeout in milliseconds
+     * @param soTimeout the read timeout in milliseconds
+     * @param charset the charset of the lines
+     * @param crlfOnly whether lines are only terminated by CRLF
+     * @param sslContext the context to use for TLS, or <code>null</code> for
+     *        a plain connection
+     * @return a future completed with the connection once it is established
+     */
+    public static CompletableFuture<AsyncLineConnection> connect(final InetAddress address, final int port, final int connectionTimeout, final int soTimeout,
+            final Charset charset, final boolean crlfOnly, final SSLContext sslContext) {
+        final AsyncLineConnection connection = new AsyncLineConnection(soTimeout, charset);
+        final CompletableFuture<AsyncLineConnection> future = new CompletableFuture<>();
+
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(AsyncMonitorEventLoop.getEventLoopGroup())
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectionTimeout)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel ch) {
+                        if (sslContext != null) {
+                            final SSLEngine engine = sslContext.createSSLEngine(address.getHostAddress(), port);
+                            engine.setUseClientMode(true);
+                            final SslHandler sslHandler = new SslHandler(engine);
+                            sslHandler.setHandshakeTimeoutMillis(soTimeout);
+                            ch.pipeline().addLast(sslHandler);
+                        }
+                        ch.pipeline().addLast(new LineDecoder(charset, crlfOnly));
+                        ch.pipeline().addLast(connection.new LineHandler());
+                    }
+                });
+
+        bootstrap.connect(new InetSocketAddress(address, port)).addListener((ChannelFuture f) -> {
+            if (f.isSuccess()) {
+                connection.m_channel = f.channel();
+                future.complete(connection);
+            } else {
+                future.completeExceptionally(f.cause());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Reads the next line.
+     *
+     * @return a future completed with the line, or with <code>null</code> at
+     *         the end of the stream
+     */
+    public CompletableFuture<String> readLine() {
+        return readUntil(null);
+    }
+
+    /**
+     * Reads lines until one of them matches the predicate. The read timeout
+     * applies to every single line.
+     *
+     * @param predicate the predicate, or <code>null</code> to accept any line
+     * @return a future completed with the matching line, or with
+     *         <code>null</code> if the end of the stream was reached first
+     */
+    public CompletableFuture<String> readUntil(final Predicate<String> predicate) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        inEventLoop(() -> {
+            if (m_pendingRead != null) {
+                future.completeExceptionally(new IllegalStateException("A read is already pending"));
+                return;
+            }
+            m_pendingRead = future;
+            m_pendingPredicate = predicate;
+            if (!deliver()) {
+                m_pendingTimeout = m_channel.eventLoop().schedule(this::timeout, m_soTimeout, TimeUnit.MILLISECONDS);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Writes the given string.
+     *
+     * @return a future completed once the string was written to the socket
+     */
+    public CompletableFuture<Void> write(final String string) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        m_channel.writeAndFlush(Unpooled.copiedBuffer(string, m_charset)).addListener((ChannelFuture f) -> {
+            if (f.isSuccess()) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(f.cause());
+            }
+        });
+        return future;
+    }
+
+    public void close() {
+        final Channel channel = m_channel;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void inEventLoop(final Runnable runnable) {
+        if (m_channel.eventLoop().inEventLoop()) {
+            runnable.run();
+        } else {
+            m_channel.eventLoop().execute(runnable);
+        }
+    }
+
+    /**
+     * Completes the pending read if possible.
+     *
+     * @return whether the read was completed
+     */
+    private boolean deliver() {
+        while (!m_lines.isEmpty()) {
+            final String line = m_lines.poll();
+            if (m_pendingPredicate == null || m_pendingPredicate.test(line)) {
+                completePending().complete(line);
+                return true;
+            }
+        }
+        if (m_error != null) {
+            completePending().completeExceptionally(m_error);
+            return true;
+        }
+        if (m_endOfStream) {
+            completePending().complete(null);
+            return true;
+        }
+        return false;
+    }
+
+    private CompletableFuture<String> completePending() {
+        final CompletableFuture<String> future = m_pendingRead;
+        m_pendingRead = null;
+        m_pendingPredicate = null;
+        if (m_pendingTimeout != null) {
+            m_pendingTimeout.cancel(false);
+            m_pendingTimeout = null;
+        }
+        return future;
+    }
+
+    private void timeout() {
+        m_pendingTimeout = null;
+        if (m_pendingRead != null) {
+            completePending().completeExceptionally(new SocketTimeoutException("Read timed out"));
+        }
+    }
+
+    private void onReceived() {
+        if (m_pendingRead != null) {
+            if (!deliver() && m_pendingTimeout != null) {
+                // A line was received, so restart the timeout for the next one
+                m_pendingTimeout.cancel(false);
+                m_pendingTimeout = m_channel.eventLoop().schedule(this::timeout, m_soTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private class LineHandler extends SimpleChannelInboundHandler<String> {
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final String line) {
+            m_lines.add(line);
+            onReceived();
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+            m_endOfStream = true;
+            onReceived();
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+            m_error = cause instanceof TooLongFrameException ? new IOException(cause.getMessage(), cause) : cause;
+            onReceived();
+            ctx.close();
+        }
+    }
+
+    /**
+     * Splits the stream in lines like {@link java.io.BufferedReader#readLine()},
+     * or at CRLF only like {@link org.apache.commons.net.io.CRLFLineReader}.
+     * A trailing line without terminator is emitted at the end of the stream.
+     */
+    private static class LineDecoder extends ByteToMessageDecoder {
+        private final Charset m_charset;
+        private final boolean m_crlfOnly;
+        private boolean m_skipLF = false;
+
+        private LineDecoder(final Charset charset, final boolean crlfOnly) {
+            m_charset = charset;
+            m_crlfOnly = crlfOnly;
+        }
+
+        @Override
+        protected void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) throws Exception {
+            for (;;) {
+                if (m_skipLF && in.isReadable()) {
+                    if (in.getByte(in.readerIndex()) == '\n') {
+                        in.skipBytes(1);
+                    }
+                    m_skipLF = false;
+                }
+
+                final int end = findEndOfLine(in);
+                if (end < 0) {
+                    if (in.readableBytes() > MAX_LINE_LENGTH) {
+                        in.skipBytes(in.readableBytes());
+                        throw new TooLongFrameException("Line exceeds " + MAX_LINE_LENGTH + " bytes");
+                    }
+                    return;
+                }
+
+                final int length = end - in.readerIndex();
+                out.add(in.toString(in.readerIndex(), length, m_charset));
+                if (m_crlfOnly) {
+                    in.skipBytes(length + 2);
+                } else {
+                    m_skipLF = in.getByte(end) == '\r';
+                    in.skipBytes(length + 1);
+                }
+            }
+        }
+
+        @Override
+        protected void decodeLast(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) throws Exception {
+            decode(ctx, in, out);
+            if (in.isReadable()) {
+                out.add(in.toString(m_charset));
+                in.skipBytes(in.readableBytes());
+            }
+        }
+
+        private int findEndOfLine(final ByteBuf in) {
+            for (int i = in.readerIndex(); i < in.writerIndex(); i++) {
+                final byte b = in.getByte(i);
+                if (m_crlfOnly) {
+                    if (b == '\r' && i + 1 < in.writerIndex() && in.getByte(i + 1) == '\n') {
+                        return i;
+                    }
+                } else if (b == '\n' || b == '\r') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Holds the event loop shared by all asynchronous monitors.
+ *
+ * The loop only performs non-blocking I/O and the bookkeeping of the polls,
+ * so a handful of threads is enough to keep tens of thousands of polls in
+ * flight. The number of threads defaults to the number of processors and
+ * can be set with the {@value #THREADS_PROPERTY} system property.
+ */
+public final class AsyncMonitorEventLoop {
+
+    public static final String THREADS_PROPERTY = "org.opennms.netmgt.poller.monitors.async.threads";
+
+    private static EventLoopGroup s_group;
+
+    private AsyncMonitorEventLoop() {
+    }
+
+    public static synchronized EventLoopGroup getEventLoopGroup() {
+        if (s_group == null) {
+            final int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+            s_group = new NioEventLoopGroup(threads, new DefaultThreadFactory("AsyncMonitor", true));
+        }
+        return s_group;
+    }
+}
@@ -0,0 +1,433 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.support.SimpleMonitoredService;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+
+/**
+ * Polls stub servers on the loopback interface with the asynchronous
+ * monitors.
+ */
+public class AsyncMonitorsIT {
+
+    private interface Conversation {
+        void talk(Socket socket, BufferedReader in, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Accepts connections and runs a conversation for each of them on its
+     * own thread.
+     */
+    private static class StubServer implements AutoCloseable {
+        private final ServerSocket m_serverSocket;
+        private final ExecutorService m_executor = Executors.newCachedThreadPool();
+        private final AtomicInteger m_connections = new AtomicInteger();
+
+        private StubServer(final ServerSocket serverSocket, final Conversation conversation) throws IOException {
+            m_serverSocket = serverSocket;
+            m_executor.execute(() -> {
+                while (!m_serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = m_serverSocket.accept();
+                        m_connections.incrementAndGet();
+                        m_executor.execute(() -> {
+                            try (Socket s = socket) {
+                                conversation.talk(s, new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII)), s.getOutputStream());
+                            } catch (IOException e) {
+                                // The client went away
+                            }
+                        });
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        private StubServer(final Conversation conversation) throws IOException {
+            this(new ServerSocket(0, 1000, InetAddress.getLoopbackAddress()), conversation);
+        }
+
+        private int getPort() {
+            return m_serverSocket.getLocalPort();
+        }
+
+        private int getConnections() {
+            return m_connections.get();
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_serverSocket.close();
+            m_executor.shutdownNow();
+        }
+    }
+
+    private final List<AutoCloseable> m_closeables = new ArrayList<>();
+
+    private MonitoredService m_svc;
+
+    @Before
+    public void setUp() {
+        m_svc = new SimpleMonitoredService(InetAddress.getLoopbackAddress(), 1, "localhost", "TEST");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (final AutoCloseable closeable : m_closeables) {
+            closeable.close();
+        }
+    }
+
+    private StubServer serve(final Conversation conversation) throws IOException {
+        final StubServer server = new StubServer(conversation);
+        m_closeables.add(server);
+        return server;
+    }
+
+    private static Map<String, Object> parameters(final int port, final Object... keyValues) {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("port", port);
+        parameters.put("retry", 0);
+        parameters.put("timeout", 1000);
+        for (int i = 0; i < keyValues.length; i += 2) {
+            parameters.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return parameters;
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private PollStatus poll(final AsyncServiceMonitor monitor, final Map<String, Object> parameters) throws Exception {
+        return monitor.pollAsync(m_svc, parameters).get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTcpBanner() throws Exception {
+        final StubServer server = serve((s, in, out) -> out.write("SSH-2.0-OpenSSH_7.4\r\n".getBytes()));
+
+        PollStatus status = poll(new AsyncTcpMonitor(), parameters(server.getPort(), "banner", "OpenSSH"));
+        assertTrue(status.getReason(), status.isAvailable());
+        assertTrue(status.getResponseTime() >= 0);
+
+        status = poll(new AsyncTcpMonitor(), parameters(server.getPort(), "banner", "~^SSH-2\\.0-.*$"));
+        assertTrue(status.getReason(), status.isAvailable());
+
+        status = poll(new AsyncTcpMonitor(), parameters(server.getPort(), "banner", "Dropbear"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Banner: 'SSH-2.0-OpenSSH_7.4' does not contain match string 'Dropbear'", status.getReason());
+
+        // Without a banner, connecting is enough
+        status = poll(new AsyncTcpMonitor(), parameters(server.getPort()));
+        assertTrue(status.isAvailable());
+    }
+
+    @Test
+    public void testTcpConnectionRefused() throws Exception {
+        final PollStatus status = poll(new AsyncTcpMonitor(), parameters(closedPort(), "retry", 2));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("Connection exception for address: "));
+    }
+
+    @Test
+    public void testTcpTimeoutIsRetried() throws Exception {
+        // Never sends a banner
+        final StubServer server = serve((s, in, out) -> in.readLine());
+
+        final long start = System.nanoTime();
+        final PollStatus status = poll(new AsyncTcpMonitor(), parameters(server.getPort(), "banner", "*OK*", "timeout", 300, "retry", 2));
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("did not connect to host with "));
+        assertEquals(3, server.getConnections());
+        assertTrue("elapsed: " + elapsed, elapsed >= 900);
+    }
+
+    @Test
+    public void testManyConcurrentPolls() throws Exception {
+        final StubServer server = serve((s, in, out) -> out.write("220 ready\r\n".getBytes()));
+
+        final AsyncTcpMonitor monitor = new AsyncTcpMonitor();
+        final List<CompletableFuture<PollStatus>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(monitor.pollAsync(m_svc, parameters(server.getPort(), "banner", "ready", "timeout", 10000)));
+        }
+        for (final CompletableFuture<PollStatus> future : futures) {
+            final PollStatus status = future.get(60, TimeUnit.SECONDS);
+            assertTrue(status.getReason(), status.isAvailable());
+        }
+    }
+
+    @Test
+    public void testSmtp() throws Exception {
+        final StubServer server = serve((s, in, out) -> {
+            out.write("220-localhost.localdomain ESMTP bogon\r\n220 second line\r\n".getBytes());
+            if (in.readLine().startsWith("HELO ")) {
+                out.write("250-Hello\r\n250 send me mail now!\r\n".getBytes());
+            }
+            if (in.readLine().equals("QUIT")) {
+                out.write("221-Goodbye, friend.\r\n221 See ya\r\n".getBytes());
+            }
+        });
+
+        final PollStatus status = poll(new AsyncSmtpMonitor(), parameters(server.getPort()));
+        assertTrue(status.getReason(), status.isAvailable());
+    }
+
+    @Test
+    public void testSmtpRejecting() throws Exception {
+        final StubServer server = serve((s, in, out) -> {
+            out.write("554 go away\r\n".getBytes());
+            if (in.readLine().equals("QUIT")) {
+                out.write("221 See ya\r\n".getBytes());
+            }
+        });
+
+        final PollStatus status = poll(new AsyncSmtpMonitor(), parameters(server.getPort()));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Server rejecting transactions with 554", status.getReason());
+    }
+
+    @Test
+    public void testSsh() throws Exception {
+        final StubServer server = serve((s, in, out) -> {
+            out.write("SSH-2.0-OpenSSH_7.4\r\n".getBytes());
+            in.readLine();
+        });
+
+        PollStatus status = poll(new AsyncSshMonitor(), parameters(server.getPort(), "match", "OpenSSH"));
+        assertTrue(status.getReason(), status.isAvailable());
+
+        status = poll(new AsyncSshMonitor(), parameters(server.getPort(), "banner", "Dropbear", "retry", 2));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("server responded, but banner did not match 'Dropbear'", status.getReason());
+        // A mismatch is not retried
+        assertEquals(2, server.getConnections());
+    }
+
+    private static Conversation httpServer(final String statusLine, final String body) {
+        return (s, in, out) -> {
+            String line;
+            do {
+                line = in.readLine();
+            } while (line != null && !line.isEmpty());
+            out.write((statusLine + "\r\nContent-Type: text/html\r\nConnection: close\r\n\r\n" + body).getBytes());
+        };
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        final StubServer server = serve(httpServer("HTTP/1.1 200 OK", "<html>\n<body>Welcome to OpenNMS</body>\n</html>\n"));
+
+        final Map<String, Object> parameters = parameters(server.getPort(), "response-text", "~.*OpenNMS.*");
+        PollStatus status = poll(new AsyncHttpMonitor(), parameters);
+        assertTrue(status.getReason(), status.isAvailable());
+
+        status = poll(new AsyncHttpMonitor(), parameters(server.getPort(), "response-text", "Grafana"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Matching text: [Grafana] not found in body of HTTP response/Ports: " + server.getPort(), status.getReason());
+    }
+
+    @Test
+    public void testHttpResponseCodeAndPorts() throws Exception {
+        final StubServer server = serve(httpServer("HTTP/1.1 404 Not Found", ""));
+        final int closedPort = closedPort();
+
+        PollStatus status = poll(new AsyncHttpMonitor(), parameters(server.getPort(), "url", "/missing"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("HTTP response value: 404. Expecting: 100-399./Ports: " + server.getPort(), status.getReason());
+
+        // The second port is tried after the first one refused the connection
+        status = poll(new AsyncHttpMonitor(), parameters(0, "port", closedPort + "," + server.getPort(), "response", "404"));
+        assertTrue(status.getReason(), status.isAvailable());
+    }
+
+    @Test
+    public void testHttps() throws Exception {
+        final SelfSignedCertificate certificate;
+        try {
+            certificate = new SelfSignedCertificate();
+        } catch (Exception e) {
+            Assume.assumeNoException("Unable to generate a certificate", e);
+            return;
+        }
+        final java.security.KeyStore keyStore = java.security.KeyStore.getInstance("JKS");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("stub", certificate.key(), new char[0], new java.security.cert.Certificate[] { certificate.cert() });
+        final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, new char[0]);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+
+        final StubServer server = new StubServer(context.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress()),
+                httpServer("HTTP/1.1 200 OK", "secure\n"));
+        m_closeables.add(server);
+
+        final PollStatus status = poll(new AsyncHttpsMonitor(), parameters(server.getPort(), "response-text", "secure"));
+        assertTrue(status.getReason(), status.isAvailable());
+    }
+
+    /**
+     * Answers A queries with 127.0.0.1, after dropping the given number of
+     * queries.
+     */
+    private int serveDns(final int drop, final DnsResponseCode code) throws Exception {
+        final EventLoopGroup group = new NioEventLoopGroup(1);
+        m_closeables.add(() -> group.shutdownGracefully(0, 1, TimeUnit.SECONDS));
+        final AtomicInteger received = new AtomicInteger();
+
+        final Channel channel = new Bootstrap()
+                .group(group)
+                .channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(final DatagramChannel ch) {
+                        ch.pipeline().addLast(new DatagramDnsQueryDecoder());
+                        ch.pipeline().addLast(new DatagramDnsResponseEncoder());
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<DatagramDnsQuery>() {
+                            @Override
+                            protected void channelRead0(final ChannelHandlerContext ctx, final DatagramDnsQuery query) {
+                                if (received.incrementAndGet() <= drop) {
+                                    return;
+                                }
+                                final DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+                                final DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id());
+                                response.setCode(code);
+                                response.addRecord(DnsSection.QUESTION, question);
+                                if (code == DnsResponseCode.NOERROR && question.type() == DnsRecordType.A) {
+                                    response.addRecord(DnsSection.ANSWER, new DefaultDnsRawRecord(question.name(), DnsRecordType.A, 60,
+                                            Unpooled.wrappedBuffer(new byte[] { 127, 0, 0, 1 })));
+                                }
+                                ctx.writeAndFlush(response);
+                            }
+                        });
+                    }
+                })
+                .bind(InetAddress.getLoopbackAddress(), 0).sync().channel();
+
+        return ((java.net.InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    @Test
+    public void testDns() throws Exception {
+        final int port = serveDns(0, DnsResponseCode.NOERROR);
+
+        PollStatus status = poll(new AsyncDnsMonitor(), parameters(port, "lookup", "www.opennms.org"));
+        assertTrue(status.getReason(), status.isAvailable());
+
+        status = poll(new AsyncDnsMonitor(), parameters(port, "lookup", "www.opennms.org", "min-answers", 2));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Response contained only 1 answer(s), but at least 2 answers(s) are needed.", status.getReason());
+    }
+
+    @Test
+    public void testDnsFatalResponseCode() throws Exception {
+        final int port = serveDns(0, DnsResponseCode.SERVFAIL);
+
+        final PollStatus status = poll(new AsyncDnsMonitor(), parameters(port, "lookup", "www.opennms.org"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Received an invalid DNS response for address: 127.0.0.1", status.getReason());
+    }
+
+    @Test
+    public void testDnsTimeoutIsRetried() throws Exception {
+        // The first query is dropped, the second one is answered
+        final int port = serveDns(1, DnsResponseCode.NOERROR);
+
+        final PollStatus status = poll(new AsyncDnsMonitor(), parameters(port, "lookup", "www.opennms.org", "retry", 1));
+        assertTrue(status.getReason(), status.isAvailable());
+    }
+
+    @Test
+    public void testDnsTimeout() throws Exception {
+        final int port = serveDns(Integer.MAX_VALUE, DnsResponseCode.NOERROR);
+
+        final PollStatus status = poll(new AsyncDnsMonitor(), parameters(port, "lookup", "www.opennms.org"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Never received valid DNS response for address: 127.0.0.1", status.getReason());
+    }
+}
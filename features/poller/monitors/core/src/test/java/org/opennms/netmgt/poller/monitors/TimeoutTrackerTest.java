@@ -29,6 +29,7 @@
 package org.opennms.netmgt.poller.monitors;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.opennms.core.utils.TimeoutTracker;
@@ -92,4 +93,25 @@ public class TimeoutTrackerTest extends TestCase {
         assertTrue("Expected value for elapsedTimeInMillis should be less than " + maxTime, elapsedTimeInMillis < (maxTime + 1));
     }
 
+    public void testNanosUntilNextAttempt() {
+        
+        Map<String,?> emptyMap = Collections.emptyMap();
+        TimeoutTracker tracker = new TimeoutTracker(emptyMap, 1, 3000);
+
+        tracker.reset();
+        tracker.startAttempt();
+        tracker.nextAttempt();
+        assertEquals("expected no delay without strict timeouts", 0, tracker.getNanosUntilNextAttempt());
+
+        Map<String,Object> strict = new HashMap<String,Object>();
+        strict.put("strict-timeout", "true");
+        tracker = new TimeoutTracker(strict, 1, 3000);
+
+        tracker.reset();
+        tracker.startAttempt();
+        tracker.nextAttempt();
+        long delay = tracker.getNanosUntilNextAttempt();
+        assertTrue("expected a delay of up to the timeout, but was " + delay, delay > 0 && delay <= 3000000000L);
+    }
+
 }
@@ -47,6 +47,7 @@ public class TelemetrySinkModule implements SinkModule<TelemetryMessage, Telemet
     private static final int DEFAULT_BATCH_SIZE = 1000;
     private static final int DEFAULT_BATCH_INTERVAL_MS = 500;
     private static final int DEFAULT_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_DISPATCH_BATCH_SIZE = 1;
 
     @Autowired
     private DistPollerDao distPollerDao;
@@ -147,6 +148,11 @@ public class TelemetrySinkModule implements SinkModule<TelemetryMessage, Telemet
                 // Always block when full
                 return true;
             }
+
+            @Override
+            public int getBatchSize() {
+                return protocol.getDispatchBatchSize().orElse(DEFAULT_DISPATCH_BATCH_SIZE);
+            }
         };
     }
 
@@ -78,6 +78,15 @@ public interface Protocol {
      */
     Optional<Integer> getQueueSize();
 
+    /**
+     * Maximum number of messages a dispatching thread takes from the queue
+     * at once. When greater than 1, messages are queued in a preallocated
+     * ring buffer and dispatched in batches.
+     *
+     * @return the dispatch batch size
+     */
+    Optional<Integer> getDispatchBatchSize();
+
     /**
      * Packages may contain settings for specific sources.
      *
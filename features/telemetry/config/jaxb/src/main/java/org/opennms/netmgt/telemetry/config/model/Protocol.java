@@ -55,6 +55,8 @@ public class Protocol implements org.opennms.netmgt.telemetry.config.api.Protoco
     private Integer batchIntervalMs;
     @XmlAttribute(name="queue-size")
     private Integer queueSize;
+    @XmlAttribute(name="dispatch-batch-size")
+    private Integer dispatchBatchSize;
     @XmlElement(name="listener")
     private List<Listener> listeners = new ArrayList<>();
     @XmlElement(name="adapter")
@@ -123,6 +125,15 @@ public class Protocol implements org.opennms.netmgt.telemetry.config.api.Protoco
         this.queueSize = queueSize;
     }
 
+    @Override
+    public Optional<Integer> getDispatchBatchSize() {
+        return Optional.ofNullable(dispatchBatchSize);
+    }
+
+    public void setDispatchBatchSize(Integer dispatchBatchSize) {
+        this.dispatchBatchSize = dispatchBatchSize;
+    }
+
     public List<Listener> getListeners() {
         return listeners;
     }
@@ -160,6 +171,7 @@ public class Protocol implements org.opennms.netmgt.telemetry.config.api.Protoco
                 Objects.equals(batchSize, protocol.batchSize) &&
                 Objects.equals(batchIntervalMs, protocol.batchIntervalMs) &&
                 Objects.equals(queueSize, protocol.queueSize) &&
+                Objects.equals(dispatchBatchSize, protocol.dispatchBatchSize) &&
                 Objects.equals(listeners, protocol.listeners) &&
                 Objects.equals(adapters, protocol.adapters) &&
                 Objects.equals(packages, protocol.packages);
@@ -167,7 +179,7 @@ public class Protocol implements org.opennms.netmgt.telemetry.config.api.Protoco
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, description, enabled, numThreads, batchSize, batchIntervalMs, queueSize, listeners, adapters, packages);
+        return Objects.hash(name, description, enabled, numThreads, batchSize, batchIntervalMs, queueSize, dispatchBatchSize, listeners, adapters, packages);
     }
 
     @Override
@@ -180,6 +192,7 @@ public class Protocol implements org.opennms.netmgt.telemetry.config.api.Protoco
                 ", batchSize=" + batchSize +
                 ", batchIntervalMs=" + batchIntervalMs +
                 ", queueSize=" + queueSize +
+                ", dispatchBatchSize=" + dispatchBatchSize +
                 ", listeners=" + listeners +
                 ", adapters=" + adapters +
                 ", packages=" + packages +
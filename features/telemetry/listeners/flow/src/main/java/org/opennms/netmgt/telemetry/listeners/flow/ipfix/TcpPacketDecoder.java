@@ -37,6 +37,7 @@ import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header;
 import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.view.RetainedPacket;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -80,9 +81,14 @@ public class TcpPacketDecoder extends ByteToMessageDecoder {
             return null;
         }
 
-        final ByteBuffer payloadBuffer = in.readSlice(header.length - Header.SIZE).nioBuffer();
-        final Packet packet = new Packet(this.session, this.senderAddress, header, payloadBuffer);
-
-        return new DefaultAddressedEnvelope<>(packet, this.recipientAddress, this.senderAddress);
+        // The records are read from the buffer on demand - keep it until the packet has been handled
+        final ByteBuf payload = in.readRetainedSlice(header.length - Header.SIZE);
+        try {
+            final Packet packet = new Packet(this.session, this.senderAddress, header, payload.nioBuffer(), true);
+            return new DefaultAddressedEnvelope<>(new RetainedPacket(packet, payload), this.recipientAddress, this.senderAddress);
+        } catch (final InvalidPacketException | RuntimeException e) {
+            payload.release();
+            throw e;
+        }
     }
 }
@@ -36,6 +36,7 @@ import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header;
 import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
 import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
+import org.opennms.netmgt.telemetry.listeners.flow.view.RetainedPacket;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -60,8 +61,9 @@ public class UdpPacketDecoder extends MessageToMessageDecoder<DatagramPacket> {
         final Header header = new Header(headerBuffer);
 
         final ByteBuffer payloadBuffer = buf.readSlice(header.length - Header.SIZE).nioBuffer();
-        final Packet packet = new Packet(session, msg.sender(), header, payloadBuffer);
+        final Packet packet = new Packet(session, msg.sender(), header, payloadBuffer, true);
 
-        out.add(new DefaultAddressedEnvelope<>(packet, msg.recipient(), msg.sender()));
+        // The records are read from the buffer on demand - keep it until the packet has been handled
+        out.add(new DefaultAddressedEnvelope<>(new RetainedPacket(packet, buf.retain()), msg.recipient(), msg.sender()));
     }
 }
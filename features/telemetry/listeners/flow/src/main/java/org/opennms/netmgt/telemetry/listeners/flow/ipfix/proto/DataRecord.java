@@ -33,7 +33,7 @@ import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint1
 import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint8;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -41,6 +41,7 @@ import java.util.Objects;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Field;
+import org.opennms.netmgt.telemetry.listeners.flow.session.RecordReader;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
 
@@ -91,24 +92,15 @@ public final class DataRecord implements Record {
 
     public DataRecord(final DataSet set,
                       final Session.Resolver resolver,
-                      final Template template,
+                      final RecordReader reader,
                       final ByteBuffer buffer) throws InvalidPacketException {
         this.set = Objects.requireNonNull(set);
 
-        this.template = Objects.requireNonNull(template);
+        this.template = reader.template;
 
-        final List<Value<?>> scopes = new ArrayList(this.template.scopes.size());
-        for (final Field scope : this.template.scopes) {
-            scopes.add(parseField(scope, resolver, buffer));
-        }
-
-        final List<Value<?>> fields = new ArrayList(this.template.fields.size());
-        for (final Field field : this.template.fields) {
-            fields.add(parseField(field, resolver, buffer));
-        }
-
-        this.scopes = Collections.unmodifiableList(scopes);
-        this.fields = Collections.unmodifiableList(fields);
+        final List<Value<?>> values = Arrays.asList(reader.read(resolver, buffer));
+        this.scopes = Collections.unmodifiableList(values.subList(0, reader.getScopeCount()));
+        this.fields = Collections.unmodifiableList(values.subList(reader.getScopeCount(), values.size()));
 
         // Expand the data record by appending values from
         // TODO fooker: extend fields with packet metadata
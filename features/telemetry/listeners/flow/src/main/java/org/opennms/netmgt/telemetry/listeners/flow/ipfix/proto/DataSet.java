@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Objects;
 
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
+import org.opennms.netmgt.telemetry.listeners.flow.session.RecordReader;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
 
@@ -55,16 +56,15 @@ public class DataSet extends FlowSet<DataRecord> {
         super(packet, header);
 
         this.resolver = Objects.requireNonNull(resolver);
-        this.template = this.resolver.lookupTemplate(this.header.setId)
+        final RecordReader reader = this.resolver.lookupRecordReader(this.header.setId)
                 .orElseThrow(() -> new InvalidPacketException(buffer, "Unknown Template ID: %d", this.header.setId));
+        this.template = reader.template;
 
-        // For variable length fields we assume at least the length value (1 byte) to be present
-        final int minimumRecordLength = this.template.stream()
-                .mapToInt(f -> f.length() != DataRecord.VARIABLE_SIZED ? f.length() : 1).sum();
+        final int minimumRecordLength = reader.getMinimumLength();
 
         final List<DataRecord> records = new LinkedList();
-        while (buffer.remaining() >= minimumRecordLength) {
-            records.add(new DataRecord(this, this.resolver, this.template, buffer));
+        while (minimumRecordLength > 0 && buffer.remaining() >= minimumRecordLength) {
+            records.add(new DataRecord(this, this.resolver, reader, buffer));
         }
 
         if (records.size() == 0) {
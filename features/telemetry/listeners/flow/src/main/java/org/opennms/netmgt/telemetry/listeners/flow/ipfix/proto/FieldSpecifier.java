@@ -106,6 +106,11 @@ public final class FieldSpecifier implements Field, Scope {
         return this.fieldLength;
     }
 
+    @Override
+    public boolean isVariableLength() {
+        return this.fieldLength == DataRecord.VARIABLE_SIZED;
+    }
+
     @Override
     public String getName() {
         return this.informationElement.getName();
@@ -43,8 +43,10 @@ import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.UnsignedValue;
+import org.opennms.netmgt.telemetry.listeners.flow.session.RecordReader;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
+import org.opennms.netmgt.telemetry.listeners.flow.view.DataSetView;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
@@ -74,11 +76,25 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public final List<TemplateSet> templateSets;
     public final List<OptionsTemplateSet> optionTemplateSets;
     public final List<DataSet> dataSets;
+    public final List<DataSetView> dataSetViews;
 
     public Packet(final Session session,
                   final InetSocketAddress sender,
                   final Header header,
                   final ByteBuffer buffer) throws InvalidPacketException {
+        this(session, sender, header, buffer, false);
+    }
+
+    /**
+     * @param lazy if set, the data sets are not decoded but exposed as {@link DataSetView}s reading the records from
+     *             the buffer on demand. The caller must ensure that the buffer remains valid while the records are in
+     *             use.
+     */
+    public Packet(final Session session,
+                  final InetSocketAddress sender,
+                  final Header header,
+                  final ByteBuffer buffer,
+                  final boolean lazy) throws InvalidPacketException {
         this.sender = Objects.requireNonNull(sender);
 
         this.header = Objects.requireNonNull(header);
@@ -86,6 +102,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
         final List<TemplateSet> templateSets = new LinkedList();
         final List<OptionsTemplateSet> optionTemplateSets = new LinkedList();
         final List<DataSet> dataSets = new LinkedList();
+        final List<DataSetView> dataSetViews = new LinkedList();
 
         while (buffer.hasRemaining()) {
             final ByteBuffer headerBuffer = slice(buffer, FlowSetHeader.SIZE);
@@ -150,6 +167,18 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
 
                 case DATA_SET: {
                     final Session.Resolver resolver = session.getResolver(header.observationDomainId);
+
+                    if (lazy) {
+                        final RecordReader reader = resolver.lookupRecordReader(setHeader.setId)
+                                .orElseThrow(() -> new InvalidPacketException(payloadBuffer, "Unknown Template ID: %d", setHeader.setId));
+
+                        if (reader.template.type == Template.Type.TEMPLATE) {
+                            // The options depend on the field values and are therefore resolved when they are accessed
+                            dataSetViews.add(new DataSetView(reader, resolver, record -> resolver.lookupOptions(record.getFields()), payloadBuffer));
+                            break;
+                        }
+                    }
+
                     final DataSet dataSet = new DataSet(this, setHeader, resolver, payloadBuffer);
 
                     if (dataSet.template.type == Template.Type.OPTIONS_TEMPLATE) {
@@ -172,6 +201,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
         this.templateSets = Collections.unmodifiableList(templateSets);
         this.optionTemplateSets = Collections.unmodifiableList(optionTemplateSets);
         this.dataSets = Collections.unmodifiableList(dataSets);
+        this.dataSetViews = Collections.unmodifiableList(dataSetViews);
     }
 
     @Override
@@ -185,19 +215,23 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public Stream<Iterable<Value<?>>> getRecords() {
         final int recordCount = this.dataSets.stream()
                 .mapToInt(s -> s.records.size())
+                .sum() + this.dataSetViews.stream()
+                .mapToInt(DataSetView::size)
                 .sum();
 
-        return this.dataSets.stream()
-                .flatMap(s -> s.records.stream())
-                .map(r -> Iterables.concat(
-                        ImmutableList.of(
-                                new UnsignedValue("@recordCount", recordCount),
-                                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
-                                new UnsignedValue("@exportTime", this.header.exportTime),
-                                new UnsignedValue("@observationDomainId", this.header.observationDomainId)),
-                        r.fields,
-                        r.options
-                ));
+        // The header values are the same for all records of the packet
+        final List<Value<?>> header = ImmutableList.of(
+                new UnsignedValue("@recordCount", recordCount),
+                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
+                new UnsignedValue("@exportTime", this.header.exportTime),
+                new UnsignedValue("@observationDomainId", this.header.observationDomainId));
+
+        return Stream.concat(
+                this.dataSets.stream()
+                        .flatMap(s -> s.records.stream())
+                        .map(r -> Iterables.concat(header, r.fields, r.options)),
+                this.dataSetViews.stream()
+                        .flatMap(s -> s.getRecords(header)));
     }
 
     @Override
@@ -207,6 +241,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                 .add("templateSets", this.templateSets)
                 .add("optionTemplateSets", this.optionTemplateSets)
                 .add("dataTemplateSets", this.dataSets)
+                .add("dataSetViews", this.dataSetViews)
                 .toString();
     }
 }
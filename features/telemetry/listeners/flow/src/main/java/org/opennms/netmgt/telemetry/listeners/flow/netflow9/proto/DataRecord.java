@@ -28,17 +28,15 @@
 
 package org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto;
 
-import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.slice;
-
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
-import org.opennms.netmgt.telemetry.listeners.flow.session.Field;
+import org.opennms.netmgt.telemetry.listeners.flow.session.RecordReader;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
 
@@ -68,24 +66,15 @@ public final class DataRecord implements Record {
 
     public DataRecord(final DataSet set,
                       final Session.Resolver resolver,
-                      final Template template,
+                      final RecordReader reader,
                       final ByteBuffer buffer) throws InvalidPacketException {
         this.set = Objects.requireNonNull(set);
 
-        this.template = Objects.requireNonNull(template);
-
-        final List<Value<?>> scopes = new ArrayList(this.template.scopes.size());
-        for (final Field scope : template.scopes) {
-            scopes.add(scope.parse(resolver, slice(buffer, scope.length())));
-        }
-
-        final List<Value<?>> fields = new ArrayList(this.template.fields.size());
-        for (final Field field : template.fields) {
-            fields.add(field.parse(resolver, slice(buffer, field.length())));
-        }
+        this.template = reader.template;
 
-        this.scopes = Collections.unmodifiableList(scopes);
-        this.fields = Collections.unmodifiableList(fields);
+        final List<Value<?>> values = Arrays.asList(reader.read(resolver, buffer));
+        this.scopes = Collections.unmodifiableList(values.subList(0, reader.getScopeCount()));
+        this.fields = Collections.unmodifiableList(values.subList(reader.getScopeCount(), values.size()));
 
         // Expand the data record by appending values from
         this.options = resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(this));
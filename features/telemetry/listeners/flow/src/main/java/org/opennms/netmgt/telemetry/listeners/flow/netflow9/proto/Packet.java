@@ -42,8 +42,10 @@ import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.values.UnsignedValue;
+import org.opennms.netmgt.telemetry.listeners.flow.session.RecordReader;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
+import org.opennms.netmgt.telemetry.listeners.flow.view.DataSetView;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
@@ -67,15 +69,29 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public final List<TemplateSet> templateSets;
     public final List<OptionsTemplateSet> optionTemplateSets;
     public final List<DataSet> dataSets;
+    public final List<DataSetView> dataSetViews;
 
     public Packet(final Session session,
                   final Header header,
                   final ByteBuffer buffer) throws InvalidPacketException {
+        this(session, header, buffer, false);
+    }
+
+    /**
+     * @param lazy if set, the data sets are not decoded but exposed as {@link DataSetView}s reading the records from
+     *             the buffer on demand. The caller must ensure that the buffer remains valid while the records are in
+     *             use.
+     */
+    public Packet(final Session session,
+                  final Header header,
+                  final ByteBuffer buffer,
+                  final boolean lazy) throws InvalidPacketException {
         this.header = Objects.requireNonNull(header);
 
         final List<TemplateSet> templateSets = new LinkedList<>();
         final List<OptionsTemplateSet> optionTemplateSets = new LinkedList<>();
         final List<DataSet> dataSets = new LinkedList<>();
+        final List<DataSetView> dataSetViews = new LinkedList<>();
         while (buffer.hasRemaining()) {
             // We ignore header.counter here, because different exporters interpret it as flowset count or record count
 
@@ -128,6 +144,19 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
 
                 case DATA_FLOWSET: {
                     final Session.Resolver resolver = session.getResolver(header.sourceId);
+
+                    if (lazy) {
+                        final RecordReader reader = resolver.lookupRecordReader(setHeader.setId)
+                                .orElseThrow(() -> new InvalidPacketException(payloadBuffer, "Unknown Template ID: %d", setHeader.setId));
+
+                        if (reader.template.type == Template.Type.TEMPLATE) {
+                            // The options only depend on the source and the template - resolve them once for all records
+                            final List<Value<?>> options = resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(this.header.sourceId, reader.template.id));
+                            dataSetViews.add(new DataSetView(reader, resolver, record -> options, payloadBuffer));
+                            break;
+                        }
+                    }
+
                     final DataSet dataSet = new DataSet(this, setHeader, resolver, payloadBuffer);
 
                     if (dataSet.template.type == Template.Type.OPTIONS_TEMPLATE) {
@@ -150,6 +179,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
         this.templateSets = Collections.unmodifiableList(templateSets);
         this.optionTemplateSets = Collections.unmodifiableList(optionTemplateSets);
         this.dataSets = Collections.unmodifiableList(dataSets);
+        this.dataSetViews = Collections.unmodifiableList(dataSetViews);
     }
 
     @Override
@@ -163,20 +193,24 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public Stream<Iterable<Value<?>>> getRecords() {
         final int recordCount = this.dataSets.stream()
                 .mapToInt(s -> s.records.size())
+                .sum() + this.dataSetViews.stream()
+                .mapToInt(DataSetView::size)
                 .sum();
 
-        return this.dataSets.stream()
-                .flatMap(s -> s.records.stream())
-                .map(r -> Iterables.concat(
-                        ImmutableList.of(
-                                new UnsignedValue("@recordCount", recordCount),
-                                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
-                                new UnsignedValue("@sysUpTime", this.header.sysUpTime),
-                                new UnsignedValue("@unixSecs", this.header.unixSecs),
-                                new UnsignedValue("@sourceId", this.header.sourceId)),
-                        r.fields,
-                        r.options
-                ));
+        // The header values are the same for all records of the packet
+        final List<Value<?>> header = ImmutableList.of(
+                new UnsignedValue("@recordCount", recordCount),
+                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
+                new UnsignedValue("@sysUpTime", this.header.sysUpTime),
+                new UnsignedValue("@unixSecs", this.header.unixSecs),
+                new UnsignedValue("@sourceId", this.header.sourceId));
+
+        return Stream.concat(
+                this.dataSets.stream()
+                        .flatMap(s -> s.records.stream())
+                        .map(r -> Iterables.concat(header, r.fields, r.options)),
+                this.dataSetViews.stream()
+                        .flatMap(s -> s.getRecords(header)));
     }
 
     @Override
@@ -186,6 +220,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                 .add("templateSets", this.templateSets)
                 .add("optionTemplateSets", this.optionTemplateSets)
                 .add("dataTemplateSets", this.dataSets)
+                .add("dataSetViews", this.dataSetViews)
                 .toString();
     }
 }
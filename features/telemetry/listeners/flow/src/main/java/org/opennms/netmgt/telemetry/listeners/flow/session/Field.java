@@ -34,8 +34,17 @@ import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
 
 public interface Field {
+    String getName();
+
     int length();
 
+    /**
+     * @return true if the length of the value is encoded in each record instead of the template
+     */
+    default boolean isVariableLength() {
+        return false;
+    }
+
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuffer buffer) throws InvalidPacketException;
 }
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow.session;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.DataRecord;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads the data records described by a {@link Template}.
+ *
+ * The reader is compiled once when the template is received and is cached
+ * by the session alongside the template until the template is withdrawn or
+ * expires. If all fields of the template have a fixed size, the offset of
+ * each field in a record is known in advance and reading a record does not
+ * require any length decoding. Otherwise only the lengths of the variable
+ * sized fields are read from the record.
+ *
+ * The values of a record are the scopes followed by the fields, in the order
+ * in which they appear in the record.
+ */
+public final class RecordReader {
+
+    public final Template template;
+
+    private final Field[] fields;
+
+    private final int scopeCount;
+
+    private final Map<String, Integer> index;
+
+    // Offsets of the values relative to the start of the record if all fields have a fixed size, null otherwise
+    private final int[] offsets;
+
+    // The length of a record if all fields have a fixed size, the minimal length otherwise
+    private final int minimumLength;
+
+    private RecordReader(final Template template) {
+        this.template = Objects.requireNonNull(template);
+
+        this.scopeCount = template.scopes.size();
+
+        this.fields = new Field[template.scopes.size() + template.fields.size()];
+        int i = 0;
+        for (final Field scope : template.scopes) {
+            this.fields[i++] = scope;
+        }
+        for (final Field field : template.fields) {
+            this.fields[i++] = field;
+        }
+
+        this.index = new HashMap<>(this.fields.length * 2);
+        boolean variableLength = false;
+        int minimumLength = 0;
+        final int[] offsets = new int[this.fields.length];
+        for (i = 0; i < this.fields.length; i++) {
+            // The first occurrence wins if a template contains the same element more than once
+            this.index.putIfAbsent(this.fields[i].getName(), i);
+
+            offsets[i] = minimumLength;
+            if (this.fields[i].isVariableLength()) {
+                // For variable length fields we assume at least the length value (1 byte) to be present
+                variableLength = true;
+                minimumLength += 1;
+            } else {
+                minimumLength += this.fields[i].length();
+            }
+        }
+
+        this.offsets = variableLength ? null : offsets;
+        this.minimumLength = minimumLength;
+    }
+
+    public static RecordReader compile(final Template template) {
+        return new RecordReader(template);
+    }
+
+    /**
+     * @return the number of values in a record
+     */
+    public int size() {
+        return this.fields.length;
+    }
+
+    public int getScopeCount() {
+        return this.scopeCount;
+    }
+
+    public Field getField(final int index) {
+        return this.fields[index];
+    }
+
+    /**
+     * @return the index of the value with the given name or -1 if the template does not contain such a value
+     */
+    public int indexOf(final String name) {
+        final Integer index = this.index.get(name);
+        return index != null ? index : -1;
+    }
+
+    public boolean isFixedLength() {
+        return this.offsets != null;
+    }
+
+    /**
+     * @return the offset of the value relative to the start of the record - only available for fixed length records
+     */
+    public int getOffset(final int index) {
+        Preconditions.checkState(this.offsets != null, "template contains variable length fields");
+        return this.offsets[index];
+    }
+
+    public int getMinimumLength() {
+        return this.minimumLength;
+    }
+
+    /**
+     * Determines the position of the values of the record starting at the
+     * given position without parsing them.
+     *
+     * @param buffer the buffer containing the record
+     * @param position the start of the record
+     * @param offsets receives the absolute offset of each value, if not null
+     * @param lengths receives the length of each value, if not null
+     * @return the end of the record
+     */
+    public int locate(final ByteBuffer buffer, int position, final int[] offsets, final int[] lengths) throws InvalidPacketException {
+        final int limit = buffer.limit();
+        for (int i = 0; i < this.fields.length; i++) {
+            int length = this.fields[i].length();
+            if (this.fields[i].isVariableLength()) {
+                if (position + 1 > limit) {
+                    throw new InvalidPacketException(buffer, "Truncated length of field '%s'", this.fields[i].getName());
+                }
+                length = buffer.get(position) & 0xFF;
+                position += 1;
+
+                if (length == DataRecord.VARIABLE_SIZED_EXTENDED) {
+                    if (position + 2 > limit) {
+                        throw new InvalidPacketException(buffer, "Truncated length of field '%s'", this.fields[i].getName());
+                    }
+                    length = ((buffer.get(position) & 0xFF) << 8) | (buffer.get(position + 1) & 0xFF);
+                    position += 2;
+                }
+            }
+
+            if (position + length > limit) {
+                throw new InvalidPacketException(buffer, "Field '%s' exceeds the set", this.fields[i].getName());
+            }
+
+            if (offsets != null) {
+                offsets[i] = position;
+            }
+            if (lengths != null) {
+                lengths[i] = length;
+            }
+
+            position += length;
+        }
+
+        return position;
+    }
+
+    /**
+     * Reads all values of the record starting at the current position of the
+     * buffer and advances the buffer to the end of the record.
+     */
+    public Value<?>[] read(final Session.Resolver resolver, final ByteBuffer buffer) throws InvalidPacketException {
+        final Value<?>[] values = new Value<?>[this.fields.length];
+
+        // Re-use a single view on the buffer for all fields instead of slicing it for each of them
+        final ByteBuffer cursor = buffer.duplicate();
+
+        int position = buffer.position();
+        if (this.offsets != null) {
+            if (position + this.minimumLength > buffer.limit()) {
+                throw new InvalidPacketException(buffer, "Record exceeds the set");
+            }
+            for (int i = 0; i < this.fields.length; i++) {
+                values[i] = this.read(resolver, cursor, i, position + this.offsets[i], this.fields[i].length());
+            }
+            position += this.minimumLength;
+
+        } else {
+            final int[] offsets = new int[this.fields.length];
+            final int[] lengths = new int[this.fields.length];
+            position = this.locate(buffer, position, offsets, lengths);
+            for (int i = 0; i < this.fields.length; i++) {
+                values[i] = this.read(resolver, cursor, i, offsets[i], lengths[i]);
+            }
+        }
+
+        buffer.position(position);
+        return values;
+    }
+
+    /**
+     * Parses a single value.
+     *
+     * @param cursor a view on the buffer containing the record, which is re-positioned to the value
+     * @param index the index of the value
+     * @param offset the absolute offset of the value in the cursor
+     * @param length the length of the value
+     */
+    public Value<?> read(final Session.Resolver resolver, final ByteBuffer cursor, final int index, final int offset, final int length) throws InvalidPacketException {
+        cursor.limit(cursor.capacity());
+        cursor.position(offset);
+        cursor.limit(offset + length);
+
+        return this.fields[index].parse(resolver, cursor);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("templateId", this.template.id)
+                .add("fixedLength", this.isFixedLength())
+                .add("minimumLength", this.minimumLength)
+                .toString();
+    }
+}
@@ -38,6 +38,7 @@ public interface Session {
 
     interface Resolver {
         Optional<Template> lookupTemplate(final int templateId);
+        Optional<RecordReader> lookupRecordReader(final int templateId);
         List<Value<?>> lookupOptions(final List<Value<?>> values);
     }
 
@@ -56,12 +56,22 @@ public class TcpSession implements Session {
 
         @Override
         public Optional<Template> lookupTemplate(final int templateId) {
+            return this.lookupRecordReader(templateId).map(r -> r.template);
+        }
+
+        @Override
+        public Optional<RecordReader> lookupRecordReader(final int templateId) {
             final Key key = new Key(this.observationDomainId, templateId);
             return Optional.ofNullable(TcpSession.this.templates.get(key));
         }
 
         @Override
         public List<Value<?>> lookupOptions(final List<Value<?>> values) {
+            if (TcpSession.this.options.isEmpty()) {
+                // Nothing to look up - avoid building the scopes for each record
+                return Collections.emptyList();
+            }
+
             final LinkedHashMap<String, Value<?>> options = new LinkedHashMap();
 
             final Set<String> scoped = values.stream().map(Value::getName).collect(Collectors.toSet());
@@ -115,7 +125,8 @@ public class TcpSession implements Session {
         }
     }
 
-    private final Map<Key, Template> templates = Maps.newHashMap();
+    // The templates compiled to readers for their records
+    private final Map<Key, RecordReader> templates = Maps.newHashMap();
     private final Map<Key, Map<Set<Value<?>>, List<Value<?>>>> options = Maps.newHashMap();
 
     public TcpSession() {
@@ -123,7 +134,7 @@ public class TcpSession implements Session {
 
     @Override
     public void addTemplate(final long observationDomainId, final Template template) {
-        this.templates.put(new Key(observationDomainId, template.id), template);
+        this.templates.put(new Key(observationDomainId, template.id), RecordReader.compile(template));
     }
 
     @Override
@@ -133,7 +144,7 @@ public class TcpSession implements Session {
 
     @Override
     public void removeAllTemplate(final long observationDomainId, final Template.Type type) {
-        this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().type == type);
+        this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().template.type == type);
     }
 
     @Override
@@ -67,8 +67,18 @@ public class UdpSessionManager {
                 return Optional.ofNullable(UdpSessionManager.this.templates.get(key(templateId))).map(v -> v.template);
             }
 
+            @Override
+            public Optional<RecordReader> lookupRecordReader(final int templateId) {
+                return Optional.ofNullable(UdpSessionManager.this.templates.get(key(templateId))).map(v -> v.reader);
+            }
+
             @Override
             public List<Value<?>> lookupOptions(final List<Value<?>> values) {
+                if (UdpSessionManager.this.options.isEmpty()) {
+                    // Nothing to look up - avoid building the scopes for each record
+                    return Collections.emptyList();
+                }
+
                 final LinkedHashMap<String, Value<?>> options = new LinkedHashMap();
 
                 final Set<String> scoped = values.stream().map(Value::getName).collect(Collectors.toSet());
@@ -179,10 +189,12 @@ public class UdpSessionManager {
     private final static class TemplateWrapper {
         public final Instant insertionTime;
         public final Template template;
+        public final RecordReader reader;
 
         private TemplateWrapper(final Template template) {
             this.insertionTime = Instant.now();
             this.template = template;
+            this.reader = RecordReader.compile(template);
         }
     }
 
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow.view;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.session.RecordReader;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A data set which is decoded on demand.
+ *
+ * Only the boundaries of the records are determined while creating the view.
+ * The records are exposed as {@link RecordView}s which parse their fields
+ * straight from the underlying buffer when they are accessed.
+ *
+ * The view does not own the buffer and is only valid as long as the buffer is.
+ * See {@link RetainedPacket}.
+ */
+public final class DataSetView {
+
+    @FunctionalInterface
+    public interface OptionsResolver {
+        List<Value<?>> lookupOptions(final RecordView record) throws InvalidPacketException;
+    }
+
+    public final RecordReader reader;
+
+    public final Template template;
+
+    final Session.Resolver resolver;
+    final OptionsResolver optionsResolver;
+
+    final ByteBuffer buffer;
+
+    // Offsets of the records if the template contains variable sized fields, null otherwise
+    private final int[] recordOffsets;
+
+    private final int recordCount;
+
+    public DataSetView(final RecordReader reader,
+                       final Session.Resolver resolver,
+                       final OptionsResolver optionsResolver,
+                       final ByteBuffer buffer) throws InvalidPacketException {
+        Preconditions.checkArgument(reader.template.type == Template.Type.TEMPLATE, "views are only supported for data templates");
+
+        this.reader = Objects.requireNonNull(reader);
+        this.template = reader.template;
+        this.resolver = Objects.requireNonNull(resolver);
+        this.optionsResolver = Objects.requireNonNull(optionsResolver);
+        this.buffer = Objects.requireNonNull(buffer);
+
+        final int minimumLength = reader.getMinimumLength();
+
+        if (reader.isFixedLength()) {
+            this.recordOffsets = null;
+            this.recordCount = minimumLength > 0
+                    ? (buffer.limit() - buffer.position()) / minimumLength
+                    : 0;
+
+        } else {
+            int[] recordOffsets = new int[16];
+            int recordCount = 0;
+            int position = buffer.position();
+            while (buffer.limit() - position >= minimumLength) {
+                if (recordCount == recordOffsets.length) {
+                    recordOffsets = Arrays.copyOf(recordOffsets, recordCount * 2);
+                }
+                recordOffsets[recordCount++] = position;
+                position = reader.locate(buffer, position, null, null);
+            }
+
+            this.recordOffsets = recordOffsets;
+            this.recordCount = recordCount;
+        }
+
+        if (this.recordCount == 0) {
+            throw new InvalidPacketException(buffer, "Empty set");
+        }
+    }
+
+    public int size() {
+        return this.recordCount;
+    }
+
+    public RecordView get(final List<Value<?>> header, final int index) {
+        Preconditions.checkElementIndex(index, this.recordCount);
+        return new RecordView(this, header, this.recordOffsets != null
+                ? this.recordOffsets[index]
+                : this.buffer.position() + index * this.reader.getMinimumLength());
+    }
+
+    public Stream<Iterable<Value<?>>> getRecords(final List<Value<?>> header) {
+        return IntStream.range(0, this.recordCount).<Iterable<Value<?>>>mapToObj(i -> get(header, i));
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("templateId", this.template.id)
+                .add("records", this.recordCount)
+                .toString();
+    }
+}
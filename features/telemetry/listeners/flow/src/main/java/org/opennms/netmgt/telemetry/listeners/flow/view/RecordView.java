@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow.view;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * A flyweight for a single data record of a {@link DataSetView}.
+ *
+ * The view only knows where the record starts. The values of the fields are
+ * parsed from the buffer the first time they are accessed and are kept for
+ * later use. Options are resolved the first time they are accessed, too.
+ *
+ * Iterating the view yields the packet header values, the fields and the
+ * options, which is the same as for the records of the eagerly decoded
+ * packets.
+ */
+public final class RecordView implements Iterable<Value<?>> {
+    private final DataSetView set;
+
+    private final List<Value<?>> header;
+
+    private final int offset;
+
+    private int[] fieldOffsets;
+    private int[] fieldLengths;
+
+    private Value<?>[] values;
+
+    private List<Value<?>> options;
+
+    private ByteBuffer cursor;
+
+    RecordView(final DataSetView set,
+               final List<Value<?>> header,
+               final int offset) {
+        this.set = Objects.requireNonNull(set);
+        this.header = Objects.requireNonNull(header);
+        this.offset = offset;
+    }
+
+    public int getFieldCount() {
+        return this.set.reader.size();
+    }
+
+    public Value<?> getField(final int index) throws InvalidPacketException {
+        if (this.values == null) {
+            this.values = new Value<?>[this.set.reader.size()];
+        }
+
+        Value<?> value = this.values[index];
+        if (value == null) {
+            value = this.values[index] = this.parse(index);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value of the field with the given name without parsing any
+     * of the other fields.
+     */
+    public Optional<Value<?>> getField(final String name) throws InvalidPacketException {
+        final int index = this.set.reader.indexOf(name);
+        return index >= 0
+                ? Optional.of(this.getField(index))
+                : Optional.empty();
+    }
+
+    public List<Value<?>> getFields() throws InvalidPacketException {
+        for (int i = 0; i < this.set.reader.size(); i++) {
+            this.getField(i);
+        }
+        return this.values != null
+                ? Collections.unmodifiableList(Arrays.asList(this.values))
+                : Collections.emptyList();
+    }
+
+    public List<Value<?>> getOptions() throws InvalidPacketException {
+        if (this.options == null) {
+            this.options = this.set.optionsResolver.lookupOptions(this);
+        }
+        return this.options;
+    }
+
+    private Value<?> parse(final int index) throws InvalidPacketException {
+        final int offset;
+        final int length;
+        if (this.set.reader.isFixedLength()) {
+            offset = this.offset + this.set.reader.getOffset(index);
+            length = this.set.reader.getField(index).length();
+        } else {
+            if (this.fieldOffsets == null) {
+                this.fieldOffsets = new int[this.set.reader.size()];
+                this.fieldLengths = new int[this.set.reader.size()];
+                this.set.reader.locate(this.set.buffer, this.offset, this.fieldOffsets, this.fieldLengths);
+            }
+            offset = this.fieldOffsets[index];
+            length = this.fieldLengths[index];
+        }
+
+        // Re-use a single view on the buffer for all fields instead of slicing it for each of them
+        if (this.cursor == null) {
+            this.cursor = this.set.buffer.duplicate();
+        }
+
+        return this.set.reader.read(this.set.resolver, this.cursor, index, offset, length);
+    }
+
+    @Override
+    public Iterator<Value<?>> iterator() {
+        return new AbstractIterator<Value<?>>() {
+            private int index = 0;
+
+            @Override
+            protected Value<?> computeNext() {
+                int i = this.index++;
+                if (i < RecordView.this.header.size()) {
+                    return RecordView.this.header.get(i);
+                }
+
+                i -= RecordView.this.header.size();
+                try {
+                    if (i < RecordView.this.getFieldCount()) {
+                        return RecordView.this.getField(i);
+                    }
+
+                    i -= RecordView.this.getFieldCount();
+                    final List<Value<?>> options = RecordView.this.getOptions();
+                    if (i < options.size()) {
+                        return options.get(i);
+                    }
+                } catch (final InvalidPacketException e) {
+                    throw new RuntimeException(e);
+                }
+
+                return this.endOfData();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("templateId", this.set.template.id)
+                .add("offset", this.offset)
+                .toString();
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow.view;
+
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+
+import com.google.common.base.MoreObjects;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+
+/**
+ * A packet which has been decoded into views on a pooled buffer.
+ *
+ * The packet holds a reference to the buffer until it is released itself, so
+ * that the records can be read straight from the buffer after the decoder
+ * returned. When passed through a pipeline wrapped in an envelope, the packet
+ * is released together with the envelope.
+ */
+public final class RetainedPacket extends AbstractReferenceCounted implements RecordProvider {
+    private final RecordProvider packet;
+
+    private final ByteBuf buffer;
+
+    /**
+     * @param packet the packet decoded from the buffer
+     * @param buffer the buffer - ownership of one reference is passed to the packet
+     */
+    public RetainedPacket(final RecordProvider packet, final ByteBuf buffer) {
+        this.packet = Objects.requireNonNull(packet);
+        this.buffer = Objects.requireNonNull(buffer);
+    }
+
+    public RecordProvider getPacket() {
+        return this.packet;
+    }
+
+    @Override
+    public Stream<Iterable<Value<?>>> getRecords() {
+        return this.packet.getRecords();
+    }
+
+    @Override
+    protected void deallocate() {
+        this.buffer.release();
+    }
+
+    @Override
+    public RetainedPacket touch(final Object hint) {
+        this.buffer.touch(hint);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("packet", this.packet)
+                .toString();
+    }
+}
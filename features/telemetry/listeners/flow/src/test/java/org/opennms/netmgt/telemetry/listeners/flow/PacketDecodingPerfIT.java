@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow;
+
+import static org.junit.Assert.assertTrue;
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.TcpSession;
+import org.opennms.netmgt.telemetry.listeners.flow.view.RecordView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Compares decoding captured NetFlow v9 and IPFIX data packets into fully
+ * materialized records against decoding them into views on a pooled direct
+ * buffer.
+ *
+ * Each scenario is run once serializing all fields of every record, as the
+ * {@link PacketHandler} does, and once reading only two fields by name, as a
+ * consumer interested in a few fields would. The results report the number
+ * of records per second and the bytes allocated per record.
+ */
+public class PacketDecodingPerfIT {
+    private static final Logger LOG = LoggerFactory.getLogger(PacketDecodingPerfIT.class);
+
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private static final InetSocketAddress SENDER = InetSocketAddress.createUnresolved("localhost", 4711);
+
+    private static final long DURATION_MS = TimeUnit.SECONDS.toMillis(5);
+
+    @FunctionalInterface
+    private interface Decoder {
+        RecordProvider decode(final ByteBuffer buffer, final boolean lazy) throws Exception;
+    }
+
+    @Test
+    public void compareNetflow9() throws Exception {
+        final Session session = new TcpSession();
+        final Decoder decoder = (buffer, lazy) -> {
+            final org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header header = new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header(slice(buffer, org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header.SIZE));
+            return new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Packet(session, header, buffer, lazy);
+        };
+
+        decoder.decode(read("netflow9_test_nprobe_tpl.dat"), false);
+        compare("netflow9", decoder, read("netflow9_test_nprobe_data.dat"), "IPV4_SRC_ADDR", "IN_BYTES");
+    }
+
+    @Test
+    public void compareIpfix() throws Exception {
+        final Session session = new TcpSession();
+        final Decoder decoder = (buffer, lazy) -> {
+            final org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header header = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header(slice(buffer, org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE));
+            return new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet(session, SENDER, header, slice(buffer, header.length - org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE), lazy);
+        };
+
+        decoder.decode(read("ipfix_test_vmware_vds_tpl.dat"), false);
+        compare("ipfix", decoder, read("ipfix_test_vmware_vds_data264.dat"), "sourceIPv4Address", "octetDeltaCount");
+    }
+
+    private static void compare(final String name, final Decoder decoder, final ByteBuffer data, final String... fields) throws Exception {
+        final ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(data.remaining());
+        try {
+            buf.writeBytes(data);
+
+            for (final boolean serialize : new boolean[]{true, false}) {
+                // warm up
+                run(decoder, buf, false, serialize, fields);
+                run(decoder, buf, true, serialize, fields);
+
+                final Result eager = run(decoder, buf, false, serialize, fields);
+                final Result lazy = run(decoder, buf, true, serialize, fields);
+                LOG.info("{} {}: eager={} records/s {} bytes/record, lazy={} records/s {} bytes/record, speedup={}",
+                        name, serialize ? "serialize all fields" : "read " + fields.length + " fields",
+                        (long) eager.recordsPerSecond, eager.bytesPerRecord,
+                        (long) lazy.recordsPerSecond, lazy.bytesPerRecord,
+                        String.format("%.2f", lazy.recordsPerSecond / eager.recordsPerSecond));
+            }
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static Result run(final Decoder decoder, final ByteBuf buf, final boolean lazy, final boolean serialize, final String... fields) throws Exception {
+        final AtomicLong sink = new AtomicLong();
+        long records = 0;
+
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        while (System.nanoTime() < end) {
+            final RecordProvider packet = decoder.decode(buf.nioBuffer(), lazy);
+            for (final Iterable<Value<?>> record : (Iterable<Iterable<Value<?>>>) packet.getRecords()::iterator) {
+                if (serialize) {
+                    sink.addAndGet(PacketHandler.serialize(Protocol.IPFIX, record).remaining());
+                } else {
+                    for (final String field : fields) {
+                        sink.addAndGet(lookup(record, field).hashCode());
+                    }
+                }
+                records++;
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = allocatedBytes() - allocatedBefore;
+
+        assertTrue(records > 0);
+        return new Result(records * (double) TimeUnit.SECONDS.toNanos(1) / elapsed,
+                allocated >= 0 ? allocated / records : -1);
+    }
+
+    private static Value<?> lookup(final Iterable<Value<?>> record, final String name) throws InvalidPacketException {
+        if (record instanceof RecordView) {
+            return ((RecordView) record).getField(name).get();
+        }
+        for (final Value<?> value : record) {
+            if (value.getName().equals(name)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static ByteBuffer read(final String file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(FOLDER.resolve(file))) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            channel.read(buffer);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static class Result {
+        private final double recordsPerSecond;
+        private final long bytesPerRecord;
+
+        private Result(final double recordsPerSecond, final long bytesPerRecord) {
+            this.recordsPerSecond = recordsPerSecond;
+            this.bytesPerRecord = bytesPerRecord;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow.session;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils;
+import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.values.UnsignedValue;
+
+public class RecordReaderTest {
+
+    private static class TestField implements Scope {
+        private final String name;
+        private final int length;
+
+        private TestField(final String name, final int length) {
+            this.name = name;
+            this.length = length;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public int length() {
+            return this.length;
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return this.length == 0xFFFF;
+        }
+
+        @Override
+        public Value<?> parse(final Session.Resolver resolver, final ByteBuffer buffer) throws InvalidPacketException {
+            return new UnsignedValue(this.name, Optional.empty(), BufferUtils.uint(buffer, buffer.remaining()));
+        }
+    }
+
+    private static final Session.Resolver RESOLVER = new TcpSession().getResolver(0);
+
+    @Test
+    public void canReadFixedLengthRecords() throws Exception {
+        final RecordReader reader = RecordReader.compile(Template.builder(256, Template.Type.OPTIONS_TEMPLATE)
+                .withScopes(Collections.singletonList(new TestField("scope", 1)))
+                .withFields(Arrays.asList(new TestField("a", 2), new TestField("b", 4)))
+                .build());
+
+        assertThat(reader.isFixedLength(), is(true));
+        assertThat(reader.size(), is(3));
+        assertThat(reader.getScopeCount(), is(1));
+        assertThat(reader.getMinimumLength(), is(7));
+        assertThat(reader.getOffset(2), is(3));
+        assertThat(reader.indexOf("b"), is(2));
+        assertThat(reader.indexOf("c"), is(-1));
+
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+                0x01, 0x00, 0x02, 0x00, 0x00, 0x00, 0x03,
+                0x04, 0x00, 0x05, 0x00, 0x00, 0x00, 0x06,
+        });
+
+        assertThat(values(reader.read(RESOLVER, buffer)), is(Arrays.asList(1L, 2L, 3L)));
+        assertThat(values(reader.read(RESOLVER, buffer)), is(Arrays.asList(4L, 5L, 6L)));
+        assertThat(buffer.hasRemaining(), is(false));
+    }
+
+    @Test
+    public void canReadVariableLengthRecords() throws Exception {
+        final RecordReader reader = RecordReader.compile(Template.builder(256, Template.Type.TEMPLATE)
+                .withFields(Arrays.asList(new TestField("a", 1), new TestField("b", 0xFFFF), new TestField("c", 1)))
+                .build());
+
+        assertThat(reader.isFixedLength(), is(false));
+        assertThat(reader.getMinimumLength(), is(3));
+
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+                0x01, 0x02, 0x01, 0x02, 0x03,
+                0x04, (byte) 0xFF, 0x00, 0x01, 0x05, 0x06,
+        });
+
+        assertThat(values(reader.read(RESOLVER, buffer)), is(Arrays.asList(1L, 0x0102L, 3L)));
+        assertThat(values(reader.read(RESOLVER, buffer)), is(Arrays.asList(4L, 5L, 6L)));
+        assertThat(buffer.hasRemaining(), is(false));
+    }
+
+    @Test(expected = InvalidPacketException.class)
+    public void rejectsTruncatedRecords() throws Exception {
+        final RecordReader reader = RecordReader.compile(Template.builder(256, Template.Type.TEMPLATE)
+                .withFields(Arrays.asList(new TestField("a", 1), new TestField("b", 0xFFFF)))
+                .build());
+
+        reader.read(RESOLVER, ByteBuffer.wrap(new byte[]{ 0x01, 0x04, 0x02 }));
+    }
+
+    @Test
+    public void readerIsDroppedWithTemplate() {
+        final TcpSession session = new TcpSession();
+        session.addTemplate(1, Template.builder(256, Template.Type.TEMPLATE)
+                .withFields(Collections.singletonList(new TestField("a", 1)))
+                .build());
+
+        final RecordReader reader = session.getResolver(1).lookupRecordReader(256).get();
+        assertThat(session.getResolver(1).lookupRecordReader(256).get() == reader, is(true));
+        assertThat(session.getResolver(2).lookupRecordReader(256).isPresent(), is(false));
+
+        session.removeTemplate(1, 256);
+        assertThat(session.getResolver(1).lookupRecordReader(256).isPresent(), is(false));
+    }
+
+    private static List<Long> values(final Value<?>[] values) {
+        return Arrays.stream(values).map(v -> ((UnsignedValue) v).getValue().longValue()).collect(Collectors.toList());
+    }
+}
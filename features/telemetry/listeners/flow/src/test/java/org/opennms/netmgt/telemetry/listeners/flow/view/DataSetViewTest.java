@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow.view;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.DataRecord;
+import org.opennms.netmgt.telemetry.listeners.flow.netflow9.UdpPacketDecoder;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.TcpSession;
+import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+
+public class DataSetViewTest {
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private final static InetSocketAddress SENDER = InetSocketAddress.createUnresolved("localhost", 4711);
+
+    @Test
+    public void canDecodeNetflow9Lazily() throws Exception {
+        for (final List<String> files : Arrays.asList(
+                Arrays.asList("netflow9_test_cisco_asa_1_tpl.dat", "netflow9_test_cisco_asa_1_data.dat"),
+                Arrays.asList("netflow9_test_nprobe_tpl.dat", "netflow9_test_softflowd_tpl_data.dat", "netflow9_test_nprobe_data.dat"),
+                Arrays.asList("netflow9_test_fortigate_fortios_521_tpl.dat", "netflow9_test_fortigate_fortios_521_data256.dat", "netflow9_test_fortigate_fortios_521_data257.dat"),
+                Arrays.asList("netflow9_test_0length_fields_tpl_data.dat"),
+                Arrays.asList("netflow9_test_cisco_asr9k_opttpl256.dat", "netflow9_test_cisco_asr9k_tpl260.dat", "netflow9_test_cisco_asr9k_data260.dat"),
+                Arrays.asList("netflow9_test_paloalto_panos_tpl.dat", "netflow9_test_paloalto_panos_data.dat"))) {
+            final Session eagerSession = new TcpSession();
+            final Session lazySession = new TcpSession();
+
+            int records = 0;
+            for (final String file : files) {
+                final ByteBuffer eagerBuffer = read(file);
+                final ByteBuffer lazyBuffer = eagerBuffer.duplicate();
+
+                final org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Packet eager = new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Packet(eagerSession,
+                        new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header(slice(eagerBuffer, org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header.SIZE)),
+                        eagerBuffer);
+                final org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Packet lazy = new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Packet(lazySession,
+                        new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header(slice(lazyBuffer, org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header.SIZE)),
+                        lazyBuffer, true);
+
+                assertThat(lazy.dataSets.isEmpty(), is(true));
+                records += assertSameRecords(eager, lazy);
+            }
+
+            assertTrue("No records in " + files, records > 0);
+        }
+    }
+
+    @Test
+    public void canDecodeIpfixLazily() throws Exception {
+        for (final List<String> files : Arrays.asList(
+                Arrays.asList("ipfix.dat"),
+                Arrays.asList("ipfix_test_openbsd_pflow_tpl.dat", "ipfix_test_openbsd_pflow_data.dat"),
+                Arrays.asList("ipfix_test_mikrotik_tpl.dat", "ipfix_test_mikrotik_data258.dat", "ipfix_test_mikrotik_data259.dat"),
+                Arrays.asList("ipfix_test_vmware_vds_tpl.dat", "ipfix_test_vmware_vds_data264.dat", "ipfix_test_vmware_vds_data266.dat", "ipfix_test_vmware_vds_data266_267.dat"),
+                Arrays.asList("ipfix_test_barracuda_tpl.dat", "ipfix_test_barracuda_data256.dat"),
+                Arrays.asList("ipfix_test_yaf_tpls_option_tpl.dat", "ipfix_test_yaf_tpl45841.dat", "ipfix_test_yaf_data45841.dat", "ipfix_test_yaf_data45873.dat", "ipfix_test_yaf_data53248.dat"))) {
+            final Session eagerSession = new TcpSession();
+            final Session lazySession = new TcpSession();
+
+            int records = 0;
+            for (final String file : files) {
+                final ByteBuffer buffer = read(file);
+                do {
+                    final org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header header = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header(slice(buffer, org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE));
+                    final ByteBuffer eagerBuffer = slice(buffer, header.length - org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE);
+                    final ByteBuffer lazyBuffer = eagerBuffer.duplicate();
+
+                    final org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet eager = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet(eagerSession, SENDER, header, eagerBuffer);
+                    final org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet lazy = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet(lazySession, SENDER, header, lazyBuffer, true);
+
+                    assertThat(lazy.dataSets.isEmpty(), is(true));
+                    records += assertSameRecords(eager, lazy);
+                } while (buffer.hasRemaining());
+            }
+
+            assertTrue("No records in " + files, records > 0);
+        }
+    }
+
+    @Test
+    public void canReadSingleField() throws Exception {
+        final Session session = new TcpSession();
+
+        org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet eager = null;
+        org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet lazy = null;
+        for (final String file : Arrays.asList("ipfix_test_vmware_vds_tpl.dat", "ipfix_test_vmware_vds_data264.dat")) {
+            final ByteBuffer buffer = read(file);
+            final org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header header = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header(slice(buffer, org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE));
+            final ByteBuffer payload = slice(buffer, header.length - org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE);
+
+            eager = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet(session, SENDER, header, payload.duplicate());
+            lazy = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet(session, SENDER, header, payload.duplicate(), true);
+        }
+
+        final DataRecord expected = eager.dataSets.get(0).records.get(0);
+        final RecordView record = lazy.dataSetViews.get(0).get(ImmutableList.of(), 0);
+
+        assertThat(record.getFieldCount(), is(expected.fields.size()));
+        for (int i = expected.fields.size() - 1; i >= 0; i--) {
+            final Value<?> value = expected.fields.get(i);
+            assertEquals(describe(value), describe(record.getField(value.getName()).get()));
+            assertEquals(describe(value), describe(record.getField(i)));
+        }
+        assertEquals(Optional.empty(), record.getField("noSuchField"));
+        assertEquals(describe(expected.fields), describe(record.getFields()));
+        assertEquals(describe(expected.options), describe(record.getOptions()));
+    }
+
+    @Test
+    public void releasesBufferWithPacket() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new UdpPacketDecoder(new UdpSessionManager(Duration.ofMinutes(30))));
+
+        final InetSocketAddress recipient = new InetSocketAddress("127.0.0.1", 4738);
+        final InetSocketAddress sender = new InetSocketAddress("127.0.0.1", 4711);
+
+        final ByteBuf buffer = Unpooled.wrappedBuffer(read("netflow9_test_valid01.dat"));
+        channel.writeInbound(new DatagramPacket(buffer, recipient, sender));
+
+        final DefaultAddressedEnvelope<?, ?> envelope = channel.readInbound();
+        assertThat(envelope.content(), instanceOf(RetainedPacket.class));
+        assertThat(buffer.refCnt(), is(1));
+
+        final List<List<Value<?>>> records = ((RecordProvider) envelope.content()).getRecords()
+                .map(Lists::newArrayList)
+                .collect(Collectors.toList());
+        assertThat(records.isEmpty(), is(false));
+
+        ReferenceCountUtil.release(envelope);
+        assertThat(buffer.refCnt(), is(0));
+
+        channel.finish();
+    }
+
+    private static int assertSameRecords(final RecordProvider eager, final RecordProvider lazy) {
+        final List<String> expected = eager.getRecords()
+                .map(DataSetViewTest::describe)
+                .collect(Collectors.toList());
+        final List<String> actual = lazy.getRecords()
+                .map(DataSetViewTest::describe)
+                .collect(Collectors.toList());
+
+        assertEquals(expected, actual);
+        return actual.size();
+    }
+
+    /**
+     * Renders the values including the content of byte arrays, which {@link Value#equals(Object)} compares by identity.
+     */
+    private static String describe(final Object value) {
+        if (value instanceof Value) {
+            return ((Value<?>) value).getName() + "=" + describe(((Value<?>) value).getValue());
+        } else if (value instanceof Iterable) {
+            final List<String> elements = new ArrayList<>();
+            for (final Object element : (Iterable<?>) value) {
+                elements.add(describe(element));
+            }
+            return elements.toString();
+        } else if (value instanceof byte[]) {
+            return Arrays.toString((byte[]) value);
+        } else {
+            return String.valueOf(value);
+        }
+    }
+
+    private static ByteBuffer read(final String file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(FOLDER.resolve(file))) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            channel.read(buffer);
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
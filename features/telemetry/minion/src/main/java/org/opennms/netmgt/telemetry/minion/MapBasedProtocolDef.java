@@ -42,6 +42,7 @@ public class MapBasedProtocolDef implements Protocol {
     private final Optional<Integer> queueSize;
     private final Optional<Integer> batchSize;
     private final Optional<Integer> batchInterval;
+    private final Optional<Integer> dispatchBatchSize;
 
     public MapBasedProtocolDef(Map<String, String> parameters) {
         name = MapUtils.getRequiredString("name", parameters);
@@ -49,6 +50,7 @@ public class MapBasedProtocolDef implements Protocol {
         queueSize = MapUtils.getOptionalInteger("queue.size", parameters);
         batchSize = MapUtils.getOptionalInteger("batch.size", parameters);
         batchInterval = MapUtils.getOptionalInteger("batch.interval", parameters);
+        dispatchBatchSize = MapUtils.getOptionalInteger("dispatch.batch.size", parameters);
     }
 
     @Override
@@ -73,7 +75,12 @@ public class MapBasedProtocolDef implements Protocol {
 
     @Override
     public Optional<Integer> getQueueSize() {
-        return threads;
+        return queueSize;
+    }
+
+    @Override
+    public Optional<Integer> getDispatchBatchSize() {
+        return dispatchBatchSize;
     }
 
     @Override
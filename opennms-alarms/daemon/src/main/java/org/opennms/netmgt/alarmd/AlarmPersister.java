@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.function.Consumer;
+
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.xml.event.Event;
 
@@ -48,4 +50,16 @@ public interface AlarmPersister {
      */
     OnmsAlarm persist(Event event, boolean eagerlyLoadAlarm);
 
+    /**
+     * Persists the event like {@link #persist(Event, boolean)}, but may defer
+     * the persistence in order to handle it in a batch with other events.
+     *
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @param eagerlyLoadAlarm <code>true</code> if all fields on the alarm should be early loaded, <code>false</code> otherwise
+     * @param callback invoked with the alarm once the event is persisted, or with <code>null</code> if the event is not processed
+     */
+    default void persist(Event event, boolean eagerlyLoadAlarm, Consumer<OnmsAlarm> callback) {
+        callback.accept(persist(event, eagerlyLoadAlarm));
+    }
+
 }
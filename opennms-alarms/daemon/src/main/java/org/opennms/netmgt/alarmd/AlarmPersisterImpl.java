@@ -28,13 +28,24 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.hibernate.Hibernate;
+import org.opennms.core.criteria.CriteriaBuilder;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -53,11 +64,20 @@ import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
 import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.Striped;
 
 /**
  * Singleton to persist OnmsAlarms.
  *
+ * In batch mode, which is enabled with the <code>org.opennms.alarmd.batch</code>
+ * system property, the events are queued and reduced in batches: the events
+ * of a batch are grouped by reduction key and each alarm is updated once per
+ * batch, in a single transaction. The alarm lifecycle events are sent in the
+ * order of the events. An index of the reduction keys to the alarm ids avoids
+ * looking up the alarms by reduction key.
+ *
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
@@ -72,6 +92,20 @@ public class AlarmPersisterImpl implements AlarmPersister {
     private TransactionOperations m_transactionOperations;
     private Striped<Lock> lockStripes = StripedExt.fairLock(NUM_STRIPE_LOCKS);
 
+    private boolean batchMode = Boolean.getBoolean("org.opennms.alarmd.batch");
+
+    private int batchSize = Integer.getInteger("org.opennms.alarmd.batchSize", 1000);
+
+    private final Queue<PendingEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+
+    // Held by the thread which reduces the pending events of all threads
+    private final Lock batchLock = new ReentrantLock();
+
+    // Maps the reduction keys to the ids of the alarms, only accessed while holding the batch lock
+    private final Cache<String, Integer> reductionKeyIndex = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong("org.opennms.alarmd.batch.indexSize", 100000))
+            .build();
+
     private static class OnmsAlarmAndLifecycleEvent {
         private final OnmsAlarm m_alarm;
         private final Event m_event;
@@ -90,6 +124,26 @@ public class AlarmPersisterImpl implements AlarmPersister {
         }
     }
 
+    /**
+     * An event which waits to be reduced in a batch.
+     */
+    private static class PendingEvent {
+        private final Event event;
+        private final boolean eagerlyLoadAlarm;
+        private final Consumer<OnmsAlarm> callback;
+        private OnmsAlarmAndLifecycleEvent result;
+
+        private PendingEvent(Event event, boolean eagerlyLoadAlarm, Consumer<OnmsAlarm> callback) {
+            this.event = event;
+            this.eagerlyLoadAlarm = eagerlyLoadAlarm;
+            this.callback = callback;
+        }
+
+        private String getReductionKey() {
+            return event.getAlarmData().getReductionKey();
+        }
+    }
+
     /** {@inheritDoc} 
      * @return */
     @Override
@@ -121,6 +175,205 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarmAndEvent.getAlarm();
     }
 
+    /**
+     * In batch mode, the event is queued and the thread that gets the batch
+     * lock first reduces the events that were queued by all threads up to
+     * that point. The other threads return without waiting, unless the queue
+     * exceeds a multiple of the batch size. Since the queue is only consumed
+     * while holding the lock, the events are reduced in the order they were
+     * queued.
+     */
+    @Override
+    public void persist(Event event, boolean eagerlyLoadAlarm, Consumer<OnmsAlarm> callback) {
+        if (!batchMode) {
+            callback.accept(persist(event, eagerlyLoadAlarm));
+            return;
+        }
+        if (!checkEventSanityAndDoWeProcess(event)) {
+            callback.accept(null);
+            return;
+        }
+
+        pendingEvents.add(new PendingEvent(event, eagerlyLoadAlarm, callback));
+        // Check the queue again after releasing the lock, so no event is left behind
+        while (!pendingEvents.isEmpty()) {
+            if (pendingEvents.size() > batchSize * 4) {
+                batchLock.lock();
+            } else if (!batchLock.tryLock()) {
+                return;
+            }
+            try {
+                processBatch(pollBatch());
+            } finally {
+                batchLock.unlock();
+            }
+        }
+    }
+
+    private List<PendingEvent> pollBatch() {
+        final List<PendingEvent> batch = new ArrayList<>();
+        PendingEvent pendingEvent;
+        while (batch.size() < batchSize && (pendingEvent = pendingEvents.poll()) != null) {
+            batch.add(pendingEvent);
+        }
+        return batch;
+    }
+
+    private void processBatch(final List<PendingEvent> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Lock the reduction and clear keys of the whole batch, in case events are persisted outside of the batches as well
+        final Iterable<Lock> locks = lockStripes.bulkGet(batch.stream()
+                .flatMap(p -> getLockKeys(p.event).stream())
+                .collect(Collectors.toList()));
+        try {
+            locks.forEach(Lock::lock);
+            m_transactionOperations.execute((action) -> {
+                reduceBatch(batch);
+                return null;
+            });
+        } catch (Throwable t) {
+            LOG.warn("Failed to reduce a batch of {} events, reducing them individually.", batch.size(), t);
+            // The index may refer to alarms created by the failed transaction
+            reductionKeyIndex.invalidateAll();
+            for (PendingEvent pendingEvent : batch) {
+                pendingEvent.result = null;
+                try {
+                    pendingEvent.result = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(pendingEvent.event, pendingEvent.eagerlyLoadAlarm));
+                } catch (Throwable tt) {
+                    LOG.error("Failed to reduce event {} into an alarm.", pendingEvent.event.getDbid(), tt);
+                }
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+
+        // Send the events outside of the database transaction, in the order of the batch
+        for (PendingEvent pendingEvent : batch) {
+            if (pendingEvent.result == null) {
+                continue;
+            }
+            m_eventForwarder.sendNow(pendingEvent.result.getEvent());
+            try {
+                pendingEvent.callback.accept(pendingEvent.result.getAlarm());
+            } catch (Throwable t) {
+                LOG.error("Failed to handle the alarm of event {}.", pendingEvent.event.getDbid(), t);
+            }
+        }
+    }
+
+    /**
+     * Reduces the events of the batch, in the current transaction. The events
+     * and the alarms are loaded with a single query each, and each alarm is
+     * updated once for all events of its reduction key.
+     */
+    private void reduceBatch(final List<PendingEvent> batch) {
+        final Map<Integer, OnmsEvent> eventsById = new HashMap<>();
+        final List<Integer> eventIds = batch.stream().map(p -> p.event.getDbid()).collect(Collectors.toList());
+        for (OnmsEvent e : m_eventDao.findMatching(new CriteriaBuilder(OnmsEvent.class).in("id", eventIds).toCriteria())) {
+            eventsById.put(e.getId(), e);
+        }
+
+        final Map<String, List<PendingEvent>> eventsByReductionKey = new LinkedHashMap<>();
+        for (PendingEvent pendingEvent : batch) {
+            eventsByReductionKey.computeIfAbsent(pendingEvent.getReductionKey(), k -> new ArrayList<>()).add(pendingEvent);
+        }
+        final Map<String, OnmsAlarm> alarmsByReductionKey = findAlarms(eventsByReductionKey.keySet());
+
+        // The reduction keys are handled in the order of their first event, so new alarms are created in the same order as before
+        for (Map.Entry<String, List<PendingEvent>> entry : eventsByReductionKey.entrySet()) {
+            final String reductionKey = entry.getKey();
+            final List<PendingEvent> pendingEvents = entry.getValue();
+            OnmsAlarm alarm = alarmsByReductionKey.get(reductionKey);
+            final boolean existed = alarm != null;
+
+            // Deleting the previous events of the alarm once, for the last auto clean event, leaves the same events as doing so for each of them
+            int autoCleanIndex = -1;
+            for (int i = pendingEvents.size() - 1; i >= 0 && autoCleanIndex < 0; i--) {
+                if (pendingEvents.get(i).event.getAlarmData().isAutoClean() && (existed || i > 0)) {
+                    autoCleanIndex = i;
+                }
+            }
+
+            boolean eagerlyLoadAlarm = false;
+            for (int i = 0; i < pendingEvents.size(); i++) {
+                final PendingEvent pendingEvent = pendingEvents.get(i);
+                final OnmsEvent e = eventsById.get(pendingEvent.event.getDbid());
+                Assert.notNull(e, "Event was deleted before we could retrieve it and create an alarm.");
+
+                final EventBuilder ebldr;
+                if (alarm == null) {
+                    LOG.debug("reduceBatch: reductionKey:{} not found, instantiating new alarm", reductionKey);
+                    alarm = createNewAlarm(e, pendingEvent.event);
+                    m_alarmDao.save(alarm);
+                    m_eventDao.saveOrUpdate(e);
+                    reductionKeyIndex.put(reductionKey, alarm.getId());
+
+                    ebldr = new EventBuilder(EventConstants.ALARM_CREATED_UEI, Alarmd.NAME);
+                } else {
+                    reduceEvent(e, alarm, pendingEvent.event);
+                    if (i == autoCleanIndex) {
+                        // The pending changes are flushed before the events are deleted
+                        m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), e);
+                    }
+
+                    ebldr = new EventBuilder(EventConstants.ALARM_UPDATED_WITH_REDUCED_EVENT_UEI, Alarmd.NAME);
+                }
+
+                ebldr.addParam(EventConstants.PARM_ALARM_UEI, alarm.getUei());
+                ebldr.addParam(EventConstants.PARM_ALARM_ID, alarm.getId());
+                pendingEvent.result = new OnmsAlarmAndLifecycleEvent(alarm, ebldr.getEvent());
+                eagerlyLoadAlarm |= pendingEvent.eagerlyLoadAlarm;
+            }
+
+            if (existed || pendingEvents.size() > 1) {
+                m_alarmDao.update(alarm);
+            }
+            if (eagerlyLoadAlarm) {
+                eagerlyLoadAlarm(alarm);
+            }
+        }
+    }
+
+    /**
+     * Finds the alarms of the given reduction keys. The alarms of indexed
+     * reduction keys are loaded by id, the remaining ones by reduction key.
+     */
+    private Map<String, OnmsAlarm> findAlarms(final Collection<String> reductionKeys) {
+        final Map<String, OnmsAlarm> alarmsByReductionKey = new HashMap<>();
+
+        final List<Integer> alarmIds = new ArrayList<>();
+        for (String reductionKey : reductionKeys) {
+            final Integer alarmId = reductionKeyIndex.getIfPresent(reductionKey);
+            if (alarmId != null) {
+                alarmIds.add(alarmId);
+            }
+        }
+        if (!alarmIds.isEmpty()) {
+            for (OnmsAlarm alarm : m_alarmDao.findMatching(new CriteriaBuilder(OnmsAlarm.class).in("id", alarmIds).toCriteria())) {
+                // The reduction key of the alarm may have changed since it was indexed
+                if (reductionKeys.contains(alarm.getReductionKey())) {
+                    alarmsByReductionKey.put(alarm.getReductionKey(), alarm);
+                }
+            }
+        }
+
+        final List<String> missingReductionKeys = reductionKeys.stream()
+                .filter(k -> !alarmsByReductionKey.containsKey(k))
+                .collect(Collectors.toList());
+        if (!missingReductionKeys.isEmpty()) {
+            reductionKeyIndex.invalidateAll(missingReductionKeys);
+            for (OnmsAlarm alarm : m_alarmDao.findMatching(new CriteriaBuilder(OnmsAlarm.class).in("reductionKey", missingReductionKeys).toCriteria())) {
+                alarmsByReductionKey.put(alarm.getReductionKey(), alarm);
+                reductionKeyIndex.put(alarm.getReductionKey(), alarm.getId());
+            }
+        }
+
+        return alarmsByReductionKey;
+    }
+
     private OnmsAlarmAndLifecycleEvent addOrReduceEventAsAlarm(Event event, boolean eagerlyLoadAlarm) {
         // 2012-03-11 pbrane: for some reason when we get here the event from the DB doesn't have the LogMsg (in my tests anyway)
         OnmsEvent e = m_eventDao.get(event.getDbid());
@@ -158,14 +411,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
         }
 
         if (eagerlyLoadAlarm) {
-            // Load fields which are known to be used by the NBIs
-            if (alarm.getServiceType() != null) {
-                alarm.getServiceType().getName(); // To avoid potential LazyInitializationException when dealing with NorthboundAlarm
-            }
-            if (alarm.getNodeId() != null) {
-                alarm.getNode().getForeignSource(); // This should trigger the lazy loading of the node object, to properly populate the NorthboundAlarm class.
-            }
-            Hibernate.initialize(alarm.getEventParameters());
+            eagerlyLoadAlarm(alarm);
         }
 
         ebldr.addParam(EventConstants.PARM_ALARM_UEI, alarm.getUei());
@@ -174,6 +420,17 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return new OnmsAlarmAndLifecycleEvent(alarm, ebldr.getEvent());
     }
 
+    private static void eagerlyLoadAlarm(OnmsAlarm alarm) {
+        // Load fields which are known to be used by the NBIs
+        if (alarm.getServiceType() != null) {
+            alarm.getServiceType().getName(); // To avoid potential LazyInitializationException when dealing with NorthboundAlarm
+        }
+        if (alarm.getNodeId() != null) {
+            alarm.getNode().getForeignSource(); // This should trigger the lazy loading of the node object, to properly populate the NorthboundAlarm class.
+        }
+        Hibernate.initialize(alarm.getEventParameters());
+    }
+
     private static void reduceEvent(OnmsEvent e, OnmsAlarm alarm, Event event) {
         
         //Always set these
@@ -340,6 +597,18 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return m_eventDao;
     }
 
+    public boolean isBatchMode() {
+        return batchMode;
+    }
+
+    public void setBatchMode(boolean batchMode) {
+        this.batchMode = batchMode;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     public void setEventForwarder(EventForwarder eventForwarder) {
         m_eventForwarder = eventForwarder;
     }
@@ -45,7 +45,7 @@ import org.opennms.netmgt.daemon.SpringServiceDaemon;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventProxy;
 import org.opennms.netmgt.events.api.EventProxyException;
-import org.opennms.netmgt.events.api.ThreadAwareEventListener;
+import org.opennms.netmgt.events.api.PartitionedEventListener;
 import org.opennms.netmgt.events.api.annotations.EventHandler;
 import org.opennms.netmgt.events.api.annotations.EventListener;
 import org.opennms.netmgt.model.OnmsAlarm;
@@ -67,7 +67,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
  * @version $Id: $
  */
 @EventListener(name=Alarmd.NAME, logPrefix="alarmd")
-public class Alarmd implements SpringServiceDaemon, ThreadAwareEventListener {
+public class Alarmd implements SpringServiceDaemon, PartitionedEventListener {
     private static final Logger LOG = LoggerFactory.getLogger(Alarmd.class);
 
     /** Constant <code>NAME="Alarmd"</code> */
@@ -104,11 +104,14 @@ public class Alarmd implements SpringServiceDaemon, ThreadAwareEventListener {
         // object that is returned is eagerly loaded (and avoid any
         // LazyInitializationExceptions). Otherwise, we can save resources
         // by not having to load these fields.
-        final OnmsAlarm alarm = m_persister.persist(e, m_hasActiveAlarmNbis);
-
-        if (alarm != null && m_hasActiveAlarmNbis) {
-            forwardAlarmToNbis(alarm);
-        }
+        // The alarm may be persisted in a batch with other events, so it
+        // is forwarded to the NBIs once it is available.
+        final boolean eagerlyLoadAlarm = m_hasActiveAlarmNbis;
+        m_persister.persist(e, eagerlyLoadAlarm, alarm -> {
+            if (alarm != null && eagerlyLoadAlarm) {
+                forwardAlarmToNbis(alarm);
+            }
+        });
     }
 
     /**
@@ -254,4 +257,16 @@ public class Alarmd implements SpringServiceDaemon, ThreadAwareEventListener {
         return THREADS;
     }
 
+    /**
+     * Events that reduce into the same alarm are handled in order, on the
+     * same thread, instead of contending for the same alarm in the persister.
+     */
+    @Override
+    public Object getPartitionKey(Event e) {
+        if (e.getAlarmData() != null) {
+            return e.getAlarmData().getReductionKey();
+        }
+        return null;
+    }
+
 }
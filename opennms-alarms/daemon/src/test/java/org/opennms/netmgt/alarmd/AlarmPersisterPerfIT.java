@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.spring.BeanUtils;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.test.db.TemporaryDatabaseAware;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.context.ContextConfiguration;
+
+/**
+ * Replays a storm of flapping interfaces through the {@link AlarmPersisterImpl}
+ * with and without batch mode, and verifies both reduce the events into the
+ * same alarms.
+ *
+ * The events are persisted from one thread per partition, partitioned by
+ * reduction key like {@link Alarmd} does.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-alarmd.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(dirtiesContext=false,tempDbClass=MockDatabase.class,reuseDatabase=false)
+public class AlarmPersisterPerfIT implements TemporaryDatabaseAware<MockDatabase>, InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterPerfIT.class);
+
+    private static final int INTERFACES = 50;
+
+    private static final int FLAPS = 40;
+
+    private static final int THREADS = 4;
+
+    @Autowired
+    private Alarmd m_alarmd;
+
+    @Autowired
+    private MonitoringLocationDao m_locationDao;
+
+    @Autowired
+    private NodeDao m_nodeDao;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    private MockDatabase m_database;
+
+    @Override
+    public void setTemporaryDatabase(final MockDatabase database) {
+        m_database = database;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        BeanUtils.assertAutowiring(this);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final OnmsNode node = new OnmsNode(m_locationDao.getDefaultLocation(), "node1");
+        node.setId(1);
+        m_nodeDao.save(node);
+    }
+
+    @Test
+    public void canReduceFlappingInterfacesInBatches() throws Exception {
+        final AlarmPersisterImpl persister = (AlarmPersisterImpl) m_alarmd.getPersister();
+
+        final long syncTook = replay(persister, false, "sync:");
+        final long batchTook = replay(persister, true, "batch:");
+        LOG.info("Reduced {} events in {} ms one by one and in {} ms in batches",
+                INTERFACES * FLAPS, TimeUnit.NANOSECONDS.toMillis(syncTook), TimeUnit.NANOSECONDS.toMillis(batchTook));
+
+        final Map<String, String> expected = getAlarms("sync:");
+        assertEquals(INTERFACES * 2, expected.size());
+        assertEquals(expected, getAlarms("batch:"));
+    }
+
+    private long replay(final AlarmPersisterImpl persister, final boolean batchMode, final String prefix) throws Exception {
+        // Use the same seed, so both modes see the same storm
+        final Random random = new Random(42);
+        final List<List<Event>> partitions = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (int flap = 0; flap < FLAPS; flap++) {
+            for (int iface = 0; iface < INTERFACES; iface++) {
+                final Event event = createInterfaceEvent(prefix, iface, random.nextBoolean(), random.nextInt(4) == 0);
+                m_database.writeEvent(event);
+                partitions.get(Math.abs(event.getAlarmData().getReductionKey().hashCode() % THREADS)).add(event);
+            }
+        }
+
+        persister.setBatchMode(batchMode);
+        try {
+            final CountDownLatch persisted = new CountDownLatch(INTERFACES * FLAPS);
+            final List<Thread> threads = new ArrayList<>(THREADS);
+            final long start = System.nanoTime();
+            for (final List<Event> partition : partitions) {
+                final Thread thread = new Thread(() -> {
+                    for (final Event event : partition) {
+                        persister.persist(event, false, alarm -> persisted.countDown());
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+            // Events left in the queue are reduced by the next call, so flush them with an event without alarm data
+            while (!persisted.await(100, TimeUnit.MILLISECONDS)) {
+                persister.persist(new EventBuilder("uei.opennms.org/test/flush", "test").getEvent(), false, alarm -> {});
+            }
+            return System.nanoTime() - start;
+        } finally {
+            persister.setBatchMode(false);
+        }
+    }
+
+    private Map<String, String> getAlarms(final String prefix) {
+        final Map<String, String> alarms = new HashMap<>();
+        m_jdbcTemplate.query("select a.reductionKey, a.counter, a.severity, a.logMsg, (select count(*) from events e where e.alarmId = a.alarmId) "
+                + "from alarms a where a.reductionKey like ?", new Object[] { prefix + "%" }, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                alarms.put(rs.getString(1).substring(prefix.length()),
+                        String.format("counter=%d, severity=%d, logMsg=%s, events=%d", rs.getInt(2), rs.getInt(3), rs.getString(4), rs.getInt(5)));
+            }
+        });
+        return alarms;
+    }
+
+    private static Event createInterfaceEvent(final String prefix, final int iface, final boolean down, final boolean autoClean) {
+        final EventBuilder builder = new EventBuilder(down ? "uei.opennms.org/nodes/interfaceDown" : "uei.opennms.org/nodes/interfaceUp", "test");
+        builder.setNodeid(1);
+        builder.setLogDest("logndisplay");
+        builder.setLogMessage("interface " + iface + (down ? " down" : " up"));
+
+        final AlarmData data = new AlarmData();
+        data.setAlarmType(down ? 1 : 2);
+        data.setReductionKey(prefix + (down ? "down:" : "up:") + iface);
+        if (!down) {
+            data.setClearKey(prefix + "down:" + iface);
+        }
+        data.setAutoClean(autoClean);
+        builder.setAlarmData(data);
+
+        return builder.getEvent();
+    }
+}
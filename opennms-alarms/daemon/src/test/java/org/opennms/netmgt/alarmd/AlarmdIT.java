@@ -316,6 +316,38 @@ public class AlarmdIT implements TemporaryDatabaseAware<MockDatabase>, Initializ
 
     }
 
+    @Test
+    public void testPersistManyAlarmsAtOnceInBatchMode() throws Exception {
+        final AlarmPersisterImpl persister = (AlarmPersisterImpl) m_alarmd.getPersister();
+        persister.setBatchMode(true);
+        try {
+            //there should be no alarms in the alarms table
+            assertEmptyAlarmTable();
+
+            final MockNode node = m_mockNetwork.getNode(1);
+            final int numberOfKeys = 5;
+            final int numberOfEvents = 50;
+            for (int i = 0; i < numberOfEvents; i++) {
+                sendNodeDownEvent("batch:" + (i % numberOfKeys), node);
+            }
+
+            // Events may still be queued, wait until all of them were reduced
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline
+                    && m_jdbcTemplate.queryForObject("select coalesce(sum(counter), 0) from alarms", Integer.class).intValue() < numberOfEvents) {
+                Thread.sleep(100);
+            }
+
+            assertEquals(numberOfKeys, m_jdbcTemplate.queryForObject("select count(*) from alarms", Integer.class).intValue());
+            for (int i = 0; i < numberOfKeys; i++) {
+                assertEquals(numberOfEvents / numberOfKeys, m_jdbcTemplate.queryForObject("select counter from alarms where reductionKey = ?", new Object[] { "batch:" + i }, Integer.class).intValue());
+            }
+            assertEquals(numberOfEvents, m_jdbcTemplate.queryForObject("select count(*) from events where alarmid is not null", Integer.class).intValue());
+        } finally {
+            persister.setBatchMode(false);
+        }
+    }
+
     @Test
     public void testNullEvent() throws Exception {
         ThrowableAnticipator ta = new ThrowableAnticipator();
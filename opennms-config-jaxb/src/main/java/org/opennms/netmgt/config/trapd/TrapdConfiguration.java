@@ -114,6 +114,13 @@ public class TrapdConfiguration implements  Serializable {
 	@XmlAttribute(name="batch-interval", required=false)
     private int _batchInterval = 500;
 
+    /**
+     * Maximum number of messages a dispatching thread takes from the queue
+     * at once.
+     */
+	@XmlAttribute(name="dispatch-batch-size", required=false)
+    private Integer _dispatchBatchSize;
+
     /**
      * keeps track of state for field: _newSuspectOnTrap
      */
@@ -206,7 +213,7 @@ public class TrapdConfiguration implements  Serializable {
 
     public int hashCode() {
         return Objects.hash(_snmpTrapAddress, _snmpTrapPort, _has_snmpTrapPort, _newSuspectOnTrap, _snmpv3UserList,
-                _includeRawMessage, _threads, _queueSize, _batchSize, _batchInterval, _useAddessFromVarbind);
+                _includeRawMessage, _threads, _queueSize, _batchSize, _batchInterval, _dispatchBatchSize, _useAddessFromVarbind);
     }
 
     @Override()
@@ -226,6 +233,7 @@ public class TrapdConfiguration implements  Serializable {
                     && Objects.equals(_queueSize, other._queueSize)
                     && Objects.equals(_batchSize, other._batchSize)
                     && Objects.equals(_batchInterval, other._batchInterval)
+                    && Objects.equals(_dispatchBatchSize, other._dispatchBatchSize)
                     && Objects.equals(_useAddessFromVarbind, other._useAddessFromVarbind);
             return equals;
         }
@@ -554,4 +562,12 @@ public class TrapdConfiguration implements  Serializable {
     public void setBatchInterval(int _batchInterval) {
         this._batchInterval = _batchInterval;
     }
+
+    public int getDispatchBatchSize() {
+        return _dispatchBatchSize != null ? _dispatchBatchSize : 1;
+    }
+
+    public void setDispatchBatchSize(int _dispatchBatchSize) {
+        this._dispatchBatchSize = _dispatchBatchSize;
+    }
 }
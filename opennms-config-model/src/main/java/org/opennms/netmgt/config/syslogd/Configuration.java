@@ -145,6 +145,13 @@ public class Configuration implements Serializable {
     @XmlAttribute(name = "batch-interval")
     private Integer m_batchInterval;
 
+    /**
+     * Maximum number of messages a dispatching thread takes from the queue
+     *  at once.
+     */
+    @XmlAttribute(name = "dispatch-batch-size")
+    private Integer m_dispatchBatchSize;
+
     public Optional<String> getListenAddress() {
         return Optional.ofNullable(m_listenAddress);
     }
@@ -241,6 +248,14 @@ public class Configuration implements Serializable {
         m_batchInterval = ConfigUtils.assertMinimumInclusive(batchInterval, 1, "batch-interval");
     }
 
+    public Integer getDispatchBatchSize() {
+        return m_dispatchBatchSize != null ? m_dispatchBatchSize : 1;
+    }
+
+    public void setDispatchBatchSize(final Integer dispatchBatchSize) {
+        m_dispatchBatchSize = ConfigUtils.assertMinimumInclusive(dispatchBatchSize, 1, "dispatch-batch-size");
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(m_listenAddress, 
@@ -254,7 +269,8 @@ public class Configuration implements Serializable {
                             m_threads, 
                             m_queueSize, 
                             m_batchSize, 
-                            m_batchInterval);
+                            m_batchInterval, 
+                            m_dispatchBatchSize);
     }
 
     /**
@@ -282,7 +298,8 @@ public class Configuration implements Serializable {
                     && Objects.equals(this.m_threads, that.m_threads)
                     && Objects.equals(this.m_queueSize, that.m_queueSize)
                     && Objects.equals(this.m_batchSize, that.m_batchSize)
-                    && Objects.equals(this.m_batchInterval, that.m_batchInterval);
+                    && Objects.equals(this.m_batchInterval, that.m_batchInterval)
+                    && Objects.equals(this.m_dispatchBatchSize, that.m_dispatchBatchSize);
         }
         return false;
     }
@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index over the event definitions of an {@link Events} tree, which is used
+ * to find the first event definition matching an event without testing the
+ * masks of all definitions.
+ *
+ * The definitions are grouped by the keys of the {@link Partition} of their
+ * file. The definitions without keys are grouped by the values of their
+ * enterprise ID mask element or, if they have none, by the values of their UEI
+ * mask element. Exact
+ * values are looked up in a hash map and prefix values (ending with '%') in a
+ * trie. Within these groups, the definitions are grouped again by the exact
+ * values of their specific or generic mask element. Definitions which can not
+ * be grouped, i.e. the ones matching by regular expressions, are candidates for
+ * every event.
+ *
+ * The candidates are tested with the matchers of the definitions in the order
+ * in which the event files are searched one by one, including the lookup by UEI
+ * that is done for every file, so the result is always the same.
+ *
+ * The index is immutable and must be rebuilt when the definitions change.
+ */
+public class EventMatcherIndex {
+
+    private static final Field ID = EventMatchers.field(TAG_SNMP_EID);
+    private static final Field UEI = EventMatchers.field(TAG_UEI);
+    private static final Field SPECIFIC = EventMatchers.field(TAG_SNMP_SPECIFIC);
+    private static final Field GENERIC = EventMatchers.field(TAG_SNMP_GENERIC);
+
+    /**
+     * The definitions by their rank, which is the position in the search
+     * order. The ranks of the UEI lookups of the event files have no entry.
+     */
+    private final Event[] m_events;
+
+    /**
+     * The first UEI lookup of an event file that finds a definition for the
+     * UEI.
+     */
+    private final Map<String, Shortcut> m_shortcuts = new HashMap<>();
+
+    private final Map<Partition, Map<String, Bucket>> m_partitions = new IdentityHashMap<>();
+    private final Group m_ids = new Group();
+    private final Group m_ueis = new Group();
+    private final Ranks m_ungrouped = new Ranks();
+
+    public EventMatcherIndex(final Events events) {
+        final List<Event> ranked = new ArrayList<>();
+        add(events, ranked);
+        m_events = ranked.toArray(new Event[ranked.size()]);
+    }
+
+    /**
+     * Finds the first event definition matching the event.
+     *
+     * @return the definition, or null if none matches
+     */
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final Search search = new Search(matchingEvent);
+
+        final String uei = matchingEvent.getUei();
+        if (uei != null) {
+            final Shortcut shortcut = m_shortcuts.get(uei);
+            if (shortcut != null) {
+                search.m_rank = shortcut.m_rank;
+                search.m_event = shortcut.m_event;
+            }
+        }
+
+        for (final Map.Entry<Partition, Map<String, Bucket>> entry : m_partitions.entrySet()) {
+            final String key = entry.getKey().group(matchingEvent);
+            if (key != null) {
+                search.scan(entry.getValue().get(key));
+            }
+        }
+        search.scan(m_ungrouped);
+        search.scan(m_ids, ID.get(matchingEvent));
+        search.scan(m_ueis, uei);
+
+        return search.m_event;
+    }
+
+    private void add(final Events events, final List<Event> ranked) {
+        // The UEI lookup of the file is done before its definitions are tested
+        final int shortcutRank = ranked.size();
+        ranked.add(null);
+        for (final Map.Entry<String, Event> entry : events.getEventsByUei().entrySet()) {
+            m_shortcuts.putIfAbsent(entry.getKey(), new Shortcut(shortcutRank, entry.getValue()));
+        }
+
+        for (final Event event : events.getEvents()) {
+            add(event, ranked.size(), events.getPartition());
+            ranked.add(event);
+        }
+
+        for (final Events loadedEvents : events.getLoadedEvents()) {
+            add(loadedEvents, ranked);
+        }
+    }
+
+    private void add(final Event event, final int rank, final Partition partition) {
+        final Mask mask = event.getMask();
+
+        // Definitions with keys are only tested for events with one of the keys
+        final List<String> keys = partition == null ? null : partition.group(event);
+        if (keys != null) {
+            final Map<String, Bucket> buckets = m_partitions.computeIfAbsent(partition, p -> new HashMap<>());
+            for (final String key : keys) {
+                if (key != null) {
+                    buckets.computeIfAbsent(key, k -> new Bucket()).add(mask, rank);
+                }
+            }
+            return;
+        }
+
+        if (mask == null || mask.getMaskelements().isEmpty()) {
+            // These definitions only match by UEI, or not at all if they have none
+            if (event.getUei() != null) {
+                m_ueis.getExactBucket(event.getUei()).add(null, rank);
+            }
+            return;
+        }
+
+        // The first mask element with a name decides for all others with the same name
+        final Maskelement id = mask.getMaskElement(TAG_SNMP_EID);
+        if (isGroupable(id)) {
+            for (final String value : id.getMevalues()) {
+                if (value != null) {
+                    m_ids.getBucket(value).add(mask, rank);
+                }
+            }
+            return;
+        }
+
+        final Maskelement uei = mask.getMaskElement(TAG_UEI);
+        if (isGroupable(uei)) {
+            for (final String value : uei.getMevalues()) {
+                if (value != null) {
+                    m_ueis.getBucket(value).add(mask, rank);
+                }
+            }
+            return;
+        }
+
+        m_ungrouped.add(rank);
+    }
+
+    /**
+     * @return true if the element only matches events having a value that is
+     * equal to or starts with one of the values of the element
+     */
+    private static boolean isGroupable(final Maskelement element) {
+        if (element == null) {
+            return false;
+        }
+        boolean hasValue = false;
+        for (final String value : element.getMevalues()) {
+            if (value == null) {
+                continue;
+            }
+            if (value.startsWith("~")) {
+                return false;
+            }
+            hasValue = true;
+        }
+        return hasValue;
+    }
+
+    /**
+     * @return true if the element only matches events having a value that is
+     * equal to one of the values of the element
+     */
+    private static boolean isExact(final Maskelement element) {
+        if (!isGroupable(element)) {
+            return false;
+        }
+        for (final String value : element.getMevalues()) {
+            if (value != null && value.endsWith("%")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Shortcut {
+        private final int m_rank;
+        private final Event m_event;
+
+        private Shortcut(final int rank, final Event event) {
+            m_rank = rank;
+            m_event = event;
+        }
+    }
+
+    /**
+     * The ranks of definitions in ascending order.
+     */
+    private static class Ranks {
+        private int[] m_ranks = new int[1];
+        private int m_size = 0;
+
+        private void add(final int rank) {
+            // A definition with repeated values is added once
+            if (m_size > 0 && m_ranks[m_size - 1] == rank) {
+                return;
+            }
+            if (m_size == m_ranks.length) {
+                m_ranks = Arrays.copyOf(m_ranks, m_size * 2);
+            }
+            m_ranks[m_size++] = rank;
+        }
+    }
+
+    /**
+     * The definitions which are grouped by the same value, grouped again by
+     * their specific or generic values.
+     */
+    private static class Bucket {
+        private final Ranks m_others = new Ranks();
+        private Map<String, Ranks> m_bySpecific;
+        private Map<String, Ranks> m_byGeneric;
+
+        private void add(final Mask mask, final int rank) {
+            final Maskelement specific = mask == null ? null : mask.getMaskElement(TAG_SNMP_SPECIFIC);
+            if (isExact(specific)) {
+                if (m_bySpecific == null) {
+                    m_bySpecific = new HashMap<>();
+                }
+                add(m_bySpecific, specific, rank);
+                return;
+            }
+
+            final Maskelement generic = mask == null ? null : mask.getMaskElement(TAG_SNMP_GENERIC);
+            if (isExact(generic)) {
+                if (m_byGeneric == null) {
+                    m_byGeneric = new HashMap<>();
+                }
+                add(m_byGeneric, generic, rank);
+                return;
+            }
+
+            m_others.add(rank);
+        }
+
+        private static void add(final Map<String, Ranks> map, final Maskelement element, final int rank) {
+            for (final String value : element.getMevalues()) {
+                if (value != null) {
+                    map.computeIfAbsent(value, v -> new Ranks()).add(rank);
+                }
+            }
+        }
+    }
+
+    /**
+     * The buckets for the exact and the prefix values of a field.
+     */
+    private static class Group {
+        private final Map<String, Bucket> m_exact = new HashMap<>();
+        private final Node m_prefixes = new Node();
+
+        private Bucket getExactBucket(final String value) {
+            return m_exact.computeIfAbsent(value, v -> new Bucket());
+        }
+
+        private Bucket getBucket(final String value) {
+            if (!value.endsWith("%")) {
+                return getExactBucket(value);
+            }
+
+            Node node = m_prefixes;
+            for (int i = 0; i < value.length() - 1; i++) {
+                node = node.getOrAddChild(value.charAt(i));
+            }
+            if (node.m_bucket == null) {
+                node.m_bucket = new Bucket();
+            }
+            return node.m_bucket;
+        }
+    }
+
+    /**
+     * A node of the prefix trie. The bucket contains the definitions with the
+     * prefix leading to the node.
+     */
+    private static class Node {
+        private char[] m_keys = new char[0];
+        private Node[] m_children = new Node[0];
+        private Bucket m_bucket;
+
+        private Node getChild(final char key) {
+            final int index = Arrays.binarySearch(m_keys, key);
+            return index < 0 ? null : m_children[index];
+        }
+
+        private Node getOrAddChild(final char key) {
+            int index = Arrays.binarySearch(m_keys, key);
+            if (index >= 0) {
+                return m_children[index];
+            }
+
+            index = -(index + 1);
+            final char[] keys = new char[m_keys.length + 1];
+            final Node[] children = new Node[m_children.length + 1];
+            System.arraycopy(m_keys, 0, keys, 0, index);
+            System.arraycopy(m_children, 0, children, 0, index);
+            System.arraycopy(m_keys, index, keys, index + 1, m_keys.length - index);
+            System.arraycopy(m_children, index, children, index + 1, m_children.length - index);
+            keys[index] = key;
+            children[index] = new Node();
+            m_keys = keys;
+            m_children = children;
+            return children[index];
+        }
+    }
+
+    /**
+     * The state of a single search. Only the candidates ranked before the
+     * best match found so far are tested.
+     */
+    private class Search {
+        private final org.opennms.netmgt.xml.event.Event m_matchingEvent;
+        private final String m_specific;
+        private final String m_generic;
+
+        private int m_rank = Integer.MAX_VALUE;
+        private Event m_event;
+
+        private Search(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            m_matchingEvent = matchingEvent;
+            m_specific = SPECIFIC.get(matchingEvent);
+            m_generic = GENERIC.get(matchingEvent);
+        }
+
+        private void scan(final Group group, final String value) {
+            if (value == null) {
+                // None of the grouped definitions match an event without a value
+                return;
+            }
+
+            scan(group.m_exact.get(value));
+
+            Node node = group.m_prefixes;
+            scan(node.m_bucket);
+            for (int i = 0; i < value.length() && node != null; i++) {
+                node = node.getChild(value.charAt(i));
+                if (node != null) {
+                    scan(node.m_bucket);
+                }
+            }
+        }
+
+        private void scan(final Bucket bucket) {
+            if (bucket == null) {
+                return;
+            }
+            scan(bucket.m_others);
+            if (bucket.m_bySpecific != null && m_specific != null) {
+                scan(bucket.m_bySpecific.get(m_specific));
+            }
+            if (bucket.m_byGeneric != null && m_generic != null) {
+                scan(bucket.m_byGeneric.get(m_generic));
+            }
+        }
+
+        private void scan(final Ranks ranks) {
+            if (ranks == null) {
+                return;
+            }
+            for (int i = 0; i < ranks.m_size; i++) {
+                final int rank = ranks.m_ranks[i];
+                if (rank >= m_rank) {
+                    return;
+                }
+                final Event event = m_events[rank];
+                if (event.matches(m_matchingEvent)) {
+                    m_rank = rank;
+                    m_event = event;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -117,6 +117,9 @@ public class Events implements Serializable {
     @XmlTransient
     private EventOrdering m_ordering;
 
+    @XmlTransient
+    private transient volatile EventMatcherIndex m_matcherIndex;
+
     public Global getGlobal() {
         return m_global;
     }
@@ -273,6 +276,32 @@ public class Events implements Serializable {
 
 
     public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        return getMatcherIndex().findFirstMatchingEvent(matchingEvent);
+    }
+
+    /**
+     * Returns the index used to find the event definitions matching an event.
+     * The index is built on first use after the events have been initialized.
+     */
+    public EventMatcherIndex getMatcherIndex() {
+        EventMatcherIndex matcherIndex = m_matcherIndex;
+        if (matcherIndex == null) {
+            synchronized (this) {
+                matcherIndex = m_matcherIndex;
+                if (matcherIndex == null) {
+                    matcherIndex = new EventMatcherIndex(this);
+                    m_matcherIndex = matcherIndex;
+                }
+            }
+        }
+        return matcherIndex;
+    }
+
+    /**
+     * Finds the first matching event definition by testing the event definitions
+     * of each file in order, without using the {@link EventMatcherIndex}.
+     */
+    public Event findFirstMatchingEventByPartition(final org.opennms.netmgt.xml.event.Event matchingEvent) {
         // Atempt to match the event definition by UEI
         final String ueiToMatch = matchingEvent.getUei();
         if (ueiToMatch != null) {
@@ -301,7 +330,7 @@ public class Events implements Serializable {
 
         for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
             final Events subEvents = loadedEvents.getValue();
-            final Event event = subEvents.findFirstMatchingEvent(matchingEvent);
+            final Event event = subEvents.findFirstMatchingEventByPartition(matchingEvent);
             if (event != null) {
                 return event;
             }
@@ -360,6 +389,8 @@ public class Events implements Serializable {
         }
 
         indexEventsByUei();
+
+        m_matcherIndex = null;
     }
 
     private void indexEventsByUei() {
@@ -427,6 +458,18 @@ public class Events implements Serializable {
         }
     }
 
+    Partition getPartition() {
+        return m_partition;
+    }
+
+    Map<String, Event> getEventsByUei() {
+        return m_eventsByUei;
+    }
+
+    Collection<Events> getLoadedEvents() {
+        return m_loadedEventFiles.values();
+    }
+
     public Events getLoadEventsByFile(final String relativePath) {
         return m_loadedEventFiles.get(relativePath);
     }
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Snmp;
+
+public class EventMatcherIndexTest {
+
+    /**
+     * Does not partition the events, so all definitions are grouped by the index.
+     */
+    private static final Partition NO_PARTITION = new Partition() {
+        @Override
+        public List<String> group(Event eventConf) {
+            return null;
+        }
+
+        @Override
+        public String group(org.opennms.netmgt.xml.event.Event matchingEvent) {
+            return null;
+        }
+    };
+
+    @Test
+    public void canMatchInDefinitionOrder() {
+        final Events events = new Events();
+        final Event regex = addEvent(events, "uei/regex", "id", "~^\\.1\\.3\\.6\\.1\\.4\\.1\\.9\\.9\\..*", "specific", "99");
+        final Event prefix = addEvent(events, "uei/prefix", "id", ".1.3.6.1.4.1.9.%", "generic", "6", "specific", "1");
+        final Event exact = addEvent(events, "uei/exact", "id", ".1.3.6.1.4.1.9.1", "generic", "6", "specific", "1");
+        final Event exactOther = addEvent(events, "uei/exactOther", "id", ".1.3.6.1.4.1.9.1", "generic", "6", "specific", "2");
+        final Event generic = addEvent(events, "uei/generic", "id", ".1.3.6.1.4.1.9.1", "generic", "2");
+        final Event ueiPrefix = addEvent(events, "uei/ueiPrefix", "uei", "uei/syslog/%", "source", "syslogd");
+        final Event plain = addEvent(events, "uei/plain");
+        events.initialize(NO_PARTITION, new EventOrdering());
+
+        // The prefix definition comes first
+        assertSame(prefix, find(events, null, ".1.3.6.1.4.1.9.1", 6, 1));
+        assertSame(exactOther, find(events, null, ".1.3.6.1.4.1.9.1", 6, 2));
+        assertSame(generic, find(events, null, ".1.3.6.1.4.1.9.1", 2, 0));
+        assertSame(regex, find(events, null, ".1.3.6.1.4.1.9.9.1", 6, 99));
+        assertSame(prefix, find(events, null, ".1.3.6.1.4.1.9.9.1", 6, 1));
+        assertNull(find(events, null, ".1.3.6.1.4.1.8.1", 6, 1));
+        assertNull(find(events, null, null, 6, 1));
+
+        final org.opennms.netmgt.xml.event.Event syslog = new org.opennms.netmgt.xml.event.Event();
+        syslog.setUei("uei/syslog/foo");
+        syslog.setSource("syslogd");
+        assertSame(ueiPrefix, events.findFirstMatchingEvent(syslog));
+        syslog.setSource("trapd");
+        assertNull(events.findFirstMatchingEvent(syslog));
+
+        assertSame(plain, find(events, "uei/plain", null, 0, 0));
+        assertSame(exact, events.findFirstMatchingEventByPartition(exactEvent()));
+        assertSame(exact, events.getMatcherIndex().findFirstMatchingEvent(exactEvent()));
+    }
+
+    /**
+     * Verifies that the lookup by UEI of a loaded event file takes precedence
+     * over the definitions of the file, as it does when searching file by file.
+     */
+    @Test
+    public void canLookupUeiOfLoadedEventFile() {
+        final Events root = new Events();
+        addEvent(root, "uei/root", "id", ".1.3.6.1.4.1.5813.%");
+
+        final Events first = new Events();
+        final Event masked = addEvent(first, "uei/masked", "id", ".1.2.3");
+        final Event plain = addEvent(first, "uei/duplicate");
+        root.addLoadedEventFile("first.xml", first);
+
+        final Events second = new Events();
+        addEvent(second, "uei/duplicate");
+        root.addLoadedEventFile("second.xml", second);
+        root.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertSame(plain, find(root, "uei/duplicate", ".1.2.3", 6, 1));
+        assertSame(plain, root.findFirstMatchingEventByPartition(createEvent("uei/duplicate", ".1.2.3", 6, 1)));
+        assertSame(masked, find(root, "uei/other", ".1.2.3", 6, 1));
+    }
+
+    @Test
+    public void canMatchSameAsPartitions() {
+        canMatchSameAsPartitions(new EnterpriseIdPartition());
+        canMatchSameAsPartitions(NO_PARTITION);
+    }
+
+    private static void canMatchSameAsPartitions(final Partition partition) {
+        final Random random = new Random(42);
+        final Events root = new Events();
+        addRandomEvents(random, root, 200);
+        for (int i = 0; i < 5; i++) {
+            final Events events = new Events();
+            addRandomEvents(random, events, 200);
+            root.addLoadedEventFile("events" + i + ".xml", events);
+        }
+        root.initialize(partition, new EventOrdering());
+
+        int matches = 0;
+        for (int i = 0; i < 10000; i++) {
+            final org.opennms.netmgt.xml.event.Event event = createEvent(
+                    random.nextInt(4) == 0 ? "uei/" + random.nextInt(100) : null,
+                    random.nextInt(10) == 0 ? null : randomId(random),
+                    random.nextInt(7), random.nextInt(5));
+            final Event expected = root.findFirstMatchingEventByPartition(event);
+            assertSame(expected, root.findFirstMatchingEvent(event));
+            if (expected != null) {
+                matches++;
+            }
+        }
+        assertEquals(true, matches > 1000);
+    }
+
+    private static void addRandomEvents(final Random random, final Events events, final int count) {
+        for (int i = 0; i < count; i++) {
+            final List<String> elements = new ArrayList<>();
+            switch (random.nextInt(6)) {
+                case 0:
+                    break;
+                case 1:
+                    elements.add("id");
+                    elements.add("~^" + randomId(random).replace(".", "\\.") + ".*");
+                    break;
+                case 2:
+                    elements.add("id");
+                    elements.add(randomId(random).substring(0, 8 + random.nextInt(6)) + "%");
+                    break;
+                case 3:
+                    elements.add("uei");
+                    elements.add("uei/" + random.nextInt(10) + "%");
+                    break;
+                default:
+                    elements.add("id");
+                    elements.add(randomId(random));
+            }
+            if (random.nextBoolean()) {
+                elements.add("generic");
+                elements.add(Integer.toString(random.nextInt(7)));
+            }
+            if (random.nextBoolean()) {
+                elements.add("specific");
+                elements.add(random.nextInt(5) == 0 ? "~[0-2]" : Integer.toString(random.nextInt(5)));
+            }
+            addEvent(events, "uei/" + random.nextInt(100), elements.toArray(new String[elements.size()]));
+        }
+    }
+
+    private static String randomId(final Random random) {
+        return ".1.3.6.1.4.1." + random.nextInt(3) + "." + random.nextInt(3) + "." + random.nextInt(3);
+    }
+
+    private static Event addEvent(final Events events, final String uei, final String... elements) {
+        final Event event = new Event();
+        event.setUei(uei);
+        if (elements.length > 0) {
+            final Mask mask = new Mask();
+            for (int i = 0; i < elements.length; i += 2) {
+                final Maskelement element = new Maskelement();
+                element.setMename(elements[i]);
+                element.addMevalue(elements[i + 1]);
+                mask.addMaskelement(element);
+            }
+            event.setMask(mask);
+        }
+        events.addEvent(event);
+        return event;
+    }
+
+    private static Event find(final Events events, final String uei, final String id, final int generic, final int specific) {
+        final org.opennms.netmgt.xml.event.Event event = createEvent(uei, id, generic, specific);
+        final Event expected = events.findFirstMatchingEventByPartition(event);
+        final Event actual = events.findFirstMatchingEvent(event);
+        assertSame(expected, actual);
+        return actual;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event exactEvent() {
+        final org.opennms.netmgt.xml.event.Event event = createEvent(null, ".1.3.6.1.4.1.9.1", 6, 1);
+        event.setUei("uei/exact");
+        return event;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createEvent(final String uei, final String id, final int generic, final int specific) {
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setUei(uei);
+        if (id != null) {
+            final Snmp snmp = new Snmp();
+            snmp.setId(id);
+            snmp.setGeneric(generic);
+            snmp.setSpecific(specific);
+            event.setSnmp(snmp);
+        }
+        return event;
+    }
+}
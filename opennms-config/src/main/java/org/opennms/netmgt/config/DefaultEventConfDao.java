@@ -294,6 +294,9 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
             // Order the events for efficient searching
             events.initialize(m_partition, new EventOrdering());
 
+            // Build the matcher index before the events are used, so lookups never wait for it
+            events.getMatcherIndex();
+
             m_events = events;
         } catch (Exception e) {
             throw new DataRetrievalFailureException("Unabled to load " + m_configResource, e);
@@ -307,6 +310,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 			m_partition = new EnterpriseIdPartition();
 			events.initialize(m_partition, new EventOrdering());
+			events.getMatcherIndex();
 
 			m_events = events;
 		} catch (Exception e) {
@@ -140,4 +140,15 @@ public interface SyslogdConfig {
      * @return interval in ms
      */
     int getBatchIntervalMs();
+
+    /**
+     * Maximum number of messages a dispatching thread takes from the
+     * queue at once.
+     *
+     * When greater than 1, messages are queued in a preallocated ring
+     * buffer and dispatched in batches.
+     *
+     * @return dispatch batch size
+     */
+    int getDispatchBatchSize();
 }
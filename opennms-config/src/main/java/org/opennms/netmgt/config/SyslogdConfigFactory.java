@@ -216,6 +216,11 @@ public final class SyslogdConfigFactory implements SyslogdConfig {
         return m_config.getConfiguration().getBatchInterval();
     }
 
+    @Override
+    public int getDispatchBatchSize() {
+        return m_config.getConfiguration().getDispatchBatchSize();
+    }
+
     /**
      * Parse import-file tags and add all uei-matchs and hide-messages.
      * 
@@ -222,6 +222,11 @@ public final class TrapdConfigFactory implements TrapdConfig {
         return m_config.getBatchInterval();
     }
 
+    @Override
+    public int getDispatchBatchSize() {
+        return m_config.getDispatchBatchSize();
+    }
+
     @Override
     public boolean shouldUseAddressFromVarbind() {
         return m_config.shouldUseAddressFromVarbind();
@@ -235,6 +240,7 @@ public final class TrapdConfigFactory implements TrapdConfig {
         m_config.setQueueSize(config.getQueueSize());
         m_config.setBatchSize(config.getBatchSize());
         m_config.setBatchInterval(config.getBatchIntervalMs());
+        m_config.setDispatchBatchSize(config.getDispatchBatchSize());
         m_config.setThreads(config.getNumThreads());
         m_config.setIncludeRawMessage(config.isIncludeRawMessage());
 
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Compares the throughput of looking up the event definitions of the stock
+ * eventconf.xml with the {@link org.opennms.netmgt.xml.eventconf.EventMatcherIndex}
+ * and with the partitions searched file by file, and verifies both find the
+ * same definitions.
+ *
+ * The events are built from the masks of the definitions, so most of them
+ * match a definition, mixed with traps of unknown enterprises.
+ */
+public class EventConfMatcherIndexPerfIT {
+    private static final Logger LOG = LoggerFactory.getLogger(EventConfMatcherIndexPerfIT.class);
+
+    private static final long DURATION_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final int EVENT_COUNT = 10000;
+
+    private static DefaultEventConfDao s_eventConfDao;
+
+    private static List<org.opennms.netmgt.xml.event.Event> s_events;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        s_eventConfDao = new DefaultEventConfDao();
+        s_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        final long start = System.nanoTime();
+        s_eventConfDao.afterPropertiesSet();
+        LOG.info("Loaded and indexed {} event definitions in {} ms", s_eventConfDao.getAllEvents().size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        final Random random = new Random(42);
+        final List<Event> definitions = s_eventConfDao.getAllEvents();
+        s_events = new ArrayList<>(EVENT_COUNT);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            if (random.nextInt(10) == 0) {
+                s_events.add(createUnknownTrap(random));
+            } else {
+                s_events.add(createEvent(definitions.get(random.nextInt(definitions.size()))));
+            }
+        }
+    }
+
+    @Test
+    public void canFindSameDefinitions() {
+        final Events events = s_eventConfDao.getRootEvents();
+        int matches = 0;
+        for (org.opennms.netmgt.xml.event.Event event : s_events) {
+            final Event expected = events.findFirstMatchingEventByPartition(event);
+            assertSame(expected, s_eventConfDao.findByEvent(event));
+            if (expected != null && !"uei.opennms.org/default/trap".equals(expected.getUei())) {
+                matches++;
+            }
+        }
+        assertEquals(true, matches > EVENT_COUNT / 2);
+    }
+
+    @Test
+    public void compareLookups() {
+        final Events events = s_eventConfDao.getRootEvents();
+        // warm up
+        run(events::findFirstMatchingEventByPartition);
+        run(events::findFirstMatchingEvent);
+
+        final double partitions = run(events::findFirstMatchingEventByPartition);
+        final double index = run(events::findFirstMatchingEvent);
+        LOG.info("{} definitions: partitions={} events/s, index={} events/s, speedup={}",
+                s_eventConfDao.getAllEvents().size(), (long) partitions, (long) index,
+                String.format("%.2f", index / partitions));
+    }
+
+    private static double run(Function<org.opennms.netmgt.xml.event.Event, Event> lookup) {
+        long count = 0;
+        long matches = 0;
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        while (System.nanoTime() < end) {
+            for (org.opennms.netmgt.xml.event.Event event : s_events) {
+                if (lookup.apply(event) != null) {
+                    matches++;
+                }
+            }
+            count += s_events.size();
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        // Ensure the results are actually used
+        assertEquals(true, matches > 0);
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * Builds an event without UEI from the first value of each mask element
+     * and varbind of the definition. Values with regular expressions are
+     * skipped and prefixes are extended.
+     */
+    private static org.opennms.netmgt.xml.event.Event createEvent(Event definition) {
+        final EventBuilder bldr = new EventBuilder(null, "trapd");
+        if (definition.getMask() == null) {
+            bldr.setUei(definition.getUei());
+            return bldr.getEvent();
+        }
+
+        for (Maskelement element : definition.getMask().getMaskelements()) {
+            final String value = toValue(element.getMevalues());
+            if (value == null) {
+                continue;
+            }
+            switch (element.getMename()) {
+                case Maskelement.TAG_UEI: bldr.setUei(value); break;
+                case Maskelement.TAG_SOURCE: bldr.setSource(value); break;
+                case Maskelement.TAG_HOST: bldr.setHost(value); break;
+                case Maskelement.TAG_SNMPHOST: bldr.setSnmpHost(value); break;
+                case Maskelement.TAG_SNMP_EID: bldr.setEnterpriseId(value); break;
+                case Maskelement.TAG_SNMP_COMMUNITY: bldr.setCommunity(value); break;
+                case Maskelement.TAG_SNMP_GENERIC: bldr.setGeneric(toInt(value)); break;
+                case Maskelement.TAG_SNMP_SPECIFIC: bldr.setSpecific(toInt(value)); break;
+                default: break;
+            }
+        }
+
+        final List<Varbind> varbinds = definition.getMask().getVarbinds();
+        for (int i = 1; i <= varbinds.size(); i++) {
+            bldr.addParam(".1.3.6.1.4.1.5813.20." + i, "value");
+        }
+        for (Varbind varbind : varbinds) {
+            final String value = toValue(varbind.getVbvalues());
+            if (value != null && varbind.getVbnumber() != null && varbind.getVbnumber() <= varbinds.size()) {
+                bldr.setParam(".1.3.6.1.4.1.5813.20." + varbind.getVbnumber(), value);
+            }
+        }
+        return bldr.getEvent();
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createUnknownTrap(Random random) {
+        final EventBuilder bldr = new EventBuilder(null, "trapd");
+        bldr.setEnterpriseId(".1.3.6.1.4.1.99999." + random.nextInt(100));
+        bldr.setGeneric(6);
+        bldr.setSpecific(random.nextInt(10));
+        return bldr.getEvent();
+    }
+
+    private static String toValue(List<String> values) {
+        for (String value : values) {
+            if (value == null || value.startsWith("~")) {
+                continue;
+            }
+            return value.endsWith("%") ? value.substring(0, value.length() - 1) + "1" : value;
+        }
+        return null;
+    }
+
+    private static int toInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -29,10 +29,12 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.opennms.jicmp.jna.NativeDatagramPacket;
 import org.opennms.jicmp.jna.NativeDatagramSocket;
 import org.opennms.netmgt.icmp.EchoPacket;
 
@@ -99,6 +101,27 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
         m_listeners.add(listener);
     }
 
+    /**
+     * Creates the packet the reader receives all datagrams into. The buffer
+     * is direct, so JNA hands it to the socket as is instead of copying all
+     * of it in and out on every receive.
+     */
+    protected static NativeDatagramPacket createReceivePacket() {
+        return new NativeDatagramPacket(ByteBuffer.allocateDirect(65535), null, -1);
+    }
+
+    /**
+     * Copies the datagram received last, as the replies passed to the
+     * listeners outlive the receive buffer.
+     */
+    protected static ByteBuffer copyContent(NativeDatagramPacket datagram) {
+        final ByteBuffer content = datagram.getContent();
+        final ByteBuffer copy = ByteBuffer.allocate(content.remaining());
+        copy.put(content);
+        copy.flip();
+        return copy;
+    }
+
     protected void notifyPingListeners(InetAddress address, EchoPacket echoReply) {
         for (PingReplyListener listener : m_listeners) {
             listener.onPingReply(address, echoReply);
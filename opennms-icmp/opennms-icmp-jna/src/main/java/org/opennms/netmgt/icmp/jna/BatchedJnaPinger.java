@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_PACKET_SIZE;
+import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_RETRIES;
+import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_TIMEOUT;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.List;
+
+import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.Pinger;
+import org.opennms.netmgt.icmp.SinglePingResponseCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Pinger} which sends the requests of all callers through a
+ * {@link BatchedPingEngine}, instead of tracking every request with its own
+ * timer like the {@link JnaPinger}.
+ *
+ * It is enabled by setting <code>org.opennms.netmgt.icmp.pingerClass</code>
+ * to <code>org.opennms.netmgt.icmp.jna.BatchedJnaPinger</code>.
+ */
+public class BatchedJnaPinger implements Pinger {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedJnaPinger.class);
+
+    private final int m_pingerId = new SecureRandom().nextInt(Short.MAX_VALUE);
+
+    private BatchedPingEngine m_engine;
+
+    /**
+     * Creates and starts the engine on first use.
+     */
+    private synchronized BatchedPingEngine initialize() throws Exception {
+        if (m_engine != null) return m_engine;
+        try {
+            final BatchedPingEngine engine = new BatchedPingEngine(m_pingerId);
+            engine.start();
+            m_engine = engine;
+            return engine;
+        } catch (final IOException e) {
+            final String errorMessage = String.valueOf(e.getMessage()).toLowerCase();
+            if (errorMessage.contains("permission denied") || errorMessage.contains("operation not permitted")) {
+                LOG.error("Permission error received while attempting to open ICMP socket. See https://wiki.opennms.org/wiki/ICMP for information on configuring ICMP for non-root.");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the engine, which exposes the packet rates and loss counters.
+     */
+    public BatchedPingEngine getEngine() throws Exception {
+        return initialize();
+    }
+
+    @Override
+    public void initialize4() throws Exception {
+        initialize();
+    }
+
+    @Override
+    public void initialize6() throws Exception {
+        initialize();
+    }
+
+    @Override
+    public boolean isV4Available() {
+        try {
+            return initialize().isV4Available();
+        } catch (final Throwable t) {
+            LOG.trace("Failed to initialize IPv4", t);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isV6Available() {
+        try {
+            return initialize().isV6Available();
+        } catch (final Throwable t) {
+            LOG.trace("Failed to initialize IPv6", t);
+            return false;
+        }
+    }
+
+    @Override
+    public void ping(final InetAddress host, final long timeout, final int retries, final int packetsize, final int sequenceId, final PingResponseCallback cb) throws Exception {
+        initialize().ping(host, sequenceId, timeout, retries, packetsize, cb);
+    }
+
+    @Override
+    public void ping(final InetAddress host, final long timeout, final int retries, final int sequenceId, final PingResponseCallback cb) throws Exception {
+        ping(host, timeout, retries, DEFAULT_PACKET_SIZE, sequenceId, cb);
+    }
+
+    @Override
+    public Number ping(final InetAddress host, final long timeout, final int retries, final int packetsize) throws Exception {
+        final SinglePingResponseCallback cb = new SinglePingResponseCallback(host);
+        ping(host, timeout, retries, packetsize, 1, cb);
+        cb.waitFor();
+        cb.rethrowError();
+        return cb.getResponseTime();
+    }
+
+    @Override
+    public Number ping(final InetAddress host, final long timeout, final int retries) throws Exception {
+        return ping(host, timeout, retries, DEFAULT_PACKET_SIZE);
+    }
+
+    @Override
+    public Number ping(final InetAddress host) throws Exception {
+        return ping(host, DEFAULT_TIMEOUT, DEFAULT_RETRIES);
+    }
+
+    @Override
+    public List<Number> parallelPing(final InetAddress host, final int count, final long timeout, final long pingInterval, final int size) throws Exception {
+        final BatchedPingEngine engine = initialize();
+        final ParallelPingResponseCallback cb = new ParallelPingResponseCallback(count);
+
+        for (int seqNum = 0; seqNum < count; seqNum++) {
+            engine.ping(host, seqNum, timeout == 0 ? DEFAULT_TIMEOUT : timeout, 0, size, cb);
+            Thread.sleep(pingInterval);
+        }
+
+        cb.waitFor();
+        return cb.getResponseTimes();
+    }
+
+    @Override
+    public List<Number> parallelPing(final InetAddress host, final int count, final long timeout, final long pingInterval) throws Exception {
+        return parallelPing(host, count, timeout, pingInterval, DEFAULT_PACKET_SIZE);
+    }
+
+    @Override
+    public void setAllowFragmentation(final boolean allow) throws Exception {
+        initialize().setAllowFragmentation(allow);
+    }
+
+    @Override
+    public void setTrafficClass(final int tc) throws Exception {
+        initialize().setTrafficClass(tc);
+    }
+
+}
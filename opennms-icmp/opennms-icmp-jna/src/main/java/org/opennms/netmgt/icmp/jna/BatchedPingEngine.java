@@ -0,0 +1,536 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.IcmpMessengerIOException;
+import org.opennms.netmgt.icmp.LogPrefixPreservingPingResponseCallback;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the echo requests of all callers through one IPv4 and one IPv6
+ * socket.
+ *
+ * Requests are queued and sent by a single thread in bursts of at most
+ * {@link #BURST_SIZE_PROPERTY} packets, which are paced so that no more than
+ * {@link #MAX_PACKETS_PER_SECOND_PROPERTY} packets are sent per second.
+ * Requests awaiting a reply are kept in a {@link PingInFlightTable}, keyed by
+ * a unique number carried in the payload of the packet. Their timeouts are
+ * tracked by a single {@link PingTimerWheel} instead of one timer per
+ * request.
+ *
+ * Callbacks are invoked by the socket reader threads for replies and by the
+ * sending thread for timeouts and errors, so they must not block.
+ */
+public class BatchedPingEngine implements PingReplyListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedPingEngine.class);
+
+    public static final String BURST_SIZE_PROPERTY = "org.opennms.netmgt.icmp.jna.batch.burstSize";
+
+    public static final String MAX_PACKETS_PER_SECOND_PROPERTY = "org.opennms.netmgt.icmp.jna.batch.maxPacketsPerSecond";
+
+    public static final String TICK_PROPERTY = "org.opennms.netmgt.icmp.jna.batch.tick";
+
+    public static final String RECEIVE_BUFFER_SIZE_PROPERTY = "org.opennms.netmgt.icmp.jna.batch.receiveBufferSize";
+
+    public static final int DEFAULT_BURST_SIZE = 50;
+
+    public static final int DEFAULT_MAX_PACKETS_PER_SECOND = 10000;
+
+    /**
+     * Default resolution of the timeouts in milliseconds.
+     */
+    public static final long DEFAULT_TICK = 10;
+
+    /**
+     * Default size of the socket receive buffers in bytes. The replies to a
+     * burst arrive at once and are dropped by the kernel if the buffer
+     * overflows before the reader catches up.
+     */
+    public static final int DEFAULT_RECEIVE_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * How long to sleep at most when there is nothing to do.
+     */
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int m_pingerId;
+    private final int m_burstSize;
+    private final long m_burstIntervalNanos;
+
+    private V4Pinger m_v4;
+    private V6Pinger m_v6;
+
+    private final Queue<BatchedPingRequest> m_pending = new ConcurrentLinkedQueue<>();
+    private final PingInFlightTable<BatchedPingRequest> m_inFlight = new PingInFlightTable<>();
+    private final PingTimerWheel m_wheel;
+
+    private final Thread m_thread;
+    private volatile boolean m_sleeping = false;
+    private volatile boolean m_stopped = false;
+
+    /**
+     * Only used by the sending thread.
+     */
+    private long m_nextKey = 1;
+    private long m_nextBurstNanos;
+
+    private final AtomicLong m_packetsSent = new AtomicLong();
+    private final AtomicLong m_repliesReceived = new AtomicLong();
+    private final AtomicLong m_packetsLost = new AtomicLong();
+    private final AtomicLong m_requestsTimedOut = new AtomicLong();
+    private final AtomicLong m_errors = new AtomicLong();
+    private final AtomicLong m_unmatchedReplies = new AtomicLong();
+
+    private long m_rateStartNanos;
+    private long m_rateStartSent;
+    private long m_rateStartReceived;
+    private volatile double m_sentPerSecond;
+    private volatile double m_receivedPerSecond;
+
+    public BatchedPingEngine(final int pingerId) throws IOException {
+        this(pingerId, Integer.getInteger(BURST_SIZE_PROPERTY, DEFAULT_BURST_SIZE),
+                Integer.getInteger(MAX_PACKETS_PER_SECOND_PROPERTY, DEFAULT_MAX_PACKETS_PER_SECOND),
+                Long.getLong(TICK_PROPERTY, DEFAULT_TICK),
+                Integer.getInteger(RECEIVE_BUFFER_SIZE_PROPERTY, DEFAULT_RECEIVE_BUFFER_SIZE));
+    }
+
+    /**
+     * @param pingerId the identifier of the echo requests
+     * @param burstSize the maximum number of packets sent at once
+     * @param maxPacketsPerSecond the maximum rate of packets, or 0 to send
+     *        the bursts back to back
+     * @param tick the resolution of the timeouts in milliseconds
+     * @param receiveBufferSize the size of the socket receive buffers in
+     *        bytes, or 0 to keep the system default
+     */
+    public BatchedPingEngine(final int pingerId, final int burstSize, final int maxPacketsPerSecond, final long tick, final int receiveBufferSize) throws IOException {
+        m_pingerId = pingerId;
+        m_burstSize = Math.max(1, burstSize);
+        m_burstIntervalNanos = maxPacketsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(m_burstSize) / maxPacketsPerSecond : 0;
+
+        Throwable error = null;
+        try {
+            m_v4 = new V4Pinger(pingerId);
+            m_v4.addPingReplyListener(this);
+            setReceiveBufferSize(m_v4, receiveBufferSize);
+        } catch (final Throwable t) {
+            LOG.debug("Unable to initialize IPv4 Pinger.", t);
+            error = t;
+            m_v4 = null;
+        }
+
+        try {
+            m_v6 = new V6Pinger(pingerId);
+            m_v6.addPingReplyListener(this);
+            setReceiveBufferSize(m_v6, receiveBufferSize);
+        } catch (final Throwable t) {
+            LOG.debug("Unable to initialize IPv6 Pinger.", t);
+            if (error == null) error = t;
+            m_v6 = null;
+        }
+
+        if (m_v4 == null && m_v6 == null) {
+            final IcmpMessengerIOException exception = new IcmpMessengerIOException("IPv4 and IPv6 are not available.", error);
+            LOG.warn("Unable to initialize batched JNA ICMP engine", exception);
+            throw exception;
+        }
+
+        final long now = System.nanoTime();
+        m_wheel = new PingTimerWheel(TimeUnit.MILLISECONDS.toNanos(Math.max(1, tick)), WHEEL_SIZE, now);
+        m_nextBurstNanos = now;
+        m_rateStartNanos = now;
+
+        m_thread = new Thread(this::run, "JNA-ICMP-Batch-" + pingerId + "-Sender");
+        m_thread.setDaemon(true);
+    }
+
+    private static void setReceiveBufferSize(final AbstractPinger<?> pinger, final int size) {
+        if (size <= 0) {
+            return;
+        }
+        try {
+            pinger.getPingSocket().setReceiveBufferSize(size);
+        } catch (final Throwable t) {
+            LOG.debug("Unable to set the receive buffer size of the {} socket to {} bytes.", pinger.getClass().getSimpleName(), size, t);
+        }
+    }
+
+    public void start() {
+        if (m_v4 != null) m_v4.start();
+        if (m_v6 != null) m_v6.start();
+        m_thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        m_stopped = true;
+        LockSupport.unpark(m_thread);
+        m_thread.join();
+        if (m_v4 != null) {
+            m_v4.stop();
+            m_v4.closeSocket();
+        }
+        if (m_v6 != null) {
+            m_v6.stop();
+            m_v6.closeSocket();
+        }
+    }
+
+    public boolean isV4Available() {
+        return m_v4 != null;
+    }
+
+    public boolean isV6Available() {
+        return m_v6 != null;
+    }
+
+    public void setTrafficClass(final int tc) throws IOException {
+        if (m_v4 != null) m_v4.getPingSocket().setTrafficClass(tc);
+        if (m_v6 != null) m_v6.getPingSocket().setTrafficClass(tc);
+    }
+
+    public void setAllowFragmentation(final boolean allow) throws IOException {
+        if (m_v4 != null) m_v4.getPingSocket().allowFragmentation(allow);
+        if (m_v6 != null) m_v6.getPingSocket().allowFragmentation(allow);
+    }
+
+    /**
+     * Queues an echo request. The callback is invoked once, when a reply
+     * was received, all attempts timed out, or the request failed.
+     */
+    public void ping(final InetAddress host, final int sequenceNumber, final long timeout, final int retries, final int packetSize, final PingResponseCallback cb) {
+        m_pending.offer(new BatchedPingRequest(host, m_pingerId, sequenceNumber, timeout, retries, packetSize, cb));
+        if (m_sleeping) {
+            LockSupport.unpark(m_thread);
+        }
+    }
+
+    private void run() {
+        Logging.putPrefix("icmp");
+        while (!m_stopped) {
+            try {
+                long now = System.nanoTime();
+                if (now >= m_nextBurstNanos) {
+                    sendBurst(now);
+                }
+
+                m_wheel.expire(now, this::expired);
+                updateRates(now);
+
+                long wakeup = m_wheel.size() > 0 ? m_wheel.getNextTickNanos() : now + IDLE_NANOS;
+                m_sleeping = true;
+                if (!m_pending.isEmpty()) {
+                    wakeup = Math.min(wakeup, m_nextBurstNanos);
+                }
+                now = System.nanoTime();
+                if (wakeup > now) {
+                    LockSupport.parkNanos(this, wakeup - now);
+                }
+                m_sleeping = false;
+            } catch (final Throwable t) {
+                LOG.warn("Unexpected error while processing ping requests.", t);
+            }
+        }
+    }
+
+    private void sendBurst(final long now) {
+        int sent = 0;
+        BatchedPingRequest request;
+        while (sent < m_burstSize && (request = m_pending.poll()) != null) {
+            send(request, now);
+            sent++;
+        }
+        if (sent > 0) {
+            m_nextBurstNanos = now + m_burstIntervalNanos;
+        }
+    }
+
+    private void send(final BatchedPingRequest request, final long now) {
+        final long key = m_nextKey++;
+        request.m_key = key;
+        synchronized (m_inFlight) {
+            m_inFlight.put(key, request);
+        }
+        m_wheel.schedule(key, now + request.m_timeoutNanos);
+
+        final InetAddress addr = request.getAddress();
+        try {
+            LOG.trace("Sending Ping Request: {}", request);
+            if (addr instanceof Inet4Address && m_v4 != null) {
+                m_v4.ping((Inet4Address) addr, m_pingerId, request.getSequenceNumber(), key, 1, 0, request.m_packetSize);
+            } else if (addr instanceof Inet6Address && m_v6 != null) {
+                m_v6.ping((Inet6Address) addr, m_pingerId, request.getSequenceNumber(), key, 1, 0, request.m_packetSize);
+            } else {
+                throw new IllegalStateException("Cannot ping " + InetAddressUtils.str(addr) + ": No pinger found that can handle this address");
+            }
+            m_packetsSent.incrementAndGet();
+        } catch (final Throwable t) {
+            synchronized (m_inFlight) {
+                m_inFlight.remove(key);
+            }
+            m_errors.incrementAndGet();
+            request.m_callback.handleError(addr, request, t);
+        }
+    }
+
+    private void expired(final long key) {
+        final BatchedPingRequest request;
+        synchronized (m_inFlight) {
+            request = m_inFlight.remove(key);
+        }
+        if (request == null) {
+            // Already answered
+            return;
+        }
+
+        m_packetsLost.incrementAndGet();
+        if (request.m_retries > 0) {
+            request.m_retries--;
+            LOG.trace("Retrying Ping Request {}", request);
+            m_pending.offer(request);
+        } else {
+            LOG.trace("Ping Request Timed out {}", request);
+            m_requestsTimedOut.incrementAndGet();
+            request.m_callback.handleTimeout(request.getAddress(), request);
+        }
+    }
+
+    @Override
+    public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        final long key = packet.getThreadId();
+        if (key == 0) {
+            return;
+        }
+
+        BatchedPingRequest request;
+        synchronized (m_inFlight) {
+            request = m_inFlight.get(key);
+            if (request != null && (request.getSequenceNumber() & 0xFFFF) == (packet.getSequenceNumber() & 0xFFFF) && request.getAddress().equals(address)) {
+                m_inFlight.remove(key);
+            } else {
+                request = null;
+            }
+        }
+
+        if (request == null) {
+            // Late reply for a request that already timed out, or a reply to another pinger
+            m_unmatchedReplies.incrementAndGet();
+            return;
+        }
+
+        m_repliesReceived.incrementAndGet();
+        LOG.trace("Ping Response Received for request: {}", request);
+        request.m_callback.handleResponse(address, packet);
+    }
+
+    private void updateRates(final long now) {
+        final long elapsed = now - m_rateStartNanos;
+        if (elapsed < TimeUnit.SECONDS.toNanos(1)) {
+            return;
+        }
+        final long sent = m_packetsSent.get();
+        final long received = m_repliesReceived.get();
+        m_sentPerSecond = (sent - m_rateStartSent) * 1e9 / elapsed;
+        m_receivedPerSecond = (received - m_rateStartReceived) * 1e9 / elapsed;
+        m_rateStartNanos = now;
+        m_rateStartSent = sent;
+        m_rateStartReceived = received;
+    }
+
+    public long getPacketsSent() {
+        return m_packetsSent.get();
+    }
+
+    public long getRepliesReceived() {
+        return m_repliesReceived.get();
+    }
+
+    /**
+     * @return the number of packets which were not answered in time,
+     *         including those that were retried
+     */
+    public long getPacketsLost() {
+        return m_packetsLost.get();
+    }
+
+    /**
+     * @return the number of requests for which all attempts timed out
+     */
+    public long getRequestsTimedOut() {
+        return m_requestsTimedOut.get();
+    }
+
+    public long getErrors() {
+        return m_errors.get();
+    }
+
+    /**
+     * @return the number of replies that did not match a request in flight
+     */
+    public long getUnmatchedReplies() {
+        return m_unmatchedReplies.get();
+    }
+
+    /**
+     * @return the fraction of the answered or expired packets which were
+     *         lost
+     */
+    public double getLossRatio() {
+        final long lost = m_packetsLost.get();
+        final long total = lost + m_repliesReceived.get();
+        return total == 0 ? 0.0 : (double) lost / total;
+    }
+
+    /**
+     * @return the rate at which packets were sent during the last second
+     */
+    public double getSentPacketsPerSecond() {
+        return m_sentPerSecond;
+    }
+
+    /**
+     * @return the rate at which replies were received during the last second
+     */
+    public double getReceivedPacketsPerSecond() {
+        return m_receivedPerSecond;
+    }
+
+    public int getPending() {
+        return m_pending.size();
+    }
+
+    public int getInFlight() {
+        synchronized (m_inFlight) {
+            return m_inFlight.size();
+        }
+    }
+
+    /**
+     * An echo request, which is reused for its retries.
+     */
+    static final class BatchedPingRequest implements EchoPacket {
+        private final InetAddress m_address;
+        private final int m_identifier;
+        private final int m_sequenceNumber;
+        private final long m_timeoutNanos;
+        private final int m_packetSize;
+        private final PingResponseCallback m_callback;
+
+        /**
+         * Only used by the sending thread.
+         */
+        private int m_retries;
+
+        /**
+         * The key of the current attempt.
+         */
+        private volatile long m_key;
+
+        BatchedPingRequest(final InetAddress address, final int identifier, final int sequenceNumber, final long timeout, final int retries, final int packetSize, final PingResponseCallback cb) {
+            m_address = address;
+            m_identifier = identifier;
+            m_sequenceNumber = sequenceNumber;
+            m_timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            m_retries = retries;
+            m_packetSize = packetSize;
+            m_callback = new LogPrefixPreservingPingResponseCallback(cb);
+        }
+
+        public InetAddress getAddress() {
+            return m_address;
+        }
+
+        @Override
+        public boolean isEchoReply() {
+            return false;
+        }
+
+        @Override
+        public int getIdentifier() {
+            return m_identifier;
+        }
+
+        @Override
+        public int getSequenceNumber() {
+            return m_sequenceNumber;
+        }
+
+        @Override
+        public long getThreadId() {
+            return m_key;
+        }
+
+        @Override
+        public long getReceivedTimeNanos() {
+            throw new UnsupportedOperationException("EchoPacket.getReceivedTimeNanos is not yet implemented");
+        }
+
+        @Override
+        public long getSentTimeNanos() {
+            throw new UnsupportedOperationException("EchoPacket.getSentTimeNanos is not yet implemented");
+        }
+
+        @Override
+        public double elapsedTime(final TimeUnit timeUnit) {
+            throw new UnsupportedOperationException("EchoPacket.elapsedTime is not yet implemented");
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append('[');
+            sb.append("Address=").append(InetAddressUtils.str(m_address)).append(',');
+            sb.append("Sequence-Number=").append(m_sequenceNumber).append(',');
+            sb.append("Key=").append(m_key).append(',');
+            sb.append("Retries=").append(m_retries).append(',');
+            sb.append("Timeout=").append(TimeUnit.NANOSECONDS.toMillis(m_timeoutNanos)).append(',');
+            sb.append("Packet-Size=").append(m_packetSize);
+            sb.append(']');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.util.Arrays;
+
+/**
+ * A map from <code>long</code> keys to the requests awaiting a reply.
+ *
+ * Keys are stored in a primitive array with open addressing and linear
+ * probing, so neither the lookup for a reply nor the insertion of a request
+ * allocates or boxes. The key <code>0</code> marks an empty slot and cannot
+ * be used.
+ *
+ * The table is not thread safe.
+ */
+class PingInFlightTable<T> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] m_keys;
+    private Object[] m_values;
+    private int m_mask;
+    private int m_size;
+
+    PingInFlightTable() {
+        this(1024);
+    }
+
+    PingInFlightTable(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(final long key) {
+        checkKey(key);
+        for (int i = index(key); ; i = (i + 1) & m_mask) {
+            final long k = m_keys[i];
+            if (k == key) {
+                return (T) m_values[i];
+            } else if (k == 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the value previously associated with the key, or
+     *         <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    public T put(final long key, final T value) {
+        checkKey(key);
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+        for (int i = index(key); ; i = (i + 1) & m_mask) {
+            final long k = m_keys[i];
+            if (k == key) {
+                final T previous = (T) m_values[i];
+                m_values[i] = value;
+                return previous;
+            } else if (k == 0) {
+                m_keys[i] = key;
+                m_values[i] = value;
+                // Keep the load factor at or below 1/2
+                if (++m_size > (m_mask + 1) >>> 1) {
+                    rehash((m_mask + 1) << 1);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the value that was associated with the key, or
+     *         <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    public T remove(final long key) {
+        checkKey(key);
+        for (int i = index(key); ; i = (i + 1) & m_mask) {
+            final long k = m_keys[i];
+            if (k == key) {
+                final T value = (T) m_values[i];
+                delete(i);
+                return value;
+            } else if (k == 0) {
+                return null;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(m_keys, 0L);
+        Arrays.fill(m_values, null);
+        m_size = 0;
+    }
+
+    /**
+     * Empties the slot and shifts the following entries of the probe
+     * sequence back, so that lookups never need tombstones.
+     */
+    private void delete(int hole) {
+        m_size--;
+        for (int i = (hole + 1) & m_mask; m_keys[i] != 0; i = (i + 1) & m_mask) {
+            final int home = index(m_keys[i]);
+            // Move the entry into the hole unless its home lies cyclically in (hole, i]
+            if (((i - home) & m_mask) >= ((i - hole) & m_mask)) {
+                m_keys[hole] = m_keys[i];
+                m_values[hole] = m_values[i];
+                hole = i;
+            }
+        }
+        m_keys[hole] = 0L;
+        m_values[hole] = null;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] keys = m_keys;
+        final Object[] values = m_values;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                int j = index(keys[i]);
+                while (m_keys[j] != 0) {
+                    j = (j + 1) & m_mask;
+                }
+                m_keys[j] = keys[i];
+                m_values[j] = values[i];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        m_keys = new long[capacity];
+        m_values = new Object[capacity];
+        m_mask = capacity - 1;
+    }
+
+    private int index(final long key) {
+        // Fibonacci hashing spreads sequential keys over the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & m_mask;
+    }
+
+    private static void checkKey(final long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("0 cannot be used as a key");
+        }
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A hashed timing wheel for the timeouts of the requests in flight.
+ *
+ * Every slot holds the keys and deadlines of the requests expiring in that
+ * tick in primitive arrays. Deadlines more than one revolution ahead stay in
+ * their slot until the wheel comes around often enough. Answered requests
+ * are not removed from the wheel, the owner instead ignores expired keys
+ * that are no longer in flight.
+ *
+ * The wheel is not thread safe.
+ */
+class PingTimerWheel {
+
+    private static final int INITIAL_SLOT_CAPACITY = 16;
+
+    private final long m_tickNanos;
+    private final int m_mask;
+    private final long[][] m_keys;
+    private final long[][] m_deadlines;
+    private final int[] m_counts;
+
+    /**
+     * The tick processed last.
+     */
+    private long m_tick;
+
+    private int m_size;
+
+    /**
+     * @param tickNanos the resolution of the wheel
+     * @param wheelSize the number of slots, rounded up to a power of two
+     * @param startNanos the current time
+     */
+    PingTimerWheel(final long tickNanos, final int wheelSize, final long startNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be positive");
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        m_tickNanos = tickNanos;
+        m_mask = size - 1;
+        m_keys = new long[size][];
+        m_deadlines = new long[size][];
+        m_counts = new int[size];
+        m_tick = Math.floorDiv(startNanos, tickNanos);
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public long getTickNanos() {
+        return m_tickNanos;
+    }
+
+    /**
+     * Adds a timeout. Deadlines that already passed expire with the next
+     * call to {@link #expire(long, LongConsumer)}.
+     */
+    public void schedule(final long key, final long deadlineNanos) {
+        final long tick = Math.max(Math.floorDiv(deadlineNanos, m_tickNanos), m_tick);
+        final int slot = (int) (tick & m_mask);
+
+        int count = m_counts[slot];
+        if (m_keys[slot] == null) {
+            m_keys[slot] = new long[INITIAL_SLOT_CAPACITY];
+            m_deadlines[slot] = new long[INITIAL_SLOT_CAPACITY];
+        } else if (count == m_keys[slot].length) {
+            m_keys[slot] = Arrays.copyOf(m_keys[slot], count << 1);
+            m_deadlines[slot] = Arrays.copyOf(m_deadlines[slot], count << 1);
+        }
+        m_keys[slot][count] = key;
+        m_deadlines[slot][count] = deadlineNanos;
+        m_counts[slot] = count + 1;
+        m_size++;
+    }
+
+    /**
+     * Advances the wheel to the given time and passes the keys of all
+     * timeouts that expired by then to the consumer.
+     */
+    public void expire(final long nowNanos, final LongConsumer expired) {
+        final long nowTick = Math.floorDiv(nowNanos, m_tickNanos);
+        // A single revolution visits every slot
+        final long firstTick = Math.max(m_tick, nowTick - m_mask);
+        for (long tick = firstTick; tick <= nowTick; tick++) {
+            expireSlot((int) (tick & m_mask), nowNanos, expired);
+        }
+        // The current tick is visited again, as it may hold timeouts due later in the tick
+        m_tick = Math.max(m_tick, nowTick);
+    }
+
+    /**
+     * @return the start of the tick following the current one
+     */
+    public long getNextTickNanos() {
+        return (m_tick + 1) * m_tickNanos;
+    }
+
+    private void expireSlot(final int slot, final long nowNanos, final LongConsumer expired) {
+        final int count = m_counts[slot];
+        if (count == 0) {
+            return;
+        }
+
+        final long[] keys = m_keys[slot];
+        final long[] deadlines = m_deadlines[slot];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (deadlines[i] <= nowNanos) {
+                m_size--;
+                expired.accept(keys[i]);
+            } else {
+                // Due in a later revolution
+                keys[kept] = keys[i];
+                deadlines[kept] = deadlines[i];
+                kept++;
+            }
+        }
+        m_counts[slot] = kept;
+
+        // Give back the memory of a burst once it has passed
+        if (kept == 0 && keys.length > INITIAL_SLOT_CAPACITY * 4) {
+            m_keys[slot] = null;
+            m_deadlines[slot] = null;
+        }
+    }
+}
@@ -74,8 +74,8 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
         Logging.putPrefix("icmp");
         try {
             final int pingerId = getPingerId();
+            final NativeDatagramPacket datagram = createReceivePacket();
             while (!isFinished()) {
-                final NativeDatagramPacket datagram = new NativeDatagramPacket(65535);
                 getPingSocket().receive(datagram);
                 final long received = System.nanoTime();
     
@@ -93,7 +93,7 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
     }
 
     private ByteBuffer getIPPayload(final NativeDatagramPacket datagram) {
-        return new IPPacket(datagram.getContent()).getPayload();
+        return new IPPacket(copyContent(datagram)).getPayload();
     }
     
     @Override
@@ -102,7 +102,9 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
         for(int i = sequenceNumber; i < sequenceNumber + count; i++) {
             final V4PingRequest request = new V4PingRequest(identifier, i, threadId,packetSize);
             request.send(socket, addr);
-            Thread.sleep(interval);
+            if (interval > 0) {
+                Thread.sleep(interval);
+            }
         }
     }
 }
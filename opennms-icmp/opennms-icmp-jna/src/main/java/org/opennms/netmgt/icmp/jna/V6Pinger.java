@@ -83,8 +83,8 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
         Logging.putPrefix("icmp");
         try {
             final int pingerId = getPingerId();
+            final NativeDatagramPacket datagram = createReceivePacket();
             while (!isFinished()) {
-                final NativeDatagramPacket datagram = new NativeDatagramPacket(65535);
                 getPingSocket().receive(datagram);
                 final long received = System.nanoTime();
     
@@ -102,7 +102,7 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
     }
 
     private ByteBuffer getIPPayload(final NativeDatagramPacket datagram) {
-        return datagram.getContent();
+        return copyContent(datagram);
     }
     
     @Override
@@ -111,7 +111,9 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
         for(int i = sequenceNumber; i < sequenceNumber + count; i++) {
             final V6PingRequest request = new V6PingRequest(identifier, i, threadId,packetSize);
             request.send(socket, addr);
-            Thread.sleep(interval);
+            if (interval > 0) {
+                Thread.sleep(interval);
+            }
         }
     }
 }
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.Pinger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Pings the loopback address many times in parallel and compares the
+ * throughput of the batched engine with the one of the {@link JnaPinger}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+public class BatchedPingEnginePerfIT {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedPingEnginePerfIT.class);
+
+    private static final int REQUESTS = 20000;
+
+    private static final long TIMEOUT = 2000;
+
+    @Test
+    @IfProfileValue(name="runPingTests", value="true")
+    public void testBatchedPinger() throws Exception {
+        final BatchedJnaPinger pinger = new BatchedJnaPinger();
+        final Result result = pingLoopback(pinger);
+
+        final BatchedPingEngine engine = pinger.getEngine();
+        LOG.info("Batched engine: sent {} packets, received {} replies, lost {} packets, {} unmatched replies",
+                engine.getPacketsSent(), engine.getRepliesReceived(), engine.getPacketsLost(), engine.getUnmatchedReplies());
+        engine.stop();
+
+        assertEquals(0, result.errors.get());
+        assertEquals(REQUESTS, result.replies.get() + result.timeouts.get());
+    }
+
+    @Test
+    @IfProfileValue(name="runPingTests", value="true")
+    public void testJnaPinger() throws Exception {
+        final Result result = pingLoopback(new JnaPinger());
+
+        assertEquals(0, result.errors.get());
+        assertEquals(REQUESTS, result.replies.get() + result.timeouts.get());
+    }
+
+    private static Result pingLoopback(final Pinger pinger) throws Exception {
+        final InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        final Result result = new Result();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            pinger.ping(loopback, TIMEOUT, 0, i & 0xFFFF, result);
+        }
+        result.latch.await(TIMEOUT * 4, TimeUnit.MILLISECONDS);
+        final long elapsed = System.nanoTime() - start;
+
+        final int replies = result.replies.get();
+        LOG.info("{}: {} requests in {} ms ({} pings/s), {} replies, {} timeouts, {} errors, average rtt {} us",
+                pinger.getClass().getSimpleName(), REQUESTS, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                String.format("%.0f", REQUESTS * 1e9 / elapsed), replies, result.timeouts.get(), result.errors.get(),
+                replies == 0 ? "-" : String.format("%.1f", result.rttNanos.get() / 1e3 / replies));
+        return result;
+    }
+
+    private static class Result implements PingResponseCallback {
+        private final CountDownLatch latch = new CountDownLatch(REQUESTS);
+        private final AtomicInteger replies = new AtomicInteger();
+        private final AtomicInteger timeouts = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+        private final AtomicLong rttNanos = new AtomicLong();
+
+        @Override
+        public void handleResponse(final InetAddress address, final EchoPacket response) {
+            replies.incrementAndGet();
+            rttNanos.addAndGet((long) response.elapsedTime(TimeUnit.NANOSECONDS));
+            latch.countDown();
+        }
+
+        @Override
+        public void handleTimeout(final InetAddress address, final EchoPacket request) {
+            timeouts.incrementAndGet();
+            latch.countDown();
+        }
+
+        @Override
+        public void handleError(final InetAddress address, final EchoPacket request, final Throwable t) {
+            errors.incrementAndGet();
+            latch.countDown();
+        }
+    }
+}
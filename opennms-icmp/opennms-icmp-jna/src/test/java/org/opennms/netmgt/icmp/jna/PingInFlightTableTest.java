@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PingInFlightTableTest {
+
+    @Test
+    public void testPutGetRemove() {
+        final PingInFlightTable<String> table = new PingInFlightTable<>(4);
+        assertNull(table.put(1, "one"));
+        assertNull(table.put(2, "two"));
+        assertEquals("one", table.put(1, "uno"));
+        assertEquals(2, table.size());
+
+        assertEquals("uno", table.get(1));
+        assertEquals("two", table.get(2));
+        assertNull(table.get(3));
+
+        assertEquals("uno", table.remove(1));
+        assertNull(table.remove(1));
+        assertNull(table.get(1));
+        assertEquals("two", table.get(2));
+        assertEquals(1, table.size());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testZeroKeyIsRejected() {
+        new PingInFlightTable<String>().put(0, "zero");
+    }
+
+    /**
+     * Compares a random mix of operations against a {@link HashMap}, so that
+     * entries are moved by both growing and the deletions.
+     */
+    @Test
+    public void testAgainstHashMap() {
+        final Random random = new Random(42);
+        final PingInFlightTable<Long> table = new PingInFlightTable<>(16);
+        final Map<Long, Long> expected = new HashMap<>();
+
+        long nextKey = 1;
+        for (int i = 0; i < 200000; i++) {
+            final int op = random.nextInt(3);
+            if (op < 2 && expected.size() < 5000) {
+                final long key = nextKey++;
+                assertNull(table.put(key, key));
+                expected.put(key, key);
+            } else {
+                // Remove a key which may or may not still be present
+                final long key = 1 + (long) random.nextInt((int) nextKey);
+                assertEquals(expected.remove(key), table.remove(key));
+            }
+            assertEquals(expected.size(), table.size());
+        }
+
+        for (long key = 1; key < nextKey; key++) {
+            assertEquals(expected.get(key), table.get(key));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PingTimerWheelTest {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static List<Long> expire(final PingTimerWheel wheel, final long now) {
+        final List<Long> expired = new ArrayList<>();
+        wheel.expire(now, expired::add);
+        return expired;
+    }
+
+    @Test
+    public void testTimeoutsNeverFireEarly() {
+        final long start = 123456789L;
+        final PingTimerWheel wheel = new PingTimerWheel(TICK, 8, start);
+        wheel.schedule(1, start + 15000000L);
+        wheel.schedule(2, start + 25000000L);
+        assertEquals(2, wheel.size());
+
+        assertEquals(Arrays.asList(), expire(wheel, start + 14999999L));
+        assertEquals(Arrays.asList(1L), expire(wheel, start + 15000000L));
+        assertEquals(Arrays.asList(), expire(wheel, start + 20000000L));
+        assertEquals(Arrays.asList(2L), expire(wheel, start + 30000000L));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testDeadlinesBeyondOneRevolution() {
+        final PingTimerWheel wheel = new PingTimerWheel(TICK, 8, 0);
+        // 8 slots of 10ms cover 80ms
+        wheel.schedule(1, TimeUnit.MILLISECONDS.toNanos(35));
+        wheel.schedule(2, TimeUnit.MILLISECONDS.toNanos(115));
+        wheel.schedule(3, TimeUnit.MILLISECONDS.toNanos(275));
+
+        final List<Long> expired = new ArrayList<>();
+        for (long now = 0; now <= TimeUnit.MILLISECONDS.toNanos(300); now += TimeUnit.MILLISECONDS.toNanos(1)) {
+            final long time = now;
+            wheel.expire(now, key -> {
+                expired.add(key);
+                final long deadline = TimeUnit.MILLISECONDS.toNanos(key == 1 ? 35 : key == 2 ? 115 : 275);
+                assertTrue("key " + key + " expired early", time >= deadline);
+                assertTrue("key " + key + " expired late", time < deadline + TICK);
+            });
+        }
+        assertEquals(Arrays.asList(1L, 2L, 3L), expired);
+    }
+
+    @Test
+    public void testLongPauseExpiresEverythingDue() {
+        final PingTimerWheel wheel = new PingTimerWheel(TICK, 8, 0);
+        for (long key = 1; key <= 100; key++) {
+            wheel.schedule(key, TimeUnit.MILLISECONDS.toNanos(key * 7));
+        }
+
+        // Jump well beyond a revolution at once
+        final List<Long> expired = expire(wheel, TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(71, expired.size());
+        assertEquals(29, wheel.size());
+
+        // Deadlines in the past expire with the next call
+        wheel.schedule(1000, 0);
+        assertEquals(Arrays.asList(1000L), expire(wheel, TimeUnit.MILLISECONDS.toNanos(501)));
+
+        assertEquals(29, expire(wheel, TimeUnit.MILLISECONDS.toNanos(700)).size());
+        assertEquals(0, wheel.size());
+    }
+}
@@ -119,7 +119,7 @@ public class SyntaxToEvent {
                     // This should not be necessary when NMS-7547 is fixed
                 }
                 if (displayable) {
-                    if (name.matches(".*[Mm][Aa][Cc].*")) {
+                    if (mentionsMac(name)) {
                         encoding = EventConstants.XML_ENCODING_MAC_ADDRESS;
                     } else {
                         encoding = EventConstants.XML_ENCODING_TEXT;
@@ -147,4 +147,18 @@ public class SyntaxToEvent {
 
         return parm;
     }
+
+    /**
+     * Same as {@code name.matches(".*[Mm][Aa][Cc].*")}, without compiling
+     * the expression for every varbind.
+     */
+    private static boolean mentionsMac(final String name) {
+        for (int i = 0; i + 2 < name.length(); i++) {
+            // Setting the 0x20 bit maps the upper case letters to the lower case ones
+            if ((name.charAt(i) | 0x20) == 'm' && (name.charAt(i + 1) | 0x20) == 'a' && (name.charAt(i + 2) | 0x20) == 'c') {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -40,6 +40,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.logging.Logging;
 import org.slf4j.Logger;
@@ -96,6 +98,13 @@ import org.slf4j.LoggerFactory;
  * org.opennms.rrd.queuing.category: (default "queued") the log routing prefix
  * to place the statistics output in
  *
+ * org.opennms.rrd.queuing.shards: (default 1) the number of independent work
+ * queues that pending files are spread across by the hash of their path. Each
+ * shard has its own lock, so collection threads enqueueing updates for
+ * different files rarely contend with each other or with the write threads.
+ * Each write thread drains its home shard first and then steals work from the
+ * others. A value of 1 preserves the classic single queue behavior.
+ *
  *
  *
  * TODO: Promote files when ZeroUpdate operations can't be merged. This may be a
@@ -157,6 +166,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private long m_writeThreadExitDelay;
 
+    private int m_shards = 1;
+
     /**
      * <p>getWriteThreads</p>
      *
@@ -175,6 +186,24 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreads = writeThreads;
     }
 
+    /**
+     * <p>getShards</p>
+     *
+     * @return a int.
+     */
+    public int getShards() {
+        return m_shards;
+    }
+
+    /**
+     * <p>setShards</p>
+     *
+     * @param shards a int.
+     */
+    public void setShards(int shards) {
+        m_shards = Math.max(shards, 1);
+    }
+
     /**
      * <p>queueCreates</p>
      *
@@ -357,41 +386,35 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
-    LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
-
-    LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
+    private volatile WorkQueue[] m_workQueues;
 
-    Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
+    private final AtomicInteger m_writeThreadIndex = new AtomicInteger();
 
-    Map<Thread, String> fileAssignments = new HashMap<Thread, String>();
+    private final AtomicLong m_totalOperationsPending = new AtomicLong();
 
-    Set<String> reservedFiles = new HashSet<String>();
+    private final AtomicLong m_enqueuedOperations = new AtomicLong();
 
-    private long m_totalOperationsPending = 0;
+    private final AtomicLong m_dequeuedOperations = new AtomicLong();
 
-    private long m_enqueuedOperations = 0;
+    private final AtomicLong m_significantOpsEnqueued = new AtomicLong();
 
-    private long m_dequeuedOperations = 0;
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong();
 
-    private long m_significantOpsEnqueued = 0;
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong();
 
-    private long m_significantOpsDequeued = 0;
+    private final AtomicLong m_dequeuedItems = new AtomicLong();
 
-    private long m_significantOpsCompleted = 0;
+    private final AtomicLong m_createsCompleted = new AtomicLong();
 
-    private long m_dequeuedItems = 0;
+    private final AtomicLong m_updatesCompleted = new AtomicLong();
 
-    private long m_createsCompleted = 0;
+    private final AtomicLong m_errors = new AtomicLong();
 
-    private long m_updatesCompleted = 0;
+    final AtomicInteger threadsRunning = new AtomicInteger();
 
-    private long m_errors = 0;
+    private final AtomicLong m_startTime = new AtomicLong();
 
-    int threadsRunning = 0;
-
-    private long m_startTime = 0;
-
-    private long m_promotionCount = 0;
+    private final AtomicLong m_promotionCount = new AtomicLong();
 
     long lastLap = System.currentTimeMillis();
 
@@ -477,7 +500,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_delegate.createFile(getData());
 
             // keep stats
-            setCreatesCompleted(getCreatesCompleted() + 1);
+            m_createsCompleted.incrementAndGet();
 
             // return the file
             return rrd;
@@ -516,8 +539,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             }
 
             // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
+            if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                 logStats();
             }
             // return the open rrd for further processing
@@ -563,8 +585,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ts += getInterval();
 
                 // keep stats
-                setUpdatesCompleted(getUpdatesCompleted() + 1);
-                if (getUpdatesCompleted() % m_modulus == 0) {
+                if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                     logStats();
                 }
             }
@@ -673,40 +694,265 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     //
     // Queue management functions.
     //
-    // TODO: Put this all in a class of its own. This is really ugly.
+    // Pending work is spread across one or more WorkQueues by the hash of the
+    // file name, so all of the operations for a given file always land in the
+    // same queue and are merged there exactly as they were with a single queue.
     //
 
     /**
-     * Add an operation to the queue.
-     *
-     * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     * Holds the pending operations for the files that hash to it. All access
+     * is guarded by the monitor of the queue itself so that the queues can be
+     * filled and drained independently of each other.
      */
-    private void addOperation(final Operation op) {
-        synchronized (this) {
-            if (queueIsFull()) {
-                m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+    class WorkQueue {
 
-            if (op.isSignificant() && sigQueueIsFull()) {
-                m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
+        final LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
+
+        final LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
+
+        final Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
+
+        final Set<String> reservedFiles = new HashSet<String>();
+
+        private long m_promotions = 0;
+
+        /**
+         * Store the operation in the pending list of its file and make sure
+         * the file is on the correct work list.
+         */
+        synchronized void storeAssignment(final Operation op) {
+            // look and see if there a pending ops list for this file
+            LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
+
+            // if not then we create an ops list for the file and add the file to
+            // the work items list
+            if (pendingOperations == null) {
+                pendingOperations = new LinkedList<Operation>();
+                pendingFileOperations.put(op.getFileName(), pendingOperations);
+
+                // add the file to the correct list based on what type of work we
+                // are adding.  (if we aren't prioritizing then every file is counted as
+                // signficant
+                if (!m_prioritizeSignificantUpdates || op.isSignificant())
+                    filesWithSignificantWork.addLast(op.getFileName());
+                else
+                    filesWithInsignificantWork.addLast(op.getFileName());
+            } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
+                // only do this when we are prioritizing as this bumps files from inSig
+                // up to insig
+                // promote the file to the significant list if this is the first
+                // significant
+                filesWithSignificantWork.addLast(op.getFileName());
             }
 
-            if (!op.isSignificant() && inSigQueueIsFull()) {
-                m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            promoteAgedFiles();
+
+            op.addToPendingList(pendingOperations);
+            notifyAll();
+        }
+
+        /**
+         * Ensure that files with insignificant changes are getting promoted if
+         * necessary
+         */
+        private void promoteAgedFiles() {
+
+            // no need to do this is we aren't prioritizing
+            if (!m_prioritizeSignificantUpdates) return;
+
+            // the num seconds to update files is 0 then use unfair prioritization
+            if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
                 return;
+
+            // calculate the elapsed time we first queued updates
+            long now = System.currentTimeMillis();
+            long elapsedMillis = Math.max(now - getStartTime(), 1);
+
+            // calculate the milliseconds between promotions necessary to age
+            // insignificant files into
+            // the significant queue
+            double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
+
+            // calculate the number of millis since start until the next file needs
+            // to be promotoed
+            long nextPromotionMillis = (long) (millisPerPromotion * m_promotions);
+
+            // if more time has elapsed than the next promotion time then promote a
+            // file
+            if (elapsedMillis > nextPromotionMillis) {
+                String file = filesWithInsignificantWork.removeFirst();
+                filesWithSignificantWork.addFirst(file);
+                m_promotions++;
+                m_promotionCount.incrementAndGet();
             }
 
-            storeAssignment(op);
+        }
 
-            setTotalOperationsPending(getTotalOperationsPending() + 1);
-            setEnqueuedOperations(getEnqueuedOperations() + 1);
-            if (op.isSignificant())
-                setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
+        synchronized void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+            filesWithSignificantWork.addAll(0, rrdFiles);
             notifyAll();
-            ensureThreadsStarted();
         }
+
+        /**
+         * Reserve the next file with available work and take its pending
+         * operations. If there is nothing to do, wait up to waitMillis for
+         * more work to arrive before giving up.
+         *
+         * @param includeInsignificant whether files with only insignificant
+         *        work may be selected
+         * @param waitMillis how long to wait for work, or 0 to return at once
+         * @return the assignment or null if no work is available
+         */
+        synchronized Assignment takeAssignment(final boolean includeInsignificant, final long waitMillis) {
+            String newAssignment = selectNewAssignment(includeInsignificant);
+            if (newAssignment == null && waitMillis > 0) {
+                try {
+                    wait(waitMillis);
+                } catch (InterruptedException e) {
+                }
+                newAssignment = selectNewAssignment(includeInsignificant);
+            }
+            if (newAssignment == null) {
+                return null;
+            }
+
+            // mark the file as reserved so no other thread works on it and
+            // take its work list
+            reservedFiles.add(newAssignment);
+            return new Assignment(this, newAssignment, pendingFileOperations.remove(newAssignment));
+        }
+
+        /**
+         * Return the name of the next file with available work
+         */
+        private String selectNewAssignment(final boolean includeInsignificant) {
+            for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
+                String fn = it.next();
+                if (!reservedFiles.contains(fn)) {
+                    it.remove();
+                    return fn;
+                }
+            }
+            if (!includeInsignificant) {
+                return null;
+            }
+            for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
+                String fn = it.next();
+                if (!reservedFiles.contains(fn)) {
+                    it.remove();
+                    return fn;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Record that fact that a thread has finished processing the
+         * operations for the given file
+         */
+        synchronized void completeAssignment(final String fileName) {
+            reservedFiles.remove(fileName);
+        }
+
+        synchronized int getFilesWithSignificantWork() {
+            return filesWithSignificantWork.size();
+        }
+
+        synchronized int getFilesWithInsignificantWork() {
+            return filesWithInsignificantWork.size();
+        }
+    }
+
+    /**
+     * The operations for a single file that a write thread has reserved.
+     */
+    static class Assignment {
+        private final WorkQueue m_queue;
+        private final String m_fileName;
+        private final LinkedList<Operation> m_operations;
+
+        Assignment(final WorkQueue queue, final String fileName, final LinkedList<Operation> operations) {
+            m_queue = queue;
+            m_fileName = fileName;
+            m_operations = operations;
+        }
+
+        String getFileName() {
+            return m_fileName;
+        }
+
+        LinkedList<Operation> getOperations() {
+            return m_operations;
+        }
+
+        void complete() {
+            m_queue.completeAssignment(m_fileName);
+        }
+    }
+
+    /**
+     * Return the work queues, creating them on first use once the number of
+     * shards has been configured.
+     */
+    WorkQueue[] getWorkQueues() {
+        WorkQueue[] queues = m_workQueues;
+        if (queues == null) {
+            synchronized (this) {
+                queues = m_workQueues;
+                if (queues == null) {
+                    queues = new WorkQueue[m_shards];
+                    for (int i = 0; i < queues.length; i++) {
+                        queues[i] = new WorkQueue();
+                    }
+                    m_workQueues = queues;
+                }
+            }
+        }
+        return queues;
+    }
+
+    /**
+     * Return the work queue that holds the operations for the given file.
+     */
+    WorkQueue getWorkQueue(final String fileName) {
+        final WorkQueue[] queues = getWorkQueues();
+        if (queues.length == 1) {
+            return queues[0];
+        }
+        final int h = fileName.hashCode();
+        return queues[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % queues.length];
+    }
+
+    /**
+     * Add an operation to the queue.
+     *
+     * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     */
+    private void addOperation(final Operation op) {
+        if (queueIsFull()) {
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (op.isSignificant() && sigQueueIsFull()) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (!op.isSignificant() && inSigQueueIsFull()) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        // count the operation before it becomes visible to the write threads
+        m_totalOperationsPending.incrementAndGet();
+        m_enqueuedOperations.incrementAndGet();
+        if (op.isSignificant())
+            m_significantOpsEnqueued.incrementAndGet();
+
+        getWorkQueue(op.getFileName()).storeAssignment(op);
+
+        ensureThreadsStarted();
     }
 
 
@@ -734,134 +980,86 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     /**
      * Ensure that we have threads started to process the queue.
      */
-    private synchronized void ensureThreadsStarted() {
-        if (threadsRunning < m_writeThreads) {
-            threadsRunning++;
-            new Thread(this, this.getClass().getSimpleName() + "-" + threadsRunning).start();
+    private void ensureThreadsStarted() {
+        int running;
+        while ((running = threadsRunning.get()) < m_writeThreads) {
+            if (threadsRunning.compareAndSet(running, running + 1)) {
+                new Thread(this, this.getClass().getSimpleName() + "-" + (running + 1)).start();
+                return;
+            }
         }
     }
 
     /**
-     * Get the operations for the next file that should be worked on.
+     * Get the operations for the next file that should be worked on. The
+     * home queue of the calling thread is checked first, then work is taken
+     * from the other queues.
      *
-     * @return a linkedList of operations to be processed all for the same file.
+     * @return the assignment holding operations to be processed all for the
+     *         same file, or null if no work is currently available
      */
-    private LinkedList<Operation> getNext() {
-        LinkedList<Operation> ops = null;
-        synchronized (this) {
-
-            // turn in our previous assignment
-            completeAssignment();
+    private Assignment getNext(final int homeQueue) {
+        final WorkQueue[] queues = getWorkQueues();
+        final int first = homeQueue % queues.length;
 
-            String newAssignment;
-            // wait until there is work to do
-            while ((newAssignment = selectNewAssignment()) == null) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                }
-            }
-
-            // initialize start time for stats
-            if (getStartTime() == 0)
-                setStartTime(System.currentTimeMillis());
-
-            // reserve the assignment and take work items
-            ops = takeAssignment(newAssignment);
-
-            // keep stats
-            if (ops != null) {
-                for(Operation op : ops) {
-                    setTotalOperationsPending(getTotalOperationsPending()-op.getCount());
-                    setDequeuedOperations(getDequeuedOperations() + op.getCount());
-                    if (op.isSignificant()) {
-                        setSignificantOpsDequeued(getSignificantOpsDequeued() + op.getCount());
-                    }
-                }
-                setDequeuedItems(getDequeuedItems() + 1);
-            }
+        // look for significant work in all of the queues before settling for
+        // insignificant work so the prioritization holds across the queues
+        Assignment assignment = null;
+        for (int i = 0; i < queues.length && assignment == null; i++) {
+            assignment = queues[(first + i) % queues.length].takeAssignment(false, 0);
         }
-
-        return ops;
-
-    }
-
-    /**
-     * We need to track which files are being processed by which threads so that
-     * we don't try to process updates for the same file on more than one
-     * thread.
-     */
-    private synchronized void storeAssignment(Operation op) {
-        // look and see if there a pending ops list for this file
-        LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
-
-        // if not then we create an ops list for the file and add the file to
-        // the work items list
-        if (pendingOperations == null) {
-            pendingOperations = new LinkedList<Operation>();
-            pendingFileOperations.put(op.getFileName(), pendingOperations);
-
-            // add the file to the correct list based on what type of work we
-            // are adding.  (if we aren't prioritizing then every file is counted as
-            // signficant
-            if (!m_prioritizeSignificantUpdates || op.isSignificant())
-                filesWithSignificantWork.addLast(op.getFileName());
-            else
-                filesWithInsignificantWork.addLast(op.getFileName());
-        } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
-            // only do this when we are prioritizing as this bumps files from inSig
-            // up to insig
-            // promote the file to the significant list if this is the first
-            // significant
-            filesWithSignificantWork.addLast(op.getFileName());
+        for (int i = 0; i < queues.length && assignment == null; i++) {
+            assignment = queues[(first + i) % queues.length].takeAssignment(true, 0);
         }
 
-        promoteAgedFiles();
-
-        op.addToPendingList(pendingOperations);
-    }
+        // nothing available anywhere, wait a bit for our home queue to get more work
+        if (assignment == null) {
+            assignment = queues[first].takeAssignment(true, Math.max(m_writeThreadSleepTime, 1));
+        }
 
-    /**
-     * Ensure that files with insignificant changes are getting promoted if
-     * necessary
-     *
-     */
-    private synchronized void promoteAgedFiles() {
+        if (assignment == null) {
+            return null;
+        }
 
-        // no need to do this is we aren't prioritizing
-        if (!m_prioritizeSignificantUpdates) return;
+        // initialize start time for stats
+        m_startTime.compareAndSet(0, System.currentTimeMillis());
 
-        // the num seconds to update files is 0 then use unfair prioritization
-        if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
-            return;
-
-        // calculate the elapsed time we first queued updates
-        long now = System.currentTimeMillis();
-        long elapsedMillis = Math.max(now - getStartTime(), 1);
-
-        // calculate the milliseconds between promotions necessary to age
-        // insignificant files into
-        // the significant queue
-        double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
-
-        // calculate the number of millis since start until the next file needs
-        // to be promotoed
-        long nextPromotionMillis = (long) (millisPerPromotion * getPromotionCount());
-
-        // if more time has elapsed than the next promotion time then promote a
-        // file
-        if (elapsedMillis > nextPromotionMillis) {
-            String file = filesWithInsignificantWork.removeFirst();
-            filesWithSignificantWork.addFirst(file);
-            setPromotionCount(getPromotionCount() + 1);
+        // keep stats
+        if (assignment.getOperations() != null) {
+            for (Operation op : assignment.getOperations()) {
+                m_totalOperationsPending.addAndGet(-op.getCount());
+                m_dequeuedOperations.addAndGet(op.getCount());
+                if (op.isSignificant()) {
+                    m_significantOpsDequeued.addAndGet(op.getCount());
+                }
+            }
+            m_dequeuedItems.incrementAndGet();
         }
 
+        return assignment;
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        final WorkQueue[] queues = getWorkQueues();
+        if (queues.length == 1) {
+            queues[0].promoteEnqueuedFiles(rrdFiles);
+        } else {
+            final Map<WorkQueue, List<String>> filesByQueue = new HashMap<WorkQueue, List<String>>();
+            for (final String rrdFile : rrdFiles) {
+                final WorkQueue queue = getWorkQueue(rrdFile);
+                List<String> files = filesByQueue.get(queue);
+                if (files == null) {
+                    files = new LinkedList<String>();
+                    filesByQueue.put(queue, files);
+                }
+                files.add(rrdFile);
+            }
+            for (final Map.Entry<WorkQueue, List<String>> entry : filesByQueue.entrySet()) {
+                entry.getKey().promoteEnqueuedFiles(entry.getValue());
+            }
+        }
         m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
@@ -878,54 +1076,6 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return true;
     }
 
-    /**
-     * register the file that the currentThread is be working on. This enables
-     * us to ensure that another thread doesn't try to work on operations for
-     * that file.  Note: this is not synchronized as it is called from getNext which
-     * is thread safe
-     */
-    private LinkedList<Operation> takeAssignment(String newAssignment) {
-
-        // make the file as reserved by the current thread
-        fileAssignments.put(Thread.currentThread(), newAssignment);
-        reservedFiles.add(newAssignment);
-
-        // get the assignments work list and return it
-        return pendingFileOperations.remove(newAssignment);
-    }
-
-    /**
-     * Return the name of the next file with available work
-     */
-    private String selectNewAssignment() {
-        for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
-            }
-        }
-        for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Record that fact that the current thread has finished process operations
-     * for its current assignment
-     */
-    private synchronized void completeAssignment() {
-        // remove any existing reservation of the current thread
-        String previousAssignment = fileAssignments.remove(Thread.currentThread());
-        if (previousAssignment != null)
-            reservedFiles.remove(previousAssignment);
-    }
-
     /**
      * <p>Constructor for QueuingRrdStrategy.</p>
      *
@@ -1058,6 +1208,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      */
     @Override
     public void run() {
+        // spread the write threads across the work queues
+        final int homeQueue = m_writeThreadIndex.getAndIncrement() & Integer.MAX_VALUE;
         try {
 
             long waitStart = -1L;
@@ -1066,7 +1218,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 if (getTotalOperationsPending() > 0) {
                     delayed = 0;
                     waitStart = -1L;
-                    processPendingOperations();
+                    processPendingOperations(homeQueue);
                 } else {
                     if (waitStart < 0) {
                         waitStart = System.currentTimeMillis();
@@ -1081,10 +1233,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
             }
         } finally {
-            synchronized (this) {
-                threadsRunning--;
-                completeAssignment();
-            }
+            threadsRunning.decrementAndGet();
         }
     }
 
@@ -1092,14 +1241,19 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * Actually process the operations be calling the underlying delegate
      * strategy
      */
-    private void processPendingOperations() {
+    private void processPendingOperations(final int homeQueue) {
         Logging.withPrefix(m_category, new Runnable() {
             @Override public void run() {
+                final Assignment assignment = getNext(homeQueue);
+                if (assignment == null) {
+                    return;
+                }
+
                 Object rrd = null;
                 String fileName = null;
 
                 try {
-                    final LinkedList<Operation> ops = getNext();
+                    final LinkedList<Operation> ops = assignment.getOperations();
                     if (ops == null) {
                         return;
                     }
@@ -1107,7 +1261,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                     // while we are processing
                     for (final Operation op : ops) {
                         if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+                            m_significantOpsCompleted.incrementAndGet();
                         }
 
                     }
@@ -1117,11 +1271,13 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                         rrd = op.process(rrd);
                     }
                 } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
+                    m_errors.incrementAndGet();
                     logLapTime("Error updating file " + fileName + ": " + e.getMessage());
                     m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
                 } finally {
                     processClose(rrd);
+                    // turn in our assignment
+                    assignment.complete();
                 }
             }
         });
@@ -1135,7 +1291,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             try {
                 m_delegate.closeFile(rrd);
             } catch (final Throwable e) {
-                setErrors(getErrors() + 1);
+                m_errors.incrementAndGet();
                 logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
                 m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
             }
@@ -1181,8 +1337,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         String stats = "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
                 ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
-                ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
-                ", filesWithInsignificantWork=" + filesWithInsignificantWork.size()
+                ", filesWithSignificantWork=" + getFilesWithSignificantWork() +
+                ", filesWithInsignificantWork=" + getFilesWithInsignificantWork()
 
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
@@ -1215,6 +1371,22 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return stats;
     }
 
+    private int getFilesWithSignificantWork() {
+        int files = 0;
+        for (final WorkQueue queue : getWorkQueues()) {
+            files += queue.getFilesWithSignificantWork();
+        }
+        return files;
+    }
+
+    private int getFilesWithInsignificantWork() {
+        int files = 0;
+        for (final WorkQueue queue : getWorkQueues()) {
+            files += queue.getFilesWithInsignificantWork();
+        }
+        return files;
+    }
+
     void logStats() {
         if (m_log.isDebugEnabled()) {
             logLapTime(getStats());
@@ -1297,7 +1469,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        return m_totalOperationsPending.get();
     }
 
     /**
@@ -1306,7 +1478,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param totalOperationsPending a long.
      */
     public void setTotalOperationsPending(long totalOperationsPending) {
-        m_totalOperationsPending = totalOperationsPending;
+        m_totalOperationsPending.set(totalOperationsPending);
     }
 
     /**
@@ -1315,7 +1487,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getCreatesCompleted() {
-        return m_createsCompleted;
+        return m_createsCompleted.get();
     }
 
     /**
@@ -1324,7 +1496,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param createsCompleted a long.
      */
     public void setCreatesCompleted(long createsCompleted) {
-        m_createsCompleted = createsCompleted;
+        m_createsCompleted.set(createsCompleted);
     }
 
     /**
@@ -1333,7 +1505,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getUpdatesCompleted() {
-        return m_updatesCompleted;
+        return m_updatesCompleted.get();
     }
 
     /**
@@ -1342,7 +1514,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updatesCompleted a long.
      */
     public void setUpdatesCompleted(long updatesCompleted) {
-        m_updatesCompleted = updatesCompleted;
+        m_updatesCompleted.set(updatesCompleted);
     }
 
     /**
@@ -1351,7 +1523,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getErrors() {
-        return m_errors;
+        return m_errors.get();
     }
 
     /**
@@ -1360,7 +1532,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param errors a long.
      */
     public void setErrors(long errors) {
-        m_errors = errors;
+        m_errors.set(errors);
     }
 
     /**
@@ -1369,7 +1541,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
+        return m_promotionCount.get();
     }
 
     /**
@@ -1378,7 +1550,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param promotionCount a long.
      */
     public void setPromotionCount(long promotionCount) {
-        m_promotionCount = promotionCount;
+        m_promotionCount.set(promotionCount);
     }
 
     /**
@@ -1387,7 +1559,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
+        return m_significantOpsEnqueued.get();
     }
 
     /**
@@ -1396,7 +1568,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsEnqueued a long.
      */
     public void setSignificantOpsEnqueued(long significantOpsEnqueued) {
-        m_significantOpsEnqueued = significantOpsEnqueued;
+        m_significantOpsEnqueued.set(significantOpsEnqueued);
     }
 
     /**
@@ -1405,7 +1577,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
+        return m_significantOpsDequeued.get();
     }
 
     /**
@@ -1414,7 +1586,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsDequeued a long.
      */
     public void setSignificantOpsDequeued(long significantOpsDequeued) {
-        m_significantOpsDequeued = significantOpsDequeued;
+        m_significantOpsDequeued.set(significantOpsDequeued);
     }
 
     /**
@@ -1423,7 +1595,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        return m_enqueuedOperations.get();
     }
 
     /**
@@ -1432,7 +1604,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param enqueuedOperations a long.
      */
     public void setEnqueuedOperations(long enqueuedOperations) {
-        m_enqueuedOperations = enqueuedOperations;
+        m_enqueuedOperations.set(enqueuedOperations);
     }
 
     /**
@@ -1441,7 +1613,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        return m_dequeuedOperations.get();
     }
 
     /**
@@ -1450,7 +1622,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedOperations a long.
      */
     public void setDequeuedOperations(long dequeuedOperations) {
-        m_dequeuedOperations = dequeuedOperations;
+        m_dequeuedOperations.set(dequeuedOperations);
     }
 
     /**
@@ -1459,7 +1631,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        return m_dequeuedItems.get();
     }
 
     /**
@@ -1468,7 +1640,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedItems a long.
      */
     public void setDequeuedItems(long dequeuedItems) {
-        m_dequeuedItems = dequeuedItems;
+        m_dequeuedItems.set(dequeuedItems);
     }
 
     /**
@@ -1477,7 +1649,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsCompleted() {
-        return m_significantOpsCompleted;
+        return m_significantOpsCompleted.get();
     }
 
     /**
@@ -1486,7 +1658,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsCompleted a long.
      */
     public void setSignificantOpsCompleted(long significantOpsCompleted) {
-        m_significantOpsCompleted = significantOpsCompleted;
+        m_significantOpsCompleted.set(significantOpsCompleted);
     }
 
     /**
@@ -1495,7 +1667,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getStartTime() {
-        return m_startTime;
+        return m_startTime.get();
     }
 
     /**
@@ -1504,7 +1676,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updateStart a long.
      */
     public void setStartTime(long updateStart) {
-        m_startTime = updateStart;
+        m_startTime.set(updateStart);
     }
 
 
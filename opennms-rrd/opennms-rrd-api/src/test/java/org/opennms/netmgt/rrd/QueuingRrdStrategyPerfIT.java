@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the throughput of the {@link QueuingRrdStrategy} with a single
+ * work queue against the sharded work queues at different thread counts.
+ *
+ * Each run enqueues a fixed number of updates spread over many files from
+ * the given number of collection threads while the same number of write
+ * threads drain the queues into a delegate that does no I/O, so the results
+ * reflect the cost of the queuing itself.
+ */
+public class QueuingRrdStrategyPerfIT {
+    private static final Logger LOG = LoggerFactory.getLogger(QueuingRrdStrategyPerfIT.class);
+
+    private static final int NUM_FILES = 30000;
+    private static final int NUM_UPDATES_PER_FILE = 10;
+    private static final int[] THREAD_COUNTS = new int[] { 1, 4, 16, 32 };
+
+    @Test
+    public void compareSingleQueueWithShardedQueues() throws Exception {
+        // warm up
+        run(1, 4);
+        run(4, 4);
+
+        for (int threads : THREAD_COUNTS) {
+            final double single = run(1, threads);
+            final double sharded = run(threads, threads);
+            LOG.info("threads={} single queue={} ops/s, {} shards={} ops/s, speedup={}",
+                    threads, (long)single, threads, (long)sharded, String.format("%.2f", sharded / single));
+        }
+    }
+
+    private static double run(final int shards, final int threads) throws Exception {
+        final QueuingRrdStrategy strategy = new QueuingRrdStrategy(new NullRrdStrategy() {
+            @Override
+            public Object openFile(String fileName) {
+                return fileName;
+            }
+        });
+        strategy.setShards(shards);
+        strategy.setWriteThreads(threads);
+        strategy.setModulus(Long.MAX_VALUE);
+        strategy.setWriteThreadSleepTime(1);
+        strategy.setWriteThreadExitDelay(1000);
+
+        final long expectedUpdates = (long)NUM_FILES * NUM_UPDATES_PER_FILE;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> producers = new ArrayList<>(threads);
+        for (int p = 0; p < threads; p++) {
+            final int producer = p;
+            producers.add(new Thread(() -> {
+                try {
+                    startLatch.await();
+                    for (int u = 1; u <= NUM_UPDATES_PER_FILE; u++) {
+                        for (int f = producer; f < NUM_FILES; f += threads) {
+                            strategy.updateFile("/var/lib/opennms/rrd/snmp/" + f + "/ifHCInOctets.jrb", "perf", u + ":" + f);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+
+        final long start = System.nanoTime();
+        startLatch.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        final long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        while (strategy.getUpdatesCompleted() < expectedUpdates && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertEquals(expectedUpdates, strategy.getUpdatesCompleted());
+
+        return expectedUpdates * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the work queues of the {@link QueuingRrdStrategy}.
+ */
+public class QueuingRrdStrategyTest {
+
+    /**
+     * Records the updates written for each file and the number of times
+     * two threads were working on the same file at once.
+     */
+    static class RecordingRrdStrategy extends NullRrdStrategy {
+        final Map<String, List<String>> updates = new ConcurrentHashMap<>();
+        final Set<String> openFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final List<String> fileOrder = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger overlaps = new AtomicInteger();
+
+        @Override
+        public Object openFile(String fileName) {
+            if (!openFiles.add(fileName)) {
+                overlaps.incrementAndGet();
+            }
+            fileOrder.add(fileName);
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) {
+            updates.computeIfAbsent((String)rrd, k -> Collections.synchronizedList(new ArrayList<String>())).add(data);
+        }
+
+        @Override
+        public void closeFile(Object rrd) {
+            openFiles.remove(rrd);
+        }
+    }
+
+    private static QueuingRrdStrategy createStrategy(RecordingRrdStrategy delegate, int shards, int writeThreads) {
+        final QueuingRrdStrategy strategy = new QueuingRrdStrategy(delegate);
+        strategy.setShards(shards);
+        strategy.setWriteThreads(writeThreads);
+        strategy.setModulus(10000);
+        strategy.setWriteThreadSleepTime(10);
+        strategy.setWriteThreadExitDelay(1000);
+        return strategy;
+    }
+
+    private static void waitForUpdates(QueuingRrdStrategy strategy, long expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (strategy.getUpdatesCompleted() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, strategy.getUpdatesCompleted());
+    }
+
+    @Test
+    public void canShardUpdatesAcrossQueues() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+        final QueuingRrdStrategy strategy = createStrategy(delegate, 4, 4);
+
+        final int numProducers = 4;
+        final int numFilesPerProducer = 50;
+        final int numUpdatesPerFile = 20;
+
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < numProducers; p++) {
+            final int producer = p;
+            producers.add(new Thread(() -> {
+                for (int u = 1; u <= numUpdatesPerFile; u++) {
+                    for (int f = 0; f < numFilesPerProducer; f++) {
+                        try {
+                            strategy.updateFile("file-" + producer + "-" + f, "test", u + ":" + u);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        waitForUpdates(strategy, numProducers * numFilesPerProducer * numUpdatesPerFile);
+
+        // every file must have seen all of its updates in the order they were enqueued
+        assertEquals(numProducers * numFilesPerProducer, delegate.updates.size());
+        for (List<String> fileUpdates : delegate.updates.values()) {
+            assertEquals(numUpdatesPerFile, fileUpdates.size());
+            for (int u = 1; u <= numUpdatesPerFile; u++) {
+                assertEquals(u + ":" + u, fileUpdates.get(u - 1));
+            }
+        }
+        assertEquals(0, delegate.overlaps.get());
+        assertEquals(0, strategy.getTotalOperationsPending());
+        assertEquals(0, strategy.getErrors());
+    }
+
+    @Test
+    public void canMergeZeroUpdatesInShard() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+        // no write threads so that the operations stay on the queues
+        final QueuingRrdStrategy strategy = createStrategy(delegate, 8, 0);
+
+        strategy.updateFile("zeros", "test", "300:0");
+        strategy.updateFile("zeros", "test", "600:0");
+        strategy.updateFile("zeros", "test", "900:0");
+        strategy.updateFile("values", "test", "300:1");
+
+        assertEquals(4, strategy.getTotalOperationsPending());
+        assertEquals(1, strategy.getWorkQueue("zeros").pendingFileOperations.get("zeros").size());
+        assertEquals(3, strategy.getWorkQueue("zeros").pendingFileOperations.get("zeros").getFirst().getCount());
+        assertSame(strategy.getWorkQueue("zeros"), strategy.getWorkQueue("zeros"));
+    }
+
+    @Test
+    public void canPrioritizeSignificantWorkAcrossShards() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+        final QueuingRrdStrategy strategy = createStrategy(delegate, 2, 0);
+        strategy.setPrioritizeSignificantUpdates(true);
+
+        // find two files that hash to different shards
+        final String insignificant = "insignificant";
+        String significant = null;
+        for (int i = 0; significant == null; i++) {
+            if (strategy.getWorkQueue("significant-" + i) != strategy.getWorkQueue(insignificant)) {
+                significant = "significant-" + i;
+            }
+        }
+        assertNotSame(strategy.getWorkQueue(insignificant), strategy.getWorkQueue(significant));
+
+        strategy.updateFile(insignificant, "test", "300:0");
+        strategy.updateFile(significant, "test", "300:1");
+
+        // start a single write thread once both files are pending
+        strategy.setWriteThreads(1);
+        strategy.updateFile(significant, "test", "600:1");
+        waitForUpdates(strategy, 3);
+
+        assertEquals(significant, delegate.fileOrder.get(0));
+        assertTrue(delegate.fileOrder.contains(insignificant));
+    }
+}
@@ -33,6 +33,7 @@ import java.awt.Font;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -43,7 +44,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
@@ -62,7 +67,7 @@ import org.slf4j.LoggerFactory;
 /**
  * Provides a JRobin based implementation of RrdStrategy. It uses JRobin 1.4 in
  * FILE mode (NIO is too memory consuming for the large number of files that we
- * open)
+ * open), unless configured to use the pooled mappings of the MMAP mode.
  *
  * @author ranger
  * @version $Id: $
@@ -71,6 +76,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MMAP_CAPACITY_PROPERTY = "org.opennms.rrd.jrobin.mmap.capacity";
+    private static final String MMAP_SYNC_PERIOD_PROPERTY = "org.opennms.rrd.jrobin.mmap.syncPeriod";
+    private static final String MMAP_MBEAN_NAME = "org.opennms.netmgt.rrd.jrobin:name=MappedBackendFactory";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -130,6 +138,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
             }
             try {
+                if (MappedRrdBackendFactory.NAME.equals(factory)) {
+                    registerMappedBackendFactory();
+                }
                 RrdDb.setDefaultFactory(factory);
                 s_initialized=true;
             } catch (RrdException e) {
@@ -138,6 +149,22 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
     }
 
+    private void registerMappedBackendFactory() throws RrdException {
+        final int capacity = Integer.parseInt(m_configurationProperties.getProperty(MMAP_CAPACITY_PROPERTY,
+                Integer.toString(MappedRrdBackendFactory.DEFAULT_CAPACITY)));
+        final int syncPeriod = Integer.parseInt(m_configurationProperties.getProperty(MMAP_SYNC_PERIOD_PROPERTY,
+                Integer.toString(MappedRrdBackendFactory.DEFAULT_SYNC_PERIOD)));
+        LOG.info("Using memory-mapped JRobin backend with a capacity of {} files and a sync period of {}s.", capacity, syncPeriod);
+
+        final MappedRrdBackendFactory factory = new MappedRrdBackendFactory(capacity, syncPeriod);
+        RrdBackendFactory.registerFactory(factory);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(factory, new ObjectName(MMAP_MBEAN_NAME));
+        } catch (JMException e) {
+            LOG.warn("Could not register the statistics of the memory-mapped JRobin backend.", e);
+        }
+    }
+
     /**
      * Closes the JRobin RrdDb.
      *
@@ -0,0 +1,464 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdBackendFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JRobin backend which memory-maps the RRD files.
+ *
+ * The default FILE backend opens every file and reads the header with many small reads for every
+ * update. This backend keeps the files mapped in a pool, so that reopening a file only requires a
+ * stat of the file and no copies. The files are only unmapped when the pool exceeds its capacity, in
+ * which case the least recently used files not in use are evicted. A pooled mapping is dropped when
+ * the file was deleted or replaced, for example when a resource is deleted, so that a file created
+ * again at the same path is mapped anew.
+ *
+ * Modified files are flushed to the disk periodically instead of on close, and when evicted.
+ * The files are written in place, so the file format is the same as the one of the FILE backend.
+ *
+ * The contents of the files must not be modified by other processes while mapped.
+ */
+public class MappedRrdBackendFactory extends RrdBackendFactory implements MappedRrdBackendFactoryMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackendFactory.class);
+
+    public static final String NAME = "MMAP";
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    public static final int DEFAULT_SYNC_PERIOD = 300;
+
+    private final int capacity;
+
+    /**
+     * The mappings in access order, guarded by itself.
+     */
+    private final LinkedHashMap<String, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ScheduledExecutorService syncExecutor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    public MappedRrdBackendFactory() {
+        this(DEFAULT_CAPACITY, DEFAULT_SYNC_PERIOD);
+    }
+
+    /**
+     * @param capacity   maximum number of files kept mapped while not in use
+     * @param syncPeriod period in seconds in which modified files are flushed to the disk,
+     *                   these are only flushed when evicted if <= 0
+     */
+    public MappedRrdBackendFactory(int capacity, int syncPeriod) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity must not be negative, but was " + capacity);
+        }
+        this.capacity = capacity;
+
+        if (syncPeriod > 0) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "JRobin-MMAP-Sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(this::sync, syncPeriod, syncPeriod, TimeUnit.SECONDS);
+        } else {
+            syncExecutor = null;
+        }
+    }
+
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+
+    @Override
+    protected boolean exists(String path) throws IOException {
+        return new File(path).exists();
+    }
+
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        if (readOnly && !exists(path)) {
+            throw new FileNotFoundException(path);
+        }
+
+        final MappedRrdBackend backend;
+        final List<Mapping> evicted = new ArrayList<>();
+        synchronized (mappings) {
+            Mapping mapping = mappings.get(path);
+            if (mapping != null && mapping.isStale()) {
+                LOG.debug("Dropping the mapping of {}, the file was deleted or replaced.", path);
+                mappings.remove(path);
+                mapping.pooled = false;
+                if (mapping.references == 0) {
+                    evicted.add(mapping);
+                }
+                mapping = null;
+            }
+            if (mapping != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                mapping = new Mapping(path);
+                mappings.put(path, mapping);
+            }
+            mapping.references++;
+            backend = new MappedRrdBackend(path, mapping);
+            evicted.addAll(evict());
+        }
+        close(evicted);
+        return backend;
+    }
+
+    private void release(Mapping mapping) {
+        final List<Mapping> evicted;
+        synchronized (mappings) {
+            mapping.references--;
+            if (!mapping.pooled && mapping.references == 0) {
+                // Dropped from the pool while in use
+                evicted = new ArrayList<>(evict());
+                evicted.add(mapping);
+            } else {
+                evicted = evict();
+            }
+        }
+        close(evicted);
+    }
+
+    /**
+     * Removes the least recently used files not in use, until the pool is within its capacity.
+     * Must be called while holding the lock on the mappings, the files are unmapped after
+     * releasing it since these may need to be flushed.
+     */
+    private List<Mapping> evict() {
+        if (mappings.size() <= capacity) {
+            return Collections.emptyList();
+        }
+        final List<Mapping> evicted = new ArrayList<>();
+        final Iterator<Mapping> it = mappings.values().iterator();
+        while (mappings.size() > capacity && it.hasNext()) {
+            final Mapping mapping = it.next();
+            if (mapping.references > 0) {
+                continue;
+            }
+            it.remove();
+            mapping.pooled = false;
+            evicted.add(mapping);
+        }
+        evictions.addAndGet(evicted.size());
+        return evicted;
+    }
+
+    private static void close(List<Mapping> mappings) {
+        for (final Mapping mapping : mappings) {
+            try {
+                mapping.close();
+            } catch (IOException e) {
+                LOG.error("Failed to unmap {}.", mapping.path, e);
+            }
+        }
+    }
+
+    @Override
+    public void sync() {
+        final List<Mapping> dirty = new ArrayList<>();
+        synchronized (mappings) {
+            for (final Mapping mapping : mappings.values()) {
+                if (mapping.dirty) {
+                    dirty.add(mapping);
+                }
+            }
+        }
+
+        // Flush outside of the lock, the files can still be opened while flushing
+        for (final Mapping mapping : dirty) {
+            mapping.sync();
+        }
+        LOG.debug("Flushed {} files.", dirty.size());
+    }
+
+    /**
+     * Flushes and unmaps all files and stops flushing periodically.
+     */
+    public void close() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+        }
+        final List<Mapping> closed;
+        synchronized (mappings) {
+            closed = new ArrayList<>(mappings.values());
+            mappings.clear();
+        }
+        close(closed);
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getMappedFiles() {
+        synchronized (mappings) {
+            return mappings.size();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        final long hits = this.hits.get();
+        final long total = hits + misses.get();
+        return total > 0 ? (double) hits / total : 0d;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    /**
+     * A mapped file, shared by all backends opened for it.
+     */
+    private class Mapping {
+        private final String path;
+        private final boolean writable;
+        private final Object fileKey;
+        private RandomAccessFile file;
+        private MappedByteBuffer buffer;
+        private volatile boolean dirty;
+
+        /**
+         * The number of open backends, guarded by the lock on the mappings.
+         */
+        private int references;
+
+        /**
+         * Whether the mapping is in the pool, guarded by the lock on the mappings.
+         */
+        private boolean pooled = true;
+
+        private Mapping(String path) throws IOException {
+            this.path = path;
+
+            RandomAccessFile file;
+            boolean writable = true;
+            try {
+                file = new RandomAccessFile(path, "rw");
+            } catch (FileNotFoundException e) {
+                // The file exists, but is not writable
+                file = new RandomAccessFile(path, "r");
+                writable = false;
+            }
+            this.file = file;
+            this.writable = writable;
+            this.fileKey = Files.readAttributes(Paths.get(path), BasicFileAttributes.class).fileKey();
+            map();
+        }
+
+        /**
+         * Checks whether the file was deleted, replaced by another file or truncated since it
+         * was mapped. The file key identifies the inode where the platform provides one.
+         */
+        private boolean isStale() {
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            } catch (IOException e) {
+                return true;
+            }
+            if (fileKey != null && !fileKey.equals(attributes.fileKey())) {
+                return true;
+            }
+            return attributes.size() != length();
+        }
+
+        private void map() throws IOException {
+            buffer = file.getChannel().map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+
+        private synchronized void setLength(long length) throws IOException {
+            checkWritable();
+            if (length != buffer.capacity()) {
+                buffer.force();
+                unmap(buffer);
+                file.setLength(length);
+                map();
+            }
+        }
+
+        private synchronized ByteBuffer slice(long offset, int length) throws IOException {
+            if (offset < 0 || offset + length > buffer.capacity()) {
+                throw new IOException("Access beyond the end of " + path + " at " + offset + ", length " + length);
+            }
+            final ByteBuffer slice = buffer.duplicate();
+            slice.position((int) offset);
+            slice.limit((int) offset + length);
+            return slice;
+        }
+
+        private void write(long offset, byte[] b) throws IOException {
+            checkWritable();
+            slice(offset, b.length).put(b);
+            dirty = true;
+        }
+
+        private void read(long offset, byte[] b) throws IOException {
+            slice(offset, b.length).get(b);
+        }
+
+        private synchronized long length() {
+            return buffer.capacity();
+        }
+
+        private void checkWritable() throws IOException {
+            if (!writable) {
+                throw new IOException("The file " + path + " is not writable.");
+            }
+        }
+
+        private synchronized void sync() {
+            if (!dirty || buffer == null) {
+                return;
+            }
+            // Clear the flag first, so that writes while flushing are flushed again
+            dirty = false;
+            buffer.force();
+            syncs.incrementAndGet();
+        }
+
+        private synchronized void close() throws IOException {
+            sync();
+            unmap(buffer);
+            buffer = null;
+            file.close();
+        }
+    }
+
+    /**
+     * Shares the mapping of a file with the other backends opened for it.
+     */
+    private class MappedRrdBackend extends RrdBackend {
+        private final Mapping mapping;
+        private boolean closed = false;
+
+        private MappedRrdBackend(String path, Mapping mapping) {
+            super(path);
+            this.mapping = mapping;
+        }
+
+        @Override
+        protected void write(long offset, byte[] b) throws IOException {
+            mapping.write(offset, b);
+        }
+
+        @Override
+        protected void read(long offset, byte[] b) throws IOException {
+            mapping.read(offset, b);
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return mapping.length();
+        }
+
+        @Override
+        protected void setLength(long length) throws IOException {
+            mapping.setLength(length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                release(mapping);
+            }
+        }
+    }
+
+    /**
+     * Releases the mapping right away instead of waiting for the buffer to be garbage collected,
+     * since the number of mappings of a process is limited.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            final Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            final Object clean = cleaner.invoke(buffer);
+            if (clean != null) {
+                clean.getClass().getMethod("clean").invoke(clean);
+            }
+        } catch (Exception e) {
+            LOG.debug("Failed to unmap the buffer, it is released when garbage collected.", e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+/**
+ * Exposes the statistics of the pool of mapped RRD files.
+ */
+public interface MappedRrdBackendFactoryMBean {
+
+    /**
+     * @return the maximum number of files kept mapped while not in use
+     */
+    int getCapacity();
+
+    /**
+     * @return the number of files currently mapped
+     */
+    int getMappedFiles();
+
+    /**
+     * @return the number of opens which found the file mapped
+     */
+    long getHits();
+
+    /**
+     * @return the number of opens which mapped the file
+     */
+    long getMisses();
+
+    /**
+     * @return the ratio of opens which found the file mapped
+     */
+    double getHitRate();
+
+    /**
+     * @return the number of files unmapped to keep the pool within its capacity
+     */
+    long getEvictions();
+
+    /**
+     * @return the number of files flushed to the disk
+     */
+    long getSyncs();
+
+    /**
+     * Flushes all modified files to the disk.
+     */
+    void sync();
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Sample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRrdBackendFactoryTest {
+
+    private static final long START = 1500000000L;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private RrdBackendFactory fileFactory;
+
+    private MappedRrdBackendFactory mappedFactory;
+
+    @Before
+    public void setUp() throws RrdException {
+        fileFactory = RrdBackendFactory.getFactory("FILE");
+        mappedFactory = new MappedRrdBackendFactory(2, 0);
+    }
+
+    @After
+    public void tearDown() {
+        mappedFactory.close();
+    }
+
+    @Test
+    public void canWriteSameFilesAsFileBackend() throws Exception {
+        final File expected = createFile("expected.jrb", fileFactory);
+        final File actual = createFile("actual.jrb", mappedFactory);
+
+        for (int i = 1; i <= 100; i++) {
+            update(expected, fileFactory, START + i * 300, i * 1000d);
+            update(actual, mappedFactory, START + i * 300, i * 1000d);
+        }
+        mappedFactory.sync();
+
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+
+        // Files are readable by both backends
+        assertArrayEquals(fetch(expected, fileFactory), fetch(expected, mappedFactory), 0d);
+        assertArrayEquals(fetch(expected, fileFactory), fetch(actual, fileFactory), 0d);
+    }
+
+    @Test
+    public void canEvictLeastRecentlyUsedFiles() throws Exception {
+        final File a = createFile("a.jrb", mappedFactory);
+        final File b = createFile("b.jrb", mappedFactory);
+        final File c = createFile("c.jrb", mappedFactory);
+        assertEquals(3, mappedFactory.getMisses());
+        assertEquals(1, mappedFactory.getEvictions());
+        assertEquals(2, mappedFactory.getMappedFiles());
+
+        // a was evicted
+        update(b, mappedFactory, START + 300, 1d);
+        update(c, mappedFactory, START + 300, 1d);
+        assertEquals(2, mappedFactory.getHits());
+        update(a, mappedFactory, START + 300, 1d);
+        assertEquals(4, mappedFactory.getMisses());
+        assertEquals(2, mappedFactory.getEvictions());
+        assertEquals(2d / 6d, mappedFactory.getHitRate(), 0.0001d);
+
+        // Files in use are not evicted
+        final RrdDb dbA = new RrdDb(a.getAbsolutePath(), mappedFactory);
+        final RrdDb dbB = new RrdDb(b.getAbsolutePath(), mappedFactory);
+        final RrdDb dbC = new RrdDb(c.getAbsolutePath(), mappedFactory);
+        assertEquals(3, mappedFactory.getMappedFiles());
+        dbA.close();
+        dbB.close();
+        dbC.close();
+        assertEquals(2, mappedFactory.getMappedFiles());
+    }
+
+    @Test
+    public void canSyncModifiedFiles() throws Exception {
+        final File a = createFile("a.jrb", mappedFactory);
+        mappedFactory.sync();
+        assertEquals(1, mappedFactory.getSyncs());
+
+        mappedFactory.sync();
+        assertEquals(1, mappedFactory.getSyncs());
+
+        update(a, mappedFactory, START + 300, 1d);
+        mappedFactory.sync();
+        assertEquals(2, mappedFactory.getSyncs());
+    }
+
+    @Test
+    public void canRecreateDeletedFiles() throws Exception {
+        final File expected = createFile("expected.jrb", fileFactory);
+        final File empty = createFile("empty.jrb", fileFactory);
+        final File a = createFile("a.jrb", mappedFactory);
+        update(a, mappedFactory, START + 300, 1d);
+        Files.delete(a.toPath());
+
+        // The pooled mapping of the deleted file must not be reused
+        createFile("a.jrb", mappedFactory);
+        assertTrue(a.exists());
+        assertEquals(2, mappedFactory.getMisses());
+        assertEquals(1, mappedFactory.getMappedFiles());
+        for (int i = 2; i <= 10; i++) {
+            update(expected, fileFactory, START + i * 300, i * 1000d);
+            update(a, mappedFactory, START + i * 300, i * 1000d);
+        }
+        mappedFactory.sync();
+        assertArrayEquals(fetch(expected, fileFactory), fetch(a, fileFactory), 0d);
+
+        // A file replaced while in use is mapped anew, the old mapping is unmapped once closed
+        final RrdDb old = new RrdDb(a.getAbsolutePath(), mappedFactory);
+        Files.delete(a.toPath());
+        createFile("a.jrb", mappedFactory);
+        assertEquals(1, mappedFactory.getMappedFiles());
+        final Sample sample = old.createSample(START + 11 * 300);
+        sample.setValue("ifInOctets", 1d);
+        sample.setValue("ifOutOctets", 1d);
+        sample.update();
+        old.close();
+        assertEquals(1, mappedFactory.getMappedFiles());
+        mappedFactory.sync();
+        assertArrayEquals(fetch(empty, fileFactory), fetch(a, fileFactory), 0d);
+    }
+
+    @Test(expected = IOException.class)
+    public void cannotOpenMissingFilesReadOnly() throws Exception {
+        new RrdDb(new File(tempFolder.getRoot(), "missing.jrb").getAbsolutePath(), true, mappedFactory);
+    }
+
+    private File createFile(String name, RrdBackendFactory factory) throws IOException, RrdException {
+        final File file = new File(tempFolder.getRoot(), name);
+        final RrdDef def = new RrdDef(file.getAbsolutePath(), START, 300);
+        def.addDatasource("ifInOctets", "COUNTER", 600, Double.NaN, Double.NaN);
+        def.addDatasource("ifOutOctets", "COUNTER", 600, Double.NaN, Double.NaN);
+        def.addArchive("RRA:AVERAGE:0.5:1:2016");
+        def.addArchive("RRA:AVERAGE:0.5:12:1488");
+        def.addArchive("RRA:MAX:0.5:288:366");
+        new RrdDb(def, factory).close();
+        return file;
+    }
+
+    private static void update(File file, RrdBackendFactory factory, long timestamp, double value) throws IOException, RrdException {
+        final RrdDb db = new RrdDb(file.getAbsolutePath(), factory);
+        try {
+            final Sample sample = db.createSample(timestamp);
+            sample.setValue("ifInOctets", value);
+            sample.setValue("ifOutOctets", value * 2);
+            sample.update();
+        } finally {
+            db.close();
+        }
+    }
+
+    private static double[] fetch(File file, RrdBackendFactory factory) throws IOException, RrdException {
+        final RrdDb db = new RrdDb(file.getAbsolutePath(), true, factory);
+        try {
+            final FetchData data = db.createFetchRequest("AVERAGE", START, START + 100 * 300).fetchData();
+            return data.getValues("ifOutOctets");
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Sample;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the update throughput of the {@link MappedRrdBackendFactory} with the FILE backend,
+ * on tmpfs (if available at /dev/shm) and on the disk holding the build directory.
+ *
+ * Every update opens the file, updates it and closes it again, as done by the collectors.
+ * The pool is large enough to hold all files, and the files written by both backends must
+ * be identical.
+ */
+public class MappedRrdBackendPerfIT {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackendPerfIT.class);
+
+    private static final int NUM_FILES = 2000;
+    private static final int NUM_ROUNDS = 20;
+    private static final long START = 1500000000L;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder(new File("target"));
+
+    @Test
+    public void compareFileWithMappedBackend() throws Exception {
+        final File shm = new File("/dev/shm");
+        if (shm.isDirectory() && shm.canWrite()) {
+            final TemporaryFolder tmpfs = new TemporaryFolder(shm);
+            tmpfs.create();
+            try {
+                compare("tmpfs", tmpfs.getRoot());
+            } finally {
+                tmpfs.delete();
+            }
+        } else {
+            LOG.info("Skipping tmpfs, /dev/shm is not available.");
+        }
+        compare("disk", tempFolder.getRoot());
+    }
+
+    private void compare(String name, File root) throws Exception {
+        final File fileDir = new File(root, "file");
+        final File mappedDir = new File(root, "mapped");
+
+        final MappedRrdBackendFactory mappedFactory = new MappedRrdBackendFactory(NUM_FILES, 300);
+        try {
+            final double fileRate = run(fileDir, RrdBackendFactory.getFactory("FILE"));
+            final double mappedRate = run(mappedDir, mappedFactory);
+            mappedFactory.sync();
+            LOG.info("{}: FILE={} updates/s, MMAP={} updates/s, speedup={}, hit rate={}, evictions={}",
+                    name, (long) fileRate, (long) mappedRate, String.format("%.2f", mappedRate / fileRate),
+                    String.format("%.4f", mappedFactory.getHitRate()), mappedFactory.getEvictions());
+        } finally {
+            mappedFactory.close();
+        }
+
+        for (int f = 0; f < NUM_FILES; f++) {
+            assertArrayEquals(Files.readAllBytes(new File(fileDir, f + ".jrb").toPath()),
+                    Files.readAllBytes(new File(mappedDir, f + ".jrb").toPath()));
+        }
+    }
+
+    private static double run(File dir, RrdBackendFactory factory) throws IOException, RrdException {
+        dir.mkdirs();
+        for (int f = 0; f < NUM_FILES; f++) {
+            final RrdDef def = new RrdDef(new File(dir, f + ".jrb").getAbsolutePath(), START, 300);
+            def.addDatasource("ifHCInOctets", "COUNTER", 600, Double.NaN, Double.NaN);
+            def.addDatasource("ifHCOutOctets", "COUNTER", 600, Double.NaN, Double.NaN);
+            def.addDatasource("ifInErrors", "COUNTER", 600, Double.NaN, Double.NaN);
+            def.addDatasource("ifOutErrors", "COUNTER", 600, Double.NaN, Double.NaN);
+            for (String cf : new String[] { "AVERAGE", "MIN", "MAX" }) {
+                def.addArchive("RRA:" + cf + ":0.5:1:2016");
+                def.addArchive("RRA:" + cf + ":0.5:12:1488");
+                def.addArchive("RRA:" + cf + ":0.5:288:366");
+            }
+            new RrdDb(def, factory).close();
+        }
+
+        final long start = System.nanoTime();
+        for (int r = 1; r <= NUM_ROUNDS; r++) {
+            for (int f = 0; f < NUM_FILES; f++) {
+                final RrdDb db = new RrdDb(new File(dir, f + ".jrb").getAbsolutePath(), factory);
+                try {
+                    final Sample sample = db.createSample(START + r * 300);
+                    sample.setValue("ifHCInOctets", r * 1000d * f);
+                    sample.setValue("ifHCOutOctets", r * 2000d * f);
+                    sample.setValue("ifInErrors", r);
+                    sample.setValue("ifOutErrors", r * 2);
+                    sample.update();
+                } finally {
+                    db.close();
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        return (long) NUM_FILES * NUM_ROUNDS * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
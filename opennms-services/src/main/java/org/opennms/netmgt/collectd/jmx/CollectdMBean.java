@@ -86,4 +86,19 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of pending tasks
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of collection tasks waiting for their next run
+     */
+    public long getScheduledTaskCount();
+
+    /**
+     * @return The mean delay in milliseconds between the scheduled and the actual start of the collection tasks
+     */
+    public double getMeanTaskLateness();
+
+    /**
+     * @return The maximum delay in milliseconds between the scheduled and the actual start of the collection tasks
+     */
+    public long getMaxTaskLateness();
 }
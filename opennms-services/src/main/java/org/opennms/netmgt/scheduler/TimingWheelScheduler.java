@@ -0,0 +1,628 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * A {@link Scheduler} backed by a hierarchical timing wheel.
+ *
+ * Time is divided in ticks of a fixed duration. The wheel consists of a
+ * number of levels, each of them an array of slots holding a linked list of
+ * tasks. A slot of the first level covers a single tick, a slot of every
+ * following level covers a whole rotation of the level below it. Scheduling
+ * a task prepends it to the slot of its deadline on the lowest level that
+ * can hold it, and every tick expires the tasks of a single slot, so both
+ * are O(1). When the lower levels complete a rotation, the tasks of the next
+ * slot on the level above are cascaded down. Deadlines beyond the last level
+ * are parked in its farthest slot and re-inserted when it is reached.
+ *
+ * Tasks are handed to the wheel through a lock-free queue and only the
+ * worker thread touches the slots. Expired tasks that are not ready yet are
+ * checked again after {@link #NOT_READY_DELAY} milliseconds, as the
+ * {@link LegacyScheduler} does when none of its tasks are ready. A task that
+ * throws {@link PostponeNecessary} is retried after 5 to 14 seconds, the same
+ * way {@link Schedule} retries the tasks it wraps.
+ *
+ * The first time a runnable is scheduled with an interval of at least the
+ * spread threshold, it is given an initial offset: it runs on the first
+ * occurrence of a phase derived from its identity within one interval from
+ * now, so it never waits longer than requested. Tasks that were scheduled at the same time are thus
+ * distributed evenly over the interval instead of firing all at once. All
+ * later schedules of the runnable honour the requested delay exactly, so a
+ * task that reschedules itself keeps the offset it was given.
+ *
+ * The lateness of every task, measured between its deadline and the moment
+ * a thread of the pool starts to run it, as well as the number of tasks in
+ * the wheel and waiting for a thread are available for monitoring.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * The default duration of a tick in milliseconds.
+     */
+    public static final long DEFAULT_TICK_DURATION = 50;
+
+    /**
+     * The default number of slots per level.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * The default minimum interval in milliseconds for which tasks are
+     * given an initial offset. This is above the 5 to 14 seconds used to
+     * postpone tasks, so postponing a task does not use up its offset.
+     */
+    public static final long DEFAULT_SPREAD_THRESHOLD = 30000;
+
+    /**
+     * The delay in milliseconds after which an expired task that was not
+     * ready is checked again.
+     */
+    public static final long NOT_READY_DELAY = 1000;
+
+    private static final int LEVELS = 3;
+
+    private static final Random random = new Random();
+
+    private static final class Task {
+        private final ReadyRunnable m_runnable;
+        private long m_deadline;
+        private long m_tick;
+        private Task m_next;
+
+        private Task(final ReadyRunnable runnable) {
+            m_runnable = runnable;
+        }
+    }
+
+    private final class ExpiredTask implements Runnable {
+        private final Task m_task;
+
+        private ExpiredTask(final Task task) {
+            m_task = task;
+        }
+
+        @Override
+        public void run() {
+            recordLateness(System.nanoTime() - m_task.m_deadline);
+            try {
+                m_task.m_runnable.run();
+            } catch (PostponeNecessary e) {
+                LOG.debug("run: postponing {}: {}", m_task.m_runnable, e.getMessage());
+                m_numTasksPostponed.incrementAndGet();
+                schedule(random.nextInt(10) * 1000L + 5000L, m_task.m_runnable);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return m_task.m_runnable.toString();
+        }
+    }
+
+    private final long m_tickNanos;
+
+    private final int m_wheelBits;
+
+    private final long m_wheelMask;
+
+    private final long m_spreadThreshold;
+
+    /**
+     * The runnables that were already given an initial offset, compared by
+     * identity.
+     */
+    private final Set<ReadyRunnable> m_spread = Collections.newSetFromMap(new MapMaker().weakKeys().<ReadyRunnable, Boolean>makeMap());
+
+    /**
+     * The heads of the task lists, indexed by level and slot. Only accessed
+     * by the worker thread.
+     */
+    private final Task[][] m_wheel;
+
+    /**
+     * The last tick that was processed. Only accessed by the worker thread.
+     */
+    private long m_tick;
+
+    private final long m_startNanos;
+
+    /**
+     * Tasks scheduled since the last tick that have not been put into the
+     * wheel yet.
+     */
+    private final ConcurrentLinkedQueue<Task> m_incoming = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The total number of tasks currently scheduled, either in the wheel or
+     * waiting to be put into it.
+     */
+    private final AtomicInteger m_scheduled = new AtomicInteger();
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    /**
+     * The status for this fiber.
+     */
+    private volatile int m_status;
+
+    /**
+     * The worker thread that executes this instance.
+     */
+    private volatile Thread m_worker;
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong();
+
+    private final AtomicLong m_numTasksPostponed = new AtomicLong();
+
+    private final AtomicLong m_numTasksStarted = new AtomicLong();
+
+    private final AtomicLong m_totalLateness = new AtomicLong();
+
+    private final AtomicLong m_maxLateness = new AtomicLong();
+
+    /**
+     * Constructs a new instance of the scheduler using the default tick
+     * duration, wheel size and spread threshold.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, DEFAULT_SPREAD_THRESHOLD);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickDuration
+     *            The duration of a tick in milliseconds.
+     * @param wheelSize
+     *            The number of slots per level, rounded up to a power of two.
+     * @param spreadThreshold
+     *            The minimum interval in milliseconds for which tasks are
+     *            given an initial offset, or 0 to disable the spreading.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickDuration, final int wheelSize, final long spreadThreshold) {
+        Assert.isTrue(tickDuration > 0, "The tick duration must be positive");
+        Assert.isTrue(wheelSize > 1 && wheelSize <= (1 << 20), "The wheel size must be between 2 and 2^20");
+
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        m_wheelBits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        m_wheelMask = (1L << m_wheelBits) - 1;
+        m_spreadThreshold = spreadThreshold;
+        m_wheel = new Task[LEVELS][1 << m_wheelBits];
+        m_startNanos = System.nanoTime();
+        m_tick = 0;
+        m_worker = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+
+        final long now = System.nanoTime();
+        final Task task = new Task(runnable);
+        task.m_deadline = now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, getDelay(interval, runnable, now)));
+        task.m_tick = toTick(task.m_deadline);
+
+        m_scheduled.incrementAndGet();
+        m_incoming.add(task);
+    }
+
+    /**
+     * Returns the delay in milliseconds after which the runnable is run. If
+     * the runnable is given its initial offset, this is the first time
+     * within one interval from now at which the time since the
+     * start of the scheduler modulo the interval equals the phase of the
+     * runnable. Otherwise, it is the requested interval.
+     */
+    long getDelay(final long interval, final ReadyRunnable runnable, final long now) {
+        if (m_spreadThreshold <= 0 || interval < m_spreadThreshold || !m_spread.add(runnable)) {
+            return interval;
+        }
+
+        // Spread the identity hash codes, which tend to be close to each other
+        long hash = System.identityHashCode(runnable) * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        final long phase = Math.floorMod(hash, interval);
+
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(now - m_startNanos);
+        return Math.floorMod(phase - elapsed, interval);
+    }
+
+    /**
+     * Returns the first tick at or after the given time, so tasks never run
+     * before their deadline.
+     */
+    private long toTick(final long nanos) {
+        final long elapsed = nanos - m_startNanos;
+        return elapsed <= 0 ? 0 : (elapsed + m_tickNanos - 1) / m_tickNanos;
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of tasks in the wheel, including the expired tasks
+     *         that were not ready yet
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the number of expired tasks waiting for a thread of the pool.
+     *
+     * @return the length of the queue of the thread pool
+     */
+    public int getPending() {
+        return m_runner instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)m_runner).getQueue().size() : 0;
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * Returns the number of times a task was not ready when it expired or
+     * threw a {@link PostponeNecessary}.
+     *
+     * @return the number of postponed runs
+     */
+    public long getNumTasksPostponed() {
+        return m_numTasksPostponed.get();
+    }
+
+    /**
+     * Returns the mean lateness of the tasks that were run.
+     *
+     * @return the mean lateness in milliseconds
+     */
+    public double getMeanLateness() {
+        final long started = m_numTasksStarted.get();
+        return started > 0 ? m_totalLateness.get() / (double)started / TimeUnit.MILLISECONDS.toNanos(1) : 0.0;
+    }
+
+    /**
+     * Returns the maximum lateness of the tasks that were run.
+     *
+     * @return the maximum lateness in milliseconds
+     */
+    public long getMaxLateness() {
+        return TimeUnit.NANOSECONDS.toMillis(m_maxLateness.get());
+    }
+
+    private void recordLateness(final long lateness) {
+        m_numTasksStarted.incrementAndGet();
+        if (lateness > 0) {
+            m_totalLateness.addAndGet(lateness);
+            m_maxLateness.accumulateAndGet(lateness, Math::max);
+        }
+    }
+
+    /**
+     * The main method of the scheduler. This method advances the wheel one
+     * tick at a time and enqueues the expired tasks into the thread pool for
+     * execution.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        try {
+            for (;;) {
+                synchronized (this) {
+                    if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                        LOG.debug("run: status = {}, time to exit", m_status);
+                        break;
+                    }
+
+                    // if paused or pause pending then block
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    // if resume pending then change to running
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+                }
+
+                // Put the new tasks into the wheel and catch up with the clock
+                final long now = (System.nanoTime() - m_startNanos) / m_tickNanos;
+                Task task;
+                while ((task = m_incoming.poll()) != null) {
+                    insert(task);
+                }
+                while (m_tick < now) {
+                    advance(++m_tick);
+                }
+
+                // Sleep until the next tick
+                final long sleep = m_startNanos + (m_tick + 1) * m_tickNanos - System.nanoTime();
+                if (sleep > 0) {
+                    synchronized (this) {
+                        TimeUnit.NANOSECONDS.timedWait(this, sleep);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("run: interrupted");
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Puts the task into the lowest level whose range covers its deadline, or
+     * runs it right away if its deadline was already reached.
+     */
+    private void insert(final Task task) {
+        if (task.m_tick <= m_tick) {
+            expire(task);
+            return;
+        }
+
+        if (task.m_tick - m_tick <= m_wheelMask) {
+            add(0, task.m_tick & m_wheelMask, task);
+            return;
+        }
+
+        for (int level = 1; level < LEVELS; level++) {
+            final int shift = level * m_wheelBits;
+            if ((task.m_tick >>> shift) - (m_tick >>> shift) <= m_wheelMask) {
+                add(level, (task.m_tick >>> shift) & m_wheelMask, task);
+                return;
+            }
+        }
+
+        // Beyond the range of the wheel: park the task in the farthest slot
+        final int shift = (LEVELS - 1) * m_wheelBits;
+        add(LEVELS - 1, ((m_tick >>> shift) + m_wheelMask) & m_wheelMask, task);
+    }
+
+    private void add(final int level, final long slot, final Task task) {
+        task.m_next = m_wheel[level][(int)slot];
+        m_wheel[level][(int)slot] = task;
+    }
+
+    private Task take(final int level, final long slot) {
+        final Task head = m_wheel[level][(int)slot];
+        m_wheel[level][(int)slot] = null;
+        return head;
+    }
+
+    /**
+     * Processes the given tick: cascades the slots of the upper levels whose
+     * turn has come, starting at the highest one, and expires the tasks of
+     * the slot of the lowest level.
+     */
+    private void advance(final long tick) {
+        for (int level = LEVELS - 1; level > 0; level--) {
+            final int shift = level * m_wheelBits;
+            if ((tick & ((1L << shift) - 1)) == 0) {
+                Task task = take(level, (tick >>> shift) & m_wheelMask);
+                while (task != null) {
+                    final Task next = task.m_next;
+                    insert(task);
+                    task = next;
+                }
+            }
+        }
+
+        Task task = take(0, tick & m_wheelMask);
+        while (task != null) {
+            final Task next = task.m_next;
+            expire(task);
+            task = next;
+        }
+    }
+
+    private void expire(final Task task) {
+        task.m_next = null;
+
+        final boolean ready;
+        try {
+            ready = task.m_runnable.isReady();
+        } catch (RuntimeException e) {
+            LOG.warn("run: failed to check if {} is ready, dropping it", task.m_runnable, e);
+            m_scheduled.decrementAndGet();
+            return;
+        }
+
+        if (!ready) {
+            m_numTasksPostponed.incrementAndGet();
+            task.m_deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(NOT_READY_DELAY);
+            task.m_tick = toTick(task.m_deadline);
+            insert(task);
+            return;
+        }
+
+        LOG.debug("run: found ready runnable {}", task.m_runnable);
+        m_scheduled.decrementAndGet();
+        try {
+            m_runner.execute(new ExpiredTask(task));
+            m_numTasksExecuted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            LOG.debug("run: thread pool rejected {}, the scheduler is stopping", task.m_runnable);
+        }
+    }
+}
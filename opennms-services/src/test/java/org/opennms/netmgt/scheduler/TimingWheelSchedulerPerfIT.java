@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the {@link TimingWheelScheduler} with the {@link LegacyScheduler}
+ * at the scale of a million scheduled tasks.
+ *
+ * Each run schedules the tasks from several threads, spread over a handful
+ * of intervals as collectd does with its packages, and waits until all of
+ * them ran once. The tasks do no work, so the results reflect the cost of
+ * the scheduling itself: the rate at which tasks are scheduled and the
+ * lateness of the tasks.
+ */
+public class TimingWheelSchedulerPerfIT {
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelSchedulerPerfIT.class);
+
+    private static final int NUM_TASKS = 1000000;
+    private static final int NUM_PRODUCERS = 4;
+    private static final long[] INTERVALS = new long[] { 1000, 2000, 3000, 4000, 5000 };
+    private static final int NUM_THREADS = 8;
+
+    private static class Stats {
+        private final CountDownLatch latch = new CountDownLatch(NUM_TASKS);
+        private final LongAdder lateness = new LongAdder();
+        private final AtomicLong maxLateness = new AtomicLong();
+    }
+
+    private static class Task implements ReadyRunnable {
+        private final Stats m_stats;
+        private final long m_deadline;
+
+        private Task(final Stats stats, final long interval) {
+            m_stats = stats;
+            m_deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            final long lateness = Math.max(0, System.nanoTime() - m_deadline);
+            m_stats.lateness.add(lateness);
+            m_stats.maxLateness.accumulateAndGet(lateness, Math::max);
+            m_stats.latch.countDown();
+        }
+    }
+
+    @Test
+    public void compareTimingWheelWithLegacyScheduler() throws Exception {
+        // warm up
+        run("warm-up", new TimingWheelScheduler("Warmup", NUM_THREADS, 10, 512, 0));
+
+        run("legacy", new LegacyScheduler("Legacy", NUM_THREADS));
+        final TimingWheelScheduler scheduler = new TimingWheelScheduler("TimingWheel", NUM_THREADS, 10, 512, 0);
+        run("timing wheel", scheduler);
+        LOG.info("timing wheel: mean lateness reported by the scheduler={}ms, max={}ms",
+                String.format("%.1f", scheduler.getMeanLateness()), scheduler.getMaxLateness());
+    }
+
+    @Test
+    public void spreadTasksSharingAnInterval() {
+        final long interval = 300000;
+        final TimingWheelScheduler scheduler = new TimingWheelScheduler("Spread", 1);
+        try {
+            // Count the tasks per second of the interval when all of them are scheduled at once
+            final int[] perSecond = new int[(int)TimeUnit.MILLISECONDS.toSeconds(interval)];
+            final long now = System.nanoTime();
+            for (int i = 0; i < NUM_TASKS; i++) {
+                final long delay = scheduler.getDelay(interval, new Task(null, 0), now);
+                perSecond[(int)TimeUnit.MILLISECONDS.toSeconds(delay)]++;
+            }
+
+            int max = 0;
+            for (int count : perSecond) {
+                max = Math.max(max, count);
+            }
+            LOG.info("spreading {} tasks with an interval of {}s: max tasks per second={} (without spreading={}), ideal={}",
+                    NUM_TASKS, TimeUnit.MILLISECONDS.toSeconds(interval), max, NUM_TASKS, NUM_TASKS / TimeUnit.MILLISECONDS.toSeconds(interval));
+            assertTrue(max < 2 * NUM_TASKS / TimeUnit.MILLISECONDS.toSeconds(interval));
+        } finally {
+            scheduler.getRunner().shutdown();
+        }
+    }
+
+    private static void run(final String name, final Scheduler scheduler) throws Exception {
+        final Stats stats = new Stats();
+        scheduler.start();
+        try {
+            final Thread[] producers = new Thread[NUM_PRODUCERS];
+            final long start = System.nanoTime();
+            for (int p = 0; p < NUM_PRODUCERS; p++) {
+                final int producer = p;
+                producers[p] = new Thread(() -> {
+                    for (int i = producer; i < NUM_TASKS; i += NUM_PRODUCERS) {
+                        final long interval = INTERVALS[i % INTERVALS.length];
+                        scheduler.schedule(interval, new Task(stats, interval));
+                    }
+                });
+                producers[p].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            final long scheduled = System.nanoTime() - start;
+
+            assertTrue(stats.latch.await(5, TimeUnit.MINUTES));
+            final long elapsed = System.nanoTime() - start;
+
+            LOG.info("{}: scheduled {} tasks at {} tasks/s, all ran after {}ms, mean lateness={}ms, max lateness={}ms",
+                    name, NUM_TASKS, (long)(NUM_TASKS * (double)TimeUnit.SECONDS.toNanos(1) / scheduled),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    String.format("%.1f", stats.lateness.sum() / (double)NUM_TASKS / TimeUnit.MILLISECONDS.toNanos(1)),
+                    TimeUnit.NANOSECONDS.toMillis(stats.maxLateness.get()));
+        } finally {
+            scheduler.stop();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.core.fiber.PausableFiber;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    private static class TimedRunnable implements ReadyRunnable {
+        private final long m_scheduledAt = System.nanoTime();
+        private final CountDownLatch m_latch;
+        private volatile long m_delay = -1;
+
+        private TimedRunnable(final CountDownLatch latch) {
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_delay = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_scheduledAt);
+            m_latch.countDown();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (m_scheduler == null) {
+            return;
+        }
+        if (m_scheduler.getStatus() == Fiber.START_PENDING) {
+            m_scheduler.getRunner().shutdown();
+        } else if (m_scheduler.getStatus() != Fiber.STOPPED) {
+            m_scheduler.stop();
+        }
+    }
+
+    @Test
+    public void canRunTasksOnEveryLevel() throws Exception {
+        // A level spans 4 ticks, so the wheel covers 64ms and everything
+        // above has to be cascaded, or parked and re-inserted
+        m_scheduler = new TimingWheelScheduler("Test", 4, 1, 4, 0);
+        m_scheduler.start();
+
+        final long[] delays = new long[] { 0, 2, 7, 30, 63, 150, 400 };
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final List<TimedRunnable> runnables = new ArrayList<>();
+        for (long delay : delays) {
+            final TimedRunnable runnable = new TimedRunnable(latch);
+            runnables.add(runnable);
+            m_scheduler.schedule(delay, runnable);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue("task scheduled in " + delays[i] + "ms ran after " + runnables.get(i).m_delay + "ms",
+                    runnables.get(i).m_delay >= delays[i]);
+        }
+        assertEquals(delays.length, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+        assertTrue(m_scheduler.getMaxLateness() >= 0);
+    }
+
+    @Test
+    public void canRunTasksInOrderOfTheirDeadline() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 1, 8, 0);
+        m_scheduler.start();
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(5);
+        for (int i = 5; i > 0; i--) {
+            final int index = i;
+            m_scheduler.schedule(index * 40, new ReadyRunnable() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void run() {
+                    order.add(index);
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), order);
+    }
+
+    @Test
+    public void canRecheckTasksThatAreNotReady() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 64, 0);
+        m_scheduler.start();
+
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        final AtomicInteger checks = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                checks.incrementAndGet();
+                return ready.get();
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(waitFor(() -> checks.get() > 0));
+        assertEquals(1, m_scheduler.getScheduled());
+        assertEquals(0, m_scheduler.getNumTasksExecuted());
+
+        ready.set(true);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, m_scheduler.getScheduled());
+        assertTrue(m_scheduler.getNumTasksPostponed() > 0);
+    }
+
+    @Test
+    public void canPostponeTasks() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 64, 0);
+        m_scheduler.start();
+
+        final AtomicInteger runs = new AtomicInteger();
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                throw new PostponeNecessary("locked");
+            }
+        });
+
+        assertTrue(waitFor(() -> m_scheduler.getNumTasksPostponed() == 1));
+        assertEquals(1, runs.get());
+        // Retried after 5 to 14 seconds
+        assertEquals(1, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void canSpreadTasksOverTheirInterval() {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 64, 30000);
+
+        final long interval = 300000;
+        final int[] buckets = new int[10];
+        final long now = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            final ReadyRunnable runnable = new TimedRunnable(new CountDownLatch(1));
+            final long delay = m_scheduler.getDelay(interval, runnable, now);
+            // Never later than requested
+            assertTrue(delay >= 0 && delay < interval);
+            buckets[(int)(delay * buckets.length / interval)]++;
+
+            // Later schedules honour the requested delay, whatever it is
+            assertEquals(interval, m_scheduler.getDelay(interval, runnable, now + TimeUnit.MILLISECONDS.toNanos(delay)));
+            assertEquals(interval - 1234, m_scheduler.getDelay(interval - 1234, runnable, now + TimeUnit.MILLISECONDS.toNanos(delay + interval)));
+        }
+        for (int bucket : buckets) {
+            assertTrue("bucket with " + bucket + " tasks", bucket > 700 && bucket < 1300);
+        }
+
+        // Short intervals, like the ones used to postpone tasks, are kept
+        final ReadyRunnable postponed = new TimedRunnable(new CountDownLatch(1));
+        assertEquals(10000, m_scheduler.getDelay(10000, postponed, now));
+        // and do not use up the initial offset
+        assertTrue(m_scheduler.getDelay(interval, postponed, now) < interval);
+    }
+
+    @Test
+    public void canPauseAndResume() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 1, 64, 0);
+        assertEquals(Fiber.START_PENDING, m_scheduler.getStatus());
+        m_scheduler.start();
+        assertTrue(waitFor(() -> m_scheduler.getStatus() == Fiber.RUNNING));
+
+        m_scheduler.pause();
+        assertTrue(waitFor(() -> m_scheduler.getStatus() == PausableFiber.PAUSED));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new TimedRunnable(latch));
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+
+        m_scheduler.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        m_scheduler.stop();
+        assertTrue(waitFor(() -> m_scheduler.getStatus() == Fiber.STOPPED));
+    }
+
+    private static boolean waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}